@@ -19,8 +19,11 @@
  */
 package it.bancaditalia.oss.vtl.environment;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 
@@ -47,6 +50,27 @@ public interface Environment
 	 */
 	public Optional<VTLValue> getValue(String name);
 
+	/**
+	 * Returns an {@link Optional} reference to a VTL object with the specified name in this environment, 
+	 * allowing the environment to skip data that the caller is not going to use.
+	 * The returned object must have the same structure of the whole object, but the environment may:
+	 * <ul>
+	 * <li>omit datapoints whose identifiers do not have the specified values;</li>
+	 * <li>return null values for the components that are not in the specified set.</li>
+	 * </ul>
+	 * The caller is responsible for filtering the returned datapoints and discarding unused components; 
+	 * the default implementation just returns the whole object.
+	 * 
+	 * @param name The name of requested object.
+	 * @param keyValues Values of some identifiers that the requested datapoints must have.
+	 * @param components Names of the components that will be used by the caller.
+	 * @return An Optional with a reference to the requested object o {@link Optional#empty()} if the object is not found in this environment.
+	 */
+	public default Optional<VTLValue> getValue(String name, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		return getValue(name);
+	}
+
 	/**
 	 * Returns an {@link Optional} reference to the metadata of a VTL object with the specified name in this environment.
 	 * 
@@ -58,6 +82,19 @@ public interface Environment
 		return getValue(name).map(VTLValue::getMetadata);
 	}
 	
+	/**
+	 * Returns a fingerprint of the current content of a VTL object in this environment, if the environment is able 
+	 * to tell when the object changes. A session may use the fingerprint to reuse a stored snapshot of the object 
+	 * instead of retrieving it again, as long as the fingerprint does not change.
+	 * 
+	 * @param name The name of requested object
+	 * @return An Optional with the fingerprint, or {@link Optional#empty()} if the object is not found or if it should not be stored.
+	 */
+	public default Optional<String> getFingerprint(String name)
+	{
+		return Optional.empty();
+	}
+	
 	/**
 	 * Implementing classes may override this method if they need to use a particular initialization procedure.
 	 * 
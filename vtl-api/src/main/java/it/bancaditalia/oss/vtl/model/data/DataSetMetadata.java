@@ -88,6 +88,15 @@ public interface DataSetMetadata extends Set<DataStructureComponent<?, ?, ?>>, V
 	 */
 	public Optional<DataStructureComponent<?, ?, ?>> getComponent(String name);
 
+	/**
+	 * Returns the fixed slot index assigned by this {@link DataSetMetadata} to the specified component.
+	 * Identifiers are assigned the lowest indexes, followed by all the other components.
+	 * 
+	 * @param component the component to query
+	 * @return the slot index of the component, or -1 if the component is not part of this {@link DataSetMetadata}.
+	 */
+	public int indexOf(DataStructureComponent<?, ?, ?> component);
+
 	/**
 	 * Queries this {@link DataSetMetadata} for a component with the specified name and value domain.
 	 * 
@@ -0,0 +1,41 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.model.transform;
+
+/**
+ * A {@link Transformation} standing for an expression that occurs more than once in the rules 
+ * known to an engine. When evaluated, it asks the {@link TransformationScheme} to 
+ * {@link TransformationScheme#resolveShared(String, Transformation) resolve} the shared expression, 
+ * so that the scheme may compute it only once.
+ * 
+ * Code inspecting the structure of an expression should look through the shared expression.
+ */
+public interface SharedTransformation extends Transformation
+{
+	/**
+	 * @return A name identifying the shared expression.
+	 */
+	public String getAlias();
+	
+	/**
+	 * @return The shared expression.
+	 */
+	public Transformation getExpression();
+}
@@ -19,9 +19,14 @@
  */
 package it.bancaditalia.oss.vtl.model.transform;
 
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
 import it.bancaditalia.oss.vtl.engine.Statement;
 import it.bancaditalia.oss.vtl.exceptions.VTLUnboundNameException;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.session.MetadataRepository;
@@ -81,7 +86,53 @@ public interface TransformationScheme
 	{
 		return expected.cast(resolve(alias));
 	}
+
+	/**
+	 * Retrieves a value, referred by an alias defined in this TransformationScheme, telling the scheme that 
+	 * only the datapoints with the given identifier values and only the given components will be used.
+	 * The returned value has the same structure as {@code resolve(alias)}, but it may contain 
+	 * datapoints not matching the given values, and null values for the unused components.
+	 * The default implementation ignores the hints and returns {@code resolve(alias)}.
+	 * 
+	 * @param alias The alias whose value is to be retrieved.
+	 * @param keyValues Values of some identifiers that the used datapoints have.
+	 * @param components Names of the components that are used.
+	 * @return The {@link VTLValue} if the alias is found.
+	 * @throws VTLUnboundNameException if the alias is not defined.
+	 */
+	public default VTLValue resolve(String alias, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		return resolve(alias);
+	}
+
+	/**
+	 * Evaluates an expression that occurs in more than one rule. 
+	 * Schemes that cache values may compute it only once and reuse the result; 
+	 * the default implementation just evaluates the expression in this scheme.
+	 * 
+	 * @param alias A name identifying the shared expression
+	 * @param expression The shared expression
+	 * @return The value of the expression
+	 */
+	public default VTLValue resolveShared(String alias, Transformation expression)
+	{
+		return expression.eval(this);
+	}
 	
+	/**
+	 * Retrieves the metadata of a transformation evaluated in this scheme. 
+	 * Schemes may store the metadata computed while compiling the statements, so that it is never computed again 
+	 * during evaluation; the default implementation always computes it.
+	 * 
+	 * @param node The transformation whose metadata is to be retrieved
+	 * @param computer A supplier computing the metadata of the transformation in the scope where it is evaluated
+	 * @return The metadata of the transformation
+	 */
+	public default VTLValueMetadata getMetadata(Transformation node, Supplier<? extends VTLValueMetadata> computer)
+	{
+		return computer.get();
+	}
+
 	/**
 	 * Checks if this transformation scheme is nested inside another one and return it.
 	 * 
@@ -19,15 +19,22 @@
  */
 package it.bancaditalia.oss.vtl.session;
 
+import static java.util.stream.Collectors.toList;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import it.bancaditalia.oss.vtl.engine.Engine;
+import it.bancaditalia.oss.vtl.engine.Statement;
 import it.bancaditalia.oss.vtl.environment.Workspace;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
@@ -38,7 +45,7 @@ import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
  * @author Valentino Pinna
  *
  */
-public interface VTLSession extends TransformationScheme
+public interface VTLSession extends TransformationScheme, AutoCloseable
 {
 	/**
 	 * @return the computing {@link Engine} used by this session
@@ -93,4 +100,28 @@ public interface VTLSession extends TransformationScheme
 	 * @return a {@link List} of {@link VTLValueMetadata} instances, describing a VTL object each.
 	 */
 	public List<VTLValueMetadata> compile();
+
+	/**
+	 * Computes the values of the given rules. Implementations may evaluate rules that do not depend on each other 
+	 * concurrently, and may release the results of the rules that are not requested as soon as all the rules 
+	 * depending on them have been computed.
+	 * 
+	 * @param names the names of the rules to compute; if empty, all the rules in this session are computed
+	 * @return a {@link Map} from each requested name to its value, in the same order as the names.
+	 */
+	public default Map<String, VTLValue> resolveAll(Collection<String> names)
+	{
+		Collection<String> toResolve = names.isEmpty() ? getWorkspace().getRules().stream().map(Statement::getId).collect(toList()) : names;
+		Map<String, VTLValue> result = new LinkedHashMap<>();
+		for (String name: toResolve)
+			result.put(name, resolve(name));
+		return result;
+	}
+
+	/**
+	 * Releases all the data cached by this session. 
+	 * The session may still be used afterwards, but previously computed values will be computed again.
+	 */
+	@Override
+	public void close();
 }
\ No newline at end of file
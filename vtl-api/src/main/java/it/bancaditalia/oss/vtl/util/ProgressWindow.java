@@ -25,6 +25,7 @@ import static java.util.function.UnaryOperator.identity;
 import static javax.swing.WindowConstants.DISPOSE_ON_CLOSE;
 
 import java.awt.BorderLayout;
+import java.awt.GraphicsEnvironment;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.util.Collection;
@@ -79,7 +80,7 @@ public class ProgressWindow
 
 	private ProgressWindow(String title, long maxValue)
 	{
-		if (maxValue > 1000)
+		if (maxValue > 1000 && !GraphicsEnvironment.isHeadless())
 		{
 			window = new JFrame();
 			JProgressBar progressBar = new JProgressBar();
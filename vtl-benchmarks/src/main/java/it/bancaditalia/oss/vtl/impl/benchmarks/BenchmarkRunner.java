@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks accepting the same command line options as the JMH launcher, 
+ * but writing the results in JSON format to {@code vtl-benchmarks.json} 
+ * unless another format or file are specified.
+ */
+public class BenchmarkRunner
+{
+	public static final String DEFAULT_RESULT_FILE = "vtl-benchmarks.json";
+	
+	public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException
+	{
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if (cmdOptions.shouldHelp())
+		{
+			cmdOptions.showHelp();
+			return;
+		}
+		
+		if (cmdOptions.shouldList())
+		{
+			new Runner(cmdOptions).list();
+			return;
+		}
+		
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions);
+		if (!cmdOptions.getResultFormat().hasValue())
+			builder.resultFormat(ResultFormatType.JSON);
+		if (!cmdOptions.getResult().hasValue())
+			builder.result(DEFAULT_RESULT_FILE);
+		
+		new Runner(builder.build()).run();
+	}
+	
+	private BenchmarkRunner()
+	{
+		
+	}
+}
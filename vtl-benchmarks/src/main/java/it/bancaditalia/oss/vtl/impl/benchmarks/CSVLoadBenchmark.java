@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.counting;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.bancaditalia.oss.vtl.impl.environment.CSVFileEnvironment;
+import it.bancaditalia.oss.vtl.impl.session.SnapshotStore;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+
+/**
+ * Measures the loading of a synthetic dataset from a CSV file through {@link CSVFileEnvironment}, 
+ * and from a stored snapshot of the same file through {@link SnapshotStore}.
+ * The {@code loadPushdown} variant only reads the rows with one value of the first identifier 
+ * and one of the measures, as in {@code ds[sub id_1 = 0][keep m_1]}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CSVLoadBenchmark
+{
+	@Param("100000")
+	public int rows;
+	
+	@Param("3")
+	public int identifiers;
+	
+	@Param("10")
+	public int cardinality;
+	
+	@Param("number,integer,string,boolean,date")
+	public String measures;
+	
+	private Path file;
+	private Path snapshotDirectory;
+	private SnapshotStore snapshots;
+	private String fingerprint;
+	private DataSetMetadata structure;
+
+	@Setup(Level.Trial)
+	public void writeFile() throws IOException
+	{
+		file = Files.createTempFile("vtl-benchmark", ".csv").toAbsolutePath();
+		new SyntheticDataSet(rows, identifiers, cardinality, measures, "m", 1).writeCSV(file);
+		
+		CSVFileEnvironment environment = new CSVFileEnvironment();
+		DataSet dataset = (DataSet) environment.getValue("csv:" + file).get();
+		snapshotDirectory = Files.createTempDirectory("vtl-benchmark");
+		snapshots = new SnapshotStore(snapshotDirectory);
+		fingerprint = environment.getFingerprint("csv:" + file).get();
+		structure = dataset.getMetadata();
+		if (!snapshots.store("csv:" + file, fingerprint, dataset))
+			throw new IllegalStateException("Snapshot not stored");
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteFile() throws IOException
+	{
+		Files.deleteIfExists(file);
+		try (Stream<Path> files = Files.list(snapshotDirectory))
+		{
+			for (Path snapshot: (Iterable<Path>) files::iterator)
+				Files.delete(snapshot);
+		}
+		Files.delete(snapshotDirectory);
+	}
+
+	@Benchmark
+	public long load()
+	{
+		DataSet dataset = (DataSet) new CSVFileEnvironment().getValue("csv:" + file).get();
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			return stream.collect(counting());
+		}
+	}
+
+	@Benchmark
+	public long loadPushdown()
+	{
+		DataSet dataset = (DataSet) new CSVFileEnvironment().getValue("csv:" + file, 
+				Collections.singletonMap("id_1", IntegerValue.of(0L)), Collections.singleton("m_1")).get();
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			return stream.filter(dp -> IntegerValue.of(0L).equals(dp.get(dataset.getComponent("id_1").get()))).collect(counting());
+		}
+	}
+
+	@Benchmark
+	public long loadSnapshot()
+	{
+		DataSet dataset = snapshots.load("csv:" + file, fingerprint, structure);
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			return stream.collect(counting());
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.counting;
+
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import it.bancaditalia.oss.vtl.impl.session.CachedDataSet;
+import it.bancaditalia.oss.vtl.impl.session.VTLSessionImpl;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+
+/**
+ * Measures the building of the index of a {@link CachedDataSet} on its first identifier.
+ * 
+ * A new session, with an empty cache, is created before each invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CachedDataSetBenchmark extends SessionBenchmark
+{
+	private DataSet dataset;
+	private Set<DataStructureComponent<Identifier, ?, ?>> keys;
+	private VTLSessionImpl session;
+
+	@Setup(Level.Invocation)
+	public void setupSession()
+	{
+		dataset = (DataSet) new SyntheticEnvironment().getValue("a").get();
+		keys = singleton(dataset.getComponent("id_1", Identifier.class).get());
+		session = new VTLSessionImpl();
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownSession()
+	{
+		session.close();
+	}
+
+	@Benchmark
+	public long index()
+	{
+		try (Stream<Long> stream = new CachedDataSet(session, "a", dataset).streamByKeys(keys, emptyMap(), counting(), (count, key) -> count))
+		{
+			return stream.mapToLong(Long::longValue).sum();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import static it.bancaditalia.oss.vtl.config.VTLGeneralProperties.ENVIRONMENT_IMPLEMENTATION;
+import static java.util.stream.Collectors.counting;
+
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import it.bancaditalia.oss.vtl.config.ConfigurationManager;
+import it.bancaditalia.oss.vtl.impl.environment.WorkspaceImpl;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.session.VTLSession;
+
+/**
+ * Base class for benchmarks evaluating VTL statements over synthetic datasets.
+ * 
+ * Each evaluation uses a new session, so that no result is cached between invocations.
+ */
+@State(Scope.Benchmark)
+public abstract class SessionBenchmark
+{
+	@Param("100000")
+	public int rows;
+	
+	@Param("3")
+	public int identifiers;
+	
+	@Param("10")
+	public int cardinality;
+	
+	@Param("number,integer,string")
+	public String measures;
+
+	@Setup(Level.Trial)
+	public void setupEnvironment()
+	{
+		ENVIRONMENT_IMPLEMENTATION.setValue(SyntheticEnvironment.class.getName() + "," + WorkspaceImpl.class.getName());
+		SyntheticEnvironment.register("a", new SyntheticDataSet(rows, identifiers, cardinality, measures, "m", 1).toDataSet("a"));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownEnvironment()
+	{
+		SyntheticEnvironment.clear();
+		ENVIRONMENT_IMPLEMENTATION.setValue(null);
+	}
+	
+	/**
+	 * Evaluates the given statements in a new session, and fully consumes the dataset named {@code r}.
+	 * 
+	 * @param statements The VTL statements defining {@code r}
+	 * @return The number of datapoints in {@code r}
+	 */
+	protected long evaluate(String statements)
+	{
+		VTLSession session = ConfigurationManager.getDefault().createSession();
+		try
+		{
+			session.addStatements(statements);
+			try (Stream<DataPoint> stream = ((DataSet) session.resolve("r")).stream())
+			{
+				// count() could skip the evaluation of a sized stream
+				return stream.collect(counting());
+			}
+		}
+		finally
+		{
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import static it.bancaditalia.oss.vtl.impl.engine.mapping.OpsFactory.VTL_ENGINE_CSE_THRESHOLD;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures rules repeating the same dataset expression, with and without sharing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class SharedExpressionBenchmark extends SessionBenchmark
+{
+	@Param({ "0", "5" })
+	public String threshold;
+	
+	@Setup(Level.Trial)
+	public void setupThreshold()
+	{
+		VTL_ENGINE_CSE_THRESHOLD.setValue(threshold);
+	}
+	
+	@Benchmark
+	public long shared()
+	{
+		return evaluate("s_1 := a[filter m_1 > 200][calc c_1 := m_1 * 2 + m_2][filter c_1 > 1200];"
+				+ "s_2 := a[filter m_1 > 200][calc c_1 := m_1 * 2 + m_2][filter c_1 <= 1200];"
+				+ "s_3 := a[filter m_1 > 200][calc c_1 := m_1 * 2 + m_2][filter m_2 > 500];"
+				+ "r := union(s_1, s_2, s_3);");
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.DATEDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
+import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.data.ValueDomainSubset;
+
+/**
+ * A generator of reproducible synthetic datasets.
+ * 
+ * The generated datasets have integer identifiers named {@code id_1 ... id_n}: the last one
+ * is the row number, while the others take values in {@code 0 ... cardinality - 1}, so that
+ * they can be used to group or partition the datapoints. Measures are named 
+ * {@code <prefix>_1 ... <prefix>_m} and are randomly generated with a fixed seed.
+ */
+public class SyntheticDataSet
+{
+	private static final LocalDate BASE_DATE = LocalDate.of(2000, 1, 1);
+
+	public enum MeasureType
+	{
+		INTEGER(INTEGERDS, "Int"), 
+		NUMBER(NUMBERDS, "Number"), 
+		STRING(STRINGDS, "String"), 
+		BOOLEAN(BOOLEANDS, "Boolean"), 
+		DATE(DATEDS, "Date[YYYY-MM-DD]");
+		
+		private final ValueDomainSubset<?, ?> domain;
+		private final String csvType;
+
+		private MeasureType(ValueDomainSubset<?, ?> domain, String csvType)
+		{
+			this.domain = domain;
+			this.csvType = csvType;
+		}
+	}
+	
+	private final int rows;
+	private final int identifiers;
+	private final int cardinality;
+	private final MeasureType measures[];
+	private final List<DataStructureComponent<?, ?, ?>> components = new ArrayList<>();
+	private final DataSetMetadata metadata;
+	private final long seed;
+
+	/**
+	 * Creates a new generator.
+	 * 
+	 * @param rows The number of datapoints to generate
+	 * @param identifiers The number of identifiers
+	 * @param cardinality The number of distinct values of each identifier but the last
+	 * @param measureTypes A comma-separated list of {@link MeasureType} names, one for each measure 
+	 * @param prefix The prefix of the measure names
+	 * @param seed The seed of the random generator
+	 */
+	public SyntheticDataSet(int rows, int identifiers, int cardinality, String measureTypes, String prefix, long seed)
+	{
+		if (rows < 0 || identifiers < 1 || cardinality < 1)
+			throw new IllegalArgumentException("Invalid synthetic dataset parameters: rows=" + rows + ", identifiers=" + identifiers + ", cardinality=" + cardinality);
+		
+		this.rows = rows;
+		this.identifiers = identifiers;
+		this.cardinality = cardinality;
+		this.seed = seed;
+		this.measures = Arrays.stream(measureTypes.split(","))
+				.map(String::trim)
+				.filter(type -> !type.isEmpty())
+				.map(String::toUpperCase)
+				.map(MeasureType::valueOf)
+				.toArray(MeasureType[]::new);
+		
+		for (int i = 1; i <= identifiers; i++)
+			components.add(DataStructureComponentImpl.of("id_" + i, Identifier.class, INTEGERDS));
+		for (int i = 1; i <= measures.length; i++)
+			components.add(DataStructureComponentImpl.of(prefix + "_" + i, Measure.class, measures[i - 1].domain));
+		
+		metadata = new DataStructureBuilder(components).build();
+	}
+
+	public DataSetMetadata getMetadata()
+	{
+		return metadata;
+	}
+	
+	/**
+	 * Generates all the datapoints and keeps them in memory.
+	 * 
+	 * @param name The name used to build the lineage of the datapoints
+	 * @return A dataset streaming the generated datapoints.
+	 */
+	public DataSet toDataSet(String name)
+	{
+		Lineage lineage = LineageExternal.of("synthetic:" + name);
+		List<DataPoint> datapoints = IntStream.range(0, rows)
+				.parallel()
+				.mapToObj(row -> toDataPoint(lineage, row))
+				.collect(toList());
+		
+		return new LightDataSet(metadata, datapoints::stream);
+	}
+	
+	/**
+	 * Writes all the datapoints to a CSV file with a header suitable for {@code CSVFileEnvironment}.
+	 * 
+	 * @param file The file to write
+	 * @throws IOException if an error occurs while writing.
+	 */
+	public void writeCSV(Path file) throws IOException
+	{
+		try (BufferedWriter writer = Files.newBufferedWriter(file, UTF_8))
+		{
+			for (int i = 0; i < components.size(); i++)
+			{
+				if (i > 0)
+					writer.write(',');
+				writer.write(i < identifiers ? "$" : "");
+				writer.write(components.get(i).getName());
+				writer.write('=');
+				writer.write(i < identifiers ? "Int" : measures[i - identifiers].csvType);
+			}
+			writer.write("\r\n");
+			
+			for (int row = 0; row < rows; row++)
+			{
+				Object values[] = generate(row);
+				for (int i = 0; i < values.length; i++)
+				{
+					if (i > 0)
+						writer.write(',');
+					writer.write(values[i].toString());
+				}
+				writer.write("\r\n");
+			}
+		}
+	}
+	
+	private DataPoint toDataPoint(Lineage lineage, int row)
+	{
+		Object values[] = generate(row);
+		DataPointBuilder builder = new DataPointBuilder();
+		for (int i = 0; i < values.length; i++)
+			builder.add(components.get(i), toScalar(i < identifiers ? MeasureType.INTEGER : measures[i - identifiers], values[i]));
+		return builder.build(lineage, metadata);
+	}
+
+	private static ScalarValue<?, ?, ?, ?> toScalar(MeasureType type, Object value)
+	{
+		switch (type)
+		{
+			case INTEGER: return IntegerValue.of((Long) value);
+			case NUMBER: return DoubleValue.of((Double) value);
+			case STRING: return StringValue.of((String) value);
+			case BOOLEAN: return BooleanValue.of((Boolean) value);
+			case DATE: return DateValue.of((LocalDate) value);
+			default: throw new UnsupportedOperationException(type.toString());
+		}
+	}
+	
+	/*
+	 * The values of a row only depend on the seed and the row number
+	 */
+	private Object[] generate(int row)
+	{
+		Object values[] = new Object[identifiers + measures.length];
+		
+		long divisor = 1;
+		for (int i = 0; i < identifiers - 1; i++, divisor *= cardinality)
+			values[i] = (row / divisor) % cardinality;
+		values[identifiers - 1] = (long) row;
+		
+		SplittableRandom random = new SplittableRandom(seed * 31 + row);
+		for (int i = 0; i < measures.length; i++)
+			switch (measures[i])
+			{
+				case INTEGER: values[identifiers + i] = (long) random.nextInt(1000); break;
+				case NUMBER: values[identifiers + i] = Math.round(random.nextDouble() * 100000) / 100.0; break;
+				case STRING: values[identifiers + i] = "s" + random.nextInt(cardinality); break;
+				case BOOLEAN: values[identifiers + i] = random.nextBoolean(); break;
+				case DATE: values[identifiers + i] = BASE_DATE.plusDays(random.nextInt(7300)); break;
+			}
+		
+		return values;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.benchmarks;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import it.bancaditalia.oss.vtl.environment.Environment;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
+
+/**
+ * An {@link Environment} serving in-memory datasets registered by the benchmarks.
+ * 
+ * The registry is static because the configuration manager creates a new instance 
+ * of each environment for every session.
+ */
+public class SyntheticEnvironment implements Environment
+{
+	private static final Map<String, DataSet> DATASETS = new ConcurrentHashMap<>();
+	
+	public static void register(String name, DataSet dataset)
+	{
+		DATASETS.put(name, dataset);
+	}
+	
+	public static void clear()
+	{
+		DATASETS.clear();
+	}
+	
+	@Override
+	public boolean contains(String name)
+	{
+		return DATASETS.containsKey(name);
+	}
+
+	@Override
+	public Optional<VTLValue> getValue(String name)
+	{
+		return Optional.ofNullable(DATASETS.get(name));
+	}
+}
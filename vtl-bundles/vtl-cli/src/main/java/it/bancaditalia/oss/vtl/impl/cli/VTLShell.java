@@ -20,17 +20,18 @@
 package it.bancaditalia.oss.vtl.impl.cli;
 
 import static it.bancaditalia.oss.vtl.config.VTLGeneralProperties.ENVIRONMENT_IMPLEMENTATION;
-import static java.util.stream.Collectors.toList;
+import static java.util.Collections.emptyList;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.Callable;
 
 import it.bancaditalia.oss.vtl.config.ConfigurationManager;
-import it.bancaditalia.oss.vtl.engine.Statement;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.session.VTLSession;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
@@ -69,12 +70,9 @@ public class VTLShell implements Callable<Void>
 		{
 			session.addStatements(reader);
 			
-			if (names != null)
-				for (String name: names)
-					System.out.println(session.resolve(name));
-			else
-				for (String name: session.getWorkspace().getRules().stream().map(Statement::getId).collect(toList()))
-					System.out.println(session.resolve(name));
+			// independent rules are computed concurrently
+			for (VTLValue value: session.resolveAll(names != null ? Arrays.asList(names) : emptyList()).values())
+				System.out.println(value);
 		}
 		
 		return null;
@@ -19,71 +19,88 @@
  */
 package it.bancaditalia.oss.vtl.util;
 
-import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toConcurrentMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.stream.Stream;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import it.bancaditalia.oss.vtl.impl.types.data.date.DateHolder;
 import it.bancaditalia.oss.vtl.impl.types.data.date.PeriodHolder;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.domain.BooleanDomain;
+import it.bancaditalia.oss.vtl.model.domain.DateDomain;
+import it.bancaditalia.oss.vtl.model.domain.IntegerDomain;
+import it.bancaditalia.oss.vtl.model.domain.NumberDomain;
 
+/**
+ * Reads the datapoints of a dataset in pages, to be transferred to R.
+ *
+ * Each page is returned by {@link #fetch(int)} as a set of columns, one for each component, made of
+ * primitive arrays that R receives as whole vectors, together with a mask of the missing values.
+ */
 public class Paginator implements AutoCloseable
 {
-	private static final Logger LOGGER = LoggerFactory.getLogger(Paginator.class);
-	
-	private final BlockingQueue<DataPoint> queue = new ArrayBlockingQueue<>(100);
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * The R vector type of a column
+	 */
+	public enum ColumnType
+	{
+		NUMERIC, INTEGER, LOGICAL, DATE, CHARACTER;
+
+		@Override
+		public String toString()
+		{
+			return name().toLowerCase();
+		}
+	}
+
 	private final DataSetMetadata dataStructure;
+	private final Stream<DataPoint> stream;
+	private final Iterator<DataPoint> iterator;
+	private final DataStructureComponent<?, ?, ?>[] components;
+	private final ColumnType[] types;
+	private final ColumnType[] pageTypes;
+	private final Object[] columns;
+	private final boolean[][] nas;
 
+	private int rows = 0;
 	private boolean closed = false;
-	private RuntimeException lastException = null;
-	private Map<String, String> toBeCast = new HashMap<String, String>(); 
-	
+	private Map<String, String> toBeCast = new HashMap<String, String>();
+
 	public Paginator(DataSet dataset)
 	{
 		dataStructure = dataset.getMetadata();
-		Thread thread = new Thread(() -> {
-			try (Stream<DataPoint> stream = dataset.stream())
-			{
-				stream.forEach(dp -> {
-					while (!isClosed())
-						try
-						{
-							queue.put(dp);
-							break;
-						}
-						catch (InterruptedException e)
-						{
-							close();
-							Thread.currentThread().interrupt();
-						}
-				});
-			}
-			catch (Exception e)
-			{
-				LOGGER.error(e.getMessage(), e);
-			}
-			finally
-			{
-				close();
-			}
-		});
-		thread.setDaemon(true);
-		thread.start();
+		stream = dataset.stream();
+		iterator = stream.iterator();
+
+		components = dataStructure.toArray(new DataStructureComponent<?, ?, ?>[dataStructure.size()]);
+		types = new ColumnType[components.length];
+		for (int i = 0; i < components.length; i++)
+			if (components[i].getDomain() instanceof IntegerDomain)
+				types[i] = ColumnType.INTEGER;
+			else if (components[i].getDomain() instanceof NumberDomain)
+				types[i] = ColumnType.NUMERIC;
+			else if (components[i].getDomain() instanceof BooleanDomain)
+				types[i] = ColumnType.LOGICAL;
+			else if (components[i].getDomain() instanceof DateDomain)
+				types[i] = ColumnType.DATE;
+			else
+				types[i] = ColumnType.CHARACTER;
+
+		pageTypes = types.clone();
+		columns = new Object[components.length];
+		nas = new boolean[components.length][];
 	}
 
 	public boolean isClosed()
@@ -94,6 +111,8 @@ public class Paginator implements AutoCloseable
 	@Override
 	public void close()
 	{
+		if (!closed)
+			stream.close();
 		closed = true;
 	}
 
@@ -102,6 +121,188 @@ public class Paginator implements AutoCloseable
 		return dataStructure;
 	}
 
+	/**
+	 * Reads the next page of datapoints into the columns of this paginator.
+	 *
+	 * @param size The maximum number of datapoints to read, or 0 or less to read all the remaining datapoints
+	 * @return The number of datapoints read, 0 if there are no more datapoints
+	 */
+	public int fetch(int size)
+	{
+		int capacity = size > 0 ? size : INITIAL_CAPACITY;
+		for (int j = 0; j < components.length; j++)
+		{
+			pageTypes[j] = types[j];
+			columns[j] = newColumn(types[j], capacity);
+			nas[j] = new boolean[capacity];
+		}
+
+		rows = 0;
+		while ((size <= 0 || rows < size) && hasNext())
+		{
+			if (rows == capacity)
+			{
+				capacity *= 2;
+				for (int j = 0; j < components.length; j++)
+				{
+					columns[j] = resize(columns[j], capacity);
+					nas[j] = Arrays.copyOf(nas[j], capacity);
+				}
+			}
+
+			DataPoint dp = iterator.next();
+			for (int j = 0; j < components.length; j++)
+				setValue(j, rows, dp.get(components[j]).get());
+			rows++;
+		}
+
+		if (rows < capacity)
+			for (int j = 0; j < components.length; j++)
+			{
+				columns[j] = resize(columns[j], rows);
+				nas[j] = Arrays.copyOf(nas[j], rows);
+			}
+
+		return rows;
+	}
+
+	/**
+	 * @return the number of datapoints in the last fetched page
+	 */
+	public int getRows()
+	{
+		return rows;
+	}
+
+	/**
+	 * @return the names of the columns, in the same order of the column indexes
+	 */
+	public String[] getColumnNames()
+	{
+		String[] names = new String[components.length];
+		for (int j = 0; j < components.length; j++)
+			names[j] = components[j].getName();
+		return names;
+	}
+
+	/**
+	 * @return the R types of the columns in the last fetched page: numeric, integer, logical, date or character. 
+	 * 		An integer column is widened to numeric in a page holding a value that does not fit in an R integer
+	 */
+	public String[] getColumnTypes()
+	{
+		String[] names = new String[components.length];
+		for (int j = 0; j < components.length; j++)
+			names[j] = pageTypes[j].toString();
+		return names;
+	}
+
+	/**
+	 * @param index The index of a numeric column
+	 * @return the values of the column in the last fetched page
+	 */
+	public double[] getDoubleColumn(int index)
+	{
+		return (double[]) columns[index];
+	}
+
+	/**
+	 * @param index The index of an integer or logical column
+	 * @return the values of the column in the last fetched page, with logical values as 1 for true and 0 for false
+	 */
+	public int[] getIntColumn(int index)
+	{
+		return (int[]) columns[index];
+	}
+
+	/**
+	 * @param index The index of a date or character column
+	 * @return the values of the column in the last fetched page; dates are formatted as yyyy-mm-dd
+	 */
+	public String[] getStringColumn(int index)
+	{
+		return (String[]) columns[index];
+	}
+
+	/**
+	 * @param index The index of a column
+	 * @return a mask of the missing values of the column in the last fetched page
+	 */
+	public boolean[] getNAs(int index)
+	{
+		return nas[index];
+	}
+
+	private boolean hasNext()
+	{
+		if (closed)
+			return false;
+
+		boolean hasNext = iterator.hasNext();
+		if (!hasNext)
+			close();
+		return hasNext;
+	}
+
+	private void setValue(int column, int row, Object value)
+	{
+		if (value == null)
+		{
+			nas[column][row] = true;
+			return;
+		}
+
+		switch (pageTypes[column])
+		{
+			case INTEGER:
+				long integer = ((Number) value).longValue();
+				// Integer.MIN_VALUE is NA in R
+				if (integer > Integer.MIN_VALUE && integer <= Integer.MAX_VALUE)
+				{
+					((int[]) columns[column])[row] = (int) integer;
+					break;
+				}
+				widen(column);
+				// fall through
+			case NUMERIC: ((double[]) columns[column])[row] = ((Number) value).doubleValue(); break;
+			case LOGICAL: ((int[]) columns[column])[row] = ((Boolean) value) ? 1 : 0; break;
+			default: ((String[]) columns[column])[row] = value.toString(); break;
+		}
+	}
+
+	/*
+	 * Converts an integer column of the current page to numeric
+	 */
+	private void widen(int column)
+	{
+		int[] values = (int[]) columns[column];
+		double[] widened = new double[values.length];
+		for (int i = 0; i < values.length; i++)
+			widened[i] = values[i];
+		columns[column] = widened;
+		pageTypes[column] = ColumnType.NUMERIC;
+	}
+
+	private static Object newColumn(ColumnType type, int capacity)
+	{
+		switch (type)
+		{
+			case NUMERIC: return new double[capacity];
+			case INTEGER: case LOGICAL: return new int[capacity];
+			default: return new String[capacity];
+		}
+	}
+
+	private static Object resize(Object column, int capacity)
+	{
+		if (column instanceof double[])
+			return Arrays.copyOf((double[]) column, capacity);
+		else if (column instanceof int[])
+			return Arrays.copyOf((int[]) column, capacity);
+		else
+			return Arrays.copyOf((String[]) column, capacity);
+	}
+
 	public List<DataPoint> moreDataPoints()
 	{
 		return moreDataPoints(20);
@@ -111,22 +312,9 @@ public class Paginator implements AutoCloseable
 	{
 		List<DataPoint> result = new ArrayList<>();
 
-		while ((!isClosed() || !queue.isEmpty()) && (size <= 0 || result.size() < size))
-			try
-			{
-				DataPoint element = queue.poll(1, SECONDS);
-				if (element != null)
-					result.add(element);
-			}
-			catch (InterruptedException e)
-			{
-				close();
-				Thread.currentThread().interrupt();
-			}
+		while ((size <= 0 || result.size() < size) && hasNext())
+			result.add(iterator.next());
 
-		if (lastException != null)
-			throw lastException;
-		
 		return result;
 	}
 
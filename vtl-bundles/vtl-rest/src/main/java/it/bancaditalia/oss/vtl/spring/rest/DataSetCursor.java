@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.spring.rest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+
+/**
+ * A server-side cursor over the datapoints of a computed dataset. 
+ * Each page continues the same stream, so that the dataset is never computed again.
+ */
+class DataSetCursor implements AutoCloseable
+{
+	private final UUID id = UUID.randomUUID();
+	private final DataSetMetadata structure;
+	private final Stream<DataPoint> stream;
+	private final Iterator<DataPoint> iterator;
+	private final int pageSize;
+	private final long ttl;
+
+	private volatile long expires;
+	private long pages = 0;
+	private boolean last = false;
+
+	/**
+	 * @param dataset The dataset to page
+	 * @param pageSize The number of datapoints in each page
+	 * @param ttl The milliseconds after which the cursor expires if not used
+	 */
+	public DataSetCursor(DataSet dataset, int pageSize, long ttl)
+	{
+		this.structure = dataset.getMetadata();
+		this.stream = dataset.stream();
+		this.iterator = stream.iterator();
+		this.pageSize = pageSize;
+		this.ttl = ttl;
+		this.expires = System.currentTimeMillis() + ttl;
+	}
+
+	/**
+	 * Retrieves the next datapoints. When the returned page is the last one, the cursor is closed.
+	 * 
+	 * @return The datapoints of the next page, at most the page size
+	 */
+	public synchronized List<DataPoint> nextPage()
+	{
+		List<DataPoint> page = new ArrayList<>(pageSize);
+		while (page.size() < pageSize && iterator.hasNext())
+			page.add(iterator.next());
+		
+		pages++;
+		expires = System.currentTimeMillis() + ttl;
+		last = !iterator.hasNext();
+		if (last)
+			close();
+		
+		return page;
+	}
+	
+	/**
+	 * @return true if the last page has been retrieved
+	 */
+	public synchronized boolean isLast()
+	{
+		return last;
+	}
+
+	public UUID getId()
+	{
+		return id;
+	}
+
+	public DataSetMetadata getStructure()
+	{
+		return structure;
+	}
+
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * @return The number of pages retrieved so far
+	 */
+	public synchronized long getPages()
+	{
+		return pages;
+	}
+
+	public long getExpires()
+	{
+		return expires;
+	}
+
+	public boolean isExpired(long now)
+	{
+		return now > expires;
+	}
+
+	@Override
+	public void close()
+	{
+		stream.close();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.spring.rest;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.spring.rest.exception.VTLInvalidCursorException;
+
+/**
+ * Keeps the open cursors of all the clients. Cursors not used for longer than 
+ * their time-to-live are closed when other cursors are opened or retrieved. 
+ */
+@Service
+public class VTLCursorManager
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(VTLCursorManager.class);
+	
+	public static final VTLProperty VTL_REST_CURSOR_TTL = 
+			new VTLPropertyImpl("vtl.rest.cursor.ttl", "Seconds after which an unused cursor is discarded", "300", false, false, "300");
+	public static final VTLProperty VTL_REST_CURSOR_PAGE_SIZE = 
+			new VTLPropertyImpl("vtl.rest.cursor.page.size", "Number of datapoints in each page of a cursor, when not requested", "10000", false, false, "10000");
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(VTLCursorManager.class, VTL_REST_CURSOR_TTL, VTL_REST_CURSOR_PAGE_SIZE);
+	}
+	
+	private final Map<UUID, DataSetCursor> cursors = new ConcurrentHashMap<>();
+
+	public DataSetCursor open(DataSet dataset, Integer pageSize)
+	{
+		purge();
+		
+		int size = pageSize != null && pageSize > 0 ? pageSize : Integer.parseInt(VTL_REST_CURSOR_PAGE_SIZE.getValue().trim());
+		long ttl = Long.parseLong(VTL_REST_CURSOR_TTL.getValue().trim()) * 1000;
+		DataSetCursor cursor = new DataSetCursor(dataset, size, ttl);
+		cursors.put(cursor.getId(), cursor);
+		LOGGER.info("Opened cursor {} with page size {}", cursor.getId(), size);
+		return cursor;
+	}
+
+	public DataSetCursor getCursor(UUID id)
+	{
+		purge();
+		
+		DataSetCursor cursor = cursors.get(id);
+		if (cursor == null)
+			throw new VTLInvalidCursorException(id);
+		return cursor;
+	}
+
+	/**
+	 * Closes a cursor and forgets it; it is also called after the last page of a cursor was retrieved.
+	 * 
+	 * @param id The id of the cursor
+	 */
+	public void close(UUID id)
+	{
+		DataSetCursor cursor = cursors.remove(id);
+		if (cursor != null)
+		{
+			cursor.close();
+			LOGGER.info("Closed cursor {} after {} pages", id, cursor.getPages());
+		}
+	}
+
+	@PreDestroy
+	public void closeAll()
+	{
+		for (UUID id: cursors.keySet())
+			close(id);
+	}
+	
+	private void purge()
+	{
+		long now = System.currentTimeMillis();
+		for (Iterator<DataSetCursor> i = cursors.values().iterator(); i.hasNext(); )
+		{
+			DataSetCursor cursor = i.next();
+			if (cursor.isExpired(now))
+			{
+				i.remove();
+				cursor.close();
+				LOGGER.info("Discarded expired cursor {}", cursor.getId());
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@
 package it.bancaditalia.oss.vtl.spring.rest;
 
 import static org.springframework.http.HttpStatus.BAD_REQUEST;
+import static org.springframework.http.HttpStatus.NOT_FOUND;
 
 import org.antlr.v4.runtime.misc.ParseCancellationException;
 import org.springframework.http.ResponseEntity;
@@ -27,6 +28,7 @@ import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
 import it.bancaditalia.oss.vtl.exceptions.VTLUnboundNameException;
+import it.bancaditalia.oss.vtl.spring.rest.exception.VTLInvalidCursorException;
 import it.bancaditalia.oss.vtl.spring.rest.exception.VTLInvalidSessionException;
 
 @ControllerAdvice
@@ -49,4 +51,10 @@ public class VTLExceptionController
 	{
 		return new ResponseEntity<>(e.getLocalizedMessage(), BAD_REQUEST);
 	}
+
+	@ExceptionHandler(value = VTLInvalidCursorException.class)
+	public ResponseEntity<Object> exception(VTLInvalidCursorException e)
+	{
+		return new ResponseEntity<>(e.getLocalizedMessage(), NOT_FOUND);
+	}
 }
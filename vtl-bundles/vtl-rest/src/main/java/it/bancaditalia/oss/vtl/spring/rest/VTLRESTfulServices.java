@@ -18,22 +18,43 @@
  * permissions and limitations under the License.
  */
 package it.bancaditalia.oss.vtl.spring.rest;
+import static it.bancaditalia.oss.vtl.spring.rest.result.StreamFormat.APPLICATION_NDJSON_VALUE;
+import static it.bancaditalia.oss.vtl.spring.rest.result.StreamFormat.TEXT_CSV_VALUE;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.singletonList;
 import static java.util.stream.Collectors.toList;
+import static org.springframework.http.HttpHeaders.ACCEPT;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.web.servlet.support.SpringBootServletInitializer;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.ResponseEntity;
 import org.springframework.lang.NonNull;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
@@ -43,18 +64,36 @@ import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.session.VTLSession;
 import it.bancaditalia.oss.vtl.spring.rest.exception.VTLInvalidSessionException;
 import it.bancaditalia.oss.vtl.spring.rest.result.ComponentBean;
+import it.bancaditalia.oss.vtl.spring.rest.result.CursorBean;
 import it.bancaditalia.oss.vtl.spring.rest.result.DataSetResultBean;
 import it.bancaditalia.oss.vtl.spring.rest.result.DomainBean;
+import it.bancaditalia.oss.vtl.spring.rest.result.PageResultBean;
 import it.bancaditalia.oss.vtl.spring.rest.result.ResultBean;
 import it.bancaditalia.oss.vtl.spring.rest.result.ScalarResultBean;
+import it.bancaditalia.oss.vtl.spring.rest.result.StreamFormat;
 import it.bancaditalia.oss.vtl.spring.rest.result.UUIDBean;
 
 @RestController
 @SpringBootApplication
 @Configuration
-public class VTLRESTfulServices extends SpringBootServletInitializer
+public class VTLRESTfulServices extends SpringBootServletInitializer implements WebMvcConfigurer
 {
+	public static final VTLProperty VTL_REST_STREAM_TIMEOUT = 
+			new VTLPropertyImpl("vtl.rest.stream.timeout", "Milliseconds allowed for writing a streamed result (0 for no limit)", "0", false, false, "0");
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(VTLRESTfulServices.class, VTL_REST_STREAM_TIMEOUT);
+	}
+
 	@Autowired private VTLSessionManager manager;
+	@Autowired private VTLCursorManager cursors;
+	
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer)
+	{
+		configurer.setDefaultTimeout(Long.parseLong(VTL_REST_STREAM_TIMEOUT.getValue().trim()));
+	}
 	
 	@PostMapping(path = "/compile", params = "code")
 	public @NonNull UUIDBean compile(@RequestParam @NonNull String code) 
@@ -77,6 +116,89 @@ public class VTLRESTfulServices extends SpringBootServletInitializer
 			return new DataSetResultBean((DataSet) value);
 	}
 
+	/**
+	 * Writes the datapoints of a dataset one by one, as they are computed, in the format selected by the Accept header.
+	 * Writing blocks while the client is not reading, so the dataset is never held in memory as a whole.
+	 */
+	@GetMapping(path = "/resolve", produces = { APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE })
+	public ResponseEntity<StreamingResponseBody> resolveStreaming(@RequestParam @NonNull UUID uuid, @RequestParam @NonNull String alias, 
+			@RequestHeader(ACCEPT) String accept) 
+	{
+		if (!manager.containsSession(uuid))
+			throw new VTLInvalidSessionException(uuid); 
+		
+		VTLValue value = manager.getSession(uuid).resolve(alias);
+		StreamFormat format = StreamFormat.negotiate(accept);
+		StreamingResponseBody body;
+		if (value instanceof ScalarValue)
+			body = out -> format.write(alias, (ScalarValue<?, ?, ?, ?>) value, writer(out));
+		else
+			body = out -> {
+				try (Stream<DataPoint> stream = ((DataSet) value).stream())
+				{
+					format.write(((DataSet) value).getMetadata(), stream.iterator(), Long.MAX_VALUE, writer(out));
+				}
+			};
+		
+		return ResponseEntity.ok().contentType(format.getMediaType()).body(body);
+	}
+
+	/**
+	 * Opens a cursor over a dataset, whose pages are then retrieved with /page without computing the dataset again.
+	 */
+	@PostMapping(path = "/cursor", params = { "uuid", "alias" })
+	public @NonNull CursorBean openCursor(@RequestParam @NonNull UUID uuid, @RequestParam @NonNull String alias, 
+			@RequestParam(required = false) Integer pageSize) 
+	{
+		if (!manager.containsSession(uuid))
+			throw new VTLInvalidSessionException(uuid); 
+		
+		VTLValue value = manager.getSession(uuid).resolve(alias);
+		if (!(value instanceof DataSet))
+			throw new ResponseStatusException(BAD_REQUEST, alias + " is not a dataset.");
+		
+		DataSetCursor cursor = cursors.open((DataSet) value, pageSize);
+		return new CursorBean(cursor.getId(), cursor.getPageSize(), cursor.getExpires());
+	}
+
+	@GetMapping("/page")
+	public @NonNull PageResultBean page(@RequestParam @NonNull UUID cursor) 
+	{
+		DataSetCursor dsCursor = cursors.getCursor(cursor);
+		List<DataPoint> page = dsCursor.nextPage();
+		if (dsCursor.isLast())
+			cursors.close(cursor);
+		
+		return new PageResultBean(cursor, dsCursor.getPages(), dsCursor.isLast(), dsCursor.getStructure(), page);
+	}
+
+	/**
+	 * The same as {@link #page(UUID)}, in the format selected by the Accept header. 
+	 * The page number and whether it is the last page are sent as headers.
+	 */
+	@GetMapping(path = "/page", produces = { APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE })
+	public ResponseEntity<StreamingResponseBody> pageStreaming(@RequestParam @NonNull UUID cursor, @RequestHeader(ACCEPT) String accept) 
+	{
+		DataSetCursor dsCursor = cursors.getCursor(cursor);
+		List<DataPoint> page = dsCursor.nextPage();
+		if (dsCursor.isLast())
+			cursors.close(cursor);
+		
+		StreamFormat format = StreamFormat.negotiate(accept);
+		StreamingResponseBody body = out -> format.write(dsCursor.getStructure(), page.iterator(), Long.MAX_VALUE, writer(out));
+		return ResponseEntity.ok()
+				.contentType(format.getMediaType())
+				.header("VTL-Cursor-Page", Long.toString(dsCursor.getPages()))
+				.header("VTL-Cursor-Last", Boolean.toString(dsCursor.isLast()))
+				.body(body);
+	}
+
+	@DeleteMapping(path = "/cursor")
+	public void closeCursor(@RequestParam @NonNull UUID cursor) 
+	{
+		cursors.close(cursor);
+	}
+
 	@GetMapping("/metadata")
 	public @NonNull List<DomainBean> getMetadata(@RequestParam @NonNull UUID uuid, @RequestParam @NonNull String alias) 
 	{
@@ -90,4 +212,9 @@ public class VTLRESTfulServices extends SpringBootServletInitializer
 		else
 			return ((DataSetMetadata) value).stream().map(ComponentBean::new).collect(toList());
 	}
+	
+	private static Writer writer(OutputStream out)
+	{
+		return new BufferedWriter(new OutputStreamWriter(out, UTF_8));
+	}
 }
@@ -19,8 +19,11 @@
  */
 package it.bancaditalia.oss.vtl.spring.rest;
 
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpSession;
 
 import org.slf4j.Logger;
@@ -39,11 +42,15 @@ public class VTLSessionManager
 	private static final Logger LOGGER = LoggerFactory.getLogger(VTLSessionManager.class);
 	
 	@Autowired private HttpSession httpSession;
+	
+	private final Map<UUID, VTLSession> sessions = new ConcurrentHashMap<>();
 
 	public UUID createSession()
 	{
 		UUID uuid = UUID.randomUUID();
-		httpSession.setAttribute(uuid.toString(), ConfigurationManager.getDefault().createSession());
+		VTLSession session = ConfigurationManager.getDefault().createSession();
+		sessions.put(uuid, session);
+		httpSession.setAttribute(uuid.toString(), session);
 		LOGGER.info("Created session with UUID {}", uuid);
 		return uuid;
 	}
@@ -59,4 +66,17 @@ public class VTLSessionManager
 		LOGGER.info("Requested session with UUID {}", uuid);
 		return httpSession.getAttribute(uuid.toString()) != null;
 	}
+
+	/**
+	 * Closes the sessions when the HTTP session ends, releasing the datasets they share with other sessions
+	 */
+	@PreDestroy
+	public void closeSessions()
+	{
+		sessions.forEach((uuid, session) -> {
+			LOGGER.info("Closing session with UUID {}", uuid);
+			session.close();
+		});
+		sessions.clear();
+	}
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.spring.rest.result;
+
+import java.io.Serializable;
+import java.util.UUID;
+
+public class CursorBean implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final UUID cursor;
+	private final int pageSize;
+	private final long expires;
+
+	public CursorBean(UUID cursor, int pageSize, long expires)
+	{
+		this.cursor = cursor;
+		this.pageSize = pageSize;
+		this.expires = expires;
+	}
+
+	public UUID getCursor()
+	{
+		return cursor;
+	}
+
+	public int getPageSize()
+	{
+		return pageSize;
+	}
+
+	/**
+	 * @return The time, in milliseconds since the epoch, after which the cursor is discarded if not used
+	 */
+	public long getExpires()
+	{
+		return expires;
+	}
+}
@@ -35,6 +35,7 @@ import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 
@@ -89,10 +90,15 @@ public class DataSetResultBean extends ResultBean
 
 	public DataSetResultBean(DataSet dataset)
 	{
-		super("DATASET");
+		this("DATASET", dataset.getMetadata(), dataset.stream());
+	}
+
+	protected DataSetResultBean(String type, DataSetMetadata structure, Stream<DataPoint> datapoints)
+	{
+		super(type);
 		
-		structure = dataset.getMetadata().stream().map(ComponentBean::new).collect(toList());
-		datapoints = dataset.stream();
+		this.structure = structure.stream().map(ComponentBean::new).collect(toList());
+		this.datapoints = datapoints;
 	}
 
 	public List<ComponentBean> getStructure()
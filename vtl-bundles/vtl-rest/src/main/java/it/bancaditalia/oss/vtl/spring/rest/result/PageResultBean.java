@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.spring.rest.result;
+
+import java.util.List;
+import java.util.UUID;
+
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+
+public class PageResultBean extends DataSetResultBean
+{
+	private static final long serialVersionUID = 1L;
+
+	private final UUID cursor;
+	private final long page;
+	private final boolean last;
+
+	public PageResultBean(UUID cursor, long page, boolean last, DataSetMetadata structure, List<DataPoint> datapoints)
+	{
+		super("PAGE", structure, datapoints.stream());
+		
+		this.cursor = cursor;
+		this.page = page;
+		this.last = last;
+	}
+
+	public UUID getCursor()
+	{
+		return cursor;
+	}
+
+	public long getPage()
+	{
+		return page;
+	}
+
+	public boolean isLast()
+	{
+		return last;
+	}
+}
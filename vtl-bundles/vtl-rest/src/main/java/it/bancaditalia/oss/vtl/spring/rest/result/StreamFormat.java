@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.spring.rest.result;
+
+import static java.util.stream.Collectors.toList;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.springframework.http.MediaType;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+
+/**
+ * Line-oriented formats used to write datapoints incrementally, as they are produced.
+ */
+public enum StreamFormat
+{
+	/**
+	 * A JSON object for each datapoint, one for each line.
+	 */
+	NDJSON(StreamFormat.APPLICATION_NDJSON_VALUE)
+	{
+		@Override
+		protected void writeHeader(List<String> names, Writer out)
+		{
+		}
+
+		@Override
+		protected void writeRow(List<String> names, ScalarValue<?, ?, ?, ?>[] values, Writer out) throws IOException
+		{
+			JsonGenerator gen = JSON.createGenerator(out);
+			gen.writeStartObject();
+			for (int i = 0; i < values.length; i++)
+			{
+				gen.writeFieldName(names.get(i));
+				writeJsonValue(gen, values[i].get());
+			}
+			gen.writeEndObject();
+			gen.flush();
+			out.write('\n');
+		}
+	}, 
+	
+	/**
+	 * A line with the names of the components, followed by a line for each datapoint.
+	 */
+	CSV(StreamFormat.TEXT_CSV_VALUE)
+	{
+		@Override
+		protected void writeHeader(List<String> names, Writer out) throws IOException
+		{
+			for (int i = 0; i < names.size(); i++)
+			{
+				if (i > 0)
+					out.write(',');
+				out.write(quoteCsv(names.get(i)));
+			}
+			out.write("\r\n");
+		}
+
+		@Override
+		protected void writeRow(List<String> names, ScalarValue<?, ?, ?, ?>[] values, Writer out) throws IOException
+		{
+			for (int i = 0; i < values.length; i++)
+			{
+				if (i > 0)
+					out.write(',');
+				Object value = values[i].get();
+				if (value != null)
+					out.write(quoteCsv(value.toString()));
+			}
+			out.write("\r\n");
+		}
+	};
+
+	public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+	public static final String TEXT_CSV_VALUE = "text/csv";
+	
+	// the generators must not flush the response at each datapoint 
+	private static final JsonFactory JSON = new JsonFactory()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+			.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+	private final MediaType mediaType;
+
+	private StreamFormat(String mediaType)
+	{
+		this.mediaType = MediaType.parseMediaType(mediaType);
+	}
+	
+	/**
+	 * @return The media type of this format
+	 */
+	public MediaType getMediaType()
+	{
+		return mediaType;
+	}
+	
+	/**
+	 * Selects the format matching the content of an Accept header.
+	 * 
+	 * @param accept The value of the Accept header
+	 * @return The first accepted format, or {@link #NDJSON} if none is explicitly accepted
+	 */
+	public static StreamFormat negotiate(String accept)
+	{
+		if (accept != null)
+			for (MediaType accepted: MediaType.parseMediaTypes(accept))
+				for (StreamFormat format: values())
+					if (accepted.getType().equals(format.mediaType.getType()) && accepted.getSubtype().equals(format.mediaType.getSubtype()))
+						return format;
+		
+		return NDJSON;
+	}
+
+	/**
+	 * Writes some datapoints having a given structure.
+	 * 
+	 * @param structure The structure of the datapoints
+	 * @param datapoints The datapoints to write
+	 * @param limit The maximum number of datapoints to write
+	 * @param out The destination
+	 * @return The number of datapoints written
+	 * @throws IOException if the destination cannot be written
+	 */
+	public long write(DataSetMetadata structure, Iterator<DataPoint> datapoints, long limit, Writer out) throws IOException
+	{
+		List<DataStructureComponent<?, ?, ?>> components = new ArrayList<>(structure);
+		List<String> names = components.stream().map(DataStructureComponent::getName).collect(toList());
+		ScalarValue<?, ?, ?, ?>[] row = new ScalarValue<?, ?, ?, ?>[components.size()];
+		
+		writeHeader(names, out);
+		long count = 0;
+		while (count < limit && datapoints.hasNext())
+		{
+			DataPoint dp = datapoints.next();
+			for (int i = 0; i < row.length; i++)
+				row[i] = dp.get(components.get(i));
+			writeRow(names, row, out);
+			count++;
+		}
+		
+		out.flush();
+		return count;
+	}
+
+	/**
+	 * Writes a scalar value as a single row with a single column.
+	 * 
+	 * @param alias The name of the column 
+	 * @param value The value
+	 * @param out The destination
+	 * @throws IOException if the destination cannot be written
+	 */
+	public void write(String alias, ScalarValue<?, ?, ?, ?> value, Writer out) throws IOException
+	{
+		List<String> names = new ArrayList<>();
+		names.add(alias);
+		writeHeader(names, out);
+		writeRow(names, new ScalarValue<?, ?, ?, ?>[] { value }, out);
+		out.flush();
+	}
+	
+	protected abstract void writeHeader(List<String> names, Writer out) throws IOException;
+
+	protected abstract void writeRow(List<String> names, ScalarValue<?, ?, ?, ?>[] values, Writer out) throws IOException;
+
+	private static void writeJsonValue(JsonGenerator gen, Object value) throws IOException
+	{
+		if (value == null)
+			gen.writeNull();
+		else if (value instanceof Double || value instanceof Float)
+			gen.writeNumber(((Number) value).doubleValue());
+		else if (value instanceof BigDecimal)
+			gen.writeNumber((BigDecimal) value);
+		else if (value instanceof Number)
+			gen.writeNumber(((Number) value).longValue());
+		else if (value instanceof Boolean)
+			gen.writeBoolean((Boolean) value);
+		else
+			gen.writeString(value.toString());
+	}
+	
+	private static String quoteCsv(String value)
+	{
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+			return value;
+		else
+			return '"' + value.replace("\"", "\"\"") + '"';
+	}
+}
@@ -22,6 +22,7 @@ package it.bancaditalia.oss.vtl.spring.rest;
 import static io.restassured.RestAssured.given;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.matchesPattern;
+import static org.springframework.http.HttpStatus.BAD_REQUEST;
 import static org.springframework.http.HttpStatus.OK;
 import static org.springframework.restdocs.headers.HeaderDocumentation.headerWithName;
 import static org.springframework.restdocs.headers.HeaderDocumentation.requestHeaders;
@@ -174,4 +175,48 @@ public class VTLRESTfulServicesTest
 			.and()
 				.body("value", equalTo(3));
 	}
+
+	@Order(4)
+	@Test
+	public void testResolveStreaming() throws Throwable
+	{
+		given(documentationSpec)
+			.param("alias", "c")
+			.param("uuid", uuid)
+			.cookie("JSESSIONID", jSessionID)
+			.port(port)
+			.accept("application/x-ndjson")
+			.filter(document("resolve-ndjson", 
+				requestParameters(
+					parameterWithName("uuid").description("The unique identifier of the VTL session"),
+					parameterWithName("alias").description("The alias of the object whose value is streamed")
+				), requestHeaders(
+					headerWithName("JSESSIONID").description("The Java Servlet server session cookie.").optional()
+				)
+			))
+		.when()
+			.get("/resolve")
+		.then().assertThat()
+				.statusCode(OK.value())
+			.and()
+				.contentType("application/x-ndjson")
+			.and()
+				.body(equalTo("{\"c\":3}\n"));
+	}
+
+	@Order(5)
+	@Test
+	public void testScalarCursor() throws Throwable
+	{
+		given()
+			.urlEncodingEnabled(true)
+			.formParam("alias", "c")
+			.formParam("uuid", uuid)
+			.cookie("JSESSIONID", jSessionID)
+			.port(port)
+		.when()
+			.post("/cursor")
+		.then().assertThat()
+				.statusCode(BAD_REQUEST.value());
+	}
 }
@@ -23,7 +23,11 @@ import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
 import static java.util.stream.Collectors.toSet;
 
 import java.io.Serializable;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.function.UnaryOperator;
 
@@ -35,26 +39,51 @@ import it.bancaditalia.oss.vtl.model.data.ValueDomain;
 import it.bancaditalia.oss.vtl.model.domain.StringDomain;
 import it.bancaditalia.oss.vtl.model.domain.StringEnumeratedDomainSubset;
 
+/**
+ * A code list whose items are interned: each item is created once, with an ordinal 
+ * reflecting the lexicographic order of the codes, and {@link #cast(ScalarValue)}
+ * always returns the canonical instance. 
+ * 
+ * Comparisons between items of the same code list only compare the ordinals, and 
+ * equality checks between them are resolved by identity.
+ */
 public class StringCodeList implements StringEnumeratedDomainSubset, Serializable
 {
 	private static final long serialVersionUID = 1L;
 
 	private final String name; 
-	private final Set<StringCodeItemImpl> items = new HashSet<>();
+	private final StringCodeItemImpl codes[];
+	private final Map<String, StringCodeItemImpl> lookup;
+	private final Set<StringCodeItemImpl> items;
 	private final int hashCode;
 
 	public class StringCodeItemImpl extends StringValue<StringCodeItemImpl, StringEnumeratedDomainSubset> implements StringCodeItem<StringCodeItemImpl>
 	{
 		private static final long serialVersionUID = 1L;
+		
+		private final int ordinal;
 
-		public StringCodeItemImpl(String value)
+		private StringCodeItemImpl(String value, int ordinal)
 		{
 			super(value, StringCodeList.this);
+			
+			this.ordinal = ordinal;
 		}
 
+		/**
+		 * @return the position of this item in the lexicographically ordered items of its code list.
+		 */
+		public int getOrdinal()
+		{
+			return ordinal;
+		}
+		
 		@Override
 		public int compareTo(ScalarValue<?, ?, ?, ?> o)
 		{
+			if (o instanceof StringCodeItemImpl && ((StringCodeItemImpl) o).getDomain() == getDomain())
+				return Integer.compare(ordinal, ((StringCodeItemImpl) o).ordinal);
+			
 			return get().compareTo((String) STRINGDS.cast(o).get());
 		}
 
@@ -69,8 +98,17 @@ public class StringCodeList implements StringEnumeratedDomainSubset, Serializabl
 	{
 		this.name = name;
 		this.hashCode = 31 + name.hashCode();
-		for (String item: items)
-			this.items.add(new StringCodeItemImpl(item));
+		
+		String sorted[] = items.toArray(new String[items.size()]);
+		Arrays.sort(sorted);
+		this.codes = new StringCodeItemImpl[sorted.length];
+		this.lookup = new HashMap<>(sorted.length * 4 / 3 + 1);
+		for (int i = 0; i < sorted.length; i++)
+		{
+			codes[i] = new StringCodeItemImpl(sorted[i], i);
+			lookup.put(sorted[i], codes[i]);
+		}
+		this.items = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(codes)));
 	}
 	
 	@Override
@@ -100,18 +138,27 @@ public class StringCodeList implements StringEnumeratedDomainSubset, Serializabl
 	@Override
 	public StringCodeItemImpl cast(ScalarValue<?, ?, ?, ?> value)
 	{
-		if (value instanceof StringCodeItem && items.contains(value))
+		if (value instanceof StringCodeItemImpl && value.getDomain() == this)
 			return (StringCodeItemImpl) value;
 		else if (value instanceof StringValue)
 		{
-			StringCodeItemImpl item = new StringCodeItemImpl((String) value.get());
-			if (items.contains(item))
+			StringCodeItemImpl item = lookup.get(value.get());
+			if (item != null)
 				return item;
 		}
 
 		throw new VTLCastException(this, value);
 	}
 
+	/**
+	 * @param ordinal the ordinal of an item of this code list
+	 * @return the canonical item with the given ordinal.
+	 */
+	public StringCodeItemImpl getCodeItem(int ordinal)
+	{
+		return codes[ordinal];
+	}
+
 	@Override
 	public boolean isAssignableFrom(ValueDomain other)
 	{
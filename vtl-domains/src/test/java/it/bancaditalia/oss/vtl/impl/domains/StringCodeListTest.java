@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.domains;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.exceptions.VTLCastException;
+import it.bancaditalia.oss.vtl.impl.domains.StringCodeList.StringCodeItemImpl;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+
+public class StringCodeListTest
+{
+	private static final StringCodeList CODELIST = new StringCodeList("CL_TEST", new HashSet<>(Arrays.asList("C", "A", "D", "B")));
+	
+	@Test
+	public void castTest()
+	{
+		StringCodeItemImpl item = CODELIST.cast(StringValue.of("B"));
+		assertSame(item, CODELIST.cast(StringValue.of("B")), "Items are not canonical");
+		assertSame(item, CODELIST.cast(item), "Items are not canonical");
+		assertSame(item, CODELIST.getCodeItem(item.getOrdinal()), "Wrong ordinal");
+		assertEquals(StringValue.of("B"), item, "Item is different from its string value");
+		assertEquals(StringValue.of("B").hashCode(), item.hashCode(), "Item hash is different from its string value");
+		assertThrows(VTLCastException.class, () -> CODELIST.cast(StringValue.of("E")));
+	}
+
+	@Test
+	public void orderTest()
+	{
+		String codes[] = { "A", "B", "C", "D" };
+		for (int i = 0; i < codes.length; i++)
+		{
+			StringCodeItemImpl item = CODELIST.cast(StringValue.of(codes[i]));
+			assertEquals(i, item.getOrdinal(), "Wrong ordinal for " + codes[i]);
+			for (int j = 0; j < codes.length; j++)
+			{
+				int expected = Integer.signum(codes[i].compareTo(codes[j]));
+				assertEquals(expected, Integer.signum(item.compareTo(CODELIST.cast(StringValue.of(codes[j])))), "Wrong item order");
+				assertEquals(expected, Integer.signum(item.compareTo(StringValue.of(codes[j]))), "Wrong order with string");
+			}
+		}
+		
+		StringCodeList other = new StringCodeList("CL_OTHER", new HashSet<>(Arrays.asList("0", "C")));
+		assertTrue(CODELIST.cast(StringValue.of("B")).compareTo(other.cast(StringValue.of("C"))) < 0, "Wrong order across code lists");
+	}
+}
@@ -19,6 +19,8 @@
  */
 package it.bancaditalia.oss.vtl.impl.engine;
 
+import static java.util.stream.Collectors.toList;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -119,7 +121,14 @@ public class JavaVTLEngine extends VtlBaseVisitor<Stream<Statement>> implements
 		Vtl parser = new Vtl(new CommonTokenStream(new VtlTokens(charStream)));
 		parser.removeErrorListeners();
 		parser.addErrorListener(ThrowingErrorListener.INSTANCE);
-		return parser.start().accept(this);
+		StartContext start = parser.start();
+		
+		// expressions are reused and shared only inside the same script
+		synchronized (statementFactory)
+		{
+			statementFactory.clearCache();
+			return start.accept(this).collect(toList()).stream();
+		}
 	}
 
 	@Override
@@ -43,6 +43,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import javax.xml.bind.JAXBContext;
@@ -58,6 +59,8 @@ import org.antlr.v4.runtime.tree.TerminalNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
 import it.bancaditalia.oss.vtl.exceptions.VTLNestedException;
 import it.bancaditalia.oss.vtl.grammar.Vtl;
 import it.bancaditalia.oss.vtl.grammar.VtlTokens;
@@ -84,6 +87,7 @@ import it.bancaditalia.oss.vtl.impl.engine.mapping.xml.Tokenscheck;
 import it.bancaditalia.oss.vtl.impl.engine.mapping.xml.Tokenset;
 import it.bancaditalia.oss.vtl.impl.engine.mapping.xml.Tokensetparam;
 import it.bancaditalia.oss.vtl.impl.engine.mapping.xml.Valueparam;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
 import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
 import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
@@ -95,6 +99,7 @@ import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.ViralAttribute;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
 import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.util.TriFunction;
 
@@ -116,11 +121,22 @@ public class OpsFactory implements Serializable
 	private static final Logger LOGGER = LoggerFactory.getLogger(OpsFactory.class);
 	private static final String MAPPING_FILENAME = OpsFactory.class.getName().replaceAll("\\.", "/") + ".xml";
 
+	public static final VTLProperty VTL_ENGINE_CSE_THRESHOLD = 
+			new VTLPropertyImpl("vtl.engine.cse.threshold", "Minimum number of nodes of an expression occurring in more than one place to be computed only once (0 to disable)", "5", false, false, "5");
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(OpsFactory.class, VTL_ENGINE_CSE_THRESHOLD);
+	}
+
 	private final Map<Class<? extends Nonnullparam>, TriFunction<ParserRuleContext, Integer, Nonnullparam, Object>> paramMappers = new HashMap<>();
 	private final Map<Class<? extends ParserRuleContext>, List<Mapping>> mappings = new HashMap<>();
 	private final Map<String, Tokenset> tokensets = new HashMap<>();
 	private final Set<Class<? extends ParserRuleContext>> recursivecontexts = new HashSet<>();
 	private final Map<Transformation, Transformation> transformationCache = new HashMap<>();
+	private final Map<Transformation, Integer> transformationCosts = new HashMap<>();
+	private final Map<Transformation, SharedTransformationImpl> sharedTransformations = new HashMap<>();
+	private final AtomicInteger sharedCount = new AtomicInteger();
 
 	public OpsFactory() throws JAXBException, ClassNotFoundException, IOException
 	{
@@ -187,6 +203,17 @@ public class OpsFactory implements Serializable
 			recursivecontexts.add(Class.forName(Vtl.class.getName() + "$" + context.getName()).asSubclass(ParserRuleContext.class));
 	}
 
+	/**
+	 * Forgets the expressions built so far, so that expressions are reused and shared only inside the same script.
+	 * Not thread safe: the caller must not build expressions while clearing.
+	 */
+	public void clearCache()
+	{
+		transformationCache.clear();
+		transformationCosts.clear();
+		sharedTransformations.clear();
+	}
+
 	public Transformation buildExpr(ParserRuleContext ctx)
 	{
 		String ctxText = ctx.start.getInputStream().getText(new Interval(ctx.start.getStartIndex(), ctx.stop.getStopIndex()));
@@ -238,6 +265,7 @@ public class OpsFactory implements Serializable
 					}
 
 					Constructor<?> constructor = findConstructor(target, args, level);
+					List<SharedTransformationImpl> shared = shareOperands(constructor, args);
 					LOGGER.trace("|{}<< Invoking constructor for {} with {}", tabs, target.getSimpleName(), args);
 
 					Transformation transformation = (Transformation) constructor.newInstance(args.toArray());
@@ -245,6 +273,13 @@ public class OpsFactory implements Serializable
 					Transformation cached = transformationCache.get(transformation);
 					if (cached != transformation)
 						LOGGER.debug("Reused transformation from cache: {} instead of {}", cached, transformation);
+					else
+					{
+						transformationCosts.put(transformation, 1 + cost(args));
+						// a reused transformation already refers to the same shared operands
+						for (SharedTransformationImpl operand: shared)
+							operand.addReference();
+					}
 					return cached;
 				}
 			}
@@ -257,6 +292,49 @@ public class OpsFactory implements Serializable
 		throw new VTLUnmappedContextException(ctx);
 	}
 
+	/*
+	 * Replaces the operands passed as a generic Transformation and bigger than the threshold with 
+	 * their shared wrappers. Structurally equal operands are the same cached instance, so
+	 * each of them is wrapped by a single shared transformation, whatever rule of the script it is found in.
+	 * Aliases are never reused, since a session may hold the rules of several scripts.
+	 */
+	private List<SharedTransformationImpl> shareOperands(Constructor<?> constructor, List<Object> args)
+	{
+		int threshold = Integer.parseInt(VTL_ENGINE_CSE_THRESHOLD.getValue());
+		List<SharedTransformationImpl> shared = new ArrayList<>();
+		if (threshold <= 0)
+			return shared;
+
+		Class<?>[] parameterTypes = constructor.getParameterTypes();
+		for (int i = 0; i < args.size(); i++)
+			if (parameterTypes[i] == Transformation.class && args.get(i) instanceof Transformation && cost(args.get(i)) >= threshold)
+			{
+				SharedTransformationImpl operand = sharedTransformations.computeIfAbsent((Transformation) args.get(i), 
+						t -> new SharedTransformationImpl("$shared" + sharedCount.incrementAndGet(), t));
+				args.set(i, operand);
+				shared.add(operand);
+			}
+		
+		return shared;
+	}
+
+	/*
+	 * The number of transformations found in a constructor argument
+	 */
+	private int cost(Object arg)
+	{
+		if (arg instanceof SharedTransformation)
+			return cost(((SharedTransformation) arg).getExpression());
+		else if (arg instanceof Transformation)
+			return transformationCosts.getOrDefault(arg, 1);
+		else if (arg instanceof Collection)
+			return ((Collection<?>) arg).stream().mapToInt(this::cost).sum();
+		else if (arg instanceof Map)
+			return cost(((Map<?, ?>) arg).values());
+		else
+			return 0;
+	}
+
 	private Constructor<?> findConstructor(Class<?> target, List<Object> args, int level)
 	{
 		if (!Transformation.class.isAssignableFrom(target))
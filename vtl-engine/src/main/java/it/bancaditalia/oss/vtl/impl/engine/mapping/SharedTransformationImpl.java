@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.engine.mapping;
+
+import java.io.Serializable;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
+import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+/**
+ * Wraps an operand built more than once by the {@link OpsFactory}. 
+ * The wrapper counts the distinct expressions referring to it, and it is 
+ * resolved through the scheme only when there is more than one of them.
+ */
+class SharedTransformationImpl implements SharedTransformation, Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private final String alias;
+	private final Transformation expression;
+	private final AtomicInteger references = new AtomicInteger();
+
+	public SharedTransformationImpl(String alias, Transformation expression)
+	{
+		this.alias = alias;
+		this.expression = expression;
+	}
+
+	void addReference()
+	{
+		references.incrementAndGet();
+	}
+	
+	@Override
+	public String getAlias()
+	{
+		return alias;
+	}
+
+	@Override
+	public Transformation getExpression()
+	{
+		return expression;
+	}
+
+	@Override
+	public boolean isTerminal()
+	{
+		return expression.isTerminal();
+	}
+
+	@Override
+	public Set<LeafTransformation> getTerminals()
+	{
+		return expression.getTerminals();
+	}
+
+	@Override
+	public VTLValue eval(TransformationScheme scheme)
+	{
+		return references.get() > 1 ? scheme.resolveShared(alias, expression) : expression.eval(scheme);
+	}
+
+	@Override
+	public VTLValueMetadata getMetadata(TransformationScheme scheme)
+	{
+		return expression.getMetadata(scheme);
+	}
+
+	@Override
+	public Lineage getLineage()
+	{
+		return expression.getLineage();
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 + expression.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj) return true;
+		if (!(obj instanceof SharedTransformationImpl)) return false;
+		return expression.equals(((SharedTransformationImpl) obj).expression);
+	}
+
+	@Override
+	public String toString()
+	{
+		return expression.toString();
+	}
+}
@@ -80,6 +80,14 @@ public class StatementFactory implements Serializable
 		this.opsFactory = new OpsFactory();
 	}
 
+	/**
+	 * @see OpsFactory#clearCache()
+	 */
+	public void clearCache()
+	{
+		opsFactory.clearCache();
+	}
+
 	public Statement createStatement(StatementContext ctx) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InvocationTargetException, NoSuchMethodException, ClassNotFoundException, InstantiationException
 	{
 		if (ctx instanceof TemporaryAssignmentContext)
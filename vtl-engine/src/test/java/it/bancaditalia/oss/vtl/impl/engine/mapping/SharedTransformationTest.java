@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.engine.mapping;
+
+import static it.bancaditalia.oss.vtl.impl.engine.mapping.OpsFactory.VTL_ENGINE_CSE_THRESHOLD;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.engine.Statement;
+import it.bancaditalia.oss.vtl.impl.engine.JavaVTLEngine;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
+import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+public class SharedTransformationTest
+{
+	private static final DataStructureComponent<?, ?, ?> ID = DataStructureComponentImpl.of("id_1", Identifier.class, STRINGDS);
+	private static final DataStructureComponent<?, ?, ?> ME = DataStructureComponentImpl.of("m_1", Measure.class, INTEGERDS);
+	private static final DataSetMetadata STRUCTURE = new DataStructureBuilder(ID, ME).build();
+	
+	private String threshold;
+	private JavaVTLEngine engine;
+	private TransformationScheme scheme;
+	// the shared expressions computed by the scheme, in order
+	private List<String> computed;
+
+	@BeforeEach
+	public void before() throws Exception
+	{
+		threshold = VTL_ENGINE_CSE_THRESHOLD.getValue();
+		engine = new JavaVTLEngine();
+		computed = new ArrayList<>();
+		scheme = mockScheme();
+	}
+	
+	@AfterEach
+	public void after()
+	{
+		VTL_ENGINE_CSE_THRESHOLD.setValue(threshold);
+	}
+
+	@Test
+	public void sharedOnceTest()
+	{
+		VTL_ENGINE_CSE_THRESHOLD.setValue("5");
+		Map<String, Statement> rules = parse("a := (1 + 2 + 3 + 4) * 2; b := (1 + 2 + 3 + 4) * 3; c := 1 + 2 + 3 + 4 + 5;");
+		
+		assertEquals(20L, value(rules.get("a").eval(scheme)));
+		assertEquals(30L, value(rules.get("b").eval(scheme)));
+		assertEquals(15L, value(rules.get("c").eval(scheme)));
+		
+		// only 1 + 2 + 3 + 4 is referred by more than one expression
+		assertEquals(1, computed.size(), "Shared expressions computed: " + computed);
+		verify(scheme, times(3)).resolveShared(eq(computed.get(0)), any());
+	}
+
+	@Test
+	public void datapointScopeTest()
+	{
+		VTL_ENGINE_CSE_THRESHOLD.setValue("5");
+		Map<String, Statement> rules = parse("r := ds[calc m_2 := (m_1 + 1 + 2 + 3) * 2, m_3 := (m_1 + 1 + 2 + 3) * 3];");
+		
+		List<DataPoint> result = ((DataSet) rules.get("r").eval(scheme)).stream().collect(toList());
+		
+		// operands shared inside a datapoint scope are evaluated for each datapoint
+		verify(scheme, never()).resolveShared(anyString(), any());
+		assertEquals(2, result.size());
+		for (DataPoint dp: result)
+		{
+			long m1 = (Long) value(dp, "m_1");
+			assertEquals((m1 + 6) * 2, value(dp, "m_2"));
+			assertEquals((m1 + 6) * 3, value(dp, "m_3"));
+		}
+	}
+
+	@Test
+	public void aliasesTest()
+	{
+		VTL_ENGINE_CSE_THRESHOLD.setValue("5");
+		Map<String, Statement> first = parse("a := (1 + 2 + 3 + 4) * 2; b := (1 + 2 + 3 + 4) * 3;");
+		Map<String, Statement> second = parse("c := (5 + 6 + 7 + 8) * 2; d := (5 + 6 + 7 + 8) * 3;");
+		
+		// the same scheme holds the rules of both scripts
+		assertEquals(20L, value(first.get("a").eval(scheme)));
+		assertEquals(52L, value(second.get("c").eval(scheme)));
+		assertEquals(30L, value(first.get("b").eval(scheme)));
+		assertEquals(78L, value(second.get("d").eval(scheme)));
+		
+		assertEquals(2, computed.size());
+		assertNotEquals(computed.get(0), computed.get(1));
+	}
+
+	@Test
+	public void pushDownTest()
+	{
+		// every operand is wrapped
+		VTL_ENGINE_CSE_THRESHOLD.setValue("1");
+		Map<String, Statement> rules = parse("r := ds[filter id_1 = \"A\"]; s := ds[filter id_1 = \"A\"][calc m_2 := m_1 * 2];");
+		
+		DataSet r = (DataSet) rules.get("r").eval(scheme);
+		DataSet s = (DataSet) rules.get("s").eval(scheme);
+		
+		verify(scheme, times(2)).resolve(eq("ds"), eq(singletonMap("id_1", StringValue.of("A"))), anySet());
+		assertEquals(1, r.stream().collect(toList()).size());
+		assertEquals(1, s.stream().collect(toList()).size());
+	}
+
+	private Map<String, Statement> parse(String script)
+	{
+		return engine.parseRules(script).collect(toMap(Statement::getId, Function.identity()));
+	}
+
+	private static Object value(VTLValue value)
+	{
+		return ((ScalarValue<?, ?, ?, ?>) value).get();
+	}
+
+	private static Object value(DataPoint dp, String name)
+	{
+		return dp.entrySet().stream().filter(e -> e.getKey().getName().equals(name)).findAny().get().getValue().get();
+	}
+
+	/*
+	 * A scheme holding the dataset ds, that computes each shared expression only once
+	 */
+	private TransformationScheme mockScheme()
+	{
+		DataSet ds = new LightDataSet(STRUCTURE, () -> Stream.of("A", "B")
+				.map(id -> new DataPointBuilder()
+					.add(ID, StringValue.of(id))
+					.add(ME, IntegerValue.of((long) id.charAt(0)))
+					.build(LineageExternal.of("ds"), STRUCTURE)));
+		
+		TransformationScheme scheme = mock(TransformationScheme.class);
+		when(scheme.getMetadata(anyString())).thenReturn(STRUCTURE);
+		when(scheme.resolve(anyString())).thenReturn(ds);
+		when(scheme.resolve(anyString(), anyMap(), anySet())).thenReturn(ds);
+		when(scheme.getMetadata(any(Transformation.class), any())).thenAnswer(mock -> mock.<Supplier<?>>getArgument(1).get());
+		
+		Map<String, VTLValue> shared = new HashMap<>();
+		when(scheme.resolveShared(anyString(), any())).thenAnswer(mock -> {
+			String alias = mock.getArgument(0);
+			VTLValue value = shared.get(alias);
+			if (value == null)
+			{
+				computed.add(alias);
+				value = mock.<Transformation>getArgument(1).eval(scheme);
+				shared.put(alias, value);
+			}
+			return value;
+		});
+		
+		return scheme;
+	}
+}
@@ -27,7 +27,7 @@ import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static java.util.Objects.isNull;
+import static java.nio.file.StandardOpenOption.READ;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -35,18 +35,21 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -62,7 +65,6 @@ import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
-import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
 import it.bancaditalia.oss.vtl.impl.types.dataset.LightFDataSet;
@@ -91,7 +93,6 @@ import it.bancaditalia.oss.vtl.util.Utils;
 
 public class CSVFileEnvironment implements Environment
 {
-	private static final Pattern TOKEN_PATTERN = Pattern.compile("(?:,|\n|^)(\"(?:(?:\"\")*[^\"]*)*\"|([^\",\n]*)|(?:\n|$))");
 	private static final Logger LOGGER = LoggerFactory.getLogger(CSVFileEnvironment.class);
 	private static final String DATE_DOMAIN_PATTERN = "^[Dd][Aa][Tt][Ee]\\[(.*)\\]$";
 	private static final String BOOLEAN_DOMAIN_PATTERN = "^[Bb][Oo][Oo][Ll](?:[Ee][Aa][Nn])?$";
@@ -126,64 +127,95 @@ public class CSVFileEnvironment implements Environment
 		}
 	}
 	
-	@SuppressWarnings("resource")
+	/**
+	 * Rows with different identifier values are skipped right after parsing them,  
+	 * and the values of the unused components are not parsed at all.
+	 */
+	@Override
+	public Optional<VTLValue> getValue(String name, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		if (!contains(name))
+			return Optional.empty();
+
+		String fileName = name.substring(4);
+		
+		LOGGER.debug("Looking for csv file '{}' with keys {} and components {}", fileName, keyValues, components);
+
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), UTF_8)))
+		{
+			final DataSetMetadata structure = new DataStructureBuilder(extractMetadata(reader.readLine().split(",")).getKey()).build();
+			
+			return Optional.of(new LightFDataSet<>(structure, f -> streamFileName(f, keyValues, components), fileName));
+		}
+		catch (IOException e)
+		{
+			throw new VTLNestedException("Exception while reading " + fileName, e);
+		}
+	}
+	
+	@Override
+	public Optional<String> getFingerprint(String name)
+	{
+		if (!contains(name))
+			return Optional.empty();
+		
+		Path path = Paths.get(name.substring(4)).toAbsolutePath();
+		try
+		{
+			return Optional.of("csv:" + path + ":" + Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis());
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Cannot access " + path, e);
+			return Optional.empty();
+		}
+	}
+	
 	protected Stream<DataPoint> streamFileName(String fileName)
 	{
+		return streamFileName(fileName, Collections.emptyMap(), null);
+	}
+	
+	@SuppressWarnings("resource")
+	protected Stream<DataPoint> streamFileName(String fileName, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		Entry<List<DataStructureComponent<?, ?, ?>>, Map<DataStructureComponent<?, ?, ?>, String>> headerInfo;
 		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), UTF_8)))
 		{
-			Entry<List<DataStructureComponent<?, ?, ?>>, Map<DataStructureComponent<?, ?, ?>, String>> headerInfo = extractMetadata(reader.readLine().split(","));
-			List<DataStructureComponent<?, ?, ?>> metadata = headerInfo.getKey();
-			Map<DataStructureComponent<?, ?, ?>, String> masks = headerInfo.getValue();
-			final DataSetMetadata structure = new DataStructureBuilder(metadata).build();
+			headerInfo = extractMetadata(reader.readLine().split(","));
+		}
+		catch (IOException e)
+		{
+			throw new VTLNestedException("Exception while reading " + fileName, e);
+		}
 
-			LOGGER.info("Counting lines on {}...", fileName);
-			long lineCount = countLines(reader);
-			LOGGER.info("Reading {} lines from {}...", lineCount, fileName);
-	
-			// Do not close this reader!
-			BufferedReader innerReader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), UTF_8));
-			
-			// Skip header
-			innerReader.readLine();
-			
-			Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Boolean> set = new ConcurrentHashMap<>();
-			return ProgressWindow.of("Loading CSV", lineCount, Utils.getStream(innerReader.lines()))
-				// Skip empty lines
-				.filter(line -> !line.trim().isEmpty())
-				.peek(line -> LOGGER.trace("Parsing line from CSV: {}", line))
-				.map(line -> {
-					Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> result = new HashMap<>();
+		List<DataStructureComponent<?, ?, ?>> metadata = headerInfo.getKey();
+		Map<DataStructureComponent<?, ?, ?>, String> masks = headerInfo.getValue();
+		final DataSetMetadata structure = new DataStructureBuilder(metadata).build();
+		
+		Set<DataStructureComponent<?, ?, ?>> used = components == null ? null : new HashSet<>();
+		Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> expected = new HashMap<>();
+		for (DataStructureComponent<?, ?, ?> component: metadata)
+		{
+			ScalarValue<?, ?, ?, ?> value = keyValues.get(component.getName());
+			if (value != null && component.is(Identifier.class) && component.getDomain().isAssignableFrom(value.getDomain()))
+				expected.put(component, component.getDomain().cast(value));
+			if (used != null && (component.is(Identifier.class) || components.contains(component.getName())))
+				used.add(component);
+		}
+
+		FileChannel channel = null;
+		try
+		{
+			// Do not close this channel!
+			channel = FileChannel.open(Paths.get(fileName), READ);
+			CSVSpliterator spliterator = new CSVSpliterator(channel, metadata, masks, structure, LineageExternal.of("csv:" + fileName), used, expected);
+			long lineCount = spliterator.estimateLines();
+			LOGGER.info("Reading about {} lines from {}...", lineCount, fileName);
 
-					// Perform split by repeatedly matching the line against the regex
-					int count = 0;
-					Matcher tokenizer = TOKEN_PATTERN.matcher(line);
-					// match only the declared components, skip remaining values
-					while (count < metadata.size())
-						if (tokenizer.find())
-						{
-							// 1 is the matched token
-							String token = tokenizer.group(1);
-							// group 2 is matched if the string field is not quoted
-							if (isNull(tokenizer.group(2)))
-								// dequote quoted string and replace ""
-								token = token.replaceAll("^\"(.*)\"$", "$1").replaceAll("\"\"", "\"");
-							else
-								// trim unquoted string
-								token = token.trim();
-							// parse field value into a VTL scalar 
-							DataStructureComponent<?, ?, ?> component = metadata.get(count);
-							result.put(component, mapValue(component, token, masks.get(component)));
-							count++;
-						}
-						else
-							throw new IllegalStateException("Expected value for " + metadata.get(count) + " but the row ended before it:\n" + line);
-					if (tokenizer.end() < line.length() - 1)
-						LOGGER.warn("Skipped trailing characters in line: " + line.substring(tokenizer.end() + 1));
-					
-					return result;
-				})
-				.map(m -> new DataPointBuilder(m).build(LineageExternal.of("csv:" + fileName), structure))
-				.peek(dp -> LOGGER.trace("Parsed datapoint from CSV: {}", dp))
+			final FileChannel toClose = channel;
+			Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Boolean> set = new ConcurrentHashMap<>();
+			return ProgressWindow.of("Loading CSV", lineCount, Utils.getStream(spliterator))
 				.peek(dp -> {
 					Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> values = dp.getValues(Identifier.class);
 					Boolean a = set.putIfAbsent(values, true);
@@ -193,7 +225,7 @@ public class CSVFileEnvironment implements Environment
 					try
 					{
 						LOGGER.info("Completed reading of {}.", fileName);
-						innerReader.close();
+						toClose.close();
 					}
 					catch (IOException e)
 					{
@@ -203,14 +235,27 @@ public class CSVFileEnvironment implements Environment
 		}
 		catch (IOException e)
 		{
+			if (channel != null)
+				try
+				{
+					channel.close();
+				}
+				catch (IOException e1)
+				{
+					e.addSuppressed(e1);
+				}
 			throw new VTLNestedException("Exception while reading " + fileName, e);
 		}
 	}
 
-	private ScalarValue<?, ?, ?, ?> mapValue(DataStructureComponent<?, ?, ?> component, final String stringRepresentation, String mask)
+	static ScalarValue<?, ?, ?, ?> mapValue(DataStructureComponent<?, ?, ?> component, final String stringRepresentation, String mask)
 	{
 		if (component.getDomain() instanceof StringDomainSubset)
-			return component.getDomain().cast(StringValue.of(stringRepresentation.matches("^\".*\"$") ? stringRepresentation.substring(1, stringRepresentation.length() - 1) : stringRepresentation));
+		{
+			int length = stringRepresentation.length();
+			boolean quoted = length > 1 && stringRepresentation.charAt(0) == '"' && stringRepresentation.charAt(length - 1) == '"';
+			return component.getDomain().cast(StringValue.of(quoted ? stringRepresentation.substring(1, length - 1) : stringRepresentation));
+		}
 		else if (component.getDomain() instanceof IntegerDomainSubset)
 			try
 			{
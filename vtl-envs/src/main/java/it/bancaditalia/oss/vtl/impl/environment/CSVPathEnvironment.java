@@ -24,7 +24,9 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,6 +35,7 @@ import it.bancaditalia.oss.sdmx.util.Utils.Function;
 import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
 import it.bancaditalia.oss.vtl.config.VTLProperty;
 import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 
@@ -80,6 +83,12 @@ public class CSVPathEnvironment extends CSVFileEnvironment
 		return mapper(alias, super::getValue);
 	}
 
+	@Override
+	public Optional<VTLValue> getValue(String alias, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		return mapper(alias, name -> super.getValue(name, keyValues, components));
+	}
+
 	private <T> Optional<T> mapper(String alias, Function<String, Optional<T>> mapper)
 	{
 		if (alias.startsWith("csv:"))
@@ -98,4 +107,10 @@ public class CSVPathEnvironment extends CSVFileEnvironment
 	{
 		return mapper(alias, super::getValueMetadata);
 	}
+
+	@Override
+	public Optional<String> getFingerprint(String alias)
+	{
+		return mapper(alias, super::getFingerprint);
+	}
 }
@@ -0,0 +1,529 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.environment;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.domain.BooleanDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.DateDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.IntegerDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.NumberDomainSubset;
+
+/**
+ * A {@link Spliterator} over a line-aligned byte range of a memory-mapped CSV file.
+ *
+ * Splitting happens on line boundaries, so that each part can be tokenized independently.
+ * Integer, number, boolean and YYYY-MM-DD date fields are parsed straight from the mapped bytes;
+ * any other field is decoded and handed to {@link CSVFileEnvironment#mapValue}.
+ *
+ * As with the previous line-based reader, quoted fields cannot span multiple lines.
+ * 
+ * Optionally, the values of unused columns are not parsed at all and replaced by nulls, 
+ * and rows whose identifiers do not have some expected values are skipped as soon as
+ * one of these identifiers is parsed.
+ */
+class CSVSpliterator implements Spliterator<DataPoint>
+{
+	private static final Logger LOGGER = LoggerFactory.getLogger(CSVSpliterator.class);
+	private static final long DEFAULT_MIN_SPLIT = 1 << 20;
+	private static final int WINDOW_SIZE = 1 << 26;
+	private static final int SAMPLE_SIZE = 1 << 16;
+	private static final double POWERS_OF_TEN[] = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private static final int STRING = 0;
+	private static final int INTEGER = 1;
+	private static final int NUMBER = 2;
+	private static final int BOOLEAN = 3;
+	private static final int DAY = 4;
+	private static final int OTHER = 5;
+
+	private final FileChannel channel;
+	private final DataStructureComponent<?, ?, ?> components[];
+	private final String masks[];
+	private final int kinds[];
+	private final ScalarValue<?, ?, ?, ?> skipped[];
+	private final ScalarValue<?, ?, ?, ?> expected[];
+	private final DataSetMetadata structure;
+	private final Lineage lineage;
+	private final double bytesPerLine;
+	private final long minSplit;
+
+	private long position;
+	private final long end;
+	private MappedByteBuffer window = null;
+	private long windowStart = 0;
+	private byte scratch[] = new byte[256];
+
+	/**
+	 * Creates a spliterator over the lines of the channel following the header.
+	 * 
+	 * @param used If not null, the values of the components not in this set are not parsed and replaced by nulls
+	 * @param keyValues If not null, only the rows having the given values of some identifiers are returned
+	 */
+	CSVSpliterator(FileChannel channel, List<DataStructureComponent<?, ?, ?>> metadata, Map<DataStructureComponent<?, ?, ?>, String> masks,
+			DataSetMetadata structure, Lineage lineage, long minSplit, Set<DataStructureComponent<?, ?, ?>> used, 
+			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues) throws IOException
+	{
+		this.channel = channel;
+		this.components = metadata.toArray(new DataStructureComponent<?, ?, ?>[metadata.size()]);
+		this.masks = new String[components.length];
+		this.kinds = new int[components.length];
+		this.skipped = new ScalarValue<?, ?, ?, ?>[components.length];
+		this.expected = new ScalarValue<?, ?, ?, ?>[components.length];
+		this.structure = structure;
+		this.lineage = lineage;
+		this.minSplit = minSplit;
+		this.position = nextLine(0);
+		this.end = channel.size();
+
+		for (int i = 0; i < components.length; i++)
+		{
+			this.masks[i] = masks.get(components[i]);
+			if (components[i].getDomain() instanceof IntegerDomainSubset)
+				kinds[i] = INTEGER;
+			else if (components[i].getDomain() instanceof NumberDomainSubset)
+				kinds[i] = NUMBER;
+			else if (components[i].getDomain() instanceof BooleanDomainSubset)
+				kinds[i] = BOOLEAN;
+			else if (components[i].getDomain() instanceof DateDomainSubset && "YYYY-MM-DD".equals(this.masks[i]))
+				kinds[i] = DAY;
+			else if (components[i].getDomain() instanceof DateDomainSubset)
+				kinds[i] = OTHER;
+			else
+				kinds[i] = STRING;
+			
+			if (keyValues != null)
+				expected[i] = keyValues.get(components[i]);
+			if (used != null && expected[i] == null && !used.contains(components[i]))
+				skipped[i] = NullValue.instanceFrom(components[i]);
+		}
+
+		this.bytesPerLine = sampleLineLength();
+	}
+
+	CSVSpliterator(FileChannel channel, List<DataStructureComponent<?, ?, ?>> metadata, Map<DataStructureComponent<?, ?, ?>, String> masks,
+			DataSetMetadata structure, Lineage lineage, long minSplit) throws IOException
+	{
+		this(channel, metadata, masks, structure, lineage, minSplit, null, null);
+	}
+
+	CSVSpliterator(FileChannel channel, List<DataStructureComponent<?, ?, ?>> metadata, Map<DataStructureComponent<?, ?, ?>, String> masks,
+			DataSetMetadata structure, Lineage lineage) throws IOException
+	{
+		this(channel, metadata, masks, structure, lineage, DEFAULT_MIN_SPLIT);
+	}
+
+	CSVSpliterator(FileChannel channel, List<DataStructureComponent<?, ?, ?>> metadata, Map<DataStructureComponent<?, ?, ?>, String> masks,
+			DataSetMetadata structure, Lineage lineage, Set<DataStructureComponent<?, ?, ?>> used, 
+			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues) throws IOException
+	{
+		this(channel, metadata, masks, structure, lineage, DEFAULT_MIN_SPLIT, used, keyValues);
+	}
+
+	private CSVSpliterator(CSVSpliterator parent, long position, long end)
+	{
+		this.channel = parent.channel;
+		this.components = parent.components;
+		this.masks = parent.masks;
+		this.kinds = parent.kinds;
+		this.skipped = parent.skipped;
+		this.expected = parent.expected;
+		this.structure = parent.structure;
+		this.lineage = parent.lineage;
+		this.bytesPerLine = parent.bytesPerLine;
+		this.minSplit = parent.minSplit;
+		this.position = position;
+		this.end = end;
+	}
+
+	/**
+	 * @return An estimate of the number of lines in the file, based on a sample of the first lines.
+	 */
+	long estimateLines()
+	{
+		return estimateSize();
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super DataPoint> action)
+	{
+		while (position < end)
+		{
+			int from = map(position);
+			int limit = window.limit();
+			int eol = from;
+			while (eol < limit && window.get(eol) != '\n')
+				eol++;
+
+			if (eol >= limit && windowStart + limit < end)
+			{
+				// the line crosses the end of the mapped window: remap starting from the line
+				remap(position, from == 0 ? limit * 2L : WINDOW_SIZE);
+				continue;
+			}
+
+			position = windowStart + eol + 1;
+			int to = eol > from && window.get(eol - 1) == '\r' ? eol - 1 : eol;
+			if (isBlank(from, to))
+				continue;
+
+			DataPoint dp = parse(from, to);
+			if (dp == null)
+				continue;
+			
+			LOGGER.trace("Parsed datapoint from CSV: {}", dp);
+			action.accept(dp);
+			return true;
+		}
+
+		return false;
+	}
+
+	@Override
+	public Spliterator<DataPoint> trySplit()
+	{
+		long remaining = end - position;
+		if (remaining < minSplit * 2)
+			return null;
+
+		long mid = nextLine(position + remaining / 2);
+		if (mid >= end)
+			return null;
+
+		CSVSpliterator prefix = new CSVSpliterator(this, position, mid);
+		position = mid;
+		return prefix;
+	}
+
+	@Override
+	public long estimateSize()
+	{
+		return (long) Math.ceil((end - position) / bytesPerLine);
+	}
+
+	@Override
+	public int characteristics()
+	{
+		return ORDERED | NONNULL | IMMUTABLE;
+	}
+
+	/*
+	 * Returns null if the row does not have the expected identifier values
+	 */
+	private DataPoint parse(int from, int to)
+	{
+		DataPointBuilder builder = new DataPointBuilder();
+		int pos = from;
+		for (int i = 0; i < components.length; i++)
+		{
+			if (pos > to)
+				throw new IllegalStateException("Expected value for " + components[i] + " but the row ended before it:\n" + decode(from, to, false));
+
+			int start = pos, stop;
+			boolean quoted = pos < to && window.get(pos) == '"', escaped = false;
+			if (quoted)
+			{
+				// quoted field: find closing quote, remembering if there are "" to unescape
+				stop = ++start;
+				while (stop < to)
+					if (window.get(stop) != '"')
+						stop++;
+					else if (stop + 1 < to && window.get(stop + 1) == '"')
+					{
+						escaped = true;
+						stop += 2;
+					}
+					else
+						break;
+				pos = stop + 1;
+				// skip anything following the closing quote
+				while (pos < to && window.get(pos) != ',')
+					pos++;
+			}
+			else
+			{
+				while (pos < to && window.get(pos) != ',')
+					pos++;
+				stop = pos;
+				// trim unquoted field
+				while (start < stop && (window.get(start) & 0xFF) <= ' ')
+					start++;
+				while (stop > start && (window.get(stop - 1) & 0xFF) <= ' ')
+					stop--;
+			}
+
+			if (skipped[i] != null)
+				builder.add(components[i], skipped[i]);
+			else
+			{
+				ScalarValue<?, ?, ?, ?> value = parseValue(i, start, stop, quoted, escaped);
+				if (expected[i] != null && !(value instanceof NullValue) && value.compareTo(expected[i]) != 0)
+					return null;
+				builder.add(components[i], value);
+			}
+			// skip separator
+			pos++;
+		}
+
+		if (pos < to)
+			LOGGER.warn("Skipped trailing characters in line: " + decode(pos, to, false));
+
+		return builder.build(lineage, structure);
+	}
+
+	private ScalarValue<?, ?, ?, ?> parseValue(int i, int start, int stop, boolean quoted, boolean escaped)
+	{
+		if (!quoted)
+			switch (kinds[i])
+			{
+				case INTEGER:
+					if (start == stop)
+						return NullValue.instance(INTEGERDS);
+					Long longValue = parseLong(start, stop);
+					if (longValue != null)
+						return IntegerValue.of(longValue);
+					break;
+				case NUMBER:
+					if (start == stop)
+						return NullValue.instance(NUMBERDS);
+					double doubleValue = parseDouble(start, stop);
+					if (!Double.isNaN(doubleValue))
+						return DoubleValue.of(doubleValue);
+					break;
+				case BOOLEAN:
+					if (start == stop)
+						return NullValue.instanceFrom(components[i]);
+					return BooleanValue.of(stop - start == 4 && (window.get(start) | 0x20) == 't' && (window.get(start + 1) | 0x20) == 'r'
+							&& (window.get(start + 2) | 0x20) == 'u' && (window.get(start + 3) | 0x20) == 'e');
+				case DAY:
+					if (stop - start == 10 && window.get(start + 4) == '-' && window.get(start + 7) == '-')
+					{
+						int year = parseDigits(start, start + 4), month = parseDigits(start + 5, start + 7), day = parseDigits(start + 8, start + 10);
+						if (year >= 0 && month >= 0 && day >= 0)
+							try
+							{
+								return DateValue.of(LocalDate.of(year, month, day));
+							}
+							catch (DateTimeException e)
+							{
+								// let the general parser report the error
+							}
+					}
+					break;
+			}
+
+		// Slow path: decode the field and fall back to the general value mapping
+		return CSVFileEnvironment.mapValue(components[i], decode(start, stop, escaped), masks[i]);
+	}
+
+	/*
+	 * Returns null if the field is not a plain integer, so that the general parser may handle it
+	 */
+	private Long parseLong(int start, int stop)
+	{
+		boolean negative = window.get(start) == '-';
+		int pos = negative || window.get(start) == '+' ? start + 1 : start;
+		if (pos == stop || stop - pos > 18)
+			return null;
+
+		long result = 0;
+		for (; pos < stop; pos++)
+		{
+			int digit = window.get(pos) - '0';
+			if (digit < 0 || digit > 9)
+				return null;
+			result = result * 10 + digit;
+		}
+
+		return negative ? -result : result;
+	}
+
+	/*
+	 * Returns NaN if the field is not a plain decimal number exactly representable with the fast path
+	 */
+	private double parseDouble(int start, int stop)
+	{
+		boolean negative = window.get(start) == '-';
+		int pos = negative || window.get(start) == '+' ? start + 1 : start;
+		long mantissa = 0;
+		int decimals = -1;
+		boolean digits = false;
+		for (; pos < stop; pos++)
+		{
+			byte b = window.get(pos);
+			if (b == '.' && decimals < 0)
+				decimals = 0;
+			else if (b >= '0' && b <= '9')
+			{
+				digits = true;
+				mantissa = mantissa * 10 + b - '0';
+				if (mantissa > 1L << 53)
+					return Double.NaN;
+				if (decimals >= 0 && ++decimals >= POWERS_OF_TEN.length)
+					return Double.NaN;
+			}
+			else
+				return Double.NaN;
+		}
+
+		if (!digits)
+			return Double.NaN;
+
+		double result = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+		return negative ? -result : result;
+	}
+
+	private int parseDigits(int start, int stop)
+	{
+		int result = 0;
+		for (int pos = start; pos < stop; pos++)
+		{
+			int digit = window.get(pos) - '0';
+			if (digit < 0 || digit > 9)
+				return -1;
+			result = result * 10 + digit;
+		}
+
+		return result;
+	}
+
+	private String decode(int start, int stop, boolean escaped)
+	{
+		if (scratch.length < stop - start)
+			scratch = new byte[Math.max(stop - start, scratch.length * 2)];
+
+		int length = 0;
+		for (int pos = start; pos < stop; pos++)
+		{
+			byte b = window.get(pos);
+			scratch[length++] = b;
+			// replace "" with "
+			if (escaped && b == '"' && pos + 1 < stop && window.get(pos + 1) == '"')
+				pos++;
+		}
+
+		return new String(scratch, 0, length, UTF_8);
+	}
+
+	private boolean isBlank(int from, int to)
+	{
+		for (int pos = from; pos < to; pos++)
+			if ((window.get(pos) & 0xFF) > ' ')
+				return false;
+
+		return true;
+	}
+
+	/*
+	 * Ensures that the mapped window contains the given file position, returning its offset in the window
+	 */
+	private int map(long filePosition)
+	{
+		if (window == null || filePosition < windowStart || filePosition >= windowStart + window.limit())
+			remap(filePosition, WINDOW_SIZE);
+
+		return (int) (filePosition - windowStart);
+	}
+
+	private void remap(long filePosition, long size)
+	{
+		try
+		{
+			windowStart = filePosition;
+			window = channel.map(READ_ONLY, filePosition, Math.min(Math.min(size, Integer.MAX_VALUE), end - filePosition));
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Finds the position of the line following the one containing the given file position
+	 */
+	private long nextLine(long from)
+	{
+		try
+		{
+			long size = channel.size();
+			ByteBuffer buffer = ByteBuffer.allocate(8192);
+			for (long pos = from; pos < size; )
+			{
+				buffer.clear();
+				int read = channel.read(buffer, pos);
+				if (read <= 0)
+					break;
+				for (int i = 0; i < read; i++)
+					if (buffer.get(i) == '\n')
+						return pos + i + 1;
+				pos += read;
+			}
+
+			return size;
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private double sampleLineLength() throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, end - position));
+		int read = Math.max(channel.read(buffer, position), 0);
+		int lines = 0;
+		for (int i = 0; i < read; i++)
+			if (buffer.get(i) == '\n')
+				lines++;
+
+		return lines == 0 ? Math.max(read, 1) : (double) read / lines;
+	}
+}
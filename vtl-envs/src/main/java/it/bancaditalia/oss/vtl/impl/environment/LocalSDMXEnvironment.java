@@ -21,7 +21,9 @@ package it.bancaditalia.oss.vtl.impl.environment;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import it.bancaditalia.oss.sdmx.api.PortableTimeSeries;
 import it.bancaditalia.oss.sdmx.client.SdmxClientHandler;
@@ -29,6 +31,7 @@ import it.bancaditalia.oss.sdmx.exceptions.DataStructureException;
 import it.bancaditalia.oss.sdmx.exceptions.SdmxException;
 import it.bancaditalia.oss.vtl.exceptions.VTLNestedException;
 import it.bancaditalia.oss.vtl.impl.environment.exceptions.VTLInputException;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 
@@ -71,6 +74,15 @@ class LocalSDMXEnvironment extends SDMXEnvironment
 		return Optional.empty();
 	}	
 	
+	/**
+	 * Local files contain the results of a fixed query, so they are always read whole.
+	 */
+	@Override
+	public Optional<VTLValue> getValue(String name, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		return getValue(name);
+	}
+	
 	@Override
 	public Optional<VTLValueMetadata> getValueMetadata(String name)
 	{
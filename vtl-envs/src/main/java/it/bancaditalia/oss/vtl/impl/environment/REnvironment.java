@@ -29,15 +29,12 @@ import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRING;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
 
-import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Stream;
 
 import org.rosuda.JRI.REXP;
 import org.rosuda.JRI.RList;
@@ -46,12 +43,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.bancaditalia.oss.vtl.environment.Environment;
+import it.bancaditalia.oss.vtl.impl.environment.dataset.Column;
 import it.bancaditalia.oss.vtl.impl.environment.dataset.ColumnarDataSet;
 import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
-import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
 import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
-import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
@@ -60,16 +56,12 @@ import it.bancaditalia.oss.vtl.model.data.ComponentRole.Attribute;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
-import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
-import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.model.data.ValueDomainSubset;
-import it.bancaditalia.oss.vtl.util.Utils;
 
 public class REnvironment implements Environment
 {
-	@SuppressWarnings("unused")
 	private final static Logger LOGGER = LoggerFactory.getLogger(REnvironment.class);
 	private final Map<String, VTLValue>	values	= new HashMap<>();
 	private final Rengine engine = new Rengine();
@@ -230,7 +222,7 @@ public class REnvironment implements Environment
 				dateColumns = Arrays.asList(dates.asStringArray());
 			}
 		}
-		System.err.println(dateColumns);
+		LOGGER.debug("Date columns in {}: {}", name, dateColumns);
 		REXP data = getEngine().eval(name);
 		RList dataFrame = data.asList();
 
@@ -243,8 +235,8 @@ public class REnvironment implements Environment
 		if (idAttr != null && (idAttr.getType() == REXP.XT_ARRAY_STR || idAttr.getType() == REXP.XT_STR))
 			identifiers = Arrays.asList(idAttr.asStringArray());
 
-		Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>[]> dataContainer = new HashMap<>();
-		// get column data
+		List<Column> columns = new ArrayList<>();
+		// get column data, wrapping the R arrays
 		for (String key: dataFrame.keys())
 		{
 			REXP columnData = dataFrame.at(key);
@@ -257,46 +249,33 @@ public class REnvironment implements Environment
 			else
 				type = Attribute.class;
 
-			Stream<? extends ScalarValue<?, ?, ?, ?>> values;
-			ValueDomainSubset<?, ?> domain;
 			switch (columnData.getType())
 			{
 				case REXP.XT_ARRAY_DOUBLE:
-					if(dateColumns.contains(key)){
+					// NAs are mapped to something that returns true to is.NaN()
+					if (dateColumns.contains(key))
 						// this is a date, not a number...
-						domain = DATEDS;
-						//now transform in date
-						// NAs are mapped to something that retrns true to is.NaN()
-						values = Utils.getStream(columnData.asDoubleArray()).mapToObj(val -> (ScalarValue<?, ?, ?, ?>) (Double.isNaN(val) ? NullValue.instance(DATEDS) :  DateValue.of(LocalDate.of(1970, 1, 1).plus((long) val  , ChronoUnit.DAYS) )));   
-					}
-					else {
-						// NAs are mapped to something that retrns true to is.NaN()
-						domain = NUMBERDS;
-						values = Utils.getStream(columnData.asDoubleArray()).mapToObj(val -> (ScalarValue<?, ?, ?, ?>) (Double.isNaN(val) ? NullValue.instance(NUMBERDS) : DoubleValue.of(val)));
-					}
+						columns.add(Column.ofDays(DataStructureComponentImpl.of(key, type, DATEDS), columnData.asDoubleArray()));
+					else
+						columns.add(Column.ofDoubles(DataStructureComponentImpl.of(key, type, NUMBERDS), columnData.asDoubleArray()));
 					break;
 				case REXP.XT_ARRAY_INT:
 					// NAs are mapped to Integer.MIN_VALUE
-					domain = INTEGERDS;
-					values = Utils.getStream(columnData.asIntArray()).asLongStream().mapToObj(val -> (ScalarValue<?, ?, ?, ?>) (val == Integer.MIN_VALUE ? NullValue.instance(INTEGERDS) : IntegerValue.of(val)));
+					columns.add(Column.ofInts(DataStructureComponentImpl.of(key, type, INTEGERDS), columnData.asIntArray(), Integer.MIN_VALUE));
 					break;
 				case REXP.XT_ARRAY_STR:
-					domain = STRINGDS;
-					values = Utils.getStream(columnData.asStringArray()).map(val -> (ScalarValue<?, ?, ?, ?>) (val == null ? NullValue.instance(STRINGDS) : StringValue.of(val)));
+					columns.add(Column.ofStrings(DataStructureComponentImpl.of(key, type, STRINGDS), columnData.asStringArray()));
 					break;
 				case REXP.XT_ARRAY_BOOL: case REXP.XT_ARRAY_BOOL_INT:
-					domain = BOOLEANDS;
-					values = Utils.getStream(columnData.asIntArray()).mapToObj(val -> (ScalarValue<?, ?, ?, ?>) ((val != 1 && val != 0) ? NullValue.instance(BOOLEANDS) : BooleanValue.of(val == 1)));
+					columns.add(Column.ofBooleans(DataStructureComponentImpl.of(key, type, BOOLEANDS), columnData.asIntArray()));
 					break;
 				default:
 					throw new IllegalStateException(
 							"In node: " + name + " there is a column (" + key + ") of type " + REXP.xtName(columnData.getType()) + ". This is not supported.");
 			}
-			
-			dataContainer.put(DataStructureComponentImpl.of(key, type, domain), values.toArray(ScalarValue<?, ?, ?, ?>[]::new));
 		}
 		
-		return new ColumnarDataSet(name, dataContainer);
+		return new ColumnarDataSet(name, columns);
 	}
 
 	@Override
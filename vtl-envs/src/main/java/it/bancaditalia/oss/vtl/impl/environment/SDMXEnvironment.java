@@ -130,10 +130,12 @@ public class SDMXEnvironment implements Environment, Serializable
 
 	public static final VTLProperty SDMX_ENVIRONMENT_AUTODROP_IDENTIFIERS = 
 			new VTLPropertyImpl("vtl.sdmx.keep.identifiers", "True to keep subspaced identifiers", "false", false, false, "false");
+	public static final VTLProperty SDMX_ENVIRONMENT_SNAPSHOT_TTL = 
+			new VTLPropertyImpl("vtl.sdmx.snapshot.ttl", "Seconds for which a stored snapshot of an SDMX query can be reused (0 to never reuse)", "3600", false, false, "3600");
 
 	static
 	{
-		ConfigurationManagerFactory.registerSupportedProperties(SDMXEnvironment.class, SDMX_ENVIRONMENT_AUTODROP_IDENTIFIERS);
+		ConfigurationManagerFactory.registerSupportedProperties(SDMXEnvironment.class, SDMX_ENVIRONMENT_AUTODROP_IDENTIFIERS, SDMX_ENVIRONMENT_SNAPSHOT_TTL);
 		
 		FORMATTERS.put(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm:ss"), DateHolder::of);
 		FORMATTERS.put(DateTimeFormatter.ofPattern("yyyy-MM-dd hh:mm"), DateHolder::of);
@@ -177,6 +179,66 @@ public class SDMXEnvironment implements Environment, Serializable
 			});
 	}
 
+	/**
+	 * Wildcarded dimensions of the query are narrowed to the requested identifier values, if any,
+	 * so that the provider only returns the matching series. Components are always all retrieved.
+	 */
+	@Override
+	public Optional<VTLValue> getValue(String name, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		if (keyValues.isEmpty())
+			return getValue(name);
+		
+		return getMatcher(name)
+			.map(matcher ->	{
+				String provider = matcher.group(1);
+				String dataflow = matcher.group(2);
+				String tokens[] = matcher.group(4).split("\\.", -1);
+				try
+				{
+					List<Dimension> dimensions = SdmxClientHandler.getDataFlowStructure(provider, dataflow).getDimensions();
+					boolean narrowed = false;
+					for (int i = 0; tokens.length == dimensions.size() && i < tokens.length; i++)
+					{
+						String dimId = dimensions.get(i).getId();
+						ScalarValue<?, ?, ?, ?> value = keyValues.get(dimId.matches("'.*'") ? dimId.replaceAll("'(.*)'", "$1") : dimId.toLowerCase());
+						if (value != null && value.get() instanceof String && (tokens[i].isEmpty() 
+								|| tokens[i].indexOf('+') != -1 && Arrays.asList(tokens[i].split("\\+")).contains(value.get())))
+						{
+							tokens[i] = (String) value.get();
+							narrowed = true;
+						}
+					}
+					
+					if (!narrowed)
+						return getValue(name).get();
+					
+					String query = dataflow + "/" + String.join(".", tokens);
+					LOGGER.debug("Narrowed query {} to {}", name, query);
+					List<PortableTimeSeries<Double>> table = SdmxClientHandler.getTimeSeries(provider, query, null, null);
+					return parseSDMXTable(name, table);
+				}
+				catch (SdmxException | DataStructureException e)
+				{
+					throw new VTLNestedException("Fatal error contacting SDMX provider '" + provider + "'", e);
+				}
+			});
+	}
+
+	/**
+	 * The fingerprint of a query changes at the end of each time window as long as the configured TTL, 
+	 * so that stored snapshots of its results are reused only within the same window.
+	 */
+	@Override
+	public Optional<String> getFingerprint(String name)
+	{
+		long ttl = Long.parseLong(SDMX_ENVIRONMENT_SNAPSHOT_TTL.getValue()) * 1000;
+		if (ttl <= 0)
+			return Optional.empty();
+		
+		return getMatcher(name).map(matcher -> name + "@" + System.currentTimeMillis() / ttl);
+	}
+
 	@Override
 	public Optional<VTLValueMetadata> getValueMetadata(String name)
 	{
@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.environment.dataset;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+
+/**
+ * The values of a component in a {@link ColumnarDataSet}, stored in a primitive array
+ * together with a bitmap of the null cells.
+ * 
+ * The factory methods wrap the given arrays without copying them: the arrays must not
+ * be modified after the column is created.
+ */
+public abstract class Column implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+	private static final LocalDate EPOCH = LocalDate.of(1970, 1, 1);
+
+	private final DataStructureComponent<?, ?, ?> component;
+	private final ScalarValue<?, ?, ?, ?> nullValue;
+	private final BitSet nulls;
+	private final int size;
+
+	private Column(DataStructureComponent<?, ?, ?> component, int size, BitSet nulls)
+	{
+		this.component = component;
+		this.nullValue = NullValue.instanceFrom(component);
+		this.size = size;
+		this.nulls = nulls;
+	}
+
+	/**
+	 * Wraps a column of already boxed values.
+	 */
+	public static Column ofValues(DataStructureComponent<?, ?, ?> component, ScalarValue<?, ?, ?, ?>[] values)
+	{
+		BitSet nulls = new BitSet(values.length);
+		for (int i = 0; i < values.length; i++)
+			if (values[i] instanceof NullValue)
+				nulls.set(i);
+
+		return new Column(component, values.length, nulls) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return values[row];
+			}
+		};
+	}
+
+	/**
+	 * Wraps a column of numbers, where NaN marks a null value.
+	 */
+	public static Column ofDoubles(DataStructureComponent<?, ?, ?> component, double[] values)
+	{
+		return new Column(component, values.length, nansOf(values)) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return DoubleValue.of(values[row]);
+			}
+		};
+	}
+
+	/**
+	 * Wraps a column of dates expressed as days since 1970-01-01, where NaN marks a null value.
+	 */
+	public static Column ofDays(DataStructureComponent<?, ?, ?> component, double[] days)
+	{
+		return new Column(component, days.length, nansOf(days)) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return DateValue.of(EPOCH.plusDays((long) days[row]));
+			}
+		};
+	}
+
+	/**
+	 * Wraps a column of integers, where a designated value marks a null value.
+	 */
+	public static Column ofInts(DataStructureComponent<?, ?, ?> component, int[] values, int naValue)
+	{
+		BitSet nulls = new BitSet(values.length);
+		for (int i = 0; i < values.length; i++)
+			if (values[i] == naValue)
+				nulls.set(i);
+
+		return new Column(component, values.length, nulls) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return IntegerValue.of((long) values[row]);
+			}
+		};
+	}
+
+	/**
+	 * Wraps a column of integers, with null values marked in a separate bitmap.
+	 */
+	public static Column ofLongs(DataStructureComponent<?, ?, ?> component, long[] values, BitSet nulls)
+	{
+		return new Column(component, values.length, nulls) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return IntegerValue.of(values[row]);
+			}
+		};
+	}
+
+	/**
+	 * Packs a column of logical values, encoded as 1 for true and 0 for false; any other value is null.
+	 */
+	public static Column ofBooleans(DataStructureComponent<?, ?, ?> component, int[] values)
+	{
+		BitSet bits = new BitSet(values.length);
+		BitSet nulls = new BitSet(values.length);
+		for (int i = 0; i < values.length; i++)
+			if (values[i] == 1)
+				bits.set(i);
+			else if (values[i] != 0)
+				nulls.set(i);
+
+		return new Column(component, values.length, nulls) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return BooleanValue.of(bits.get(row));
+			}
+		};
+	}
+
+	/**
+	 * Dictionary-encodes a column of strings, where null marks a null value.
+	 * Cells with the same string share the same value instance.
+	 */
+	public static Column ofStrings(DataStructureComponent<?, ?, ?> component, String[] values)
+	{
+		BitSet nulls = new BitSet(values.length);
+		int codes[] = new int[values.length];
+		Map<String, Integer> dictionary = new HashMap<>();
+		for (int i = 0; i < values.length; i++)
+			if (values[i] == null)
+				nulls.set(i);
+			else
+				codes[i] = dictionary.computeIfAbsent(values[i], k -> dictionary.size());
+
+		ScalarValue<?, ?, ?, ?> decoded[] = new ScalarValue<?, ?, ?, ?>[dictionary.size()];
+		dictionary.forEach((string, code) -> decoded[code] = StringValue.of(string));
+		
+		return new Column(component, values.length, nulls) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected ScalarValue<?, ?, ?, ?> getValue(int row)
+			{
+				return decoded[codes[row]];
+			}
+		};
+	}
+
+	public DataStructureComponent<?, ?, ?> getComponent()
+	{
+		return component;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isNull(int row)
+	{
+		return nulls.get(row);
+	}
+
+	/**
+	 * @param row the row index
+	 * @return the value of this column at the given row
+	 */
+	public ScalarValue<?, ?, ?, ?> get(int row)
+	{
+		return nulls.get(row) ? nullValue : getValue(row);
+	}
+
+	/**
+	 * Returns the non-null value at the given row.
+	 */
+	protected abstract ScalarValue<?, ?, ?, ?> getValue(int row);
+
+	private static BitSet nansOf(double[] values)
+	{
+		BitSet nulls = new BitSet(values.length);
+		for (int i = 0; i < values.length; i++)
+			if (Double.isNaN(values[i]))
+				nulls.set(i);
+		return nulls;
+	}
+}
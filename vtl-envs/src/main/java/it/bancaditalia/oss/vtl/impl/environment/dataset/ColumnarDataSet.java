@@ -19,8 +19,9 @@
  */
 package it.bancaditalia.oss.vtl.impl.environment.dataset;
 
-import static it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder.toDataPoint;
+import static java.util.stream.Collectors.toList;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.stream.Stream;
 
@@ -28,33 +29,55 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.bancaditalia.oss.vtl.impl.types.dataset.AbstractDataSet;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.util.Utils;
 
+/**
+ * A dataset whose values are stored by column, as {@link Column}s of primitive values.
+ * 
+ * Each datapoint is assembled from the cells of its row only when the dataset is streamed.
+ */
 public class ColumnarDataSet extends AbstractDataSet
 {
 	private static final long serialVersionUID = 1L;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(ColumnarDataSet.class);
 	
-	private final Map<? extends DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>[]> columns;
+	// columns in the slot order of the structure
+	private final Column columns[];
 	private final int nRows;
 	private final String alias;
+	private final Lineage lineage;
 
-	public ColumnarDataSet(String alias, Map<? extends DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>[]> columns)
+	public ColumnarDataSet(String alias, Collection<? extends Column> columns)
 	{
-		super(new DataStructureBuilder(columns.keySet()).build());
+		super(new DataStructureBuilder(columns.stream().map(Column::getComponent).collect(toList())).build());
 		this.alias = alias;
-		this.columns = columns;
-		nRows = columns.values().iterator().next().length;
+		this.lineage = LineageExternal.of("REnv(" + alias + ")");
+		this.columns = new Column[columns.size()];
+		for (Column column: columns)
+			this.columns[getMetadata().indexOf(column.getComponent())] = column;
+		nRows = columns.isEmpty() ? 0 : columns.iterator().next().size();
+		for (Column column: columns)
+			if (column.size() != nRows)
+				throw new IllegalStateException("Column " + column.getComponent() + " has " + column.size() + " values instead of " + nRows);
 		
 		LOGGER.info("Indexing from source as {}", getMetadata());
 	}
 
+	public ColumnarDataSet(String alias, Map<? extends DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>[]> columns)
+	{
+		this(alias, Utils.getStream(columns.entrySet())
+				.map(Utils.splitting(Column::ofValues))
+				.collect(toList()));
+	}
+
 	@Override
 	protected Stream<DataPoint> streamDataPoints()
 	{
@@ -64,9 +87,11 @@ public class ColumnarDataSet extends AbstractDataSet
 	
 	private DataPoint mapIndexToDataPoint(int rowIndex)
 	{
-		return Utils.getStream(columns.entrySet())
-				.map(Utils.keepingKey(col -> col[rowIndex]))
-				.collect(toDataPoint(LineageExternal.of("REnv(" + alias + ")"), getMetadata()));
+		ScalarValue<?, ?, ?, ?> values[] = new ScalarValue<?, ?, ?, ?>[columns.length];
+		for (int i = 0; i < columns.length; i++)
+			values[i] = columns[i].get(rowIndex);
+		
+		return DataPointBuilder.fromSlots(lineage, getMetadata(), values);
 	}
 
 	public String getAlias()
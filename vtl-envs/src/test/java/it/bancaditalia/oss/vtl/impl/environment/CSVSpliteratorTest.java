@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.environment;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.DATEDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Attribute;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+
+public class CSVSpliteratorTest
+{
+	private static final int ROWS = 5000;
+	private static final DataStructureComponent<?, ?, ?> ID = DataStructureComponentImpl.of("id", Identifier.class, INTEGERDS);
+	private static final DataStructureComponent<?, ?, ?> DATE = DataStructureComponentImpl.of("date", Measure.class, DATEDS);
+	private static final DataStructureComponent<?, ?, ?> NUMBER = DataStructureComponentImpl.of("number", Measure.class, NUMBERDS);
+	private static final DataStructureComponent<?, ?, ?> FLAG = DataStructureComponentImpl.of("flag", Measure.class, BOOLEANDS);
+	private static final DataStructureComponent<?, ?, ?> TEXT = DataStructureComponentImpl.of("text", Attribute.class, STRINGDS);
+	private static final List<DataStructureComponent<?, ?, ?>> COMPONENTS = Arrays.asList(ID, DATE, NUMBER, FLAG, TEXT);
+
+	private static Path TEMPCSVFILE;
+
+	@BeforeAll
+	public static void beforeClass() throws IOException
+	{
+		TEMPCSVFILE = Files.createTempFile(null, ".csv").toAbsolutePath();
+		StringBuilder builder = new StringBuilder("$ID=Int,DATE=Date[YYYY-MM-DD],NUMBER=Number,FLAG=Boolean,#TEXT=String\r\n");
+		for (int i = 0; i < ROWS; i++)
+		{
+			builder.append(i).append(',').append(LocalDate.of(2020, 1, 1).plusDays(i)).append(',');
+			builder.append(i % 3 == 0 ? "" : i % 3 == 1 ? i + ".25" : "-" + i + "e-2").append(',');
+			builder.append(i % 2 == 0 ? "TRUE" : "false").append(',');
+			builder.append(i % 2 == 0 ? "\"Row \"\"" + i + "\"\", àè\"" : " row " + i + " ").append(i % 5 == 0 ? "\n\n" : "\r\n");
+		}
+		Files.write(TEMPCSVFILE, builder.toString().getBytes(UTF_8));
+	}
+
+	@AfterAll
+	public static void afterClass()
+	{
+		try
+		{
+			Files.deleteIfExists(TEMPCSVFILE);
+		}
+		catch (IOException e)
+		{
+			// ignore
+		}
+	}
+
+	@Test
+	public void parallelSplitTest() throws IOException
+	{
+		DataSetMetadata structure = new DataStructureBuilder(COMPONENTS).build();
+		Map<DataStructureComponent<?, ?, ?>, String> masks = new HashMap<>();
+		masks.put(DATE, "YYYY-MM-DD");
+
+		try (FileChannel channel = FileChannel.open(TEMPCSVFILE, READ))
+		{
+			CSVSpliterator spliterator = new CSVSpliterator(channel, COMPONENTS, masks, structure, LineageExternal.of("csv:test"), 256);
+			// blank lines are counted too
+			long lines = ROWS + ROWS / 5;
+			assertTrue(Math.abs(spliterator.estimateLines() - lines) < lines / 10, "Bad line estimate " + spliterator.estimateLines());
+
+			Map<Long, DataPoint> results = StreamSupport.stream(spliterator, true)
+					.collect(toMap(dp -> (Long) dp.get(ID).get(), dp -> dp));
+
+			assertEquals(ROWS, results.size(), "Wrong number of rows");
+			for (int i = 0; i < ROWS; i++)
+			{
+				DataPoint dp = results.get((long) i);
+				assertNotNull(dp, "Missing row " + i);
+				assertEquals(DateValue.of(LocalDate.of(2020, 1, 1).plusDays(i)), dp.get(DATE), "Wrong date in row " + i);
+				Object number = dp.get(NUMBER).get();
+				if (i % 3 == 0)
+					assertEquals(null, number, "Wrong number in row " + i);
+				else
+					assertEquals(i % 3 == 1 ? i + 0.25 : -i / 100.0, (Double) number, "Wrong number in row " + i);
+				assertEquals(i % 2 == 0, dp.get(FLAG).get(), "Wrong boolean in row " + i);
+				assertEquals(i % 2 == 0 ? "Row \"" + i + "\", àè" : "row " + i, dp.get(TEXT).get(), "Wrong string in row " + i);
+			}
+		}
+	}
+
+	@Test
+	public void pushDownTest() throws IOException
+	{
+		DataSetMetadata structure = new DataStructureBuilder(COMPONENTS).build();
+		Map<DataStructureComponent<?, ?, ?>, String> masks = new HashMap<>();
+		masks.put(DATE, "YYYY-MM-DD");
+
+		try (FileChannel channel = FileChannel.open(TEMPCSVFILE, READ))
+		{
+			CSVSpliterator spliterator = new CSVSpliterator(channel, COMPONENTS, masks, structure, LineageExternal.of("csv:test"), 
+					new HashSet<>(Arrays.asList(ID, FLAG)), singletonMap(ID, IntegerValue.of(4321L)));
+
+			List<DataPoint> results = StreamSupport.stream(spliterator, true).collect(toList());
+
+			assertEquals(1, results.size(), "Wrong number of rows");
+			DataPoint dp = results.get(0);
+			assertEquals(IntegerValue.of(4321L), dp.get(ID), "Wrong id");
+			assertEquals(false, dp.get(FLAG).get(), "Wrong boolean");
+			assertTrue(dp.get(DATE) instanceof NullValue, "Unused date was parsed");
+			assertTrue(dp.get(TEXT) instanceof NullValue, "Unused string was parsed");
+		}
+	}
+}
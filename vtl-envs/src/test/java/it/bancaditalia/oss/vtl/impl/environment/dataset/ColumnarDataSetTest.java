@@ -21,12 +21,15 @@ package it.bancaditalia.oss.vtl.impl.environment.dataset;
 
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
 import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -35,6 +38,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
@@ -44,6 +48,7 @@ import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
 import it.bancaditalia.oss.vtl.impl.types.domain.Domains;
 import it.bancaditalia.oss.vtl.impl.types.domain.EntireBooleanDomainSubset;
 import it.bancaditalia.oss.vtl.impl.types.domain.EntireIntegerDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireNumberDomainSubset;
 import it.bancaditalia.oss.vtl.impl.types.domain.EntireStringDomainSubset;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
@@ -54,6 +59,7 @@ import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.domain.BooleanDomain;
 import it.bancaditalia.oss.vtl.model.domain.IntegerDomain;
+import it.bancaditalia.oss.vtl.model.domain.NumberDomain;
 import it.bancaditalia.oss.vtl.model.domain.StringDomain;
 
 public class ColumnarDataSetTest
@@ -61,6 +67,7 @@ public class ColumnarDataSetTest
 	private static final DataStructureComponent<Identifier, EntireStringDomainSubset, StringDomain> STR_ID = new DataStructureComponentImpl<>("STR_ID", Identifier.class, Domains.STRINGDS);
 	private static final DataStructureComponent<Identifier, EntireIntegerDomainSubset, IntegerDomain> INT_ID = new DataStructureComponentImpl<>("INT_ID", Identifier.class, INTEGERDS);
 	private static final DataStructureComponent<Measure, EntireIntegerDomainSubset, IntegerDomain> INT_ME = new DataStructureComponentImpl<>("INT_ME", Measure.class, INTEGERDS);
+	private static final DataStructureComponent<Measure, EntireNumberDomainSubset, NumberDomain> NUM_ME = new DataStructureComponentImpl<>("NUM_ME", Measure.class, NUMBERDS);
 	private static final DataStructureComponent<Measure, EntireBooleanDomainSubset, BooleanDomain> BOL_ME = new DataStructureComponentImpl<>("BOL_ME", Measure.class, BOOLEANDS);
 	private static final DataSetMetadata STRUCTURE = new DataStructureBuilder(STR_ID, INT_ID, INT_ME, BOL_ME).build();
 	private static final String STR_ID_VAL[] = { "A", "A", "B", "B", "C" }; 
@@ -110,4 +117,37 @@ public class ColumnarDataSetTest
 		for (int i = 1; i < 5; i++)
 			assertTrue(found[i], "Datapoint " + i + " not found");
 	}
+
+	@Test
+	void testTypedColumns()
+	{
+		BitSet nulls = new BitSet();
+		nulls.set(2);
+		long intIds[] = { 1, 2, 1, 3, 2 };
+		long intMeasures[] = { 5, 7, 0, 8, 4 };
+		double numMeasures[] = { 1.5, Double.NaN, 2.5, 3.5, 4.5 };
+		int booleans[] = { 1, Integer.MIN_VALUE, 1, 0, 0 };
+		
+		ColumnarDataSet dataset = new ColumnarDataSet("typed", Arrays.asList(
+				Column.ofStrings(STR_ID, STR_ID_VAL),
+				Column.ofInts(INT_ID, Arrays.stream(intIds).mapToInt(l -> (int) l).toArray(), Integer.MIN_VALUE),
+				Column.ofLongs(INT_ME, intMeasures, nulls),
+				Column.ofDoubles(NUM_ME, numMeasures),
+				Column.ofBooleans(BOL_ME, booleans)
+			));
+		
+		Map<String, DataPoint> results = new HashMap<>();
+		dataset.stream().forEach(dp -> results.put(dp.get(STR_ID).get() + "" + dp.get(INT_ID).get(), dp));
+		assertEquals(5, results.size(), "Wrong number of datapoints");
+		for (int i = 0; i < 5; i++)
+		{
+			DataPoint dp = results.get(STR_ID_VAL[i] + INT_ID_VAL[i]);
+			assertEquals(INT_ME_VAL[i] == null ? NullValue.instance(INTEGERDS) : IntegerValue.of(INT_ME_VAL[i]), dp.get(INT_ME));
+			assertEquals(Double.isNaN(numMeasures[i]) ? NullValue.instance(NUMBERDS) : DoubleValue.of(numMeasures[i]), dp.get(NUM_ME));
+			assertEquals(BOL_ME_VAL[i] == null ? NullValue.instance(BOOLEANDS) : BooleanValue.of(BOL_ME_VAL[i]), dp.get(BOL_ME));
+		}
+		
+		// dictionary-encoded strings share their values
+		assertSame(results.get("A1").get(STR_ID), results.get("A2").get(STR_ID));
+	}
 }
@@ -22,30 +22,16 @@ package it.bancaditalia.oss.vtl.impl.session;
 import static it.bancaditalia.oss.vtl.util.Utils.entryByKey;
 import static it.bancaditalia.oss.vtl.util.Utils.keepingKey;
 import static it.bancaditalia.oss.vtl.util.Utils.splitting;
-import static java.util.Collections.emptySet;
-import static java.util.Collections.newSetFromMap;
 import static java.util.stream.Collectors.groupingByConcurrent;
-import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toConcurrentMap;
 import static java.util.stream.Collectors.toSet;
 
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinPool.ManagedBlocker;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.BinaryOperator;
@@ -55,15 +41,14 @@ import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
 import it.bancaditalia.oss.vtl.impl.types.dataset.NamedDataSet;
+import it.bancaditalia.oss.vtl.impl.types.dataset.SpilledPartitions;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
-import it.bancaditalia.oss.vtl.session.VTLSession;
 import it.bancaditalia.oss.vtl.util.Utils;
 
 public class CachedDataSet extends NamedDataSet
@@ -71,101 +56,19 @@ public class CachedDataSet extends NamedDataSet
 	private static final long serialVersionUID = 1L;
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(CachedDataSet.class);
-	private static final Map<VTLSession, Map<String, CacheWaiter>> SESSION_CACHES = new ConcurrentHashMap<>();
-	private static final ReferenceQueue<Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>>> REF_QUEUE = new ReferenceQueue<>();
-	private static final Map<Reference<?>, Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>> REF_NAMES = new ConcurrentHashMap<>();
 
-	private final transient CacheWaiter waiter;
-	private transient volatile SoftReference<Set<DataPoint>> unindexed = new SoftReference<>(null);
+	private final transient SessionCacheManager manager;
 	
-	private static class CacheWaiter implements ManagedBlocker
+	public CachedDataSet(VTLSessionImpl session, String alias, DataSet delegate)
 	{
-		private final Semaphore semaphore = new Semaphore(1);
-		private final Map<Set<DataStructureComponent<Identifier, ?, ?>>, SoftReference<Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>>>> cache = new ConcurrentHashMap<>();
-		private final String alias;
-
-		public CacheWaiter(CachedDataSet delegate)
-		{
-			alias = delegate.getAlias();
-			
-			List<Set<DataStructureComponent<Identifier, ?, ?>>> accumulator = new ArrayList<>();
-			accumulator.add(emptySet());
-			// build all ids subsets
-			for (DataStructureComponent<Identifier, ?, ?> key: delegate.getComponents(Identifier.class))
-				accumulator = accumulator.stream()
-					.flatMap(set -> {
-						Set<DataStructureComponent<Identifier, ?, ?>> newSet = new HashSet<>(set);
-						newSet.add(key);
-						return Stream.of(set, newSet);
-					})
-					.collect(toCollection(ArrayList::new));
-			for (Set<DataStructureComponent<Identifier, ?, ?>> keySet: accumulator)
-				cache.put(keySet, new SoftReference<>(null));
-		}
-		
-		@Override
-		public boolean block() throws InterruptedException
-		{
-			semaphore.acquire();
-			return true;
-		}
-
-		@Override
-		public boolean isReleasable()
-		{
-			return semaphore.tryAcquire();
-		}
-		
-		public void putCache(Set<DataStructureComponent<Identifier, ?, ?>> keys, Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> newCache)
-		{
-			SoftReference<Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>>> cacheRef = new SoftReference<>(newCache, REF_QUEUE);
-			REF_NAMES.put(cacheRef, new SimpleEntry<>(alias, keys));
-			cache.put(keys, new SoftReference<>(newCache));
-		}
-		
-		public Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> getCache(Set<DataStructureComponent<Identifier, ?, ?>> keys)
-		{
-			return cache.get(keys).get();
-		}
-		
-		public void done()
-		{
-			semaphore.release();
-		}
-	}
-	
-	static {
-		new Thread() {
-			
-			{
-				setName("CachedDataSet gc watcher");
-				setDaemon(true);
-			}
-			
-			@Override
-			public void run() 
-			{
-				while (!Thread.interrupted())
-					try 
-					{
-						Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>> data = REF_NAMES.remove(REF_QUEUE.remove());
-						if (data != null)
-							LOGGER.trace("Cleaned an index of {} over {}", data.getKey(), data.getValue());
-					}
-					catch (InterruptedException e)
-					{
-						Thread.currentThread().interrupt();
-					}
-			}
-			
-		}.start();
+		this(session.getCacheManager(), alias, delegate);
 	}
 
-	public CachedDataSet(VTLSessionImpl session, String alias, DataSet delegate)
+	public CachedDataSet(SessionCacheManager manager, String alias, DataSet delegate)
 	{
 		super(alias, delegate);
 		
-		waiter = SESSION_CACHES.computeIfAbsent(session, s -> new ConcurrentHashMap<>()).computeIfAbsent(alias, a -> new CacheWaiter(this));
+		this.manager = manager;
 	}
 
 	public CachedDataSet(VTLSessionImpl session, NamedDataSet delegate)
@@ -178,17 +81,11 @@ public class CachedDataSet extends NamedDataSet
 			Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> filter, Collector<DataPoint, A, TT> groupCollector,
 			BiFunction<TT, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, T> finisher)
 	{
-		if (!lock())
-			return Stream.empty();
+		// Too large to be kept in memory: let the source group it, spilling to disk if configured
+		if (!isIndexable(keys))
+			return getDelegate().streamByKeys(keys, filter, groupCollector, finisher);
 		
-		Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> value = waiter.getCache(keys);
-		if (value == null)
-			value = createCache(keys);
-		else
-		{
-			LOGGER.trace("Cache hit for {}.", getAlias());
-			waiter.done();
-		}
+		Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> value = getIndex(keys);
 			
 		Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> filterOutsideKeys = new HashMap<>(filter);
 		filterOutsideKeys.keySet().retainAll(keys);
@@ -201,115 +98,108 @@ public class CachedDataSet extends NamedDataSet
 			.map(splitting((k, v) -> finisher.apply(v,  k)));
 	}
 	
+	/**
+	 * Computes all the datapoints of this dataset and keeps them in the session cache, if they fit in its budget.
+	 * Datapoints are computed only until their estimated size exceeds the budget, so that a dataset
+	 * too large to be cached is never held in memory as a whole.
+	 * 
+	 * @return true if the datapoints are cached
+	 */
+	public boolean materialize()
+	{
+		if (!manager.isCacheable(getAlias(), null))
+			return false;
+		else if (manager.get(getAlias(), null) != null)
+			return true;
+		
+		LOGGER.debug("Cache miss for {}, start caching.", getAlias());
+		boolean cached = manager.cacheAll(getAlias(), getDelegate().stream());
+		LOGGER.debug("Caching {} for {}.", cached ? "finished" : "aborted", getAlias());
+		return cached;
+	}
+	
 	@Override
 	protected Stream<DataPoint> streamDataPoints()
 	{
-		if (!lock())
-			return Stream.empty();
-
-		Set<DataPoint> cache = unindexed.get();
-		if (cache != null)
-		{
-			waiter.done();
-			return cache.stream();
-		}
-		else
-			return createUnindexedCache(true);
+		Set<DataPoint> cache = manager.get(getAlias(), null);
+		return cache != null ? cache.stream() : streamAndCache();
 	}
 
 	@Override
 	public DataSet filteredMappedJoin(DataSetMetadata metadata, DataSet other, BiPredicate<DataPoint, DataPoint> predicate, BinaryOperator<DataPoint> mergeOp)
 	{
-		if (!lock())
-			return new LightDataSet(metadata, Stream::empty);
-	
 		Set<DataStructureComponent<Identifier, ?, ?>> commonIds = getMetadata().getComponents(Identifier.class);
 		commonIds.retainAll(other.getComponents(Identifier.class));
+		if (!isIndexable(commonIds))
+			return super.filteredMappedJoin(metadata, other, predicate, mergeOp);
 		
-		Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> value = waiter.getCache(commonIds);
-		if (value == null)
-			value = createCache(commonIds);
-		else
-		{
-			LOGGER.trace("Cache hit for {}.", getAlias());
-			waiter.done();
-		}
+		Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> value = getIndex(commonIds);
 
 		BiPredicate<DataPoint, DataPoint> newPredicate = (a, b) -> predicate.test(b, a);
 		BinaryOperator<DataPoint> newMergeOp = (a, b) -> mergeOp.apply(b, a);
 		return filteredMappedJoinWithIndex(other, metadata, newPredicate, newMergeOp, commonIds, value);
 	}
 
-	private boolean lock()
+	/*
+	 * An index is not built if it, or the unindexed copy it would be built from, was already refused by the cache 
+	 * for being too large and datapoints can be spilled to disk instead.
+	 */
+	private boolean isIndexable(Set<DataStructureComponent<Identifier, ?, ?>> keys)
 	{
-		try
-		{
-			ForkJoinPool.managedBlock(waiter);
-			return true;
-		}
-		catch (InterruptedException e)
-		{
-			Thread.currentThread().interrupt();
-			return false;
-		}
+		return !SpilledPartitions.isEnabled() || manager.isCacheable(getAlias(), null) && manager.isCacheable(getAlias(), keys);
 	}
 
-	protected Stream<DataPoint> createUnindexedCache(boolean unlockWhenComplete)
+	private Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> getIndex(Set<DataStructureComponent<Identifier, ?, ?>> keys)
 	{
-		String alias = getAlias();
+		return manager.computeIfAbsent(getAlias(), keys, () -> createCache(keys), index -> SessionCacheManager.estimateIndexSize(index, keys));
+	}
 
-		LOGGER.debug("Cache miss for {}, start caching.", alias);
-		Set<DataPoint> cache = newSetFromMap(new ConcurrentHashMap<>());
-		unindexed = new SoftReference<Set<DataPoint>>(cache);
-		
-		AtomicBoolean alreadyInterrupted = new AtomicBoolean(false);
-		return getDelegate().stream()
-			.peek(dp -> {
-				// enqueue datapoint if reference was not gced
-				Set<DataPoint> set = unindexed.get();
-				if (set != null)
-				{
-					LOGGER.trace("Caching a datapoint for {}.", alias);
-					set.add(dp);
-				}
-				else if (!alreadyInterrupted.get() && alreadyInterrupted.compareAndSet(false, true))
-				{
-					LOGGER.trace("Caching interrupted for {}.", alias);
-					if (unlockWhenComplete)
-						waiter.done();
-				}
-			}).onClose(() -> {
-				if (!alreadyInterrupted.get() && alreadyInterrupted.compareAndSet(false, true))
-					LOGGER.debug("Caching finished for {}.", alias);
-				if (unlockWhenComplete)
-					waiter.done();
-			});
+	/*
+	 * Streams the source, caching its datapoints while they are consumed unless they were found not to fit in the budget
+	 */
+	private Stream<DataPoint> streamAndCache()
+	{
+		return manager.isCacheable(getAlias(), null) ? manager.cacheWhileStreaming(getAlias(), getDelegate().stream()) : getDelegate().stream();
 	}
 
 	protected Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> createCache(Set<DataStructureComponent<Identifier, ?, ?>> keys)
 	{
 		String alias = getAlias();
+		
+		Entry<Set<DataStructureComponent<Identifier, ?, ?>>, Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>>> superset = manager.getSuperset(alias, keys);
+		if (superset != null)
+			return regroup(keys, superset.getKey(), superset.getValue());
+		
+		Set<DataPoint> unindexedCache = manager.get(alias, null);
 		LOGGER.debug("Cache miss for {}, start indexing on {}.", alias, keys);
 
 		Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> result;
-		Set<DataPoint> unindexedCache = unindexed.get();
-		if (unindexedCache == null)
-			try (Stream<DataPoint> stream = createUnindexedCache(false))
-			{
-				unindexedCache = stream.collect(toSet());
-				unindexed = new SoftReference<>(unindexedCache);
-			}
-
-		if (getComponents(Identifier.class).equals(keys))
-			result = Utils.getStream(unindexedCache)
-				.collect(toConcurrentMap(dp -> dp.getValues(keys, Identifier.class), Collections::singleton));
-		else
-			result = Utils.getStream(unindexedCache)
-				.collect(groupingByConcurrent(dp -> dp.getValues(keys, Identifier.class), toSet()));
+		try (Stream<DataPoint> stream = unindexedCache != null ? Utils.getStream(unindexedCache) : streamAndCache())
+		{
+			if (getComponents(Identifier.class).equals(keys))
+				result = stream.collect(toConcurrentMap(dp -> dp.getValues(keys, Identifier.class), Collections::singleton));
+			else
+				result = stream.collect(groupingByConcurrent(dp -> dp.getValues(keys, Identifier.class), toSet()));
+		}
 		
-		waiter.putCache(keys, result);
 		LOGGER.debug("Indexing finished for {} on {}.", alias, keys);
-		waiter.done();
+		return result;
+	}
+
+	private Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> regroup(Set<DataStructureComponent<Identifier, ?, ?>> keys, 
+			Set<DataStructureComponent<Identifier, ?, ?>> supersetKeys, Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> supersetIndex)
+	{
+		String alias = getAlias();
+		LOGGER.debug("Cache miss for {}, regrouping index on {} over {}.", alias, supersetKeys, keys);
+
+		Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> result = Utils.getStream(supersetIndex)
+			.collect(groupingByConcurrent(group -> {
+					Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> groupKey = new HashMap<>(group.getKey());
+					groupKey.keySet().retainAll(keys);
+					return groupKey;
+				}, Collector.of(HashSet<DataPoint>::new, (set, group) -> set.addAll(group.getValue()), (a, b) -> { a.addAll(b); return a; })));
+		
+		LOGGER.debug("Regrouping finished for {} on {}.", alias, keys);
 		return result;
 	}
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+
+/**
+ * Holds the metadata of each transformation node compiled in a session.
+ *
+ * Nodes are compared by identity. Equal expressions of a script may be parsed into the same node,
+ * so this table only holds the nodes evaluated directly in the session, where equal expressions
+ * have the same metadata; nodes evaluated in the scope of a clause keep their metadata in that scope.
+ * The metadata computed while compiling is kept aside until the table is frozen once the session
+ * is compiled; after that, it is read from an immutable map without any locking.
+ */
+class MetadataTable
+{
+	private final Map<Transformation, VTLValueMetadata> pending = new IdentityHashMap<>();
+	private volatile Map<Transformation, VTLValueMetadata> frozen = new IdentityHashMap<>();
+
+	/**
+	 * Retrieves the metadata of a node, computing it if it was never computed before.
+	 *
+	 * @param node The transformation node
+	 * @param computer Computes the metadata of the node
+	 * @return The metadata of the node
+	 */
+	public VTLValueMetadata get(Transformation node, Supplier<? extends VTLValueMetadata> computer)
+	{
+		VTLValueMetadata metadata = frozen.get(node);
+		if (metadata != null)
+			return metadata;
+
+		synchronized (pending)
+		{
+			metadata = pending.get(node);
+		}
+		if (metadata != null)
+			return metadata;
+
+		// computed outside the lock, since computing the metadata of a node retrieves the metadata of its operands
+		metadata = computer.get();
+		synchronized (pending)
+		{
+			VTLValueMetadata previous = pending.putIfAbsent(node, metadata);
+			return previous != null ? previous : metadata;
+		}
+	}
+
+	/**
+	 * Publishes the metadata computed so far, so that it can be read without locking.
+	 */
+	public void freeze()
+	{
+		synchronized (pending)
+		{
+			if (pending.isEmpty())
+				return;
+
+			Map<Transformation, VTLValueMetadata> table = new IdentityHashMap<>(frozen);
+			table.putAll(pending);
+			pending.clear();
+			frozen = table;
+		}
+	}
+
+	/**
+	 * Adds the metadata computed by another session for the same nodes, publishing it immediately.
+	 *
+	 * @param metadata The metadata of each node
+	 */
+	public void seed(Map<Transformation, VTLValueMetadata> metadata)
+	{
+		synchronized (pending)
+		{
+			Map<Transformation, VTLValueMetadata> table = new IdentityHashMap<>(metadata);
+			table.putAll(frozen);
+			frozen = table;
+		}
+	}
+
+	/**
+	 * @return The metadata published so far, which must not be modified
+	 */
+	public Map<Transformation, VTLValueMetadata> snapshot()
+	{
+		return frozen;
+	}
+
+	/**
+	 * @return The number of nodes in this table
+	 */
+	public int size()
+	{
+		synchronized (pending)
+		{
+			return frozen.size() + pending.size();
+		}
+	}
+
+	public void clear()
+	{
+		synchronized (pending)
+		{
+			pending.clear();
+			frozen = new IdentityHashMap<>();
+		}
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.engine.Statement;
+import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+
+/**
+ * Keeps the parsed statements and the compiled metadata of the most recently used scripts,
+ * so that sessions submitting the same script share them instead of parsing and compiling it again.
+ *
+ * Scripts are identified by a hash of their text, where comments are removed and whitespace
+ * outside of string literals is collapsed.
+ * The compiled metadata of a script is reused only if the metadata of the datasets it reads is unchanged.
+ */
+class PlanCache
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(PlanCache.class);
+
+	private final Map<String, Plan> plans;
+
+	/**
+	 * The parsed statements of a script, and their metadata once compiled.
+	 */
+	static class Plan
+	{
+		private final String fingerprint;
+		private final List<Statement> statements;
+
+		private volatile Entry<Map<String, VTLValueMetadata>, Map<Transformation, VTLValueMetadata>> compiled;
+
+		private Plan(String fingerprint, List<Statement> statements)
+		{
+			this.fingerprint = fingerprint;
+			this.statements = statements;
+		}
+
+		public List<Statement> getStatements()
+		{
+			return statements;
+		}
+
+		/**
+		 * @param sources The metadata of the datasets read by the script
+		 * @return The compiled metadata of the script, or null if the script was not compiled with the same sources
+		 */
+		public Map<Transformation, VTLValueMetadata> getMetadata(Map<String, VTLValueMetadata> sources)
+		{
+			Entry<Map<String, VTLValueMetadata>, Map<Transformation, VTLValueMetadata>> current = compiled;
+			return current != null && current.getKey().equals(sources) ? current.getValue() : null;
+		}
+
+		/**
+		 * Stores the compiled metadata of the script.
+		 *
+		 * @param sources The metadata of the datasets read by the script
+		 * @param metadata The metadata of each transformation node of the script
+		 */
+		public void setMetadata(Map<String, VTLValueMetadata> sources, Map<Transformation, VTLValueMetadata> metadata)
+		{
+			compiled = new SimpleImmutableEntry<>(sources, new IdentityHashMap<>(metadata));
+			LOGGER.debug("Stored the metadata of {} transformations for script {}.", metadata.size(), fingerprint);
+		}
+	}
+
+	/**
+	 * Creates a new cache
+	 *
+	 * @param maxSize The maximum number of scripts to keep
+	 */
+	@SuppressWarnings("serial")
+	public PlanCache(int maxSize)
+	{
+		plans = new LinkedHashMap<String, Plan>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Plan> eldest)
+			{
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Retrieves the plan of a script, parsing the script if it is not cached.
+	 *
+	 * @param code The script
+	 * @param parser Parses the script
+	 * @return The plan of the script
+	 */
+	public Plan get(String code, Function<? super String, ? extends List<Statement>> parser)
+	{
+		String fingerprint = fingerprint(code);
+
+		Plan plan;
+		synchronized (plans)
+		{
+			plan = plans.get(fingerprint);
+		}
+		if (plan != null)
+		{
+			LOGGER.debug("Reusing the parsed statements of script {}.", fingerprint);
+			return plan;
+		}
+
+		// parsed outside the lock, so that different scripts are parsed concurrently
+		Plan parsed = new Plan(fingerprint, parser.apply(code));
+		synchronized (plans)
+		{
+			plan = plans.putIfAbsent(fingerprint, parsed);
+		}
+		return plan != null ? plan : parsed;
+	}
+
+	/**
+	 * @return The number of cached scripts
+	 */
+	public int size()
+	{
+		synchronized (plans)
+		{
+			return plans.size();
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of a script.
+	 *
+	 * @param code The script
+	 * @return The hexadecimal SHA-256 hash of the normalized script
+	 */
+	public static String fingerprint(String code)
+	{
+		try
+		{
+			StringBuilder builder = new StringBuilder();
+			for (byte b: MessageDigest.getInstance("SHA-256").digest(normalize(code).getBytes(UTF_8)))
+				builder.append(String.format("%02x", b));
+			return builder.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Removes the comments from a script and collapses whitespace outside of string literals and quoted names.
+	 *
+	 * @param code The script
+	 * @return The normalized script
+	 */
+	static String normalize(String code)
+	{
+		Objects.requireNonNull(code);
+
+		StringBuilder result = new StringBuilder(code.length());
+		boolean space = false;
+		for (int i = 0; i < code.length(); i++)
+		{
+			char c = code.charAt(i);
+			if (c == '/' && i + 1 < code.length() && code.charAt(i + 1) == '*')
+			{
+				int end = code.indexOf("*/", i + 2);
+				i = end < 0 ? code.length() : end + 1;
+				space = true;
+			}
+			else if (c == '/' && i + 1 < code.length() && code.charAt(i + 1) == '/')
+			{
+				int end = code.indexOf('\n', i + 2);
+				i = end < 0 ? code.length() : end;
+				space = true;
+			}
+			else if (Character.isWhitespace(c))
+				space = true;
+			else
+			{
+				if (space && result.length() > 0)
+					result.append(' ');
+				space = false;
+
+				if (c == '"' || c == '\'')
+				{
+					// copy the literal unchanged
+					int end = code.indexOf(c, i + 1);
+					end = end < 0 ? code.length() : end + 1;
+					result.append(code, i, end);
+					i = end - 1;
+				}
+				else
+					result.append(c);
+			}
+		}
+
+		return result.toString();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static java.util.stream.Collectors.joining;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.engine.Statement;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
+import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+
+/**
+ * Computes a set of rules and all the rules they depend on, following the dependency graph 
+ * built from the terminals of each rule: a rule is submitted to a bounded executor as soon 
+ * as all the rules it depends on have been computed.
+ * 
+ * Each computed rule keeps a count of the scheduled rules depending on it; when the count 
+ * drops to zero, its value is released unless it was requested. A rule whose value could not 
+ * be materialized still reads from the values of its dependencies, so it is counted as 
+ * depending on them until it is released in turn.
+ */
+class RuleScheduler
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(RuleScheduler.class);
+	private final static AtomicInteger POOL_COUNTER = new AtomicInteger();
+	
+	private final Map<String, Statement> rules;
+	private final Function<String, String> normalizer;
+	private final Function<String, VTLValue> evaluator;
+	private final Predicate<VTLValue> materializer;
+	private final Consumer<String> releaser;
+	private final int parallelism;
+
+	/**
+	 * @param rules The rules of the session, by name
+	 * @param normalizer Converts a name as written in a rule to the name of the rule it refers to
+	 * @param evaluator Computes the value of a rule
+	 * @param materializer Materializes the value of a rule, returning false if it still reads from the values of its dependencies
+	 * @param releaser Releases the value of a rule that is not needed anymore
+	 * @param parallelism The maximum number of rules computed at the same time
+	 */
+	public RuleScheduler(Map<String, Statement> rules, Function<String, String> normalizer, Function<String, VTLValue> evaluator, Predicate<VTLValue> materializer, Consumer<String> releaser, int parallelism)
+	{
+		this.rules = rules;
+		this.normalizer = normalizer;
+		this.evaluator = evaluator;
+		this.materializer = materializer;
+		this.releaser = releaser;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Computes the requested rules.
+	 * 
+	 * @param names the names of the requested rules
+	 * @return the value of each requested rule, in the same order
+	 */
+	public Map<String, VTLValue> resolve(Collection<String> names)
+	{
+		Set<String> requested = new LinkedHashSet<>();
+		for (String name: names)
+			requested.add(normalizer.apply(name));
+		
+		// collect the rules needed in topological order, along with their dependencies 
+		Map<String, Set<String>> dependencies = new LinkedHashMap<>();
+		Set<String> visiting = new LinkedHashSet<>();
+		for (String name: requested)
+			visit(name, dependencies, visiting);
+
+		Map<String, AtomicInteger> consumers = new HashMap<>();
+		for (String name: dependencies.keySet())
+			consumers.put(name, new AtomicInteger());
+		for (Set<String> deps: dependencies.values())
+			for (String dep: deps)
+				consumers.get(dep).incrementAndGet();
+		// rules whose value still reads from their dependencies
+		Set<String> views = ConcurrentHashMap.newKeySet();
+
+		LOGGER.info("Scheduling {} rules to compute {} results on {} threads", dependencies.size(), requested.size(), parallelism);
+		
+		int poolNumber = POOL_COUNTER.incrementAndGet();
+		AtomicInteger threadCounter = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread thread = new Thread(r, "vtl-scheduler-" + poolNumber + "-" + threadCounter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, factory);
+		try
+		{
+			Map<String, CompletableFuture<VTLValue>> futures = new HashMap<>();
+			for (Map.Entry<String, Set<String>> rule: dependencies.entrySet())
+			{
+				String name = rule.getKey();
+				CompletableFuture<?> ready = CompletableFuture.allOf(rule.getValue().stream()
+						.map(futures::get)
+						.toArray(CompletableFuture<?>[]::new));
+				CompletableFuture<VTLValue> future = ready.thenApplyAsync(v -> {
+					VTLValue value = evaluator.apply(name);
+					
+					// the dependencies are done with only if the value does not read from them anymore
+					if (materializer.test(value))
+						releaseDependencies(name, dependencies, consumers, requested, views);
+					else
+					{
+						LOGGER.debug("Keeping the dependencies of {} as it could not be materialized", name);
+						views.add(name);
+					}
+					
+					return value;
+				}, executor);
+				futures.put(name, future);
+			}
+			
+			Map<String, VTLValue> result = new LinkedHashMap<>();
+			for (String name: requested)
+				result.put(name, futures.get(name).join());
+			return result;
+		}
+		catch (CompletionException e)
+		{
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	/*
+	 * Releases the dependencies not requested whose last consumer is done with them
+	 */
+	private void releaseDependencies(String name, Map<String, Set<String>> dependencies, Map<String, AtomicInteger> consumers, Set<String> requested, Set<String> views)
+	{
+		for (String dep: dependencies.get(name))
+			if (consumers.get(dep).decrementAndGet() == 0 && !requested.contains(dep))
+			{
+				LOGGER.debug("Releasing {}", dep);
+				releaser.accept(dep);
+				if (views.remove(dep))
+					releaseDependencies(dep, dependencies, consumers, requested, views);
+			}
+	}
+
+	private void visit(String name, Map<String, Set<String>> dependencies, Set<String> visiting)
+	{
+		if (dependencies.containsKey(name))
+			return;
+		if (!visiting.add(name))
+		{
+			List<String> cycle = new ArrayList<>(visiting);
+			throw new IllegalStateException("Found a cycle between rules " + cycle.subList(cycle.indexOf(name), cycle.size()).stream().collect(joining(", ")));
+		}
+		
+		Statement rule = rules.get(name);
+		Set<String> deps = new HashSet<>();
+		if (rule != null)
+			for (LeafTransformation terminal: rule.getTerminals())
+			{
+				String dep = normalizer.apply(terminal.getText());
+				if (rules.containsKey(dep))
+				{
+					visit(dep, dependencies, visiting);
+					deps.add(dep);
+				}
+			}
+		
+		visiting.remove(name);
+		dependencies.put(name, deps);
+	}
+}
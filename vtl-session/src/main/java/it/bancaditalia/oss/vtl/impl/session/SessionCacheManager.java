@@ -0,0 +1,640 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+
+/**
+ * Keeps the cached copies and indexes of the datasets used in a {@link VTLSessionImpl session} 
+ * within a fixed memory budget.
+ * 
+ * Each entry is accounted for an estimate of its size in bytes and for the time it took to compute it.
+ * When the budget is exceeded, entries are evicted with a GreedyDual-Size-Frequency policy: the entries 
+ * least recently and least frequently used, and cheapest to recompute with respect to their size, go first.
+ * 
+ * @author Valentino Pinna
+ */
+public class SessionCacheManager
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(SessionCacheManager.class);
+	private final static int SAMPLE_SIZE = 64;
+
+	private final Map<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, CacheEntry> entries = new HashMap<>();
+	private final Map<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, PendingEntry> pending = new ConcurrentHashMap<>();
+	private final Set<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>> oversized = ConcurrentHashMap.newKeySet();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final long budget;
+	private final Predicate<? super String> pinned;
+
+	private long used = 0;
+	private double clock = 0;
+	
+	private static class CacheEntry
+	{
+		private final Object value;
+		private final long size;
+		private final long cost;
+		private long frequency = 1;
+		private double priority;
+
+		public CacheEntry(Object value, long size, long cost)
+		{
+			this.value = value;
+			this.size = Math.max(size, 1);
+			this.cost = Math.max(cost, 1);
+		}
+		
+		public void touch(double clock)
+		{
+			priority = clock + (double) frequency * cost / size;
+		}
+	}
+
+	private static class PendingEntry
+	{
+		private final CompletableFuture<Object> future = new CompletableFuture<>();
+		private final Thread owner = Thread.currentThread();
+	}
+
+	/*
+	 * The datapoints of a dataset buffered while its stream is consumed 
+	 */
+	private class StreamingEntry
+	{
+		private final String alias;
+		private final long start = System.nanoTime();
+		// the spliterators of the stream not yet exhausted
+		private final AtomicInteger open = new AtomicInteger(1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sampledSize = new AtomicLong();
+		private volatile Set<DataPoint> datapoints = ConcurrentHashMap.newKeySet();
+
+		public StreamingEntry(String alias)
+		{
+			this.alias = alias;
+		}
+		
+		public void add(DataPoint dp)
+		{
+			Set<DataPoint> buffer = datapoints;
+			if (buffer == null)
+				return;
+			
+			buffer.add(dp);
+			long n = count.incrementAndGet();
+			long sampled = n <= SAMPLE_SIZE ? sampledSize.addAndGet(estimateSize(dp)) : sampledSize.get();
+			if (sampled * n / Math.min(n, SAMPLE_SIZE) > budget)
+			{
+				LOGGER.debug("Not caching {}: more than {} datapoints exceed the budget of {} bytes.", alias, n, budget);
+				datapoints = null;
+				oversized.add(new SimpleEntry<>(alias, null));
+			}
+		}
+		
+		public boolean isOversized()
+		{
+			return datapoints == null;
+		}
+
+		public void exhausted()
+		{
+			Set<DataPoint> buffer = datapoints;
+			if (open.decrementAndGet() == 0 && buffer != null && lookup(new SimpleEntry<>(alias, null), false) == null)
+				put(alias, null, buffer, estimateSize(buffer), System.nanoTime() - start);
+		}
+	}
+
+	/*
+	 * Passes each datapoint to the buffer of a dataset, splitting as the source does
+	 */
+	private static class TeeSpliterator implements Spliterator<DataPoint>
+	{
+		private final Spliterator<DataPoint> source;
+		private final StreamingEntry entry;
+		private boolean exhausted = false;
+
+		public TeeSpliterator(Spliterator<DataPoint> source, StreamingEntry entry)
+		{
+			this.source = source;
+			this.entry = entry;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super DataPoint> action)
+		{
+			boolean advanced = source.tryAdvance(dp -> {
+				entry.add(dp);
+				action.accept(dp);
+			});
+			
+			if (!advanced)
+				done();
+			return advanced;
+		}
+
+		@Override
+		public void forEachRemaining(Consumer<? super DataPoint> action)
+		{
+			source.forEachRemaining(dp -> {
+				entry.add(dp);
+				action.accept(dp);
+			});
+			done();
+		}
+
+		@Override
+		public Spliterator<DataPoint> trySplit()
+		{
+			Spliterator<DataPoint> split = source.trySplit();
+			if (split == null)
+				return null;
+			
+			entry.open.incrementAndGet();
+			return new TeeSpliterator(split, entry);
+		}
+
+		@Override
+		public long estimateSize()
+		{
+			return source.estimateSize();
+		}
+
+		@Override
+		public int characteristics()
+		{
+			return source.characteristics();
+		}
+
+		@Override
+		public Comparator<? super DataPoint> getComparator()
+		{
+			return source.getComparator();
+		}
+		
+		private void done()
+		{
+			if (!exhausted)
+			{
+				exhausted = true;
+				entry.exhausted();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new cache manager
+	 * 
+	 * @param budget The maximum size in bytes of the cached entries
+	 */
+	public SessionCacheManager(long budget)
+	{
+		this(budget, alias -> false);
+	}
+
+	/**
+	 * Creates a new cache manager whose entries cannot be evicted while they are pinned
+	 * 
+	 * @param budget The maximum size in bytes of the cached entries
+	 * @param pinned Tells if the entries of a dataset alias are currently in use and must not be evicted
+	 */
+	public SessionCacheManager(long budget, Predicate<? super String> pinned)
+	{
+		this.budget = budget;
+		this.pinned = pinned;
+	}
+
+	/**
+	 * Parses a memory size expressed in bytes, optionally followed by one of the suffixes k, m or g.
+	 * 
+	 * @param size The size to parse; if null or empty, a quarter of the maximum heap size is returned
+	 * @return the size in bytes
+	 */
+	public static long parseSize(String size)
+	{
+		if (size == null || size.trim().isEmpty())
+			return Runtime.getRuntime().maxMemory() / 4;
+		
+		String value = size.trim().toLowerCase();
+		long multiplier = 1;
+		switch (value.charAt(value.length() - 1))
+		{
+			case 'g': multiplier <<= 10;
+			case 'm': multiplier <<= 10;
+			case 'k': multiplier <<= 10;
+				value = value.substring(0, value.length() - 1);
+		}
+		
+		return Long.parseLong(value.trim()) * multiplier;
+	}
+
+	/**
+	 * Retrieves a cached entry, or computes it if not present.
+	 * Concurrent requests for the same entry share a single computation, while requests for 
+	 * other entries, or for entries already cached, proceed without waiting.
+	 * 
+	 * @param alias The dataset alias
+	 * @param keys The keys of the index, or null for the unindexed copy of the dataset
+	 * @param builder Computes the entry
+	 * @param sizer Estimates the size in bytes of the computed entry
+	 * @return The cached or computed entry, or null if the builder gave up computing it
+	 */
+	public <T> T computeIfAbsent(String alias, Set<DataStructureComponent<Identifier, ?, ?>> keys, Supplier<? extends T> builder, ToLongFunction<? super T> sizer)
+	{
+		T value = get(alias, keys);
+		if (value != null)
+			return value;
+		
+		Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>> key = new SimpleEntry<>(alias, keys);
+		PendingEntry newEntry = new PendingEntry();
+		PendingEntry entry = pending.putIfAbsent(key, newEntry);
+		if (entry != null)
+		{
+			// Do not wait for a computation started by this same thread further down the stack 
+			if (entry.owner == Thread.currentThread())
+				return builder.get();
+			
+			LOGGER.trace("Waiting for {} over {} to be computed.", alias, keys);
+			try
+			{
+				@SuppressWarnings("unchecked")
+				T result = (T) entry.future.join();
+				return result;
+			}
+			catch (CompletionException e)
+			{
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+			}
+		}
+		
+		try
+		{
+			// another thread may have completed it in the meantime; the miss was already counted
+			value = lookup(key, false);
+			if (value == null)
+			{
+				long start = System.nanoTime();
+				value = builder.get();
+				if (value != null)
+					put(alias, keys, value, sizer.applyAsLong(value), System.nanoTime() - start);
+			}
+			newEntry.future.complete(value);
+			return value;
+		}
+		catch (RuntimeException | Error e)
+		{
+			newEntry.future.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			pending.remove(key, newEntry);
+		}
+	}
+
+	/**
+	 * Retrieves a cached entry
+	 * 
+	 * @param alias The dataset alias
+	 * @param keys The keys of the index, or null for the unindexed copy of the dataset
+	 * @return The cached entry, or null if not present
+	 */
+	public <T> T get(String alias, Set<DataStructureComponent<Identifier, ?, ?>> keys)
+	{
+		return lookup(new SimpleEntry<>(alias, keys), true);
+	}
+
+	private synchronized <T> T lookup(Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>> key, boolean count)
+	{
+		CacheEntry entry = entries.get(key);
+		if (entry == null)
+		{
+			if (count)
+				misses.incrementAndGet();
+			return null;
+		}
+		
+		if (count)
+			hits.incrementAndGet();
+		entry.frequency++;
+		entry.touch(clock);
+		
+		@SuppressWarnings("unchecked")
+		T value = (T) entry.value;
+		return value;
+	}
+
+	/**
+	 * Finds the cached index of a dataset whose keys are the smallest strict superset of the given keys.
+	 * 
+	 * @param alias The dataset alias
+	 * @param keys The requested keys
+	 * @return An entry with the keys and the found index, or null if no such index is cached
+	 */
+	public synchronized <T> Entry<Set<DataStructureComponent<Identifier, ?, ?>>, T> getSuperset(String alias, Set<DataStructureComponent<Identifier, ?, ?>> keys)
+	{
+		Entry<Set<DataStructureComponent<Identifier, ?, ?>>, CacheEntry> found = null;
+		for (Entry<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, CacheEntry> entry: entries.entrySet())
+		{
+			Set<DataStructureComponent<Identifier, ?, ?>> entryKeys = entry.getKey().getValue();
+			if (alias.equals(entry.getKey().getKey()) && entryKeys != null && entryKeys.size() > keys.size() && entryKeys.containsAll(keys)
+					&& (found == null || entryKeys.size() < found.getKey().size()))
+				found = new SimpleEntry<>(entryKeys, entry.getValue());
+		}
+		
+		if (found == null)
+			return null;
+		
+		CacheEntry entry = found.getValue();
+		entry.frequency++;
+		entry.touch(clock);
+		
+		@SuppressWarnings("unchecked")
+		T value = (T) entry.value;
+		return new SimpleEntry<>(found.getKey(), value);
+	}
+
+	/**
+	 * @param alias The dataset alias
+	 * @param keys The keys of the index, or null for the unindexed copy of the dataset
+	 * @return false if an entry with the same name and keys was previously refused because larger than the budget
+	 */
+	public boolean isCacheable(String alias, Set<DataStructureComponent<Identifier, ?, ?>> keys)
+	{
+		return !oversized.contains(new SimpleEntry<>(alias, keys));
+	}
+
+	/**
+	 * Caches the datapoints of a stream while they are consumed, as long as their estimated size fits in the budget.
+	 * The returned stream splits as the given one does, so that a parallel source is still consumed in parallel. 
+	 * The datapoints are cached as the unindexed copy of the dataset only once the stream is entirely consumed. 
+	 * If the budget is exceeded, the datapoints buffered so far are dropped and the unindexed copy 
+	 * is marked as not cacheable, while the stream goes on.
+	 * 
+	 * @param alias The dataset alias
+	 * @param stream The datapoints of the dataset
+	 * @return The same datapoints
+	 */
+	public Stream<DataPoint> cacheWhileStreaming(String alias, Stream<DataPoint> stream)
+	{
+		return tee(new StreamingEntry(alias), stream);
+	}
+
+	/**
+	 * Consumes a stream caching its datapoints as {@link #cacheWhileStreaming(String, Stream)} does, 
+	 * but stops as soon as their estimated size exceeds the budget. 
+	 * 
+	 * @param alias The dataset alias
+	 * @param stream The datapoints of the dataset
+	 * @return false if the datapoints do not fit in the budget
+	 */
+	public boolean cacheAll(String alias, Stream<DataPoint> stream)
+	{
+		StreamingEntry entry = new StreamingEntry(alias);
+		try (Stream<DataPoint> tee = tee(entry, stream))
+		{
+			return !tee.anyMatch(dp -> entry.isOversized());
+		}
+	}
+	
+	private static Stream<DataPoint> tee(StreamingEntry entry, Stream<DataPoint> stream)
+	{
+		return StreamSupport.stream(new TeeSpliterator(stream.spliterator(), entry), stream.isParallel())
+				.onClose(stream::close);
+	}
+
+	/**
+	 * Stores an entry in the cache, evicting other entries if needed.
+	 * 
+	 * @param alias The dataset alias
+	 * @param keys The keys of the index, or null for the unindexed copy of the dataset
+	 * @param value The entry to cache
+	 * @param size The estimated size of the entry in bytes
+	 * @param cost The time, in nanoseconds, spent computing the entry
+	 * @return true if the entry was cached, false if it is larger than the budget or all the entries to evict are pinned
+	 */
+	public synchronized boolean put(String alias, Set<DataStructureComponent<Identifier, ?, ?>> keys, Object value, long size, long cost)
+	{
+		Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>> key = new SimpleEntry<>(alias, keys);
+		if (size > budget)
+		{
+			LOGGER.debug("Not caching {} over {}: size {} exceeds the budget of {} bytes.", alias, keys, size, budget);
+			oversized.add(key);
+			return false;
+		}
+		
+		CacheEntry previous = entries.remove(key);
+		if (previous != null)
+			used -= previous.size;
+		
+		while (used + size > budget)
+			if (!evict())
+			{
+				LOGGER.debug("Not caching {} over {}: no room left in the budget of {} bytes.", alias, keys, budget);
+				return false;
+			}
+		
+		CacheEntry entry = new CacheEntry(value, size, cost);
+		entry.touch(clock);
+		entries.put(key, entry);
+		used += entry.size;
+		LOGGER.debug("Cached {} over {}: {} bytes computed in {} ms, {} of {} bytes used.", alias, keys, entry.size, cost / 1000000, used, budget);
+		return true;
+	}
+
+	private boolean evict()
+	{
+		Entry<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, CacheEntry> victim = null;
+		for (Entry<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, CacheEntry> entry: entries.entrySet())
+			if ((victim == null || entry.getValue().priority < victim.getValue().priority) && !pinned.test(entry.getKey().getKey()))
+				victim = entry;
+		
+		if (victim == null)
+			return false;
+		
+		entries.remove(victim.getKey());
+		used -= victim.getValue().size;
+		clock = victim.getValue().priority;
+		evictions.incrementAndGet();
+		LOGGER.debug("Evicted {} over {} from cache.", victim.getKey().getKey(), victim.getKey().getValue());
+		return true;
+	}
+
+	/**
+	 * Removes all the cached entries of a dataset, both indexed and unindexed.
+	 * 
+	 * @param alias The dataset alias
+	 */
+	public synchronized void remove(String alias)
+	{
+		for (Iterator<Entry<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, CacheEntry>> iterator = entries.entrySet().iterator(); iterator.hasNext(); )
+		{
+			Entry<Entry<String, Set<DataStructureComponent<Identifier, ?, ?>>>, CacheEntry> entry = iterator.next();
+			if (alias.equals(entry.getKey().getKey()))
+			{
+				used -= entry.getValue().size;
+				iterator.remove();
+				LOGGER.debug("Released {} over {} from cache.", alias, entry.getKey().getValue());
+			}
+		}
+		oversized.removeIf(key -> alias.equals(key.getKey()));
+	}
+
+	/**
+	 * Removes all the cached entries.
+	 */
+	public synchronized void clear()
+	{
+		LOGGER.debug("Releasing {} cached entries ({} bytes).", entries.size(), used);
+		entries.clear();
+		oversized.clear();
+		used = 0;
+		clock = 0;
+	}
+
+	/**
+	 * @return the number of lookups that found a cached entry
+	 */
+	public long getHits()
+	{
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that did not find a cached entry
+	 */
+	public long getMisses()
+	{
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of entries evicted to make room for new ones
+	 */
+	public long getEvictions()
+	{
+		return evictions.get();
+	}
+
+	/**
+	 * @return the estimated size in bytes of all the cached entries
+	 */
+	public synchronized long getUsed()
+	{
+		return used;
+	}
+
+	/**
+	 * @return the maximum size in bytes of all the cached entries
+	 */
+	public long getBudget()
+	{
+		return budget;
+	}
+
+	/**
+	 * @return the number of cached entries
+	 */
+	public synchronized int getSize()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Estimates the memory retained by a set of datapoints by sampling some of them.
+	 * 
+	 * @param datapoints The datapoints
+	 * @return the estimated size in bytes
+	 */
+	public static long estimateSize(Collection<DataPoint> datapoints)
+	{
+		int sampled = 0;
+		long sampledSize = 0;
+		for (Iterator<DataPoint> iterator = datapoints.iterator(); iterator.hasNext() && sampled < SAMPLE_SIZE; sampled++)
+			sampledSize += estimateSize(iterator.next());
+		
+		return sampled == 0 ? 0 : sampledSize * datapoints.size() / sampled;
+	}
+
+	private static long estimateSize(DataPoint dp)
+	{
+		// datapoint object and its arrays, set entry
+		long size = 80 + 48 + 8 * dp.size();
+		for (ScalarValue<?, ?, ?, ?> value: dp.values())
+			size += estimateSize(value);
+		return size;
+	}
+
+	/**
+	 * Estimates the memory retained by an index over a set of datapoints, excluding the datapoints themselves.
+	 * 
+	 * @param index The index
+	 * @param keys The keys of the index
+	 * @return the estimated size in bytes
+	 */
+	public static long estimateIndexSize(Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>> index, Set<DataStructureComponent<Identifier, ?, ?>> keys)
+	{
+		long count = 0;
+		for (Set<DataPoint> group: index.values())
+			count += group.size();
+		
+		// map entry, key map with its entries, value set with its entries
+		return index.size() * (48L + 48 + 32 * keys.size() + 48) + count * 40L;
+	}
+
+	private static long estimateSize(ScalarValue<?, ?, ?, ?> value)
+	{
+		Object inner = value.get();
+		if (inner instanceof String)
+			return 16 + 40 + ((String) inner).length();
+		else if (inner == null)
+			return 16;
+		else
+			return 16 + 24;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the cached copies and indexes of the source datasets read by all the sessions of this process.
+ *
+ * Source datasets are considered read-only, and are identified by their alias only.
+ * Each session acquires the aliases it reads and releases them when closed: the entries of an alias
+ * are not evicted as long as some session is using it, while the entries of the aliases no longer
+ * in use are kept until room is needed for other entries.
+ */
+class SharedSourceCache
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(SharedSourceCache.class);
+
+	private final Map<String, Integer> references = new HashMap<>();
+	private final SessionCacheManager manager;
+
+	/**
+	 * Creates a new shared cache
+	 *
+	 * @param budget The maximum size in bytes of the cached entries
+	 */
+	public SharedSourceCache(long budget)
+	{
+		manager = new SessionCacheManager(budget, this::isInUse);
+	}
+
+	/**
+	 * Registers a session as a user of a source dataset
+	 *
+	 * @param alias The dataset alias
+	 */
+	public synchronized void acquire(String alias)
+	{
+		int count = references.merge(alias, 1, Integer::sum);
+		LOGGER.trace("Shared source {} acquired, {} users.", alias, count);
+	}
+
+	/**
+	 * Unregisters a session as a user of a source dataset
+	 *
+	 * @param alias The dataset alias
+	 */
+	public synchronized void release(String alias)
+	{
+		Integer count = references.computeIfPresent(alias, (a, c) -> c > 1 ? c - 1 : null);
+		LOGGER.trace("Shared source {} released, {} users.", alias, count == null ? 0 : count);
+	}
+
+	/**
+	 * @param alias The dataset alias
+	 * @return true if a session is using the dataset
+	 */
+	public synchronized boolean isInUse(String alias)
+	{
+		return references.containsKey(alias);
+	}
+
+	/**
+	 * @return the {@link SessionCacheManager} holding the shared datasets
+	 */
+	public SessionCacheManager getCacheManager()
+	{
+		return manager;
+	}
+}
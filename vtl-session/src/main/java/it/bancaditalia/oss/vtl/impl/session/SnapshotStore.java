@@ -0,0 +1,557 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.DATEDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.time.temporal.ChronoField.EPOCH_DAY;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.impl.types.data.date.DateHolder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.data.ValueDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.BooleanDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.DateDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.IntegerDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.NumberDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.StringDomainSubset;
+import it.bancaditalia.oss.vtl.util.Utils;
+
+/**
+ * Stores snapshots of external datasets in a directory, each one identified by the name of the dataset
+ * and valid only as long as the fingerprint supplied by its environment does not change. 
+ * 
+ * A snapshot holds the already typed datapoints in blocks of rows; inside each block, the values of 
+ * each component are stored contiguously, with strings dictionary-encoded and nulls in a bitmap.
+ * Blocks are memory-mapped when the snapshot is loaded and decoded independently while streaming.
+ * 
+ * Only datasets whose components are integers, numbers, booleans, strings or dates, and whose 
+ * datapoints have an external lineage can be stored.
+ */
+public class SnapshotStore
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(SnapshotStore.class);
+	private final static int MAGIC = 0x56544C53;
+	private final static int VERSION = 1;
+	private final static int BLOCK_SIZE = 1 << 16;
+
+	private final static byte INTEGER = 1;
+	private final static byte NUMBER = 2;
+	private final static byte BOOLEAN = 3;
+	private final static byte STRING = 4;
+	private final static byte DATE = 5;
+
+	private final Path directory;
+
+	private static class UnsupportedValueException extends RuntimeException
+	{
+		private static final long serialVersionUID = 1L;
+
+		public UnsupportedValueException(String message)
+		{
+			super(message, null, false, false);
+		}
+	}
+	
+	/**
+	 * Creates a store over the given directory.
+	 * 
+	 * @param directory The directory containing the snapshots; it is created if missing
+	 */
+	public SnapshotStore(Path directory)
+	{
+		this.directory = directory;
+	}
+
+	/**
+	 * @param structure The structure of a dataset
+	 * @return true if datasets with the given structure can be stored
+	 */
+	public static boolean isSupported(DataSetMetadata structure)
+	{
+		return structure.stream().allMatch(c -> encodingOf(c.getDomain()) != 0);
+	}
+
+	/**
+	 * Loads a snapshot of a dataset, if one was stored with the same fingerprint and structure.
+	 * 
+	 * @param name The name of the dataset
+	 * @param fingerprint The current fingerprint of the dataset
+	 * @param structure The current structure of the dataset
+	 * @return The stored dataset, or null if no valid snapshot exists.
+	 */
+	public DataSet load(String name, String fingerprint, DataSetMetadata structure)
+	{
+		Path file = fileOf(name);
+		if (!Files.isRegularFile(file))
+			return null;
+
+		DataStructureComponent<?, ?, ?> slots[] = slotsOf(structure);
+		try (FileChannel channel = FileChannel.open(file, READ))
+		{
+			DataInputStream header = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+			if (header.readInt() != MAGIC || header.readInt() != VERSION || !fingerprint.equals(header.readUTF()) || header.readInt() != slots.length)
+			{
+				LOGGER.debug("Stale snapshot for {}", name);
+				return null;
+			}
+			long position = 14 + modifiedUTFLength(fingerprint);
+			for (DataStructureComponent<?, ?, ?> slot: slots)
+			{
+				String componentName = header.readUTF();
+				if (!componentName.equals(slot.getName()) || header.readByte() != encodingOf(slot.getDomain()))
+				{
+					LOGGER.debug("Structure of {} changed since its snapshot", name);
+					return null;
+				}
+				position += 3 + modifiedUTFLength(componentName);
+			}
+
+			List<ByteBuffer> blocks = new ArrayList<>();
+			ByteBuffer blockHeader = ByteBuffer.allocate(4);
+			for (long size = channel.size(); position < size; )
+			{
+				blockHeader.clear();
+				while (blockHeader.hasRemaining() && channel.read(blockHeader, position + blockHeader.position()) > 0);
+				int length = blockHeader.getInt(0);
+				blocks.add(channel.map(READ_ONLY, position + 4, length));
+				position += 4 + length;
+			}
+			
+			LOGGER.info("Loaded snapshot of {} with {} blocks", name, blocks.size());
+			return new LightDataSet(structure, () -> Utils.getStream(blocks)
+					.map(block -> decode(block.duplicate(), structure, slots))
+					.flatMap(List::stream));
+		}
+		catch (IOException e)
+		{
+			LOGGER.warn("Cannot read snapshot of " + name, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Stores a snapshot of a dataset, reading all of its datapoints.
+	 * 
+	 * @param name The name of the dataset
+	 * @param fingerprint The current fingerprint of the dataset
+	 * @param dataset The dataset to store
+	 * @return true if the snapshot was stored, false if the dataset contains values that cannot be stored.
+	 */
+	public boolean store(String name, String fingerprint, DataSet dataset)
+	{
+		DataSetMetadata structure = dataset.getMetadata();
+		if (!isSupported(structure))
+			return false;
+		
+		DataStructureComponent<?, ?, ?> slots[] = slotsOf(structure);
+		Path temp = null;
+		try
+		{
+			Files.createDirectories(directory);
+			temp = Files.createTempFile(directory, "vtl-snapshot-", ".tmp");
+			try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temp)))
+			{
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeUTF(fingerprint);
+				output.writeInt(slots.length);
+				for (DataStructureComponent<?, ?, ?> slot: slots)
+				{
+					output.writeUTF(slot.getName());
+					output.writeByte(encodingOf(slot.getDomain()));
+				}
+				
+				// each thread fills its own block, and writes it out when full
+				Collector<DataPoint, List<DataPoint>, List<DataPoint>> writer = Collector.of(ArrayList::new, (block, dp) -> {
+						block.add(dp);
+						if (block.size() >= BLOCK_SIZE)
+							writeBlock(output, block, slots);
+					}, (left, right) -> {
+						for (DataPoint dp: right)
+						{
+							left.add(dp);
+							if (left.size() >= BLOCK_SIZE)
+								writeBlock(output, left, slots);
+						}
+						return left;
+					}, block -> {
+						writeBlock(output, block, slots);
+						return block;
+					});
+				
+				try (Stream<DataPoint> stream = dataset.stream())
+				{
+					stream.collect(writer);
+				}
+			}
+
+			Files.move(temp, fileOf(name), REPLACE_EXISTING, ATOMIC_MOVE);
+			LOGGER.info("Stored snapshot of {}", name);
+			return true;
+		}
+		catch (UnsupportedValueException e)
+		{
+			LOGGER.debug("Cannot store snapshot of {}: {}", name, e.getMessage());
+			return false;
+		}
+		catch (IOException | UncheckedIOException e)
+		{
+			LOGGER.warn("Cannot store snapshot of " + name, e);
+			return false;
+		}
+		finally
+		{
+			if (temp != null)
+				try
+				{
+					Files.deleteIfExists(temp);
+				}
+				catch (IOException e)
+				{
+					LOGGER.warn("Cannot delete " + temp, e);
+				}
+		}
+	}
+
+	private Path fileOf(String name)
+	{
+		try
+		{
+			StringBuilder hex = new StringBuilder();
+			for (byte b: MessageDigest.getInstance("SHA-1").digest(name.getBytes(UTF_8)))
+				hex.append(String.format("%02x", b));
+			return directory.resolve(hex + ".snapshot");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static DataStructureComponent<?, ?, ?>[] slotsOf(DataSetMetadata structure)
+	{
+		DataStructureComponent<?, ?, ?> slots[] = new DataStructureComponent<?, ?, ?>[structure.size()];
+		for (DataStructureComponent<?, ?, ?> component: structure)
+			slots[structure.indexOf(component)] = component;
+		return slots;
+	}
+
+	private static byte encodingOf(ValueDomainSubset<?, ?> domain)
+	{
+		if (domain instanceof IntegerDomainSubset)
+			return INTEGER;
+		else if (domain instanceof NumberDomainSubset)
+			return NUMBER;
+		else if (domain instanceof BooleanDomainSubset)
+			return BOOLEAN;
+		else if (domain instanceof StringDomainSubset)
+			return STRING;
+		else if (domain instanceof DateDomainSubset)
+			return DATE;
+		else
+			return 0;
+	}
+
+	private static int modifiedUTFLength(String string)
+	{
+		int length = 0;
+		for (int i = 0; i < string.length(); i++)
+		{
+			char c = string.charAt(i);
+			length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+		}
+		return length;
+	}
+
+	/*
+	 * Encodes and writes out a block, then clears it
+	 */
+	private static void writeBlock(OutputStream output, List<DataPoint> block, DataStructureComponent<?, ?, ?> slots[])
+	{
+		if (block.isEmpty())
+			return;
+		
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream data = new DataOutputStream(bytes);
+			int rows = block.size();
+			data.writeInt(rows);
+			
+			// lineages
+			Map<String, Integer> lineages = new HashMap<>();
+			int lineageCodes[] = new int[rows];
+			for (int i = 0; i < rows; i++)
+			{
+				Lineage lineage = block.get(i).getLineage();
+				if (!(lineage instanceof LineageExternal))
+					throw new UnsupportedValueException("lineage " + lineage);
+				lineageCodes[i] = lineages.computeIfAbsent(lineage.toString(), l -> lineages.size());
+			}
+			writeDictionary(data, lineages);
+			if (lineages.size() > 1)
+				for (int code: lineageCodes)
+					data.writeInt(code);
+			
+			for (DataStructureComponent<?, ?, ?> slot: slots)
+			{
+				BitSet nulls = new BitSet(rows);
+				for (int i = 0; i < rows; i++)
+					if (block.get(i).get(slot) instanceof NullValue)
+						nulls.set(i);
+				writeBits(data, nulls);
+				
+				switch (encodingOf(slot.getDomain()))
+				{
+					case INTEGER:
+						for (DataPoint dp: block)
+						{
+							ScalarValue<?, ?, ?, ?> value = dp.get(slot);
+							if (!(value instanceof IntegerValue) && !(value instanceof NullValue))
+								throw new UnsupportedValueException("integer " + value.getClass());
+							data.writeLong(value instanceof IntegerValue ? (Long) value.get() : 0L);
+						}
+						break;
+					case NUMBER:
+						for (DataPoint dp: block)
+						{
+							ScalarValue<?, ?, ?, ?> value = dp.get(slot);
+							if (!(value instanceof DoubleValue) && !(value instanceof NullValue))
+								throw new UnsupportedValueException("number " + value.getClass());
+							data.writeDouble(value instanceof DoubleValue ? (Double) value.get() : 0.0);
+						}
+						break;
+					case BOOLEAN:
+						BitSet bits = new BitSet(rows);
+						for (int i = 0; i < rows; i++)
+							if (Boolean.TRUE.equals(block.get(i).get(slot).get()))
+								bits.set(i);
+						writeBits(data, bits);
+						break;
+					case DATE:
+						for (DataPoint dp: block)
+						{
+							ScalarValue<?, ?, ?, ?> value = dp.get(slot);
+							if (value instanceof NullValue)
+								data.writeLong(0L);
+							else if (!(value instanceof DateValue))
+								throw new UnsupportedValueException("date " + value.getClass());
+							else
+							{
+								// only plain days can be restored exactly
+								DateHolder<?> holder = (DateHolder<?>) value.get();
+								long day = holder.isSupported(EPOCH_DAY) ? holder.getLong(EPOCH_DAY) : 0L;
+								if (!holder.isSupported(EPOCH_DAY) || !DateValue.of(LocalDate.ofEpochDay(day)).equals(value))
+									throw new UnsupportedValueException("date " + value);
+								data.writeLong(day);
+							}
+						}
+						break;
+					case STRING:
+						Map<String, Integer> dictionary = new HashMap<>();
+						int codes[] = new int[rows];
+						for (int i = 0; i < rows; i++)
+						{
+							ScalarValue<?, ?, ?, ?> value = block.get(i).get(slot);
+							if (!(value instanceof NullValue))
+								codes[i] = dictionary.computeIfAbsent((String) value.get(), s -> dictionary.size());
+						}
+						writeDictionary(data, dictionary);
+						for (int code: codes)
+							data.writeInt(code);
+						break;
+				}
+			}
+			
+			data.flush();
+			synchronized (output)
+			{
+				new DataOutputStream(output).writeInt(bytes.size());
+				bytes.writeTo(output);
+			}
+			block.clear();
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeBits(DataOutputStream data, BitSet bits) throws IOException
+	{
+		long words[] = bits.toLongArray();
+		data.writeInt(words.length);
+		for (long word: words)
+			data.writeLong(word);
+	}
+
+	private static BitSet readBits(ByteBuffer buffer)
+	{
+		long words[] = new long[buffer.getInt()];
+		for (int i = 0; i < words.length; i++)
+			words[i] = buffer.getLong();
+		return BitSet.valueOf(words);
+	}
+
+	private static void writeDictionary(DataOutputStream data, Map<String, Integer> dictionary) throws IOException
+	{
+		String entries[] = new String[dictionary.size()];
+		dictionary.forEach((string, code) -> entries[code] = string);
+		data.writeInt(entries.length);
+		for (String entry: entries)
+		{
+			byte utf8[] = entry.getBytes(UTF_8);
+			data.writeInt(utf8.length);
+			data.write(utf8);
+		}
+	}
+
+	private static String[] readDictionary(ByteBuffer buffer)
+	{
+		String entries[] = new String[buffer.getInt()];
+		for (int i = 0; i < entries.length; i++)
+		{
+			byte utf8[] = new byte[buffer.getInt()];
+			buffer.get(utf8);
+			entries[i] = new String(utf8, UTF_8);
+		}
+		return entries;
+	}
+
+	private static List<DataPoint> decode(ByteBuffer buffer, DataSetMetadata structure, DataStructureComponent<?, ?, ?> slots[])
+	{
+		int rows = buffer.getInt();
+		
+		String lineageNames[] = readDictionary(buffer);
+		Lineage lineages[] = new Lineage[lineageNames.length];
+		for (int i = 0; i < lineages.length; i++)
+			lineages[i] = LineageExternal.of(lineageNames[i]);
+		int lineageCodes[] = new int[rows];
+		if (lineages.length > 1)
+			for (int i = 0; i < rows; i++)
+				lineageCodes[i] = buffer.getInt();
+
+		ScalarValue<?, ?, ?, ?> values[][] = new ScalarValue<?, ?, ?, ?>[rows][slots.length];
+		for (int c = 0; c < slots.length; c++)
+		{
+			ValueDomainSubset<?, ?> domain = slots[c].getDomain();
+			BitSet nulls = readBits(buffer);
+			ScalarValue<?, ?, ?, ?> nullValue = NullValue.instanceFrom(slots[c]);
+			switch (encodingOf(domain))
+			{
+				case INTEGER:
+					for (int i = 0; i < rows; i++)
+					{
+						long value = buffer.getLong();
+						values[i][c] = nulls.get(i) ? nullValue : cast(domain, INTEGERDS, IntegerValue.of(value));
+					}
+					break;
+				case NUMBER:
+					for (int i = 0; i < rows; i++)
+					{
+						double value = buffer.getDouble();
+						values[i][c] = nulls.get(i) ? nullValue : cast(domain, NUMBERDS, DoubleValue.of(value));
+					}
+					break;
+				case BOOLEAN:
+					BitSet bits = readBits(buffer);
+					for (int i = 0; i < rows; i++)
+						values[i][c] = nulls.get(i) ? nullValue : cast(domain, BOOLEANDS, BooleanValue.of(bits.get(i)));
+					break;
+				case DATE:
+					for (int i = 0; i < rows; i++)
+					{
+						long day = buffer.getLong();
+						values[i][c] = nulls.get(i) ? nullValue : cast(domain, DATEDS, DateValue.of(LocalDate.ofEpochDay(day)));
+					}
+					break;
+				case STRING:
+					String entries[] = readDictionary(buffer);
+					ScalarValue<?, ?, ?, ?> decoded[] = new ScalarValue<?, ?, ?, ?>[entries.length];
+					for (int i = 0; i < entries.length; i++)
+						decoded[i] = cast(domain, STRINGDS, StringValue.of(entries[i]));
+					for (int i = 0; i < rows; i++)
+					{
+						int code = buffer.getInt();
+						values[i][c] = nulls.get(i) ? nullValue : decoded[code];
+					}
+					break;
+			}
+		}
+		
+		List<DataPoint> result = new ArrayList<>(rows);
+		for (int i = 0; i < rows; i++)
+			result.add(DataPointBuilder.fromSlots(lineages[lineageCodes[i]], structure, values[i]));
+		return result;
+	}
+
+	private static ScalarValue<?, ?, ?, ?> cast(ValueDomainSubset<?, ?> domain, ValueDomainSubset<?, ?> entireDomain, ScalarValue<?, ?, ?, ?> value)
+	{
+		return domain == entireDomain ? value : domain.cast(value);
+	}
+}
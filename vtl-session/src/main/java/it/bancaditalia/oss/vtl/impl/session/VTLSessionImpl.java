@@ -30,24 +30,31 @@ import java.io.Reader;
 import java.lang.ref.SoftReference;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.bancaditalia.oss.vtl.config.ConfigurationManager;
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
 import it.bancaditalia.oss.vtl.engine.Engine;
 import it.bancaditalia.oss.vtl.engine.Statement;
 import it.bancaditalia.oss.vtl.environment.Environment;
@@ -55,11 +62,16 @@ import it.bancaditalia.oss.vtl.environment.Workspace;
 import it.bancaditalia.oss.vtl.exceptions.VTLException;
 import it.bancaditalia.oss.vtl.exceptions.VTLNestedException;
 import it.bancaditalia.oss.vtl.exceptions.VTLUnboundNameException;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 import it.bancaditalia.oss.vtl.session.MetadataRepository;
 import it.bancaditalia.oss.vtl.session.VTLSession;
 import it.bancaditalia.oss.vtl.util.Utils;
@@ -68,6 +80,26 @@ public class VTLSessionImpl implements VTLSession
 {
 	private final static Logger LOGGER = LoggerFactory.getLogger(VTLSessionImpl.class);
 
+	public static final VTLProperty VTL_SESSION_CACHE_SIZE = 
+			new VTLPropertyImpl("vtl.session.cache.size", "Memory budget for cached datasets (bytes, or with k, m, g suffix; default: a quarter of the heap)", "512m", false, false);
+	public static final VTLProperty VTL_SESSION_SCHEDULER_THREADS = 
+			new VTLPropertyImpl("vtl.session.scheduler.threads", "Maximum number of rules computed concurrently by resolveAll (default: the number of processors)", "4", false, false);
+	public static final VTLProperty VTL_SESSION_SNAPSHOT_DIRECTORY = 
+			new VTLPropertyImpl("vtl.session.snapshot.directory", "Directory where snapshots of external datasets are stored to be reused by later sessions (empty to disable)", "/var/cache/vtl", false, false);
+	public static final VTLProperty VTL_SESSION_PLAN_CACHE_SIZE = 
+			new VTLPropertyImpl("vtl.session.plan.cache.size", "Maximum number of parsed and compiled scripts shared among sessions (0 to disable)", "100", false, false, "100");
+	public static final VTLProperty VTL_SESSION_SHARED_SOURCES_SIZE = 
+			new VTLPropertyImpl("vtl.session.shared.sources.size", "Memory budget for source datasets shared among sessions, which must not change while in use (bytes, or with k, m, g suffix; empty to disable)", "1g", false, false);
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(VTLSessionImpl.class, VTL_SESSION_CACHE_SIZE, VTL_SESSION_SCHEDULER_THREADS, VTL_SESSION_SNAPSHOT_DIRECTORY, 
+				VTL_SESSION_PLAN_CACHE_SIZE, VTL_SESSION_SHARED_SOURCES_SIZE);
+	}
+
+	private static PlanCache planCache;
+	private static SharedSourceCache sharedSourceCache;
+
 	private final ConfigurationManager config = ConfigurationManager.getDefault();
 	private final Engine engine;
 	private final List<? extends Environment> environments;
@@ -75,13 +107,22 @@ public class VTLSessionImpl implements VTLSession
 	private final Map<String, SoftReference<VTLValue>> cache = new ConcurrentHashMap<>();
 	private final Map<String, SoftReference<VTLValueMetadata>> metacache = new ConcurrentHashMap<>();
 	private final Map<String, ReentrantLock> cacheLocks = new ConcurrentHashMap<>();
+	private final MetadataTable metadataTable = new MetadataTable();
 	private final MetadataRepository repository;
+	private final SessionCacheManager cacheManager = new SessionCacheManager(SessionCacheManager.parseSize(VTL_SESSION_CACHE_SIZE.getValue()));
+	private final SnapshotStore snapshots;
+	private final PlanCache plans = getPlanCache();
+	private final SharedSourceCache sharedSources = getSharedSourceCache();
+	private final Set<String> sharedAliases = ConcurrentHashMap.newKeySet();
+	private volatile PlanCache.Plan plan;
 
 	public VTLSessionImpl()
 	{
 		this.repository = config.getMetadataRepository();
 		this.engine = config.getEngine();
 		this.environments = config.getEnvironments();
+		String snapshotDirectory = VTL_SESSION_SNAPSHOT_DIRECTORY.getValue();
+		this.snapshots = snapshotDirectory == null || snapshotDirectory.trim().isEmpty() ? null : new SnapshotStore(Paths.get(snapshotDirectory.trim()));
 
 		Workspace selectedWorkspace = null;
 		for (Environment env: environments)
@@ -90,42 +131,67 @@ public class VTLSessionImpl implements VTLSession
 		this.workspace = Optional.ofNullable(selectedWorkspace).orElseThrow(() -> new IllegalStateException("A workspace environment must be supplied."));
 	}
 
+	private static synchronized PlanCache getPlanCache()
+	{
+		String size = VTL_SESSION_PLAN_CACHE_SIZE.getValue();
+		if (planCache == null && size != null && !size.trim().isEmpty() && Integer.parseInt(size.trim()) > 0)
+			planCache = new PlanCache(Integer.parseInt(size.trim()));
+		return planCache;
+	}
+
+	private static synchronized SharedSourceCache getSharedSourceCache()
+	{
+		String size = VTL_SESSION_SHARED_SOURCES_SIZE.getValue();
+		if (sharedSourceCache == null && size != null && !size.trim().isEmpty())
+			sharedSourceCache = new SharedSourceCache(SessionCacheManager.parseSize(size));
+		return sharedSourceCache;
+	}
+
+	/**
+	 * Scripts already submitted to another session reuse the statements parsed by that session.
+	 */
 	@Override
 	public VTLSessionImpl addStatements(String statements)
 	{
-		engine.parseRules(statements).forEach(workspace::addRule);
-		return this;
+		if (plans == null)
+			return addRules(engine.parseRules(statements), null);
+		
+		PlanCache.Plan newPlan = plans.get(statements, code -> engine.parseRules(code).collect(toList()));
+		return addRules(newPlan.getStatements().stream(), newPlan);
 	}
 
 	@Override
 	public VTLSessionImpl addStatements(Reader reader) throws IOException
 	{
-		engine.parseRules(reader).forEach(workspace::addRule);
-		return this;
+		return addRules(engine.parseRules(reader), null);
 	}
 
 	@Override
 	public VTLSessionImpl addStatements(InputStream inputStream, Charset charset) throws IOException
 	{
-		engine.parseRules(inputStream, charset).forEach(workspace::addRule);
-		return this;
+		return addRules(engine.parseRules(inputStream, charset), null);
 	}
 
 	@Override
 	public VTLSessionImpl addStatements(Path path, Charset charset) throws IOException
 	{
-		engine.parseRules(path, charset).forEach(workspace::addRule);
+		return addRules(engine.parseRules(path, charset), null);
+	}
+
+	/*
+	 * The compiled metadata is shared with other sessions only if the session contains a single script
+	 */
+	private synchronized VTLSessionImpl addRules(Stream<Statement> statements, PlanCache.Plan newPlan)
+	{
+		plan = workspace.getRules().isEmpty() ? newPlan : null;
+		statements.forEach(workspace::addRule);
 		return this;
 	}
 
 	@Override
 	public VTLValue resolve(String name2)
 	{
-		final String name;
-		if (name2.matches("'.*'"))
-			name = name2.replaceAll("'(.*)'", "$1");
-		else
-			name = name2.toLowerCase();
+		final String name = normalizeAlias(name2);
 
 		Optional<? extends Statement> rule = workspace.getRule(name);
 		if (rule.isPresent())
@@ -137,18 +203,89 @@ public class VTLSessionImpl implements VTLSession
 				return acquireResult(statement, name);
 		}
 		else
-			return cacheHelper(name, cache, n -> acquireValue(name, Environment::getValue)
+			return cacheHelper(name, cache, n -> acquireValue(name, this::getValueOrSnapshot)
 					.orElseThrow(() -> new VTLUnboundNameException(name)));
 	}
 	
+	/**
+	 * Values provided by the environments are retrieved skipping the unneeded datapoints and components, 
+	 * unless the whole value was already retrieved or an environment supplies a fingerprint for a snapshot of it: 
+	 * in that case the hints are ignored, because snapshots always hold the whole value. 
+	 * Partial values are never cached.
+	 */
 	@Override
-	public VTLValueMetadata getMetadata(String name2)
+	public VTLValue resolve(String alias, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components)
+	{
+		final String name = normalizeAlias(alias);
+		
+		SoftReference<VTLValue> cached = cache.get(name);
+		VTLValue value = cached != null ? cached.get() : null;
+		if (value != null || workspace.getRule(name).isPresent() 
+				|| snapshots != null && environments.stream().anyMatch(env -> env.getFingerprint(name).isPresent()))
+			return resolve(alias);
+
+		LOGGER.info("Resolving value of {} with keys {} and components {}", name, keyValues, components);
+		return environments.stream()
+				.map(env -> env.getValue(name, keyValues, components))
+				.filter(Optional::isPresent)
+				.map(Optional::get)
+				.findAny()
+				.orElseThrow(() -> new VTLUnboundNameException(name));
+	}
+	
+	/**
+	 * Shared expressions are computed once and cached as the results of named rules.
+	 * Only expressions evaluated directly in the session are shared, so operator bodies,
+	 * which are not cacheable, are never cached.
+	 */
+	@Override
+	public VTLValue resolveShared(String alias, Transformation expression)
+	{
+		return cacheHelper(alias, cache, n -> acquireResult(expression, expression::eval, n));
+	}
+
+	/**
+	 * Computes the requested rules, evaluating the rules that do not depend on each other concurrently.
+	 * The datasets resulting from each rule are computed and kept in the session cache as long as other
+	 * rules still need them.
+	 */
+	@Override
+	public Map<String, VTLValue> resolveAll(Collection<String> names)
+	{
+		Map<String, Statement> rules = new HashMap<>();
+		for (Statement rule: workspace.getRules())
+			rules.put(rule.getId(), rule);
+		
+		String threads = VTL_SESSION_SCHEDULER_THREADS.getValue();
+		int parallelism = threads == null || threads.trim().isEmpty() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads.trim());
+		Collection<String> toResolve = names.isEmpty() ? workspace.getRules().stream().map(Statement::getId).collect(toList()) : names;
+		
+		return new RuleScheduler(rules, VTLSessionImpl::normalizeAlias, this::resolve, 
+				value -> !(value instanceof DataSet) || value instanceof CachedDataSet && ((CachedDataSet) value).materialize(), 
+				this::release, parallelism).resolve(toResolve);
+	}
+
+	/*
+	 * Drops the computed value of a rule and its cached datapoints
+	 */
+	private void release(String name)
+	{
+		cache.remove(name);
+		cacheManager.remove(name);
+	}
+
+	private static String normalizeAlias(String alias)
 	{
-		final String name;
-		if (name2.matches("'.*'"))
-			name = name2.replaceAll("'(.*)'", "$1");
+		if (alias.matches("'.*'"))
+			return alias.replaceAll("'(.*)'", "$1");
 		else
-			name = name2.toLowerCase();
+			return alias.toLowerCase();
+	}
+
+	@Override
+	public VTLValueMetadata getMetadata(String name2)
+	{
+		final String name = normalizeAlias(name2);
 
 		Optional<? extends Statement> rule = workspace.getRule(name);
 		if (rule.isPresent())
@@ -165,14 +302,20 @@ public class VTLSessionImpl implements VTLSession
 	}
 
 
+	/**
+	 * The metadata of the transformations evaluated directly in this session, or in scopes nested in it 
+	 * whose structure does not change between evaluations, is computed once and kept in a per-session table.
+	 */
+	@Override
+	public VTLValueMetadata getMetadata(Transformation node, Supplier<? extends VTLValueMetadata> computer)
+	{
+		return metadataTable.get(node, computer);
+	}
+
 	@Override
 	public boolean contains(String name2)
 	{
-		final String name;
-		if (name2.matches("'.*'"))
-			name = name2.replaceAll("'(.*)'", "$1");
-		else
-			name = name2.toLowerCase();
+		final String name = normalizeAlias(name2);
 
 		Optional<? extends Statement> rule = workspace.getRule(name);
 		if (rule.isPresent())
@@ -224,33 +367,75 @@ public class VTLSessionImpl implements VTLSession
 		LOGGER.info("Resolving value of {}", name);
 
 		Optional<T> maybeResult = environments.stream()
-				.map(env -> mapper.apply(env, name))
+				.map(env -> mapper.apply(env, name).map(result -> wrapValue(env, name, result)))
 				.filter(Optional::isPresent)
 				.map(Optional::get)
-				.findAny()
-				.map(result -> {
-					if (result instanceof DataSet && !(result instanceof CachedDataSet))
-					{
-						@SuppressWarnings("unchecked")
-						T tempResult = (T) new CachedDataSet(this, name, (DataSet) result);
-						return tempResult;
-					}
-					else
-						return result;
-				});
+				.findAny();
 		
 
 		LOGGER.trace("Finished resolving {}", name);
 		return maybeResult;
 	}
 
+	/*
+	 * Datasets provided by the environments are cached in this session, or in the cache shared 
+	 * among sessions if enabled, unless they are values of the workspace.
+	 */
+	private <T> T wrapValue(Environment env, String name, T result)
+	{
+		if (!(result instanceof DataSet) || result instanceof CachedDataSet)
+			return result;
+
+		SessionCacheManager manager = cacheManager;
+		if (sharedSources != null && !(env instanceof Workspace))
+		{
+			if (sharedAliases.add(name))
+				sharedSources.acquire(name);
+			manager = sharedSources.getCacheManager();
+		}
+
+		@SuppressWarnings("unchecked")
+		T wrapped = (T) new CachedDataSet(manager, name, (DataSet) result);
+		return wrapped;
+	}
+
+	/*
+	 * Reuses a stored snapshot of the value if the environment supplies a fingerprint for it, 
+	 * otherwise retrieves the value from the environment, storing a new snapshot when possible.
+	 */
+	private Optional<VTLValue> getValueOrSnapshot(Environment env, String name)
+	{
+		Optional<String> fingerprint = snapshots != null ? env.getFingerprint(name) : Optional.empty();
+		Optional<DataSetMetadata> structure = fingerprint.flatMap(f -> env.getValueMetadata(name))
+				.filter(DataSetMetadata.class::isInstance)
+				.map(DataSetMetadata.class::cast)
+				.filter(SnapshotStore::isSupported);
+		if (!structure.isPresent())
+			return env.getValue(name);
+		
+		DataSet snapshot = snapshots.load(name, fingerprint.get(), structure.get());
+		if (snapshot != null)
+			return Optional.of(snapshot);
+		
+		Optional<VTLValue> value = env.getValue(name);
+		if (value.isPresent() && value.get() instanceof DataSet && snapshots.store(name, fingerprint.get(), (DataSet) value.get()))
+			snapshot = snapshots.load(name, fingerprint.get(), structure.get());
+		
+		return snapshot != null ? Optional.of(snapshot) : value;
+	}
+
 	private VTLValue acquireResult(Statement statement, String alias)
 	{
-		LOGGER.info("Applying {}", statement);
+		return acquireResult(statement, statement::eval, alias);
+	}
+
+	private VTLValue acquireResult(Object source, Function<? super TransformationScheme, ? extends VTLValue> evaluator, String alias)
+	{
+		LOGGER.info("Applying {}", source);
 
 		try
 		{
-			VTLValue result = statement.eval(this);
+			VTLValue result = evaluator.apply(this);
 			if (result instanceof DataSet && !(result instanceof CachedDataSet))
 				result = new CachedDataSet(this, alias, (DataSet) result);
 
@@ -258,16 +443,49 @@ public class VTLSessionImpl implements VTLSession
 		}
 		catch (VTLException e)
 		{
-			throw new VTLNestedException("Caught exception while evaluating " + statement, e);
+			throw new VTLNestedException("Caught exception while evaluating " + source, e);
 		}
 	}
 
+	/**
+	 * If the session contains a single script, that was already compiled by another session with the same
+	 * metadata for the datasets it reads, the metadata computed by that session is reused.
+	 */
 	@Override
 	public List<VTLValueMetadata> compile()
 	{
-		return workspace.getRules().stream()
+		PlanCache.Plan compiledPlan = plan;
+		Map<String, VTLValueMetadata> sources = compiledPlan != null ? getSourceMetadata() : null;
+		Map<Transformation, VTLValueMetadata> compiled = compiledPlan != null ? compiledPlan.getMetadata(sources) : null;
+		if (compiled != null)
+			metadataTable.seed(compiled);
+		
+		List<VTLValueMetadata> result = workspace.getRules().stream()
 				.map(s -> s.getMetadata(this))
 				.collect(toList());
+		
+		metadataTable.freeze();
+		if (compiledPlan != null && compiled == null)
+			compiledPlan.setMetadata(sources, metadataTable.snapshot());
+		LOGGER.debug("Compiled metadata of {} transformations{}.", metadataTable.size(), compiled != null ? ", reusing a shared plan" : "");
+		return result;
+	}
+
+	/*
+	 * The metadata of the values read by the rules of this session, excluding the rules themselves
+	 */
+	private Map<String, VTLValueMetadata> getSourceMetadata()
+	{
+		Map<String, VTLValueMetadata> sources = new HashMap<>();
+		for (Statement rule: workspace.getRules())
+			for (LeafTransformation terminal: rule.getTerminals())
+			{
+				String name = normalizeAlias(terminal.getText());
+				if (!sources.containsKey(name) && !workspace.getRule(name).isPresent() && contains(name))
+					sources.put(name, getMetadata(name));
+			}
+		
+		return sources;
 	}
 
 	public Map<String, String> getStatements()
@@ -307,11 +525,7 @@ public class VTLSessionImpl implements VTLSession
 	@Override
 	public Statement getRule(String name2)
 	{
-		final String name;
-		if (name2.matches("'.*'"))
-			name = name2.replaceAll("'(.*)'", "$1");
-		else
-			name = name2.toLowerCase();
+		final String name = normalizeAlias(name2);
 
 		return workspace.getRule(name).orElseThrow(() -> new VTLUnboundNameException(name));
 	}
@@ -334,6 +548,27 @@ public class VTLSessionImpl implements VTLSession
 		return workspace;
 	}
 
+	/**
+	 * @return the {@link SessionCacheManager} holding the cached datasets of this session
+	 */
+	public SessionCacheManager getCacheManager()
+	{
+		return cacheManager;
+	}
+
+	@Override
+	public void close()
+	{
+		LOGGER.info("Closing session: {} cache hits, {} misses, {} evictions.", cacheManager.getHits(), cacheManager.getMisses(), cacheManager.getEvictions());
+		cacheManager.clear();
+		if (sharedSources != null)
+			sharedAliases.forEach(sharedSources::release);
+		sharedAliases.clear();
+		cache.clear();
+		metacache.clear();
+		metadataTable.clear();
+	}
+
 	@Override
 	public Lineage linkLineage(String alias)
 	{
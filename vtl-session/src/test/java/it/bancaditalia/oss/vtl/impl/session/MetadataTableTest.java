@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static java.util.Collections.emptySet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.UnknownValueMetadata;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
+import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+public class MetadataTableTest
+{
+	// All nodes are equal to each other, as the same expression occurring in different places of a script
+	private static class Node implements Transformation
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public boolean isTerminal()
+		{
+			return true;
+		}
+
+		@Override
+		public Set<LeafTransformation> getTerminals()
+		{
+			return emptySet();
+		}
+
+		@Override
+		public VTLValue eval(TransformationScheme scheme)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public VTLValueMetadata getMetadata(TransformationScheme scheme)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Lineage getLineage()
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 1;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof Node;
+		}
+	}
+
+	@Test
+	public void testComputesOnce()
+	{
+		MetadataTable table = new MetadataTable();
+		Node node = new Node();
+		AtomicInteger computed = new AtomicInteger();
+
+		VTLValueMetadata first = table.get(node, () -> { computed.incrementAndGet(); return UnknownValueMetadata.INSTANCE; });
+		assertSame(first, table.get(node, () -> { computed.incrementAndGet(); return null; }));
+		table.freeze();
+		assertSame(first, table.get(node, () -> { computed.incrementAndGet(); return null; }));
+
+		assertEquals(1, computed.get());
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void testIdentityKeys()
+	{
+		MetadataTable table = new MetadataTable();
+		VTLValueMetadata other = new VTLValueMetadata() { };
+
+		table.get(new Node(), () -> UnknownValueMetadata.INSTANCE);
+		table.freeze();
+
+		assertSame(other, table.get(new Node(), () -> other));
+		assertEquals(2, table.size());
+	}
+
+	@Test
+	public void testClear()
+	{
+		MetadataTable table = new MetadataTable();
+		Node node = new Node();
+
+		table.get(node, () -> UnknownValueMetadata.INSTANCE);
+		table.freeze();
+		table.clear();
+
+		assertEquals(0, table.size());
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.model.data.UnknownValueMetadata;
+
+public class PlanCacheTest
+{
+	@Test
+	public void testNormalize()
+	{
+		assertEquals("a := b + 1;", PlanCache.normalize("  a :=\tb   + 1; "));
+		assertEquals("a := b; c := d;", PlanCache.normalize("a := b; // first\n/* second\n rule */ c := d;"));
+		assertEquals("a := \"x  // y\";", PlanCache.normalize("a :=  \"x  // y\";"));
+		assertEquals("'A  b' := c;", PlanCache.normalize("'A  b'  :=   c;"));
+	}
+
+	@Test
+	public void testFingerprint()
+	{
+		assertEquals(PlanCache.fingerprint("a := b;"), PlanCache.fingerprint("a  :=\nb; /* same */"));
+		assertNotEquals(PlanCache.fingerprint("a := b;"), PlanCache.fingerprint("a := B;"));
+		assertEquals(64, PlanCache.fingerprint("").length());
+	}
+
+	@Test
+	public void testParsesOnce()
+	{
+		PlanCache cache = new PlanCache(1);
+		AtomicInteger parsed = new AtomicInteger();
+
+		PlanCache.Plan plan = cache.get("a := b;", code -> { parsed.incrementAndGet(); return emptyList(); });
+		assertSame(plan, cache.get(" a := b; ", code -> { parsed.incrementAndGet(); return emptyList(); }));
+		assertEquals(1, parsed.get());
+
+		cache.get("c := d;", code -> { parsed.incrementAndGet(); return emptyList(); });
+		assertEquals(1, cache.size());
+		cache.get("a := b;", code -> { parsed.incrementAndGet(); return emptyList(); });
+		assertEquals(3, parsed.get());
+	}
+
+	@Test
+	public void testMetadataDependsOnSources()
+	{
+		PlanCache.Plan plan = new PlanCache(1).get("a := b;", code -> emptyList());
+
+		assertNull(plan.getMetadata(emptyMap()));
+		plan.setMetadata(singletonMap("b", UnknownValueMetadata.INSTANCE), emptyMap());
+		assertNotNull(plan.getMetadata(singletonMap("b", UnknownValueMetadata.INSTANCE)));
+		assertNull(plan.getMetadata(emptyMap()));
+	}
+}
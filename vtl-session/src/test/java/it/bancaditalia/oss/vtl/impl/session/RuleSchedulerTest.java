@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.engine.Statement;
+import it.bancaditalia.oss.vtl.model.data.VTLValue;
+import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+
+public class RuleSchedulerTest
+{
+	@Test
+	public void resolveTest()
+	{
+		Map<String, Statement> rules = new HashMap<>();
+		rules.put("a", rule("a", "ext"));
+		rules.put("b", rule("b", "A"));
+		rules.put("c", rule("c", "a"));
+		rules.put("d", rule("d", "b", "'c'"));
+		
+		List<String> computed = Collections.synchronizedList(new ArrayList<>());
+		Set<String> released = Collections.synchronizedSet(new HashSet<>());
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		Map<String, VTLValue> result = new RuleScheduler(rules, RuleSchedulerTest::normalize, name -> {
+			// b and c only complete if they are computed at the same time
+			if (name.equals("b") || name.equals("c"))
+				try
+				{
+					barrier.await(10, SECONDS);
+				}
+				catch (Exception e)
+				{
+					throw new IllegalStateException(e);
+				}
+			computed.add(name);
+			return () -> null;
+		}, value -> true, released::add, 2).resolve(asList("D"));
+		
+		assertEquals(singleton("d"), result.keySet());
+		assertEquals(4, computed.size());
+		assertEquals("a", computed.get(0));
+		assertEquals("d", computed.get(3));
+		assertTrue(released.containsAll(asList("a", "b", "c")), "Intermediate results not released: " + released);
+		assertTrue(!released.contains("d"), "Requested result released");
+	}
+
+	@Test
+	public void oversizedConsumerTest()
+	{
+		Map<String, Statement> rules = new HashMap<>();
+		rules.put("a", rule("a", "ext"));
+		rules.put("b", rule("b", "a"));
+		rules.put("c", rule("c", "b"));
+		
+		// b does not fit in the budget, so it still reads from a when c is computed
+		SessionCacheManager manager = new SessionCacheManager(10_000);
+		Map<VTLValue, String> names = new ConcurrentHashMap<>();
+		List<String> released = Collections.synchronizedList(new ArrayList<>());
+		Map<String, VTLValue> result = new RuleScheduler(rules, RuleSchedulerTest::normalize, name -> {
+			assertTrue(!released.contains(name), "Released rule " + name + " recomputed");
+			assertTrue(!name.equals("c") || !released.contains("a"), "Dependency of an oversized rule released");
+			VTLValue value = () -> null;
+			names.put(value, name);
+			return value;
+		}, value -> {
+			String name = names.get(value);
+			return manager.cacheAll(name, SessionCacheManagerTest.sample(name.equals("b") ? 1000 : 10).stream());
+		}, released::add, 1).resolve(asList("c"));
+		
+		assertEquals(singleton("c"), result.keySet());
+		assertTrue(manager.get("b", null) == null, "Oversized rule cached");
+		assertEquals(asList("b", "a"), released);
+		
+		// a requested rule that is not materialized keeps its dependencies
+		released.clear();
+		new RuleScheduler(rules, RuleSchedulerTest::normalize, name -> () -> null, value -> false, released::add, 1).resolve(asList("c"));
+		assertEquals(Collections.emptyList(), released);
+	}
+
+	@Test
+	public void cycleTest()
+	{
+		Map<String, Statement> rules = new HashMap<>();
+		rules.put("x", rule("x", "y"));
+		rules.put("y", rule("y", "x"));
+		
+		RuleScheduler scheduler = new RuleScheduler(rules, RuleSchedulerTest::normalize, name -> () -> null, value -> true, name -> {}, 1);
+		assertThrows(IllegalStateException.class, () -> scheduler.resolve(singleton("x")));
+	}
+	
+	private static String normalize(String name)
+	{
+		return name.matches("'.*'") ? name.replaceAll("'(.*)'", "$1") : name.toLowerCase();
+	}
+
+	private static Statement rule(String id, String... references)
+	{
+		Set<LeafTransformation> terminals = new HashSet<>();
+		for (String reference: references)
+			terminals.add(proxy(LeafTransformation.class, "getText", reference));
+		
+		Statement rule = proxy(Statement.class, "getId", id);
+		return proxy(Statement.class, "getTerminals", terminals, rule);
+	}
+
+	private static <T> T proxy(Class<T> iface, String getter, Object value)
+	{
+		return proxy(iface, getter, value, null);
+	}
+
+	/*
+	 * Creates an instance whose getter returns the given value, delegating the other methods if a delegate is given 
+	 */
+	private static <T> T proxy(Class<T> iface, String getter, Object value, T delegate)
+	{
+		return iface.cast(Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[] { iface }, (proxy, method, args) -> {
+			if (method.getName().equals(getter))
+				return value;
+			else if (delegate != null)
+				return method.invoke(delegate, args);
+			
+			switch (method.getName())
+			{
+				case "hashCode": return System.identityHashCode(proxy);
+				case "equals": return proxy == args[0];
+				default: return null;
+			}
+		}));
+	}
+}
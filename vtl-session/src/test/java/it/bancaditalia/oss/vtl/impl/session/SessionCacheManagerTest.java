@@ -0,0 +1,274 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptySet;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+
+public class SessionCacheManagerTest
+{
+	@Test
+	public void testParseSize()
+	{
+		assertEquals(100, SessionCacheManager.parseSize("100"));
+		assertEquals(2048, SessionCacheManager.parseSize("2k"));
+		assertEquals(3L << 20, SessionCacheManager.parseSize("3M"));
+		assertEquals(1L << 30, SessionCacheManager.parseSize(" 1g "));
+		assertEquals(Runtime.getRuntime().maxMemory() / 4, SessionCacheManager.parseSize(""));
+	}
+	
+	@Test
+	public void testCounters()
+	{
+		SessionCacheManager manager = new SessionCacheManager(1000);
+		
+		assertNull(manager.get("a", null));
+		assertTrue(manager.put("a", null, "A", 100, 10));
+		assertEquals("A", manager.get("a", null));
+		assertNull(manager.get("a", emptySet()));
+		
+		assertEquals(1, manager.getHits());
+		assertEquals(2, manager.getMisses());
+		assertEquals(0, manager.getEvictions());
+		assertEquals(100, manager.getUsed());
+	}
+	
+	@Test
+	public void testComputeCountsOneMiss()
+	{
+		SessionCacheManager manager = new SessionCacheManager(1000);
+		
+		assertEquals("A", manager.computeIfAbsent("a", null, () -> "A", v -> 100));
+		assertEquals("A", manager.computeIfAbsent("a", null, () -> "B", v -> 100));
+		
+		assertEquals(1, manager.getMisses());
+		assertEquals(1, manager.getHits());
+	}
+	
+	@Test
+	public void testCacheWhileStreaming()
+	{
+		List<DataPoint> datapoints = sample(1000);
+		
+		// the stream goes on after the budget is exceeded
+		SessionCacheManager small = new SessionCacheManager(10000);
+		assertEquals(1000, small.cacheWhileStreaming("a", datapoints.parallelStream()).collect(toList()).size());
+		assertFalse(small.isCacheable("a", null));
+		assertNull(small.get("a", null));
+		
+		// the datapoints of a parallel stream are cached once all of them are consumed
+		SessionCacheManager large = new SessionCacheManager(1000000);
+		Stream<DataPoint> stream = large.cacheWhileStreaming("a", datapoints.parallelStream());
+		assertTrue(stream.isParallel());
+		assertEquals(1000, stream.collect(toList()).size());
+		assertTrue(large.isCacheable("a", null));
+		assertEquals(new HashSet<>(datapoints), large.get("a", null));
+		
+		// a partially consumed stream is not cached
+		SessionCacheManager partial = new SessionCacheManager(1000000);
+		assertTrue(partial.cacheWhileStreaming("a", datapoints.stream()).findFirst().isPresent());
+		assertNull(partial.get("a", null));
+		assertTrue(partial.isCacheable("a", null));
+	}
+	
+	@Test
+	public void testCacheAllStopsOverBudget()
+	{
+		List<DataPoint> datapoints = sample(1000);
+		AtomicInteger computed = new AtomicInteger();
+		
+		SessionCacheManager small = new SessionCacheManager(10000);
+		assertFalse(small.cacheAll("a", datapoints.stream().peek(dp -> computed.incrementAndGet())));
+		assertTrue(computed.get() < 1000, "Computation stopped over budget");
+		assertFalse(small.isCacheable("a", null));
+		
+		SessionCacheManager large = new SessionCacheManager(1000000);
+		assertTrue(large.cacheAll("a", datapoints.parallelStream()));
+		assertEquals(1000, large.<Set<DataPoint>>get("a", null).size());
+	}
+	
+	static List<DataPoint> sample(int size)
+	{
+		DataStructureComponent<?, ?, ?> id = DataStructureComponentImpl.of("id", Identifier.class, INTEGERDS);
+		DataSetMetadata structure = new DataStructureBuilder(id).build();
+		List<DataPoint> datapoints = new ArrayList<>();
+		for (int i = 0; i < size; i++)
+			datapoints.add(new DataPointBuilder(singletonMap(id, IntegerValue.of((long) i))).build(LineageExternal.of("test"), structure));
+		return datapoints;
+	}
+	
+	@Test
+	public void testEvictsCheapestEntry()
+	{
+		SessionCacheManager manager = new SessionCacheManager(300);
+		
+		manager.put("cheap", null, "CHEAP", 100, 10);
+		manager.put("costly", null, "COSTLY", 100, 1000);
+		manager.put("frequent", null, "FREQUENT", 100, 10);
+		for (int i = 0; i < 200; i++)
+			manager.get("frequent", null);
+		
+		manager.put("new", null, "NEW", 100, 10);
+		
+		assertEquals(1, manager.getEvictions());
+		assertNull(manager.get("cheap", null));
+		assertNotNull(manager.get("costly", null));
+		assertNotNull(manager.get("frequent", null));
+		assertNotNull(manager.get("new", null));
+		assertEquals(300, manager.getUsed());
+	}
+	
+	@Test
+	public void testSkipsPinnedEntries()
+	{
+		SharedSourceCache shared = new SharedSourceCache(200);
+		SessionCacheManager manager = shared.getCacheManager();
+		shared.acquire("used");
+		
+		manager.put("used", null, "USED", 100, 1);
+		manager.put("unused", null, "UNUSED", 100, 1000);
+		assertTrue(manager.put("new", null, "NEW", 100, 10));
+		
+		assertNotNull(manager.get("used", null));
+		assertNull(manager.get("unused", null));
+		
+		// all the remaining entries are in use
+		shared.acquire("new");
+		assertFalse(manager.put("other", null, "OTHER", 100, 10));
+		
+		shared.release("used");
+		assertFalse(shared.isInUse("used"));
+		assertTrue(manager.put("other", null, "OTHER", 100, 10));
+		assertNull(manager.get("used", null));
+	}
+	
+	@Test
+	public void testSuperset()
+	{
+		SessionCacheManager manager = new SessionCacheManager(1000);
+		DataStructureComponent<Identifier, ?, ?> id1 = DataStructureComponentImpl.of("id_1", Identifier.class, STRINGDS).as(Identifier.class);
+		DataStructureComponent<Identifier, ?, ?> id2 = DataStructureComponentImpl.of("id_2", Identifier.class, STRINGDS).as(Identifier.class);
+		DataStructureComponent<Identifier, ?, ?> id3 = DataStructureComponentImpl.of("id_3", Identifier.class, STRINGDS).as(Identifier.class);
+		
+		manager.put("a", new HashSet<>(asList(id1, id2, id3)), "A123", 100, 10);
+		manager.put("a", new HashSet<>(asList(id1, id2)), "A12", 100, 10);
+		manager.put("a", null, "A", 100, 10);
+		manager.put("b", singleton(id1), "B1", 100, 10);
+		
+		Entry<Set<DataStructureComponent<Identifier, ?, ?>>, String> found = manager.getSuperset("a", singleton(id1));
+		assertEquals(new HashSet<>(asList(id1, id2)), found.getKey());
+		assertEquals("A12", found.getValue());
+		assertEquals("A123", manager.getSuperset("a", singleton(id3)).getValue());
+		assertNull(manager.getSuperset("a", new HashSet<>(asList(id1, id2, id3))));
+		assertNull(manager.getSuperset("b", singleton(id2)));
+	}
+	
+	@Test
+	public void testComputeOnce() throws Exception
+	{
+		SessionCacheManager manager = new SessionCacheManager(1000);
+		AtomicInteger builds = new AtomicInteger();
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try
+		{
+			Future<String> first = executor.submit(() -> manager.computeIfAbsent("a", null, () -> {
+				started.countDown();
+				builds.incrementAndGet();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				return "A";
+			}, v -> 100));
+			started.await();
+			Future<String> second = executor.submit(() -> manager.computeIfAbsent("a", null, () -> "WRONG", v -> 100));
+			
+			// other entries are not blocked by the pending computation
+			assertEquals("B", manager.computeIfAbsent("b", null, () -> "B", v -> 100));
+			
+			release.countDown();
+			assertEquals("A", first.get(10, SECONDS));
+			assertEquals("A", second.get(10, SECONDS));
+			assertEquals(1, builds.get());
+			assertEquals("A", manager.computeIfAbsent("a", null, () -> "WRONG", v -> 100));
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testOversizedAndClear()
+	{
+		SessionCacheManager manager = new SessionCacheManager(300);
+		
+		assertFalse(manager.put("big", null, "BIG", 301, 10));
+		assertFalse(manager.isCacheable("big", null));
+		assertTrue(manager.put("small", null, "SMALL", 100, 10));
+		
+		manager.clear();
+		assertEquals(0, manager.getSize());
+		assertEquals(0, manager.getUsed());
+		assertTrue(manager.isCacheable("big", null));
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.session;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.DATEDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DateValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
+import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Attribute;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+
+public class SnapshotStoreTest
+{
+	private static final int ROWS = 150000;
+	private static final DataStructureComponent<?, ?, ?> ID = DataStructureComponentImpl.of("id", Identifier.class, INTEGERDS);
+	private static final DataStructureComponent<?, ?, ?> DATE = DataStructureComponentImpl.of("date", Measure.class, DATEDS);
+	private static final DataStructureComponent<?, ?, ?> NUMBER = DataStructureComponentImpl.of("number", Measure.class, NUMBERDS);
+	private static final DataStructureComponent<?, ?, ?> FLAG = DataStructureComponentImpl.of("flag", Measure.class, BOOLEANDS);
+	private static final DataStructureComponent<?, ?, ?> TEXT = DataStructureComponentImpl.of("text", Attribute.class, STRINGDS);
+	private static final DataSetMetadata STRUCTURE = new DataStructureBuilder(ID, DATE, NUMBER, FLAG, TEXT).build();
+
+	@TempDir
+	public Path directory;
+
+	@Test
+	public void storeAndLoadTest()
+	{
+		List<DataPoint> datapoints = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++)
+		{
+			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> values = new HashMap<>();
+			values.put(ID, IntegerValue.of((long) i));
+			values.put(DATE, i % 7 == 0 ? NullValue.instanceFrom(DATE) : DateValue.of(LocalDate.of(2020, 1, 1).plusDays(i % 1000)));
+			values.put(NUMBER, i % 3 == 0 ? NullValue.instanceFrom(NUMBER) : DoubleValue.of(i / 4.0));
+			values.put(FLAG, i % 5 == 0 ? NullValue.instanceFrom(FLAG) : BooleanValue.of(i % 2 == 0));
+			values.put(TEXT, i % 11 == 0 ? NullValue.instanceFrom(TEXT) : StringValue.of("row " + i % 100 + " àè"));
+			datapoints.add(new DataPointBuilder(values).build(LineageExternal.of(i % 2 == 0 ? "csv:even" : "csv:odd"), STRUCTURE));
+		}
+		DataSet dataset = new LightDataSet(STRUCTURE, datapoints::stream);
+
+		SnapshotStore store = new SnapshotStore(directory);
+		assertNull(store.load("csv:test", "v1", STRUCTURE), "Snapshot before storing");
+		assertTrue(store.store("csv:test", "v1", dataset), "Snapshot not stored");
+		assertNull(store.load("csv:test", "v2", STRUCTURE), "Snapshot with a different fingerprint");
+		
+		DataSet loaded = store.load("csv:test", "v1", STRUCTURE);
+		assertNotNull(loaded, "Snapshot not loaded");
+		try (Stream<DataPoint> expected = dataset.stream(); Stream<DataPoint> actual = loaded.stream())
+		{
+			Set<DataPoint> expectedSet = expected.collect(toSet());
+			Set<DataPoint> actualSet = actual.collect(toSet());
+			assertEquals(ROWS, actualSet.size(), "Number of datapoints");
+			assertEquals(expectedSet, actualSet, "Datapoints");
+		}
+		try (Stream<DataPoint> actual = loaded.stream())
+		{
+			assertTrue(actual.allMatch(dp -> dp.getLineage().toString().equals((Long) dp.get(ID).get() % 2 == 0 ? "csv:even" : "csv:odd")), "Lineages");
+		}
+	}
+
+	@Test
+	public void unsupportedTest()
+	{
+		DataSet dataset = new LightDataSet(STRUCTURE, () -> Stream.of(new DataPointBuilder()
+				.add(ID, IntegerValue.of(1L))
+				.add(DATE, DateValue.of(LocalDate.of(2020, 1, 1)))
+				.add(NUMBER, DoubleValue.of(1.0))
+				.add(FLAG, BooleanValue.of(true))
+				.add(TEXT, StringValue.of("a"))
+				.build(scheme -> null, STRUCTURE)));
+
+		SnapshotStore store = new SnapshotStore(directory);
+		assertFalse(store.store("csv:test", "v1", dataset), "Snapshot with an internal lineage");
+		assertNull(store.load("csv:test", "v1", STRUCTURE), "Snapshot not stored");
+	}
+}
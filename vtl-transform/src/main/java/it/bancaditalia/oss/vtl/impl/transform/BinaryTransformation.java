@@ -24,14 +24,15 @@ import static java.util.stream.Collectors.toSet;
 
 import java.util.Set;
 import java.util.function.BinaryOperator;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
 import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
 import it.bancaditalia.oss.vtl.impl.transform.util.ThreadUtils;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageCall;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
@@ -73,17 +74,19 @@ public abstract class BinaryTransformation extends TransformationImpl
 			return ThreadUtils.evalFuture(combiner, t -> leftOperand.eval(scheme), t -> rightOperand.eval(scheme)).apply(this);
 	}
 	
+	@Override
+	public final Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(DatapointScope scope)
+	{
+		VTLValueMetadata metadata = getMetadata(scope);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> left = scope.compile(leftOperand);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> right = scope.compile(rightOperand);
+		return dp -> (ScalarValue<?, ?, ?, ?>) evalTwoScalars(metadata, left.apply(dp), right.apply(dp));
+	}
+	
 	@Override
 	public final VTLValueMetadata getMetadata(TransformationScheme scheme)
 	{
-		final ResultHolder<VTLValueMetadata> holder = ResultHolder.getInstance(scheme, VTLValueMetadata.class);
-		VTLValueMetadata metadata = holder.get(this);
-		if (metadata == null)
-		{
-			metadata = ThreadUtils.evalFuture(this::metadataCombiner, t -> leftOperand.getMetadata(scheme), t -> rightOperand.getMetadata(scheme)).apply(this); 
-			holder.put(this, metadata);
-		}
-		return metadata;
+		return scheme.getMetadata(this, () -> metadataCombiner(leftOperand.getMetadata(scheme), rightOperand.getMetadata(scheme)));
 	}
 	
 	protected abstract VTLValue evalTwoScalars(VTLValueMetadata metadata, ScalarValue<?, ?, ?, ?> left, ScalarValue<?, ?, ?, ?> right);
@@ -21,8 +21,11 @@ package it.bancaditalia.oss.vtl.impl.transform;
 
 import java.util.HashSet;
 import java.util.Set;
+import java.util.function.Function;
 
+import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageExternal;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.ScalarValueMetadata;
@@ -48,6 +51,12 @@ public class ConstantOperand extends TransformationImpl implements LeafTransform
 		return value;
 	}
 
+	@Override
+	public Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(DatapointScope scope)
+	{
+		return dp -> value;
+	}
+
 	@Override
 	public String getText()
 	{
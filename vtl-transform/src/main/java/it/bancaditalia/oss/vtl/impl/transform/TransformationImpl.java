@@ -21,11 +21,15 @@ package it.bancaditalia.oss.vtl.impl.transform;
 
 import java.io.Serializable;
 import java.lang.ref.SoftReference;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.transform.Transformation;
 
 public abstract class TransformationImpl implements Transformation, Serializable
@@ -56,4 +60,16 @@ public abstract class TransformationImpl implements Transformation, Serializable
 	}
 
 	protected abstract Lineage computeLineage();
+
+	/**
+	 * Compiles this transformation into a function to be applied to each datapoint having the structure of the given scope.
+	 * The default implementation evaluates this transformation in a copy of the scope bound to each datapoint.
+	 * 
+	 * @param scope The unbound scope used for compilation
+	 * @return The compiled function
+	 */
+	public Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(DatapointScope scope)
+	{
+		return dp -> (ScalarValue<?, ?, ?, ?>) eval(scope.bind(dp));
+	}
 }
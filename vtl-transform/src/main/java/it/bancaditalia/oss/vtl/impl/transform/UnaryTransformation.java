@@ -22,10 +22,12 @@ package it.bancaditalia.oss.vtl.impl.transform;
 import static java.util.Collections.emptySet;
 
 import java.util.Set;
+import java.util.function.Function;
 
+import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
 import it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
@@ -60,7 +62,7 @@ public abstract class UnaryTransformation extends TransformationImpl
 	@Override
 	public final VTLValue eval(TransformationScheme scheme)
 	{
-		VTLValue value = operand == null ? scheme.resolve(ThisScope.THIS) : operand.eval(scheme);
+		VTLValue value = evalOperand(scheme);
 		
 		if (value instanceof DataSet)
 			return evalOnDataset((DataSet) value, getMetadata(scheme));
@@ -68,6 +70,28 @@ public abstract class UnaryTransformation extends TransformationImpl
 			return evalOnScalar((ScalarValue<?, ?, ?, ?>) value, getMetadata(scheme));
 	}
 
+	/**
+	 * Evaluates the operand of this transformation; subclasses may override it to evaluate the operand in a cheaper way.
+	 * 
+	 * @param scheme the scheme where to evaluate the operand
+	 * @return the value of the operand
+	 */
+	protected VTLValue evalOperand(TransformationScheme scheme)
+	{
+		return operand == null ? scheme.resolve(ThisScope.THIS) : operand.eval(scheme);
+	}
+
+	@Override
+	public Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(DatapointScope scope)
+	{
+		if (operand == null)
+			return super.compile(scope);
+		
+		VTLValueMetadata metadata = getMetadata(scope);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> compiled = scope.compile(operand);
+		return dp -> (ScalarValue<?, ?, ?, ?>) evalOnScalar(compiled.apply(dp), metadata);
+	}
+
 	public Transformation getOperand()
 	{
 		return operand;
@@ -80,14 +104,7 @@ public abstract class UnaryTransformation extends TransformationImpl
 	@Override
 	public final VTLValueMetadata getMetadata(TransformationScheme scheme)
 	{
-		final ResultHolder<VTLValueMetadata> holder = ResultHolder.getInstance(scheme, VTLValueMetadata.class);
-		VTLValueMetadata metadata = holder.get(this);
-		if (metadata == null)
-		{
-			metadata = computeMetadata(scheme); 
-			holder.put(this, metadata);
-		}
-		return metadata;
+		return scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 
 	protected abstract VTLValueMetadata computeMetadata(TransformationScheme scheme);
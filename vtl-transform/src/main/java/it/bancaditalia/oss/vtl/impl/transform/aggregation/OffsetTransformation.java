@@ -21,15 +21,14 @@ package it.bancaditalia.oss.vtl.impl.transform.aggregation;
 
 import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.DESC;
 import static it.bancaditalia.oss.vtl.impl.transform.aggregation.OffsetTransformation.OffsetDirection.LEAD;
+import static it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter.toSortedArray;
 import static it.bancaditalia.oss.vtl.util.ConcatSpliterator.concatenating;
 import static it.bancaditalia.oss.vtl.util.Utils.coalesce;
 import static it.bancaditalia.oss.vtl.util.Utils.toEntryWithValue;
 import static it.bancaditalia.oss.vtl.util.Utils.toMapWithValues;
 import static java.lang.Boolean.TRUE;
 import static java.util.Collections.emptyList;
-import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toConcurrentMap;
 import static java.util.stream.Collectors.toSet;
 
 import java.util.AbstractMap.SimpleEntry;
@@ -39,11 +38,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -54,6 +50,7 @@ import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.transform.UnaryTransformation;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLIncompatibleRolesException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
+import it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
@@ -138,13 +135,13 @@ public class OffsetTransformation extends UnaryTransformation implements Analyti
 				throw new VTLException("Cannot order by " + orderingComponent.getName() + " because the component is used in partition by " + partitionBy);
 
 		// The ordering of the dataset
-		final Comparator<DataPoint> comparator = comparator(ordering);
+		final Comparator<DataPoint> comparator = PartitionSorter.comparator(ordering);
 
 		String alias = dataset instanceof NamedDataSet ? ((NamedDataSet) dataset).getAlias() : "Unnamed data set";
 		// sort each partition with the comparator and then perform the analytic computation on each partition
 		return new LightFDataSet<>((DataSetMetadata) metadata, ds -> { 
 				LOGGER.debug("Started computing {} on {}", direction, alias);
-				Stream<Entry<NavigableSet<DataPoint>, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>>> streamByKeys = 
+				Stream<Entry<DataPoint[], Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>>> streamByKeys = 
 						getGroupedDataset(dataset, partitionIDs, comparator, alias);
 				Stream<DataPoint> result = streamByKeys
 						.map(e -> offsetPartition((DataSetMetadata) metadata, e.getKey(), e.getValue()))
@@ -154,60 +151,44 @@ public class OffsetTransformation extends UnaryTransformation implements Analyti
 			}, dataset);
 	}
 
-	private static Stream<Entry<NavigableSet<DataPoint>, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>>> getGroupedDataset(
+	private static Stream<Entry<DataPoint[], Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>>> getGroupedDataset(
 			DataSet dataset, Set<DataStructureComponent<Identifier, ?, ?>> partitionIDs, final Comparator<DataPoint> comparator, String alias)
 	{
 		LOGGER.debug("Started sorting {}", alias);
-		final Stream<Entry<NavigableSet<DataPoint>, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>>> streamByKeys = dataset.streamByKeys(
+		final Stream<Entry<DataPoint[], Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>>> streamByKeys = dataset.streamByKeys(
 				partitionIDs, 
-				toConcurrentMap(identity(), identity(), (a, b) -> a, () -> new ConcurrentSkipListMap<>(comparator)), 
-				(partition, keyValues) -> new SimpleEntry<>(partition.keySet(), keyValues)
+				toSortedArray(comparator), 
+				(partition, keyValues) -> new SimpleEntry<>(partition, keyValues)
 			);
 		LOGGER.debug("Finished sorting {}", alias);
 		return streamByKeys;
 	}
 	
-	private Stream<DataPoint> offsetPartition(DataSetMetadata metadata, NavigableSet<DataPoint> partition, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues)
+	private Stream<DataPoint> offsetPartition(DataSetMetadata metadata, DataPoint partition[], Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues)
 	{
 		LOGGER.trace("Analytic invocation on partition {}", keyValues);
 		
-		return Utils.getStream(partition)
-				.map(dp -> {
-					DataPoint offsetDatapoint = dp;
-					UnaryOperator<DataPoint> op = direction == LEAD ? partition::higher : partition::lower;
-					for (int i = 0; i < offset && offsetDatapoint != null; i++)
-						offsetDatapoint = op.apply(offsetDatapoint);
-
+		int shift = direction == LEAD ? offset : -offset;
+		return Utils.getStream(partition.length)
+				.mapToObj(i -> {
+					DataPoint dp = partition[i];
 					DataPointBuilder resultBuilder = new DataPointBuilder(dp.getValues(Identifier.class))
 							.addAll(dp.getValues(Attribute.class));
 
-					if (offsetDatapoint == null)
+					int target = i + shift;
+					if (target < 0 || target >= partition.length)
 					{
 						HashMap<DataStructureComponent<Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> nullContents = new HashMap<>(dp.getValues(Measure.class));
 						nullContents.replaceAll((m, v) -> defaultValue == null ? NullValue.instanceFrom(m) : m.cast(defaultValue));
 						resultBuilder = resultBuilder.addAll(nullContents);
 					}
 					else
-						resultBuilder = resultBuilder.addAll(offsetDatapoint.getValues(Measure.class));
+						resultBuilder = resultBuilder.addAll(partition[target].getValues(Measure.class));
 
 					return resultBuilder.build(getLineage(), metadata);
 				});
 	}
 	
-	private static Comparator<DataPoint> comparator(Map<DataStructureComponent<?, ?, ?>, Boolean> sortMethods)
-	{
-		return (dp1, dp2) -> {
-			for (Entry<DataStructureComponent<?, ?, ?>, Boolean> sortID: sortMethods.entrySet())
-			{
-				int res = dp1.get(sortID.getKey()).compareTo(dp2.get(sortID.getKey()));
-				if (res != 0)
-					return sortID.getValue() ? res : -res;
-			}
-
-			return 0;
-		};
-	}
-
 	@Override
 	public VTLValueMetadata computeMetadata(TransformationScheme session)
 	{
@@ -22,26 +22,22 @@ package it.bancaditalia.oss.vtl.impl.transform.aggregation;
 import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.DESC;
 import static it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope.THIS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter.toSortedArray;
 import static it.bancaditalia.oss.vtl.util.ConcatSpliterator.concatenating;
 import static it.bancaditalia.oss.vtl.util.Utils.coalesce;
 import static it.bancaditalia.oss.vtl.util.Utils.toEntryWithValue;
 import static java.lang.Boolean.TRUE;
 import static java.util.Collections.emptyList;
-import static java.util.Collections.emptyMap;
 import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toSet;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.NavigableSet;
 import java.util.Optional;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -52,7 +48,7 @@ import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.transform.TransformationImpl;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLIncompatibleRolesException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
+import it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
@@ -124,63 +120,41 @@ public class RankTransformation extends TransformationImpl implements AnalyticTr
 				throw new VTLException("Cannot order by " + orderingComponent.getName() + " because the component is used in partition by " + partitionBy);
 
 		// The ordering of the dataset
-		final Comparator<DataPoint> comparator = comparator(ordering);
+		final Comparator<DataPoint> comparator = PartitionSorter.comparator(ordering);
 		
 		// sort each partition with the comparator and then perform the analytic computation on each partition
 		return new LightFDataSet<>(getMetadata(scheme), ds -> ds.streamByKeys(
 				partitionIDs, 
-				toCollection(() -> new ConcurrentSkipListSet<>(comparator)), 
-				(partition, keyValues) -> rankPartition(scheme, partition, keyValues)
+				toSortedArray(comparator), 
+				(partition, keyValues) -> rankPartition(scheme, comparator, partition, keyValues)
 			).collect(concatenating(Utils.ORDERED)), dataset);
 	}
 	
-	private Stream<DataPoint> rankPartition(TransformationScheme scheme, NavigableSet<DataPoint> partition, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues)
+	private Stream<DataPoint> rankPartition(TransformationScheme scheme, Comparator<DataPoint> comparator, DataPoint partition[], Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues)
 	{
 		LOGGER.debug("Analytic invocation on partition {}", keyValues);
-		long rank = 1, position = 1;
-		Map<DataStructureComponent<Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> oldValues, measureValues = emptyMap();
-		List<DataPoint> result = new ArrayList<>(partition.size());
+		DataSetMetadata metadata = getMetadata(scheme);
+		DataPoint result[] = new DataPoint[partition.length];
 		
-		for (DataPoint dp: partition)
+		long rank = 1;
+		for (int i = 0; i < partition.length; i++)
 		{
-			oldValues = measureValues;
-			measureValues = dp.getValues(Measure.class);
-			
-			ScalarValue<?, ?, EntireIntegerDomainSubset, IntegerDomain> rankResult;
-			if (measureValues.equals(oldValues))
-				rankResult = IntegerValue.of(rank);
-			else
-				// update rank if the new measures are different from the old
-				rankResult = IntegerValue.of(rank = position);
-			position++;
+			// datapoints with the same values of the ordering components share the same rank
+			if (i > 0 && comparator.compare(partition[i - 1], partition[i]) != 0)
+				rank = i + 1;
 				
-			result.add(new DataPointBuilder(dp.getValues(Identifier.class))
-				.add(RANK_MEASURE, rankResult)
-				.build(getLineage(), getMetadata(scheme)));
+			result[i] = new DataPointBuilder(partition[i].getValues(Identifier.class))
+				.add(RANK_MEASURE, IntegerValue.of(rank))
+				.build(getLineage(), metadata);
 		}
 		
-		return result.stream();
+		return Arrays.stream(result);
 	}
 	
-	
-	private static Comparator<DataPoint> comparator(Map<DataStructureComponent<?, ?, ?>, Boolean> sortMethods)
-	{
-		return (dp1, dp2) -> {
-			for (Entry<DataStructureComponent<?, ?, ?>, Boolean> sortID: sortMethods.entrySet())
-			{
-				int res = dp1.get(sortID.getKey()).compareTo(dp2.get(sortID.getKey()));
-				if (res != 0)
-					return sortID.getValue() ? res : -res;
-			}
-
-			return 0;
-		};
-	}
-
 	@Override
 	public DataSetMetadata getMetadata(TransformationScheme scheme)
 	{
-		return (DataSetMetadata) ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return (DataSetMetadata) scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 
 	private VTLValueMetadata computeMetadata(TransformationScheme scheme)
@@ -21,7 +21,9 @@ package it.bancaditalia.oss.vtl.impl.transform.aggregation;
 
 import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.DESC;
 import static it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope.THIS;
+import static it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter.toSortedArray;
 import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.UNBOUNDED_PRECEDING_TO_CURRENT_DATA_POINT;
+import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowRangeType.RANGE;
 import static it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder.toDataPoint;
 import static it.bancaditalia.oss.vtl.util.ConcatSpliterator.concatenating;
 import static it.bancaditalia.oss.vtl.util.Utils.coalesce;
@@ -37,10 +39,9 @@ import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -51,6 +52,7 @@ import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.transform.UnaryTransformation;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLIncompatibleRolesException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
+import it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter;
 import it.bancaditalia.oss.vtl.impl.transform.util.WindowView;
 import it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowClause;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
@@ -66,6 +68,9 @@ import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.ScalarValueMetadata;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.data.ValueDomainSubset;
+import it.bancaditalia.oss.vtl.model.domain.NumberDomain;
+import it.bancaditalia.oss.vtl.model.domain.TimeDomain;
 import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 import it.bancaditalia.oss.vtl.util.Utils;
@@ -130,44 +135,35 @@ public class SimpleAnalyticTransformation extends UnaryTransformation implements
 		// The measures to aggregate
 		Set<DataStructureComponent<Measure, ?, ?>> measures = dataset.getComponents(Measure.class);
 		// The ordering of the dataset
-		final Comparator<DataPoint> comparator = comparator(ordering);
+		final Comparator<DataPoint> comparator = PartitionSorter.comparator(ordering);
 		
 		// sort each partition with the comparator and then perform the analytic computation on each partition
-		return new LightFDataSet<>((DataSetMetadata) metadata, ds -> ds.streamByKeys(partitionIDs, toConcurrentMap(identity(), dp -> TRUE), 
-				(partition, keyValues) -> aggregateWindows((DataSetMetadata) metadata, measures, comparator, partition.keySet(), keyValues)
+		return new LightFDataSet<>((DataSetMetadata) metadata, ds -> ds.streamByKeys(partitionIDs, toSortedArray(comparator), 
+				(ordered, keyValues) -> aggregateWindows((DataSetMetadata) metadata, measures, ordering, ordered, keyValues)
 			).collect(concatenating(Utils.ORDERED)), dataset);
 	}
 	
-	private Stream<DataPoint> aggregateWindows(DataSetMetadata metadata, Set<DataStructureComponent<Measure, ?, ?>> measures, Comparator<DataPoint> comparator, Set<DataPoint> partition, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues)
+	private Stream<DataPoint> aggregateWindows(DataSetMetadata metadata, Set<DataStructureComponent<Measure, ?, ?>> measures, Map<DataStructureComponent<?, ?, ?>, Boolean> ordering, DataPoint ordered[], Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> keyValues)
 	{
 		LOGGER.debug("Analytic invocation on partition {}", keyValues);
 		
-		TreeSet<DataPoint> orderedPartition = new TreeSet<>(comparator);
-		orderedPartition.addAll(partition);
-		// for each window, compute aggregations for each measure and create a new datapoint with them
-		return new WindowView(orderedPartition, windowClause)
-				.getWindows()
-				.map(window -> measures.stream()
-					.map(toEntryWithValue(measure -> (ScalarValue<?, ?, ?, ?>) Utils.getStream(window.getValue()).collect(aggregation.getReducer(measure))))
-					.collect(toDataPoint(getLineage(), metadata, window.getKey()))
+		// slide the windows over each measure, then create a new datapoint for each window
+		WindowView view = new WindowView(ordered, windowClause, ordering);
+		Map<DataStructureComponent<Measure, ?, ?>, ScalarValue<?, ?, ?, ?>[]> results = Utils.getStream(measures)
+				.collect(toConcurrentMap(identity(), measure -> {
+					ScalarValue<?, ?, ?, ?> values[] = new ScalarValue<?, ?, ?, ?>[ordered.length];
+					for (int i = 0; i < ordered.length; i++)
+						values[i] = aggregation.getExtractor().apply(ordered[i], measure);
+					return aggregation.applyToWindows(values, view.getStarts(), view.getEnds());
+				}));
+		
+		return IntStream.range(0, ordered.length)
+				.mapToObj(i -> measures.stream()
+					.map(toEntryWithValue(measure -> results.get(measure)[i]))
+					.collect(toDataPoint(getLineage(), metadata, ordered[i].getValues(Identifier.class)))
 				);
 	}
 	
-	
-	private static Comparator<DataPoint> comparator(Map<DataStructureComponent<?, ?, ?>, Boolean> sortMethods)
-	{
-		return (dp1, dp2) -> {
-			for (Entry<DataStructureComponent<?, ?, ?>, Boolean> sortID: sortMethods.entrySet())
-			{
-				int res = dp1.get(sortID.getKey()).compareTo(dp2.get(sortID.getKey()));
-				if (res != 0)
-					return sortID.getValue() ? res : -res;
-			}
-
-			return 0;
-		};
-	}
-
 	@Override
 	public VTLValueMetadata computeMetadata(TransformationScheme session)
 	{
@@ -190,6 +186,15 @@ public class SimpleAnalyticTransformation extends UnaryTransformation implements
 				.map(c -> c.as(Identifier.class))
 				.collect(toSet());
 		
+		if (windowClause.getRangeType() == RANGE)
+		{
+			if (ordering.size() != 1)
+				throw new VTLException("A range window requires exactly one ordering component, but found " + ordering.keySet());
+			ValueDomainSubset<?, ?> domain = ordering.keySet().iterator().next().getDomain();
+			if (!(domain instanceof NumberDomain) && !(domain instanceof TimeDomain))
+				throw new VTLException("A range window requires a number or time ordering component, but found " + domain);
+		}
+		
 		return new DataStructureBuilder(dataset.getComponents(Identifier.class))
 				.addComponents(dataset.getComponents(Measure.class))
 				.build();
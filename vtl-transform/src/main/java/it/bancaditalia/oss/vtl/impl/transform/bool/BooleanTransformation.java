@@ -182,6 +182,11 @@ public class BooleanTransformation extends BinaryTransformation
 				.build();
 	}
 
+	public BooleanBiOperator getOperator()
+	{
+		return operator;
+	}
+
 	@Override
 	public String toString()
 	{
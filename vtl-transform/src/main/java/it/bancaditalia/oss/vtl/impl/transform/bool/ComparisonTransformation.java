@@ -200,6 +200,11 @@ public class ComparisonTransformation extends BinaryTransformation
 				.build();
 	}
 	
+	public ComparisonOperator getOperator()
+	{
+		return operator;
+	}
+
 	@Override
 	public String toString()
 	{
@@ -31,13 +31,14 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Stream;
 
 import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.transform.TransformationImpl;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLExpectedComponentException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLSyntaxException;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
+import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
 import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.LightF2DataSet;
@@ -105,6 +106,16 @@ public class ConditionalTransformation extends TransformationImpl
 		}
 	}
 
+	@Override
+	public Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(DatapointScope scope)
+	{
+		getMetadata(scope);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> cond = scope.compile(condition);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> thenF = scope.compile(thenExpr);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> elseF = scope.compile(elseExpr);
+		return dp -> TRUE == BOOLEANDS.cast(cond.apply(dp)) ? thenF.apply(dp) : elseF.apply(dp);
+	}
+
 	private DataPoint evalDatasetAndScalar(DataSetMetadata metadata, boolean cond, DataPoint dp, ScalarValue<?, ?, ?, ?> scalar, 
 			DataStructureComponent<Measure, EntireBooleanDomainSubset, BooleanDomain> booleanConditionMeasure)
 	{
@@ -172,7 +183,7 @@ public class ConditionalTransformation extends TransformationImpl
 	@Override
 	public VTLValueMetadata getMetadata(TransformationScheme scheme)
 	{
-		return ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 	
 	public VTLValueMetadata computeMetadata(TransformationScheme scheme)
@@ -22,16 +22,26 @@ package it.bancaditalia.oss.vtl.impl.transform.dataset;
 import static it.bancaditalia.oss.vtl.model.data.UnknownValueMetadata.INSTANCE;
 import static it.bancaditalia.oss.vtl.util.Utils.coalesce;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import it.bancaditalia.oss.vtl.impl.transform.UnaryTransformation;
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
 import it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.UnknownValueMetadata;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
 import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
@@ -48,6 +58,62 @@ public class BracketTransformation extends UnaryTransformation
 		this.componentName = componentName == null ? null : componentName.matches("'.*'") ? componentName.replaceAll("'(.*)'", "$1") : componentName.toLowerCase();
 	}
 
+	/**
+	 * When the operand is a chain of clauses applied to a named dataset, tells the scheme which datapoints 
+	 * and components are needed by the innermost clauses that support it, then applies all the clauses 
+	 * but this one to the retrieved dataset.
+	 */
+	@Override
+	protected VTLValue evalOperand(TransformationScheme scheme)
+	{
+		// brackets in the chain, from this one to the innermost, looking through shared operands
+		List<BracketTransformation> chain = new ArrayList<>();
+		Transformation current = this;
+		while (current instanceof BracketTransformation || current instanceof SharedTransformation)
+			if (current instanceof SharedTransformation)
+				current = ((SharedTransformation) current).getExpression();
+			else
+			{
+				chain.add((BracketTransformation) current);
+				current = ((BracketTransformation) current).operand;
+			}
+		
+		if (!(current instanceof VarIDOperand) || !(scheme.getMetadata(((VarIDOperand) current).getText()) instanceof DataSetMetadata))
+			return super.evalOperand(scheme);
+		
+		String name = ((VarIDOperand) current).getText();
+		Map<String, ScalarValue<?, ?, ?, ?>> keyValues = new HashMap<>();
+		Set<String> components = new HashSet<>();
+		DataSetMetadata pushed = null;
+		for (int i = chain.size() - 1; i >= 0; i--)
+		{
+			BracketTransformation bracket = chain.get(i);
+			VTLValueMetadata metadata = bracket.getMetadata(scheme);
+			DataSetMetadata operandMetadata = (DataSetMetadata) bracket.operand.getMetadata(scheme);
+			Map<String, ScalarValue<?, ?, ?, ?>> clauseKeyValues = new HashMap<>(keyValues);
+			Set<String> clauseComponents = new HashSet<>(components);
+			if (!(metadata instanceof DataSetMetadata) || (bracket.clause != null ? !bracket.clause.pushDown(operandMetadata, clauseKeyValues, clauseComponents, scheme) 
+					: !operandMetadata.getComponent(bracket.componentName).map(DataStructureComponent::getName).map(clauseComponents::add).isPresent()))
+				break;
+			
+			keyValues = clauseKeyValues;
+			components = clauseComponents;
+			pushed = (DataSetMetadata) metadata;
+		}
+		
+		if (pushed == null)
+			return super.evalOperand(scheme);
+		
+		for (DataStructureComponent<?, ?, ?> component: pushed.getComponents())
+			components.add(component.getName());
+		
+		VTLValue value = scheme.resolve(name, keyValues, components);
+		for (int i = chain.size() - 1; i > 0; i--)
+			value = chain.get(i).evalOnDataset((DataSet) value, chain.get(i).getMetadata(scheme));
+		
+		return value;
+	}
+
 	@Override
 	protected VTLValue evalOnDataset(DataSet dataset, VTLValueMetadata metadata)
 	{
@@ -24,10 +24,10 @@ import static it.bancaditalia.oss.vtl.util.Utils.coalesce;
 import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.partitioningBy;
-import static java.util.stream.Collectors.toConcurrentMap;
-import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -45,7 +45,6 @@ import it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLExpectedComponentException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
 import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
@@ -57,6 +56,7 @@ import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
@@ -69,6 +69,7 @@ import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.model.data.ValueDomain;
 import it.bancaditalia.oss.vtl.model.data.ValueDomainSubset;
 import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
 import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 import it.bancaditalia.oss.vtl.util.Utils;
@@ -127,6 +128,12 @@ public class CalcClauseTransformation extends DatasetClauseTransformation
 			return (ScalarValue<?, ?, ?, ?>) calcClause.eval(scheme);
 		}
 
+		@Override
+		public Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(DatapointScope scope)
+		{
+			return scope.compile(calcClause);
+		}
+
 		@Override
 		public VTLValueMetadata getMetadata(TransformationScheme scheme)
 		{
@@ -149,6 +156,8 @@ public class CalcClauseTransformation extends DatasetClauseTransformation
 			} 
 			else if (calcClause instanceof UnaryTransformation)
 				return isAnalytic1(((UnaryTransformation) calcClause).getOperand());
+			else if (calcClause instanceof SharedTransformation)
+				return isAnalytic1(((SharedTransformation) calcClause).getExpression());
 			else
 				return false;
 		}
@@ -226,24 +235,7 @@ public class CalcClauseTransformation extends DatasetClauseTransformation
 		// preserve original dataset if no nonAnalyticsClauses are present
 		DataSet nonAnalyticResult = nonAnalyticClauses.size() == 0
 			? operand
-			: new LightFDataSet<>(nonAnalyticResultMetadata, ds -> ds.stream()
-				.map(dp -> {
-					DatapointScope dpSession = new DatapointScope(dp, nonAnalyticResultMetadata, scheme);
-					
-					// place calculated components (eventually overriding existing ones 
-					Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> calcValues = 
-						Utils.getStream(nonAnalyticClauses)
-							.collect(toConcurrentMap(
-								clause -> nonAnalyticResultMetadata.getComponent(clause.getName()).get(),
-								clause -> clause.eval(dpSession))
-							);
-					
-					Lineage lineageCall = LineageCall.of(Stream.concat(Stream.of(dp.getLineage()), 
-							Utils.getStream(nonAnalyticClauses)
-								.map(Transformation::getLineage))
-						.collect(toList()));
-					return new DataPointBuilder(calcValues).addAll(dp).build(LineageNode.of(this, lineageCall), nonAnalyticResultMetadata);
-				}), operand);
+			: new LightFDataSet<>(nonAnalyticResultMetadata, compileClauses(nonAnalyticClauses, nonAnalyticResultMetadata, scheme), operand);
 
 		// TODO: more efficient way to compute this instead of reduction by joining
 		return Utils.getStream(analyticClauses)
@@ -253,6 +245,38 @@ public class CalcClauseTransformation extends DatasetClauseTransformation
 			.orElse(nonAnalyticResult);
 	}
 	
+	private Function<DataSet, Stream<DataPoint>> compileClauses(List<CalcClauseItem> clauses, DataSetMetadata resultStructure, TransformationScheme scheme)
+	{
+		final int size = clauses.size();
+		final DatapointScope scope = new DatapointScope(resultStructure, scheme);
+		final DataStructureComponent<?, ?, ?>[] components = new DataStructureComponent<?, ?, ?>[size];
+		@SuppressWarnings("unchecked")
+		final Function<DataPoint, ScalarValue<?, ?, ?, ?>>[] evaluators = new Function[size];
+		final Lineage[] lineages = new Lineage[size];
+		for (int i = 0; i < size; i++)
+		{
+			CalcClauseItem clause = clauses.get(i);
+			components[i] = resultStructure.getComponent(clause.getName()).get();
+			evaluators[i] = clause.compile(scope);
+			lineages[i] = clause.getLineage();
+		}
+		
+		return ds -> ds.stream()
+			.map(dp -> {
+				// place calculated components (eventually overriding existing ones)
+				Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> calcValues = new HashMap<>();
+				List<Lineage> sources = new ArrayList<>(size + 1);
+				sources.add(dp.getLineage());
+				for (int i = 0; i < size; i++)
+				{
+					calcValues.put(components[i], evaluators[i].apply(dp));
+					sources.add(lineages[i]);
+				}
+				
+				return new DataPointBuilder(calcValues).addAll(dp).build(LineageNode.of(this, LineageCall.of(sources)), resultStructure);
+			});
+	}
+	
 	private Function<CalcClauseItem, DataSet> calcAndRename(DataSetMetadata resultStructure, TransformationScheme scheme)
 	{
 		return clause -> {
@@ -280,13 +304,13 @@ public class CalcClauseTransformation extends DatasetClauseTransformation
 	private DataSet joinByIDs(DataSet left, DataSet right)
 	{
 		return left.mappedJoin(left.getMetadata().joinForOperators(right.getMetadata()), right, 
-				(dpl, dpr) -> dpl.combine(this, dpr));
+				DataPointBuilder.combining(this, left.getMetadata(), right.getMetadata()));
 	}
 
 	@Override
 	public VTLValueMetadata getMetadata(TransformationScheme scheme)
 	{
-		return (DataSetMetadata) ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return (DataSetMetadata) scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 	
 	public VTLValueMetadata computeMetadata(TransformationScheme scheme)
@@ -22,12 +22,14 @@ package it.bancaditalia.oss.vtl.impl.transform.dataset;
 import static it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope.THIS;
 import static java.util.Collections.emptySet;
 
+import java.util.Map;
 import java.util.Set;
 
 import it.bancaditalia.oss.vtl.impl.transform.TransformationImpl;
 import it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
@@ -36,8 +38,6 @@ public abstract class DatasetClauseTransformation extends TransformationImpl
 {
 	private static final long serialVersionUID = 1L;
 
-	private transient DataSetMetadata operandMetadata = null;
-
 	@Override
 	public boolean isTerminal()
 	{
@@ -57,10 +57,23 @@ public abstract class DatasetClauseTransformation extends TransformationImpl
 
 	protected DataSetMetadata getThisMetadata(TransformationScheme session)
 	{
-		if (operandMetadata != null)
-			return operandMetadata;
-		else
-			return operandMetadata = (DataSetMetadata) session.getMetadata(THIS);
+		return (DataSetMetadata) session.getMetadata(THIS);
+	}
+
+	/**
+	 * Tells which datapoints and components of the operand are needed by this clause, so that 
+	 * only these may be retrieved from the environment. The clause is still applied to the retrieved dataset.
+	 * 
+	 * @param operand the structure of the operand
+	 * @param keyValues filled with the values that some identifiers must have in the datapoints needed by this clause  
+	 * @param components filled with the names of the components of the operand needed by this clause, 
+	 * 		besides the ones in its result
+	 * @param scheme the scheme where this clause is evaluated
+	 * @return false if this clause may need all the datapoints and components of the operand.
+	 */
+	boolean pushDown(DataSetMetadata operand, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components, TransformationScheme scheme)
+	{
+		return false;
 	}
 
 	@Override
@@ -19,17 +19,18 @@
  */
 package it.bancaditalia.oss.vtl.impl.transform.dataset;
 
+import static it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter.toSortedArray;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
 import static it.bancaditalia.oss.vtl.impl.types.operators.ArithmeticOperator.DIFF;
 import static it.bancaditalia.oss.vtl.impl.types.operators.ArithmeticOperator.SUM;
 import static it.bancaditalia.oss.vtl.util.ConcatSpliterator.concatenating;
 import static java.util.stream.Collectors.toConcurrentMap;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.function.BinaryOperator;
 import java.util.stream.Stream;
 
@@ -97,11 +98,10 @@ public class DatasetUnaryTransformation extends UnaryTransformation
 			Set<DataStructureComponent<Identifier, ?, ?>> ids = new HashSet<>(ds.getComponents(Identifier.class));
 			ids.remove(timeid);
 
-			return ds.streamByKeys(ids, toConcurrentMap(i -> i, i -> true, (a, b) -> a, () -> new ConcurrentSkipListMap<>(DataPoint.compareBy(timeid))))
-				.map(Map::keySet)
+			return ds.streamByKeys(ids, toSortedArray(DataPoint.compareBy(timeid)))
 				.map(group -> {
 					Map<DataStructureComponent<? extends Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> acc = new ConcurrentHashMap<>();
-					return group.stream().map(dp -> new DataPointBuilder(Utils.getStream(measures)
+					return Arrays.stream(group).map(dp -> new DataPointBuilder(Utils.getStream(measures)
 							.collect(toConcurrentMap(m -> m, m -> {
 								ScalarValue<?, ?, ?, ?> v = acc.merge(m, dp.get(m), op);
 								if (!cumulating)
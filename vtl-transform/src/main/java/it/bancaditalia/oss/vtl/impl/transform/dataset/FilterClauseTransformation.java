@@ -22,16 +22,27 @@ package it.bancaditalia.oss.vtl.impl.transform.dataset;
 import static it.bancaditalia.oss.vtl.impl.types.data.BooleanValue.TRUE;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
 
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.bancaditalia.oss.vtl.impl.transform.ConstantOperand;
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
+import it.bancaditalia.oss.vtl.impl.transform.bool.BooleanTransformation;
+import it.bancaditalia.oss.vtl.impl.transform.bool.BooleanTransformation.BooleanBiOperator;
+import it.bancaditalia.oss.vtl.impl.transform.bool.ComparisonTransformation;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLExpectedComponentException;
 import it.bancaditalia.oss.vtl.impl.transform.scope.DatapointScope;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.exceptions.VTLIncompatibleTypesException;
+import it.bancaditalia.oss.vtl.impl.types.operators.ComparisonOperator;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
@@ -40,6 +51,7 @@ import it.bancaditalia.oss.vtl.model.data.ScalarValueMetadata;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.model.transform.LeafTransformation;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
 import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
@@ -67,18 +79,15 @@ public class FilterClauseTransformation extends DatasetClauseTransformation
 	public VTLValue eval(TransformationScheme scheme)
 	{
 		DataSet operand = (DataSet) getThisValue(scheme);
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> condition = new DatapointScope(getMetadata(scheme), scheme).compile(filterClause);
 
-		return operand.filter(dp -> {
-			final DatapointScope dpScope = new DatapointScope(dp, getMetadata(scheme), scheme);
-			final ScalarValue<?, ?, ?, ?> result = (ScalarValue<?, ?, ?, ?>) filterClause.eval(dpScope);
-			return (TRUE.equals(BOOLEANDS.cast(result)));
-		});
+		return operand.filter(dp -> TRUE.equals(BOOLEANDS.cast(condition.apply(dp))));
 	}
 
 	@Override
 	public DataSetMetadata getMetadata(TransformationScheme scheme)
 	{
-		return (DataSetMetadata) ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return (DataSetMetadata) scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 	
 	public VTLValueMetadata computeMetadata(TransformationScheme scheme)
@@ -106,6 +115,55 @@ public class FilterClauseTransformation extends DatasetClauseTransformation
 		return getThisMetadata(scheme);
 	}
 
+	/**
+	 * All the components referenced in the condition are needed, and for each conjunct of the condition 
+	 * in the form {@code identifier = constant} only the datapoints with that value are needed.
+	 */
+	@Override
+	boolean pushDown(DataSetMetadata operand, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components, TransformationScheme scheme)
+	{
+		for (LeafTransformation terminal: filterClause.getTerminals())
+			if (terminal instanceof VarIDOperand)
+				operand.getComponent(terminal.getText()).map(DataStructureComponent::getName).ifPresent(components::add);
+		
+		pushDownKeys(filterClause, operand, keyValues, scheme);
+		return true;
+	}
+	
+	private static void pushDownKeys(Transformation condition, DataSetMetadata operand, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, TransformationScheme scheme)
+	{
+		if (condition instanceof SharedTransformation)
+			pushDownKeys(((SharedTransformation) condition).getExpression(), operand, keyValues, scheme);
+		else if (condition instanceof BooleanTransformation && ((BooleanTransformation) condition).getOperator() == BooleanBiOperator.AND)
+		{
+			pushDownKeys(((BooleanTransformation) condition).getLeftOperand(), operand, keyValues, scheme);
+			pushDownKeys(((BooleanTransformation) condition).getRightOperand(), operand, keyValues, scheme);
+		}
+		else if (condition instanceof ComparisonTransformation && ((ComparisonTransformation) condition).getOperator() == ComparisonOperator.EQ)
+		{
+			Transformation left = ((ComparisonTransformation) condition).getLeftOperand();
+			Transformation right = ((ComparisonTransformation) condition).getRightOperand();
+			while (left instanceof SharedTransformation)
+				left = ((SharedTransformation) left).getExpression();
+			while (right instanceof SharedTransformation)
+				right = ((SharedTransformation) right).getExpression();
+			if (left instanceof ConstantOperand)
+			{
+				Transformation swap = left;
+				left = right;
+				right = swap;
+			}
+			
+			if (left instanceof VarIDOperand && right instanceof ConstantOperand)
+			{
+				Optional<DataStructureComponent<Identifier, ?, ?>> component = operand.getComponent(((VarIDOperand) left).getText(), Identifier.class);
+				ScalarValue<?, ?, ?, ?> value = ((ConstantOperand) right).eval(scheme);
+				if (component.isPresent() && !(value instanceof NullValue) && component.get().getDomain().isAssignableFrom(value.getDomain()))
+					keyValues.put(component.get().getName(), component.get().getDomain().cast(value));
+			}
+		}
+	}
+
 	@Override
 	public String toString()
 	{
@@ -32,7 +32,6 @@ import java.util.Set;
 
 import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
 import it.bancaditalia.oss.vtl.impl.types.exceptions.VTLInvariantIdentifiersException;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
@@ -69,7 +68,7 @@ public class KeepClauseTransformation extends DatasetClauseTransformation
 	@Override
 	public DataSetMetadata getMetadata(TransformationScheme scheme)
 	{
-		return (DataSetMetadata) ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return (DataSetMetadata) scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 	
 	public VTLValueMetadata computeMetadata(TransformationScheme scheme)
@@ -101,6 +100,12 @@ public class KeepClauseTransformation extends DatasetClauseTransformation
 		return dsMeta.keep(names);
 	}
 
+	@Override
+	boolean pushDown(DataSetMetadata operand, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components, TransformationScheme scheme)
+	{
+		return true;
+	}
+
 	@Override
 	public String toString()
 	{
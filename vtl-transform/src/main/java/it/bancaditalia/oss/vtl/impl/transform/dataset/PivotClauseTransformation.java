@@ -126,7 +126,7 @@ public class PivotClauseTransformation extends DatasetClauseTransformation
 		DataSetMetadata structure = dataset.getMetadata().pivot(identifier, measure);
 		Set<DataStructureComponent<Identifier, ?, ?>> ids = new HashSet<>(structure.getComponents(Identifier.class));
 		
-		Collector<DataPoint, ?, Entry<LineageGroup, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>>> collector = mapping((DataPoint dp) ->
+		Collector<DataPoint, ?, Entry<Lineage, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>>> collector = mapping((DataPoint dp) ->
 			new SimpleEntry<>(DataStructureComponentImpl.of(sanitize(dp.get(identifier)), Measure.class, measure.getDomain()), 
 					new SimpleEntry<>(dp.getLineage(), dp.get(measure))), 
 			collectingAndThen(Utils.entriesToMap(), map -> {
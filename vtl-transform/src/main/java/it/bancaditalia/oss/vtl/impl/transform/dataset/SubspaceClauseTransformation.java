@@ -25,12 +25,12 @@ import static java.util.stream.Collectors.toSet;
 
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLInvalidParameterException;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
@@ -72,7 +72,7 @@ public class SubspaceClauseTransformation extends DatasetClauseTransformation
 	@Override
 	public DataSetMetadata getMetadata(TransformationScheme scheme)
 	{
-		return (DataSetMetadata) ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return (DataSetMetadata) scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 	
 	public VTLValueMetadata computeMetadata(TransformationScheme scheme)
@@ -94,6 +94,23 @@ public class SubspaceClauseTransformation extends DatasetClauseTransformation
 		return dataset.subspace(subspace.keySet().stream().map(name -> dataset.getComponent(name, Identifier.class).get()).collect(toSet()));
 	}
 	
+	@Override
+	boolean pushDown(DataSetMetadata operand, Map<String, ScalarValue<?, ?, ?, ?>> keyValues, Set<String> components, TransformationScheme scheme)
+	{
+		for (Entry<String, ScalarValue<?, ?, ?, ?>> entry: subspace.entrySet())
+		{
+			Optional<DataStructureComponent<Identifier, ?, ?>> component = operand.getComponent(entry.getKey(), Identifier.class);
+			if (!component.isPresent())
+				return false;
+			
+			components.add(component.get().getName());
+			if (component.get().getDomain().isAssignableFrom(entry.getValue().getDomain()))
+				keyValues.put(component.get().getName(), component.get().getDomain().cast(entry.getValue()));
+		}
+		
+		return true;
+	}
+
 	@Override
 	public String toString()
 	{
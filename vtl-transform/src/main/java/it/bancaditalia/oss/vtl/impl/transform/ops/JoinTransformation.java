@@ -19,12 +19,13 @@
  */
 package it.bancaditalia.oss.vtl.impl.transform.ops;
 
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.CROSS_JOIN;
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.FULL_JOIN;
 import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.INNER_JOIN;
 import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.LEFT_JOIN;
 import static it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder.toDataPoint;
 import static it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder.toDataStructure;
 import static it.bancaditalia.oss.vtl.util.Utils.entriesToMap;
-import static it.bancaditalia.oss.vtl.util.Utils.entryByKey;
 import static it.bancaditalia.oss.vtl.util.Utils.entryByValue;
 import static it.bancaditalia.oss.vtl.util.Utils.keepingKey;
 import static it.bancaditalia.oss.vtl.util.Utils.keepingValue;
@@ -32,7 +33,12 @@ import static it.bancaditalia.oss.vtl.util.Utils.onlyIf;
 import static it.bancaditalia.oss.vtl.util.Utils.toMapWithValues;
 import static java.lang.Boolean.TRUE;
 import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.unmodifiableList;
+import static java.util.Comparator.comparing;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.counting;
 import static java.util.stream.Collectors.groupingBy;
@@ -45,27 +51,36 @@ import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
 import it.bancaditalia.oss.vtl.impl.transform.TransformationImpl;
 import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLAmbiguousComponentException;
 import it.bancaditalia.oss.vtl.impl.transform.exceptions.VTLSyntaxException;
 import it.bancaditalia.oss.vtl.impl.transform.scope.JoinApplyScope;
 import it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope;
-import it.bancaditalia.oss.vtl.impl.transform.util.ResultHolder;
+import it.bancaditalia.oss.vtl.impl.transform.util.PartitionedHashIndex;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
 import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
@@ -73,6 +88,8 @@ import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
 import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
 import it.bancaditalia.oss.vtl.impl.types.dataset.LightFDataSet;
 import it.bancaditalia.oss.vtl.impl.types.dataset.NamedDataSet;
+import it.bancaditalia.oss.vtl.impl.types.dataset.SpilledPartitions;
+import it.bancaditalia.oss.vtl.impl.types.dataset.SpilledRuns;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
@@ -95,6 +112,15 @@ public class JoinTransformation extends TransformationImpl
 {
 	private static final long serialVersionUID = 1L;
 	private static final Logger LOGGER = LoggerFactory.getLogger(JoinTransformation.class);
+	private static final Comparator<DataStructureComponent<?, ?, ?>> BY_NAME = comparing(DataStructureComponent::getName);
+
+	public static final VTLProperty VTL_JOIN_INDEX_THRESHOLD = 
+			new VTLPropertyImpl("vtl.join.index.threshold", "Maximum number of datapoints indexed or sorted in memory by a join before switching to a sort-merge that spills to disk", "1000000", false, false, "1000000");
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(JoinTransformation.class, VTL_JOIN_INDEX_THRESHOLD);
+	}
 
 	public enum JoinOperator
 	{
@@ -170,8 +196,6 @@ public class JoinTransformation extends TransformationImpl
 	private final Transformation calc;
 	private final Transformation aggr;
 
-	private transient JoinOperand referenceDataSet;
-
 	@SuppressWarnings("java:S107")
 	public JoinTransformation(JoinOperator operator, List<JoinOperand> operands, List<String> using, Transformation filter, Transformation apply, Transformation calc, Transformation aggr, Transformation keepOrDrop, Transformation rename)
 	{
@@ -215,77 +239,79 @@ public class JoinTransformation extends TransformationImpl
 		DataSet result;
 		DataSetMetadata metadata = getMetadata(scheme);
 		
-		if (usingNames.isEmpty())
-		{
-			// Find out which component must be renamed
-			Map<JoinOperand, DataSet> datasets = renameCaseAB1(values); 
+		// Find out which component must be renamed
+		Map<JoinOperand, DataSet> datasets = renameCaseAB1(values); 
 
-			// Case A: join all to reference ds
-			LOGGER.debug("Collecting all identifiers");
-			Map<DataSet, Set<DataStructureComponent<Identifier, ?, ?>>> ids = Utils.getStream(datasets)
-					.filter(entryByKey(op -> op != referenceDataSet))
-					.map(Entry::getValue)
-					.collect(toConcurrentMap(ds -> ds, ds -> ds.getComponents(Identifier.class)));
+		JoinOperand referenceDataSet = getReference(operands.stream()
+				.collect(toMap(op -> op, op -> values.get(op).getMetadata())));
+		DataSet reference = datasets.get(referenceDataSet);
+		List<DataSet> others = operands.stream()
+				.filter(op -> op != referenceDataSet)
+				.map(datasets::get)
+				.collect(toList());
 
-			// TODO: Memory hungry!!! Find some way to stream instead of building this big index collection 
-			LOGGER.debug("Indexing all datapoints");
-			Map<DataSet, ? extends Map<Map<DataStructureComponent<Identifier,?,?>, ScalarValue<?, ?, ?, ?>>, DataPoint>> indexes = Utils.getStream(datasets)
-					.filter(entryByKey(op -> op != referenceDataSet))
-					.map(Entry::getValue)
-					.collect(toMapWithValues(ds -> {
-						// needed to close the stream after usage
-						try (Stream<DataPoint> stream = ds.stream())
-						{
-							return stream
-									.peek(dp -> LOGGER.trace("Indexing {}", dp))
-									// toMap instead of groupingBy because there's never more than one datapoint in each group
-									.collect(toConcurrentMap(dp -> dp.getValues(Identifier.class), dp -> dp));
-						}
-					}));
+		// Structure before applying any clause, where the using components are those of the reference dataset
+		DataSetMetadata totalStructure = Stream.concat(reference.getMetadata().stream(), others.stream()
+					.map(DataSet::getMetadata)
+					.flatMap(Set::stream)
+					.filter(c -> !usingNames.contains(c.getName())))
+			.collect(toDataStructure());
+		Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls = new HashMap<>();
+		for (DataStructureComponent<?, ?, ?> component: totalStructure)
+			nulls.put(component, NullValue.instanceFrom(component));
+		
+		if (operator == CROSS_JOIN)
+			result = new LightFDataSet<>(totalStructure, dataset -> crossJoin(dataset, others, totalStructure), reference);
+		else if (!usingNames.isEmpty())
+			// Case B1 and B2: join the reference dataset to the other operands on the using components
+			result = new LightFDataSet<>(totalStructure, dataset -> usingJoin(dataset, others, totalStructure, nulls), reference);
+		else
+		{
+			// Case A: join all to reference ds, partitioning on the identifiers common to all operands
+			List<DataStructureComponent<Identifier, ?, ?>> partitionKeys = reference.getComponents(Identifier.class).stream()
+					.filter(c -> others.stream().allMatch(ds -> ds.getMetadata().contains(c)))
+					.sorted(BY_NAME)
+					.collect(toList());
 
-			// Structure before applying any clause
-			DataSetMetadata totalStructure = Utils.getStream(datasets.values())
-				.map(DataSet::getMetadata)
-				.flatMap(Set::stream)
-				.collect(toDataStructure());
+			// If the operands can be merged, index them in memory only until the threshold is reached
+			List<DataSet> mergeOrder = operator != FULL_JOIN ? getMergeOrder(others) : null;
+			long threshold = mergeOrder != null ? Long.parseLong(VTL_JOIN_INDEX_THRESHOLD.getValue()) : Long.MAX_VALUE;
 			
-			LOGGER.debug("Joining all datapoints");
+			LOGGER.debug("Indexing all datapoints");
+			List<DataSet> toIndex = new ArrayList<>(mergeOrder != null ? mergeOrder : others);
+			if (operator == FULL_JOIN)
+				toIndex.add(0, reference);
+			List<PartitionedHashIndex> indexes = indexOperands(toIndex, partitionKeys, threshold);
 			
-			result = new LightFDataSet<>(totalStructure, dataset -> dataset.stream()
-				.peek(refDP -> LOGGER.trace("Joining {}", refDP))
-				.map(refDP -> {
-					// Get all datapoints from other datasets (there is no more than 1 for each dataset)
-					List<DataPoint> otherDPs = Utils.getStream(datasets)
-							.filter(entryByKey(op -> op != referenceDataSet))
-							.map(Entry::getValue)
-							.map(ds -> indexes.get(ds).get(refDP.getValues(ids.get(ds), Identifier.class)))
-							.filter(Objects::nonNull)
-							.collect(toList());
-						
-					switch (operator)
-					{
-						case INNER_JOIN:
-						case LEFT_JOIN:
-							if (otherDPs.size() != indexes.size())
-								return operator == INNER_JOIN ? null : new DataPointBuilder(refDP)
-										.addAll(totalStructure.stream().collect(toMapWithValues(NullValue::instanceFrom)))
-										.build(getLineage(), totalStructure);
-							else
-							{
-								// Join all datapoints
-								DataPoint accDP = refDP;
-								for (DataPoint otherDP : otherDPs)
-									accDP = accDP.combine(this, otherDP);
-								
-								LOGGER.trace("Joined {}", accDP);
-								return accDP;
-							}
-						default: throw new UnsupportedOperationException(operator + " not implemented"); 
-					}
-				}).filter(Objects::nonNull), datasets.get(referenceDataSet));
+			LOGGER.debug("Joining all datapoints");
+			if (indexes.contains(null) && SpilledPartitions.isEnabled() && !partitionKeys.isEmpty())
+			{
+				LOGGER.info("More than {} datapoints to index, joining one partition at a time", threshold);
+				result = new LightFDataSet<>(totalStructure, dataset -> partitionedJoin(dataset, mergeOrder, indexes, partitionKeys, totalStructure, nulls), reference);
+			}
+			else if (indexes.contains(null))
+			{
+				LOGGER.info("More than {} datapoints to index, joining with sort-merge", threshold);
+				result = new LightFDataSet<>(totalStructure, dataset -> mergeJoin(dataset, mergeOrder, indexes, threshold, totalStructure, nulls), reference);
+			}
+			else if (operator == FULL_JOIN)
+				result = new LightDataSet(totalStructure, () -> fullJoin(indexes, totalStructure, nulls));
+			else
+				result = new LightFDataSet<>(totalStructure, dataset -> dataset.stream()
+					.peek(refDP -> LOGGER.trace("Joining {}", refDP))
+					.map(refDP -> {
+						// Get all datapoints from other datasets (there is no more than 1 for each dataset)
+						List<DataPoint> otherDPs = new ArrayList<>(indexes.size());
+						for (PartitionedHashIndex index: indexes)
+						{
+							DataPoint otherDP = index.get(refDP);
+							if (otherDP != null)
+								otherDPs.add(otherDP);
+						}
+							
+						return joinDatapoints(refDP, otherDPs, indexes.size(), totalStructure, nulls);
+					}).filter(Objects::nonNull), reference);
 		}
-		else
-			throw new UnsupportedOperationException("inner_join case B1-B2 not implemented");
 		
 		if (filter != null)
 			result = (DataSet) filter.eval(new ThisScope(result, filter.getLineage()));
@@ -316,6 +342,362 @@ public class JoinTransformation extends TransformationImpl
 		return result;
 	}
 
+	/*
+	 * Indexes all the datapoints of the operands by their identifiers, partitioning them on the given keys, 
+	 * as long as the total number of indexed datapoints does not exceed the threshold.
+	 * The returned list contains null in place of the operands that could not be indexed.
+	 */
+	private static List<PartitionedHashIndex> indexOperands(List<DataSet> toIndex, List<DataStructureComponent<Identifier, ?, ?>> partitionKeys, long threshold)
+	{
+		int partitions = PartitionedHashIndex.defaultPartitions();
+		List<PartitionedHashIndex> indexes = new ArrayList<>();
+		long remaining = threshold;
+		for (DataSet ds: toIndex)
+		{
+			List<DataStructureComponent<Identifier, ?, ?>> indexKeys = ds.getComponents(Identifier.class).stream()
+					.sorted(BY_NAME)
+					.collect(toList());
+			PartitionedHashIndex index = PartitionedHashIndex.of(ds, partitionKeys, indexKeys, partitions, remaining);
+			if (index != null && remaining < Long.MAX_VALUE)
+				remaining -= index.size();
+			indexes.add(index);
+		}
+		
+		return indexes;
+	}
+
+	/*
+	 * Returns the operands sorted so that the identifiers of each one are contained in those of the next, 
+	 * or null if their identifiers cannot be ordered in this way.
+	 */
+	private static List<DataSet> getMergeOrder(List<DataSet> others)
+	{
+		List<DataSet> order = new ArrayList<>(others);
+		order.sort(comparing(ds -> ds.getComponents(Identifier.class).size()));
+		for (int i = 1; i < order.size(); i++)
+			if (!order.get(i).getComponents(Identifier.class).containsAll(order.get(i - 1).getComponents(Identifier.class)))
+				return null;
+		
+		return order;
+	}
+
+	private DataPoint joinDatapoints(DataPoint refDP, List<DataPoint> otherDPs, int expected, DataSetMetadata totalStructure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls)
+	{
+		if (operator == INNER_JOIN && otherDPs.size() != expected)
+			return null;
+		
+		List<DataPoint> dps = new ArrayList<>(otherDPs.size() + 1);
+		dps.add(refDP);
+		dps.addAll(otherDPs);
+		return combineAll(dps, otherDPs.size() != expected, totalStructure, nulls);
+	}
+
+	/*
+	 * Builds a single datapoint from the given ones, which must not have any component in common except identifiers, 
+	 * filling the missing components with nulls if needed. The using components are taken from the first datapoint.
+	 */
+	private DataPoint combineAll(List<DataPoint> dps, boolean fill, DataSetMetadata totalStructure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls)
+	{
+		DataPointBuilder builder = new DataPointBuilder();
+		Lineage lineages[] = new Lineage[dps.size()];
+		for (int i = 0; i < lineages.length; i++)
+		{
+			if (i == 0 || usingNames.isEmpty())
+				builder.addAll(dps.get(i));
+			else
+				for (Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> value: dps.get(i).entrySet())
+					if (!usingNames.contains(value.getKey().getName()))
+						builder.add(value);
+			lineages[i] = dps.get(i).getLineage();
+		}
+		if (fill)
+			builder.addAll(nulls);
+		
+		DataPoint joined = builder.build(LineageNode.of(this, lineages), totalStructure);
+		LOGGER.trace("Joined {}", joined);
+		return joined;
+	}
+
+	/*
+	 * Joins the partitions of all the operands independently, emitting also the keys found only in some of them.
+	 */
+	private Stream<DataPoint> fullJoin(List<PartitionedHashIndex> indexes, DataSetMetadata totalStructure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls)
+	{
+		return Utils.getStream(indexes.get(0).getPartitionsCount())
+			.boxed()
+			.flatMap(p -> {
+				Map<List<ScalarValue<?, ?, ?, ?>>, DataPoint[]> matches = new HashMap<>();
+				for (int i = 0; i < indexes.size(); i++)
+					for (Entry<List<ScalarValue<?, ?, ?, ?>>, DataPoint> entry: indexes.get(i).getPartition(p).entrySet())
+						matches.computeIfAbsent(entry.getKey(), k -> new DataPoint[indexes.size()])[i] = entry.getValue();
+				
+				return matches.values().stream()
+					.map(dps -> {
+						List<DataPoint> found = new ArrayList<>(dps.length);
+						for (DataPoint dp: dps)
+							if (dp != null)
+								found.add(dp);
+						return combineAll(found, found.size() != dps.length, totalStructure, nulls);
+					});
+			});
+	}
+	
+	/*
+	 * Joins each datapoint of the reference dataset to all the datapoints of the other operands having the same values 
+	 * for the using components. The other operands are grouped in memory by the values of their using components.
+	 */
+	private Stream<DataPoint> usingJoin(DataSet reference, List<DataSet> others, DataSetMetadata totalStructure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls)
+	{
+		List<Map<List<ScalarValue<?, ?, ?, ?>>, List<DataPoint>>> groups = new ArrayList<>();
+		for (DataSet ds: others)
+		{
+			List<DataStructureComponent<?, ?, ?>> keys = getUsingComponents(ds.getMetadata());
+			// needed to close the stream after usage
+			try (Stream<DataPoint> stream = ds.stream())
+			{
+				groups.add(stream.collect(groupingByConcurrent(dp -> getUsingValues(dp, keys), toList())));
+			}
+		}
+		
+		List<DataStructureComponent<?, ?, ?>> referenceKeys = getUsingComponents(reference.getMetadata());
+		return reference.stream()
+			.flatMap(refDP -> {
+				List<ScalarValue<?, ?, ?, ?>> key = getUsingValues(refDP, referenceKeys);
+				Stream<List<DataPoint>> combinations = Stream.of(singletonList(refDP));
+				boolean missing = false;
+				for (Map<List<ScalarValue<?, ?, ?, ?>>, List<DataPoint>> group: groups)
+				{
+					List<DataPoint> otherDPs = group.get(key);
+					if (otherDPs == null && operator == INNER_JOIN)
+						return Stream.<DataPoint>empty();
+					else if (otherDPs == null)
+						missing = true;
+					else
+						combinations = combinations.flatMap(combination -> otherDPs.stream()
+							.map(otherDP -> {
+								List<DataPoint> extended = new ArrayList<>(combination);
+								extended.add(otherDP);
+								return extended;
+							}));
+				}
+				
+				boolean fill = missing;
+				return combinations.map(combination -> combineAll(combination, fill, totalStructure, nulls));
+			});
+	}
+
+	private List<DataStructureComponent<?, ?, ?>> getUsingComponents(DataSetMetadata structure)
+	{
+		return usingNames.stream()
+				.map(name -> structure.getComponent(name).get())
+				.collect(toList());
+	}
+
+	private static List<ScalarValue<?, ?, ?, ?>> getUsingValues(DataPoint dp, List<DataStructureComponent<?, ?, ?>> keys)
+	{
+		List<ScalarValue<?, ?, ?, ?>> values = new ArrayList<>(keys.size());
+		for (DataStructureComponent<?, ?, ?> key: keys)
+			values.add(dp.get(key));
+		return values;
+	}
+
+	/*
+	 * Combines each datapoint of the reference dataset with each combination of datapoints from the other operands. 
+	 */
+	private Stream<DataPoint> crossJoin(DataSet reference, List<DataSet> others, DataSetMetadata totalStructure)
+	{
+		List<List<DataPoint>> materialized = new ArrayList<>();
+		for (DataSet ds: others)
+			// needed to close the stream after usage
+			try (Stream<DataPoint> stream = ds.stream())
+			{
+				materialized.add(stream.collect(toList()));
+			}
+		
+		return reference.stream()
+			.flatMap(refDP -> {
+				Stream<List<DataPoint>> combinations = Stream.of(singletonList(refDP));
+				for (List<DataPoint> otherDPs: materialized)
+					combinations = combinations.flatMap(combination -> otherDPs.stream()
+						.map(otherDP -> {
+							List<DataPoint> extended = new ArrayList<>(combination);
+							extended.add(otherDP);
+							return extended;
+						}));
+				return combinations.map(combination -> combineAll(combination, false, totalStructure, null));
+			});
+	}
+
+	/*
+	 * Joins the reference dataset to the other operands by hash-partitioning all of them on the common identifiers, 
+	 * spilling them to disk when they exceed the configured threshold, and then joining each partition in memory.
+	 * The operands that were already indexed in memory are joined through their index and are not partitioned.
+	 */
+	private Stream<DataPoint> partitionedJoin(DataSet reference, List<DataSet> others, List<PartitionedHashIndex> memoryIndexes, List<DataStructureComponent<Identifier, ?, ?>> partitionKeys, 
+			DataSetMetadata totalStructure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls)
+	{
+		int count = SpilledPartitions.defaultPartitions();
+		List<SpilledPartitions> partitioned = new ArrayList<>();
+		try
+		{
+			partitioned.add(SpilledPartitions.of(reference, partitionKeys, count));
+			for (int i = 0; i < others.size(); i++)
+				partitioned.add(memoryIndexes.get(i) == null ? SpilledPartitions.of(others.get(i), partitionKeys, count) : null);
+		}
+		catch (RuntimeException | Error e)
+		{
+			partitioned.stream().filter(Objects::nonNull).forEach(SpilledPartitions::close);
+			throw e;
+		}
+		
+		return IntStream.range(0, count)
+			.mapToObj(p -> {
+				List<PartitionedHashIndex> indexes = new ArrayList<>(others.size());
+				for (int i = 0; i < others.size(); i++)
+				{
+					DataSet ds = others.get(i);
+					SpilledPartitions partition = partitioned.get(i + 1);
+					List<DataStructureComponent<Identifier, ?, ?>> keys = new ArrayList<>(ds.getComponents(Identifier.class));
+					indexes.add(partition == null ? memoryIndexes.get(i) 
+							: PartitionedHashIndex.of(new LightDataSet(ds.getMetadata(), () -> partition.streamPartition(p)), keys, keys, 1, Long.MAX_VALUE));
+				}
+				
+				return partitioned.get(0).streamPartition(p)
+					.map(refDP -> {
+						List<DataPoint> otherDPs = new ArrayList<>(indexes.size());
+						for (PartitionedHashIndex index: indexes)
+						{
+							DataPoint otherDP = index.get(refDP);
+							if (otherDP != null)
+								otherDPs.add(otherDP);
+						}
+						
+						return joinDatapoints(refDP, otherDPs, indexes.size(), totalStructure, nulls);
+					}).filter(Objects::nonNull);
+			}).flatMap(identity())
+			.onClose(() -> partitioned.stream().filter(Objects::nonNull).forEach(SpilledPartitions::close));
+	}
+
+	/*
+	 * Joins the reference dataset to the other operands by sorting them on the identifiers and then merging 
+	 * them while streaming. The identifiers are ordered so that those of each operand are a prefix of the next 
+	 * and of the reference. The operands already indexed in memory are joined through their index instead.
+	 * 
+	 * Each operand is sorted keeping at most the given number of datapoints in memory, spilling sorted runs to disk
+	 * above it, so that the memory used does not grow with the size of the operands.
+	 */
+	private Stream<DataPoint> mergeJoin(DataSet reference, List<DataSet> others, List<PartitionedHashIndex> indexes, long threshold, 
+			DataSetMetadata totalStructure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> nulls)
+	{
+		List<DataStructureComponent<Identifier, ?, ?>> keyOrder = new ArrayList<>();
+		for (DataSet ds: others)
+			ds.getComponents(Identifier.class).stream()
+				.filter(c -> !keyOrder.contains(c))
+				.sorted(BY_NAME)
+				.forEach(keyOrder::add);
+		reference.getComponents(Identifier.class).stream()
+			.filter(c -> !keyOrder.contains(c))
+			.sorted(BY_NAME)
+			.forEach(keyOrder::add);
+		
+		List<Comparator<DataPoint>> comparators = new ArrayList<>();
+		List<Stream<DataPoint>> otherStreams = new ArrayList<>();
+		List<Iterator<DataPoint>> cursors = new ArrayList<>();
+		List<PartitionedHashIndex> memoryIndexes = new ArrayList<>();
+		Stream<DataPoint> refStream;
+		try
+		{
+			for (int i = 0; i < others.size(); i++)
+				if (indexes.get(i) != null)
+					memoryIndexes.add(indexes.get(i));
+				else
+				{
+					DataSet ds = others.get(i);
+					Comparator<DataPoint> comparator = comparePrefix(keyOrder, ds.getComponents(Identifier.class).size());
+					Stream<DataPoint> stream = SpilledRuns.sort(ds, comparator, threshold);
+					comparators.add(comparator);
+					otherStreams.add(stream);
+					cursors.add(stream.iterator());
+				}
+			refStream = SpilledRuns.sort(reference, comparePrefix(keyOrder, keyOrder.size()), threshold);
+		}
+		catch (RuntimeException | Error e)
+		{
+			otherStreams.forEach(Stream::close);
+			throw e;
+		}
+		
+		Iterator<DataPoint> refIterator = refStream.iterator();
+		DataPoint heads[] = new DataPoint[cursors.size()];
+		for (int i = 0; i < heads.length; i++)
+			heads[i] = cursors.get(i).hasNext() ? cursors.get(i).next() : null;
+
+		Iterator<DataPoint> joined = new Iterator<DataPoint>() {
+			private DataPoint next = null;
+			
+			@Override
+			public boolean hasNext()
+			{
+				while (next == null && refIterator.hasNext())
+				{
+					DataPoint refDP = refIterator.next();
+					LOGGER.trace("Joining {}", refDP);
+					
+					List<DataPoint> otherDPs = new ArrayList<>(others.size());
+					for (PartitionedHashIndex index: memoryIndexes)
+					{
+						DataPoint otherDP = index.get(refDP);
+						if (otherDP != null)
+							otherDPs.add(otherDP);
+					}
+					for (int i = 0; i < heads.length; i++)
+					{
+						// advance each operand up to the current reference key
+						Comparator<DataPoint> comparator = comparators.get(i);
+						while (heads[i] != null && comparator.compare(heads[i], refDP) < 0)
+							heads[i] = cursors.get(i).hasNext() ? cursors.get(i).next() : null;
+						if (heads[i] != null && comparator.compare(heads[i], refDP) == 0)
+							otherDPs.add(heads[i]);
+					}
+					
+					next = joinDatapoints(refDP, otherDPs, others.size(), totalStructure, nulls);
+				}
+				
+				return next != null;
+			}
+
+			@Override
+			public DataPoint next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				
+				DataPoint result = next;
+				next = null;
+				return result;
+			}
+		};
+		
+		return Utils.getStream(spliteratorUnknownSize(joined, ORDERED | NONNULL))
+			.onClose(() -> {
+				refStream.close();
+				otherStreams.forEach(Stream::close);
+			});
+	}
+	
+	private static Comparator<DataPoint> comparePrefix(List<DataStructureComponent<Identifier, ?, ?>> keyOrder, int length)
+	{
+		return (dp1, dp2) -> {
+			for (int i = 0; i < length; i++)
+			{
+				int compare = dp1.get(keyOrder.get(i)).compareTo(dp2.get(keyOrder.get(i)));
+				if (compare != 0)
+					return compare;
+			}
+			return 0;
+		};
+	}
+
 	private Map<JoinOperand, DataSet> renameCaseAB1(Map<JoinOperand, DataSet> datasets)
 	{
 		ConcurrentMap<DataStructureComponent<?, ?, ?>, Boolean> unique = new ConcurrentHashMap<>();
@@ -323,7 +705,7 @@ public class JoinTransformation extends TransformationImpl
 				.map(DataSet::getMetadata)
 				.flatMap(d -> d.stream())
 				.filter(c -> unique.putIfAbsent(c, TRUE) != null)
-				.filter(c -> usingNames.isEmpty() ? c.is(NonIdentifier.class) : !usingNames.contains(c.getName()))
+				.filter(c -> operator == CROSS_JOIN || (usingNames.isEmpty() ? c.is(NonIdentifier.class) : !usingNames.contains(c.getName())))
 				.collect(toSet());
 
 		return Utils.getStream(datasets)
@@ -380,14 +762,11 @@ public class JoinTransformation extends TransformationImpl
 	@Override
 	public DataSetMetadata getMetadata(TransformationScheme scheme)
 	{
-		return (DataSetMetadata) ResultHolder.getInstance(scheme, VTLValueMetadata.class).computeIfAbsent(this, t -> computeMetadata(scheme));
+		return (DataSetMetadata) scheme.getMetadata(this, () -> computeMetadata(scheme));
 	}
 	
 	public VTLValueMetadata computeMetadata(TransformationScheme scheme)
 	{
-		if (operator != INNER_JOIN && operator != LEFT_JOIN)
-			throw new UnsupportedOperationException("Not implemented: " + operator.toString());
-		
 		// check if expressions have aliases
 		operands.stream()
 				.filter(o -> o.getId() == null)
@@ -412,16 +791,13 @@ public class JoinTransformation extends TransformationImpl
 		Map<JoinOperand, DataSetMetadata> datasetsMeta = operands.stream()
 				.collect(toMap(op -> op, op -> (DataSetMetadata) op.getOperand().getMetadata(scheme)));
 		
-		Optional<JoinOperand> caseAorB1 = isCaseAorB1(datasetsMeta);
-		Optional<JoinOperand> caseB2 = isCaseB2(caseAorB1, datasetsMeta);
-		
-		referenceDataSet = caseAorB1.orElseGet(caseB2::get);
+		JoinOperand referenceDataSet = getReference(datasetsMeta);
 		
 		LOGGER.info("Joining {} to ({}: {})", 
 				operands.stream().filter(op -> op != referenceDataSet).collect(toMap(JoinOperand::getId, datasetsMeta::get)), 
 				referenceDataSet.getId(), datasetsMeta.get(referenceDataSet));
 			
-		DataSetMetadata result = joinStructures(datasetsMeta, caseAorB1, caseB2);
+		DataSetMetadata result = joinStructures(datasetsMeta, referenceDataSet);
 		
 		// modify the result structure as needed
 		if (filter != null)
@@ -483,6 +859,32 @@ public class JoinTransformation extends TransformationImpl
 		return result;
 	}
 	
+	/*
+	 * Chooses the operand the others are joined to, checking the conditions of the join case.
+	 * It is chosen on each call, since the same node may be shared by several rules and sessions.
+	 */
+	private JoinOperand getReference(Map<JoinOperand, DataSetMetadata> datasetsMeta)
+	{
+		Optional<JoinOperand> caseAorB1;
+		Optional<JoinOperand> caseB2;
+		if (operator == CROSS_JOIN)
+		{
+			// cross join has no conditions on identifiers
+			caseAorB1 = Optional.of(operands.get(0));
+			caseB2 = caseAorB1;
+		}
+		else
+		{
+			caseAorB1 = isCaseAorB1(datasetsMeta);
+			caseB2 = isCaseB2(caseAorB1, datasetsMeta);
+		}
+		
+		if (operator == FULL_JOIN && datasetsMeta.values().stream().map(ds -> ds.getComponents(Identifier.class)).distinct().count() > 1)
+			throw new VTLSyntaxException("In full join, all datasets must have the same identifiers.");
+		
+		return caseAorB1.orElseGet(caseB2::get);
+	}
+	
 	private Optional<JoinOperand> isCaseAorB1(Map<JoinOperand, DataSetMetadata> datasetsMeta)
 	{
 		// Case A: One dataset must contain the identifiers of all the others
@@ -510,7 +912,7 @@ public class JoinTransformation extends TransformationImpl
 				// Not in case A or B1
 				return Optional.empty();
 		}
-		else if (usingNames.isEmpty())
+		else if (!usingNames.isEmpty())
 		{
 			// In case B1 
 			Long howMany = (long) datasetsMeta.size();
@@ -526,15 +928,11 @@ public class JoinTransformation extends TransformationImpl
 					.flatMap(ds -> ds.getComponents(usingNames).stream())
 					.collect(toSet());
 			
-			if (!commonIDs.containsAll(using))
+			if (using.size() != usingNames.size() || !commonIDs.containsAll(using))
 			{
-				// Case B1 conditions not fulfilled
-				UnsupportedOperationException e = new UnsupportedOperationException("In inner join with using clause, named ids must be common to all datasets.");
-				LOGGER.error("Error in " + this, e);
-				LOGGER.debug("Using " + using);
-				for (DataSetMetadata dataset: datasetsMeta.values())
-					LOGGER.debug(dataset.getComponents(Identifier.class).toString());
-				throw e;
+				// Case B1 conditions not fulfilled, try case B2
+				LOGGER.debug("Using {} are not identifiers common to all datasets", using);
+				return Optional.empty();
 			}
 			else
 				// B1 fulfilled
@@ -550,102 +948,66 @@ public class JoinTransformation extends TransformationImpl
 		if (caseAorB1.isPresent())
 			return caseAorB1;
 		
-		throw new UnsupportedOperationException("Case B2 not implemented");
-//		
-//		if (datasetsMeta.size() < 2)
-//			throw new VTLException("Expected at least 2 datasets in join.");
-//		
-//		Iterator<VTLDataSetMetadata> iterator = datasetsMeta.values().iterator();
-//		Set<DataStructureComponent<Identifier, ?, ?>> first = iterator.next().getComponents(Identifier.class);
-//		Set<DataStructureComponent<Identifier, ?, ?>> second = iterator.next().getComponents(Identifier.class);
-//		VTLDataSetMetadata max = null;
-//		for (VTLDataSetMetadata dataset: datasetsMeta.values())
-//		{
-//			Set<DataStructureComponent<Identifier, ?, ?>> ids = dataset.getComponents(Identifier.class);
-//
-//			if (!ids.equals(first) && !ids.equals(second))
-//			{
-//				// Case B2 conditions not fulfilled
-//				UnsupportedOperationException e = new UnsupportedOperationException("In inner join with using clause, all datasets but one must have the same identifiers.");
-//				LOGGER.error("Error in " + this, e);
-//				for (VTLDataSetMetadata dataset2: datasetsMeta.values())
-//					LOGGER.debug(dataset2.getComponents(Identifier.class).toString());
-//				throw e;
-//			}
-//			else
-//				max = max != null ? max : ids.equals(first) ? second : first;
-//		}
-//		
-//		// Verify that reference dataset contains all the using components
-//		if (max.getComponents(usingNames).size() != usingNames.size())
-//		{
-//			// Case B2 conditions not fulfilled
-//			UnsupportedOperationException e = new UnsupportedOperationException("In inner join with using clause, the reference dataset must contain all used components.");
-//			LOGGER.error("Error in {}" + this, e);
-//			LOGGER.debug("Using {}", usingNames);
-//			LOGGER.debug("But reference dataset structure is {}", max);
-//			throw e;
-//		}
-//		
-//		for (Entry<JoinOperand, VTLDataSetMetadata> dataset: datasetsMeta.entrySet())
-//			if (max != dataset.getValue() && dataset.getValue().getComponents(usingNames, Identifier.class).size() != usingNames.size())
-//			{
-//				// Case B2 conditions not fulfilled
-//				UnsupportedOperationException e = new UnsupportedOperationException("In inner join with using clause, dataset " + dataset.getKey().getId() + " must contain all used components as identifiers.");
-//				LOGGER.error("Error in {}" + this, e);
-//				LOGGER.debug("Using {}", usingNames);
-//				LOGGER.debug("But dataset {} is {}", dataset.getKey().getId(), dataset.getValue());
-//				throw e;
-//			}
-//		
-//		return datasetsMeta.entrySet().stream()
-//				.filter(byValue(max::equals))
-//				.map(Entry::getKey)
-//				.findFirst();
+		// Case B2: all datasets but the reference must have the using components as identifiers
+		Set<String> using = new HashSet<>(usingNames);
+		List<JoinOperand> references = datasetsMeta.entrySet().stream()
+				.filter(entryByValue(ds -> !ds.getComponents(Identifier.class).stream().map(DataStructureComponent::getName).collect(toSet()).equals(using)))
+				.map(Entry::getKey)
+				.collect(toList());
+		
+		if (references.size() != 1)
+		{
+			// Case B2 conditions not fulfilled
+			VTLSyntaxException e = new VTLSyntaxException("In join with using clause, either the using components must be identifiers common to all datasets, "
+					+ "or all datasets but one must have the using components as their identifiers.");
+			LOGGER.error("Error in " + this, e);
+			for (Entry<JoinOperand, DataSetMetadata> operand: datasetsMeta.entrySet())
+				LOGGER.debug("Operand {} is {}", operand.getKey().getId(), operand.getValue().getComponents(Identifier.class).toString());
+			throw e;
+		}
+		
+		// Verify that reference dataset contains all the using components
+		JoinOperand reference = references.get(0);
+		if (datasetsMeta.get(reference).getComponents(usingNames).size() != usingNames.size())
+			throw new VTLSyntaxException("In join with using clause, the reference dataset " + reference.getId() + " must contain all the using components.");
+		
+		return Optional.of(reference);
 	}
 	
-	private DataSetMetadata joinStructures(Map<JoinOperand,DataSetMetadata> datasetsMeta, Optional<?> caseAorB1, Optional<?> caseB2)
+	private DataSetMetadata joinStructures(Map<JoinOperand,DataSetMetadata> datasetsMeta, JoinOperand referenceDataSet)
 	{
-//		List<Entry<String, VTLDataSetMetadata>> dataSets = operands.stream()
-//				.map(op -> new SimpleEntry<>(op.getId(), datasetsMeta.get(op)))
-//				.collect(toList());
-	
-		if (caseAorB1.isPresent())
-		{
-			Set<DataStructureComponent<?,?,?>> using = datasetsMeta.values().stream()
-					.flatMap(ds -> ds.getComponents(usingNames).stream())
-					.collect(toSet());
-			
-			// Case A: rename all measures and attributes with the same name 
-			// Case B1: rename all components with the same name except those in the using clause  
-			ConcurrentMap<DataStructureComponent<?, ?, ?>, Boolean> unique = new ConcurrentHashMap<>();
-			Set<DataStructureComponent<?, ?, ?>> toBeRenamed = datasetsMeta.entrySet().stream()
-					.map(Entry::getValue)
-					.flatMap(d -> d.stream())
-					.filter(c -> unique.putIfAbsent(c, TRUE) != null)
-					.filter(c -> using.isEmpty() && c.is(NonIdentifier.class) || !using.isEmpty() && !using.contains(c))
-					.collect(toSet());
-			
-			LOGGER.debug("Inner join renames: {}", toBeRenamed);
-			
-			DataStructureBuilder builder = new DataStructureBuilder();
-			for (Entry<JoinOperand, DataSetMetadata> e: datasetsMeta.entrySet())
-				for (DataStructureComponent<?, ?, ?> c: e.getValue())
-					if (toBeRenamed.contains(c))
-						builder.addComponent(c.rename(e.getKey().getId() + "#" + c.getName()));
-					else
-						builder.addComponent(c);
+		Set<DataStructureComponent<?,?,?>> using = datasetsMeta.values().stream()
+				.flatMap(ds -> ds.getComponents(usingNames).stream())
+				.collect(toSet());
+		
+		// Case A: rename all measures and attributes with the same name 
+		// Case B1 and B2: rename all components with the same name except those in the using clause  
+		ConcurrentMap<DataStructureComponent<?, ?, ?>, Boolean> unique = new ConcurrentHashMap<>();
+		Set<DataStructureComponent<?, ?, ?>> toBeRenamed = datasetsMeta.entrySet().stream()
+				.map(Entry::getValue)
+				.flatMap(d -> d.stream())
+				.filter(c -> unique.putIfAbsent(c, TRUE) != null)
+				.filter(c -> operator == CROSS_JOIN || using.isEmpty() && c.is(NonIdentifier.class) || !using.isEmpty() && !using.contains(c))
+				.collect(toSet());
+		
+		LOGGER.debug("Join renames: {}", toBeRenamed);
+		
+		// Case B2: the using components are taken from the reference dataset
+		DataStructureBuilder builder = new DataStructureBuilder();
+		for (Entry<JoinOperand, DataSetMetadata> e: datasetsMeta.entrySet())
+			for (DataStructureComponent<?, ?, ?> c: e.getValue())
+				if (toBeRenamed.contains(c))
+					builder.addComponent(c.rename(e.getKey().getId() + "#" + c.getName()));
+				else if (e.getKey() == referenceDataSet || !usingNames.contains(c.getName()))
+					builder.addComponent(c);
 
-			return builder.build();
-		}
-		else
-			throw new UnsupportedOperationException();
+		return builder.build();
 	}
 	
 	@Override
 	public String toString()
 	{
-		return "inner_join(" + operands.stream().map(Object::toString).collect(joining(", "))
+		return operator.toString().toLowerCase() + "(" + operands.stream().map(Object::toString).collect(joining(", "))
 				+ (usingNames.isEmpty() ? "" : " using " + usingNames.stream().collect(joining(", ")))
 				+ ")";
 	}
@@ -20,28 +20,35 @@
 package it.bancaditalia.oss.vtl.impl.transform.scope;
 
 import static it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope.THIS;
+import static java.util.Collections.synchronizedMap;
 import static java.util.Objects.requireNonNull;
 
-import java.util.Objects;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import it.bancaditalia.oss.vtl.engine.Statement;
 import it.bancaditalia.oss.vtl.exceptions.VTLUnboundNameException;
+import it.bancaditalia.oss.vtl.impl.transform.TransformationImpl;
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 import it.bancaditalia.oss.vtl.session.MetadataRepository;
-import it.bancaditalia.oss.vtl.util.Utils;
 
 public class DatapointScope implements TransformationScheme
 {
@@ -49,12 +56,68 @@ public class DatapointScope implements TransformationScheme
 	private final DataPoint dp;
 	private final DataSetMetadata structure;
 	private final TransformationScheme parent;
+	private final Map<String, Optional<DataStructureComponent<?, ?, ?>>> lookups;
+	private final Map<Transformation, VTLValueMetadata> metadata;
 	
 	public DatapointScope(DataPoint dp, DataSetMetadata structure, TransformationScheme parent) 
+	{
+		this(dp, structure, parent, new ConcurrentHashMap<>(), synchronizedMap(new IdentityHashMap<>()));
+	}
+
+	/**
+	 * Creates a scope not bound to any datapoint, to be used for compiling expressions 
+	 * that will be later evaluated on each datapoint of a dataset with the given structure.
+	 * 
+	 * @param structure The structure of the datapoints
+	 * @param parent The enclosing scheme
+	 */
+	public DatapointScope(DataSetMetadata structure, TransformationScheme parent) 
+	{
+		this(null, structure, parent, new ConcurrentHashMap<>(), synchronizedMap(new IdentityHashMap<>()));
+	}
+
+	private DatapointScope(DataPoint dp, DataSetMetadata structure, TransformationScheme parent, Map<String, Optional<DataStructureComponent<?, ?, ?>>> lookups,
+			Map<Transformation, VTLValueMetadata> metadata) 
 	{
 		this.dp = dp;
 		this.structure = structure;
 		this.parent = parent;
+		this.lookups = lookups;
+		this.metadata = metadata;
+	}
+
+	/**
+	 * Binds a datapoint to a copy of this scope. Name resolutions and metadata are shared among all the copies.
+	 * 
+	 * @param dp The datapoint to bind
+	 * @return A new scope bound to the given datapoint
+	 */
+	public DatapointScope bind(DataPoint dp)
+	{
+		return new DatapointScope(dp, structure, parent, lookups, metadata);
+	}
+
+	/**
+	 * Compiles an expression into a function that evaluates it on each datapoint having the structure of this scope.
+	 * Component names and metadata are resolved only once, during compilation.
+	 * 
+	 * @param expression The expression to compile
+	 * @return The compiled function
+	 */
+	public Function<DataPoint, ScalarValue<?, ?, ?, ?>> compile(Transformation expression)
+	{
+		if (expression instanceof VarIDOperand)
+		{
+			String alias = ((VarIDOperand) expression).getText();
+			DataStructureComponent<?, ?, ?> component = lookup(alias).orElseThrow(() -> new VTLUnboundNameException(alias));
+			return dp -> dp.get(component);
+		}
+		else if (expression instanceof SharedTransformation)
+			return compile(((SharedTransformation) expression).getExpression());
+		else if (expression instanceof TransformationImpl)
+			return ((TransformationImpl) expression).compile(this);
+		else
+			return dp -> (ScalarValue<?, ?, ?, ?>) expression.eval(bind(dp));
 	}
 
 	@Override
@@ -63,15 +126,15 @@ public class DatapointScope implements TransformationScheme
 		if (THIS.equals(requireNonNull(alias, "The name to resolve cannot be null.")))
 			return true;
 		
-		return maybeMeta(structure, alias, DataStructureComponent::getMetadata)
-			.isPresent();
+		return lookup(alias).isPresent();
 	}
 
 	@Override
 	public VTLValue resolve(String alias) 
 	{
 		LOGGER.trace("Querying {} for {}:{}", alias, dp.hashCode(), dp);
-		return maybeMeta(structure, alias, dp::get)
+		return lookup(alias)
+			.map(dp::get)
 			.orElseThrow(() -> new VTLUnboundNameException(alias));
 	}
 	
@@ -82,24 +145,42 @@ public class DatapointScope implements TransformationScheme
 			return structure;
 		
 		LOGGER.trace("Querying {} for {}:{}", alias, structure.hashCode(), structure);
-		return maybeMeta(structure, alias, scalar -> scalar.getMetadata())
+		return lookup(alias)
+			.map(DataStructureComponent::getMetadata)
 			.orElseThrow(() -> new VTLUnboundNameException(alias));
 	}
 
-	private <T> Optional<T> maybeMeta(Set<DataStructureComponent<?, ?, ?>> components, String alias, Function<? super DataStructureComponent<?, ?, ?>, T> mapper)
+	/**
+	 * The same transformation node may be evaluated in scopes with different structures, 
+	 * so its metadata is shared only among the copies of this scope, which have the same structure.
+	 */
+	@Override
+	public VTLValueMetadata getMetadata(Transformation node, Supplier<? extends VTLValueMetadata> computer)
 	{
-		Predicate<? super DataStructureComponent<?, ?, ?>> filter = Objects.requireNonNull(alias, "The name to resolve cannot be null.").matches("'.*'")
-				? c -> c.getName().equals(alias.replaceAll("'(.*)'", "$1"))
-				: c -> c.getName().equalsIgnoreCase(alias);
-
-		Optional<T> result = Utils.getStream(components)
-			.filter(filter)
-			.findAny()
-			.map(mapper);
-		LOGGER.trace("Computed {} for {}:{}", alias, components.hashCode(), components);
+		VTLValueMetadata result = metadata.get(node);
+		if (result == null)
+		{
+			// computed outside the lock, since computing the metadata of a node retrieves the metadata of its operands
+			result = computer.get();
+			VTLValueMetadata previous = metadata.putIfAbsent(node, result);
+			if (previous != null)
+				result = previous;
+		}
 		return result;
 	}
 
+	private Optional<DataStructureComponent<?, ?, ?>> lookup(String alias)
+	{
+		return lookups.computeIfAbsent(requireNonNull(alias, "The name to resolve cannot be null."), a -> {
+			Predicate<? super DataStructureComponent<?, ?, ?>> filter = a.matches("'.*'")
+					? c -> c.getName().equals(a.replaceAll("'(.*)'", "$1"))
+					: c -> c.getName().equalsIgnoreCase(a);
+			Optional<DataStructureComponent<?, ?, ?>> result = structure.stream().filter(filter).findAny();
+			LOGGER.trace("Computed {} for {}:{}", a, structure.hashCode(), structure);
+			return result;
+		});
+	}
+
 	@Override
 	public Statement getRule(String node)
 	{
@@ -19,6 +19,12 @@
  */
 package it.bancaditalia.oss.vtl.impl.transform.scope;
 
+import static java.util.Collections.synchronizedMap;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
 import it.bancaditalia.oss.vtl.config.ConfigurationManager;
 import it.bancaditalia.oss.vtl.engine.Statement;
 import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
@@ -28,6 +34,7 @@ import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
 import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 import it.bancaditalia.oss.vtl.session.MetadataRepository;
 
@@ -38,6 +45,7 @@ public class ThisScope implements TransformationScheme
 	private final DataSet thisValue;
 	private final DataSetMetadata thisMetadata;
 	private final Lineage thisLineage;
+	private final Map<Transformation, VTLValueMetadata> metadata = synchronizedMap(new IdentityHashMap<>());
 	
 	public ThisScope(DataSet thisValue, Lineage thisLineage)
 	{
@@ -74,6 +82,25 @@ public class ThisScope implements TransformationScheme
 		}
 	}
 
+	/**
+	 * The same transformation node may be evaluated in scopes with different structures, 
+	 * so its metadata is kept in this scope instead of the enclosing scheme.
+	 */
+	@Override
+	public VTLValueMetadata getMetadata(Transformation node, Supplier<? extends VTLValueMetadata> computer)
+	{
+		VTLValueMetadata result = metadata.get(node);
+		if (result == null)
+		{
+			// computed outside the lock, since computing the metadata of a node retrieves the metadata of its operands
+			result = computer.get();
+			VTLValueMetadata previous = metadata.putIfAbsent(node, result);
+			if (previous != null)
+				result = previous;
+		}
+		return result;
+	}
+
 	@Override
 	public VTLValue resolve(String node)
 	{
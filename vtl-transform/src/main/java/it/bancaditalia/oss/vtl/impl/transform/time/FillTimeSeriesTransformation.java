@@ -20,19 +20,18 @@
 package it.bancaditalia.oss.vtl.impl.transform.time;
 
 import static it.bancaditalia.oss.vtl.impl.transform.time.FillTimeSeriesTransformation.FillMode.ALL;
+import static it.bancaditalia.oss.vtl.impl.transform.util.PartitionSorter.toSortedArray;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.TIMEDS;
 import static it.bancaditalia.oss.vtl.util.ConcatSpliterator.concatenating;
 import static it.bancaditalia.oss.vtl.util.Utils.toMapWithValues;
-import static java.util.stream.Collectors.toCollection;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
 import java.util.Set;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
@@ -101,16 +100,8 @@ public class FillTimeSeriesTransformation extends TimeSeriesTransformation
 		final Map<DataStructureComponent<NonIdentifier, ?, ?>, ScalarValue<?, ?, ?, ?>> nullFiller = ds.getComponents(NonIdentifier.class).stream()
 				.collect(toMapWithValues(c -> (ScalarValue<?, ?, ?, ?>) NullValue.instanceFrom(c)));
 		
-		final Comparator<DataPoint> comparator = (dp1, dp2) -> {
-			for (DataStructureComponent<Identifier, ?, ?> id: ids)
-			{
-				int c = dp1.get(id).compareTo(dp2.get(id));
-				if (c != 0)
-					return c;
-			}
-			
-			return dp1.get(timeID).compareTo(dp2.get(timeID));
-		};
+		// the other identifiers are fixed inside each series
+		final Comparator<DataPoint> comparator = (dp1, dp2) -> dp1.get(timeID).compareTo(dp2.get(timeID));
 		
 		TimeValue<?, ?, ?, ?> min, max;
 		if (mode == ALL && !ids.isEmpty())
@@ -135,7 +126,7 @@ public class FillTimeSeriesTransformation extends TimeSeriesTransformation
 		return new LightFDataSet<>(structure, dataset -> {
 				String alias = ds instanceof NamedDataSet ? ((NamedDataSet) ds).getAlias() : "Unnamed data set";
 				LOGGER.debug("Filling time series for {}", alias);
-				Stream<DataPoint> result = dataset.streamByKeys(ids, toCollection(() -> new ConcurrentSkipListSet<>(comparator)), 
+				Stream<DataPoint> result = dataset.streamByKeys(ids, toSortedArray(comparator), 
 						(elements, idValues) -> fillSeries(structure, elements, idValues, timeID, nullFiller, min, max))
 					.collect(concatenating(Utils.ORDERED));
 				LOGGER.debug("Finished filling time series for {}", alias);
@@ -143,13 +134,13 @@ public class FillTimeSeriesTransformation extends TimeSeriesTransformation
 			}, ds);
 	}
 
-	private Stream<DataPoint> fillSeries(final DataSetMetadata structure, NavigableSet<DataPoint> series,
+	private Stream<DataPoint> fillSeries(final DataSetMetadata structure, DataPoint series[],
 			Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> seriesID, 
 			DataStructureComponent<Identifier, ? extends TimeDomainSubset<?, ?>, TimeDomain> timeID, 
 			Map<DataStructureComponent<NonIdentifier, ?, ?>, ScalarValue<?, ?, ?, ?>> nullFilling, TimeValue<?, ?, ?, ?> min, TimeValue<?, ?, ?, ?> max)
 	{
 		LOGGER.trace("Filling group {}", seriesID);
-		List<DataPoint> additional = new LinkedList<>();
+		List<DataPoint> additional = new ArrayList<>();
 		
 		// if min == null: do not add leading null datapoints (single mode)
 		TimeValue<?, ?, ?, ?> previous = min != null ? min.increment(-1) : null; 
@@ -194,7 +185,7 @@ public class FillTimeSeriesTransformation extends TimeSeriesTransformation
 			}
 		}
 		
-		return Stream.concat(Utils.getStream(series), Utils.getStream(additional));
+		return Stream.concat(Arrays.stream(series), additional.stream());
 	}
 	
 	@Override
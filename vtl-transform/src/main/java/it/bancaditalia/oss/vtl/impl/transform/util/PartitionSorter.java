@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.transform.util;
+
+import static java.util.stream.Collector.Characteristics.UNORDERED;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collector;
+
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.util.Utils;
+
+/**
+ * Utilities to collect the partitions of an analytic invocation into arrays, each sorted once,
+ * so that analytic operators can access the ordered datapoints by index. 
+ */
+public class PartitionSorter
+{
+	private PartitionSorter() {}
+	
+	/**
+	 * Creates a comparator for datapoints from an order by clause.
+	 * 
+	 * @param ordering the ordering components, each mapped to true if the ordering is ascending
+	 * @return the comparator
+	 */
+	public static Comparator<DataPoint> comparator(Map<? extends DataStructureComponent<?, ?, ?>, Boolean> ordering)
+	{
+		DataStructureComponent<?, ?, ?> components[] = new DataStructureComponent<?, ?, ?>[ordering.size()];
+		int signs[] = new int[ordering.size()];
+		int i = 0;
+		for (Entry<? extends DataStructureComponent<?, ?, ?>, Boolean> entry: ordering.entrySet())
+		{
+			components[i] = entry.getKey();
+			signs[i++] = entry.getValue() ? 1 : -1;
+		}
+		
+		return (dp1, dp2) -> {
+			for (int j = 0; j < components.length; j++)
+			{
+				int res = dp1.get(components[j]).compareTo(dp2.get(components[j]));
+				if (res != 0)
+					return signs[j] * res;
+			}
+
+			return 0;
+		};
+	}
+	
+	/**
+	 * Collects the datapoints of a partition into an array sorted with the given comparator. 
+	 * Large partitions are sorted in parallel.
+	 * 
+	 * @param comparator the comparator
+	 * @return the collector
+	 */
+	public static Collector<DataPoint, ?, DataPoint[]> toSortedArray(Comparator<? super DataPoint> comparator)
+	{
+		return Collector.<DataPoint, List<DataPoint>, DataPoint[]>of(ArrayList::new, List::add, (a, b) -> { a.addAll(b); return a; }, list -> {
+				DataPoint array[] = list.toArray(new DataPoint[list.size()]);
+				if (Utils.SEQUENTIAL)
+					Arrays.sort(array, comparator);
+				else
+					Arrays.parallelSort(array, comparator);
+				return array;
+			}, UNORDERED);
+	}
+}
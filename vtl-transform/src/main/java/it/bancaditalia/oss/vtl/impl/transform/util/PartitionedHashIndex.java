@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.transform.util;
+
+import static java.util.stream.Collectors.groupingByConcurrent;
+import static java.util.stream.Collectors.toList;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.util.Utils;
+
+/**
+ * An index of the datapoints of a {@link DataSet} by the values of some of its identifiers,
+ * hash-partitioned on the values of a (possibly smaller) set of partitioning identifiers.
+ *
+ * Each partition is an independent map, built by a separate task without any contention;
+ * indexes of different datasets built with the same partitioning identifiers and partition count
+ * can be joined one partition at a time.
+ */
+public class PartitionedHashIndex
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(PartitionedHashIndex.class);
+
+	private final DataStructureComponent<?, ?, ?> partitionKeys[];
+	private final DataStructureComponent<?, ?, ?> indexKeys[];
+	private final List<Map<List<ScalarValue<?, ?, ?, ?>>, DataPoint>> partitions;
+	private long size = 0;
+
+	/**
+	 * @return A default number of partitions, a few for each worker of the common pool.
+	 */
+	public static int defaultPartitions()
+	{
+		return Utils.SEQUENTIAL ? 1 : 4 * ForkJoinPool.getCommonPoolParallelism();
+	}
+
+	/**
+	 * Indexes the given dataset, unless it contains more than the given number of datapoints.
+	 *
+	 * @param dataset The dataset to index
+	 * @param partitionKeys The identifiers used to select the partition of each datapoint
+	 * @param indexKeys The identifiers used as the key of each datapoint inside its partition; they must contain the partitioning keys
+	 * @param count The number of partitions
+	 * @param limit The maximum number of datapoints that can be indexed
+	 * @return The index, or null if the dataset contains more than {@code limit} datapoints.
+	 * @throws IllegalStateException if two datapoints have the same values for the index keys.
+	 */
+	public static PartitionedHashIndex of(DataSet dataset, List<? extends DataStructureComponent<Identifier, ?, ?>> partitionKeys,
+			List<? extends DataStructureComponent<Identifier, ?, ?>> indexKeys, int count, long limit)
+	{
+		PartitionedHashIndex index = new PartitionedHashIndex(partitionKeys, indexKeys, count);
+
+		// needed to close the stream after usage
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			ConcurrentMap<Integer, List<DataPoint>> buckets = (limit < Long.MAX_VALUE ? stream.unordered().limit(limit + 1) : stream)
+					.collect(groupingByConcurrent(index::partitionOf, toList()));
+
+			long size = buckets.values().stream().mapToLong(List::size).sum();
+			if (size > limit)
+				return null;
+
+			Utils.getStream(count).forEach(p -> {
+				Map<List<ScalarValue<?, ?, ?, ?>>, DataPoint> partition = index.partitions.get(p);
+				for (DataPoint dp: buckets.getOrDefault(p, Collections.emptyList()))
+					if (partition.putIfAbsent(index.keyOf(dp, index.indexKeys), dp) != null)
+						throw new IllegalStateException("Duplicate key " + dp.getValues(Identifier.class));
+			});
+
+			LOGGER.debug("Indexed {} datapoints in {} partitions", size, count);
+			index.size = size;
+			return index;
+		}
+	}
+
+	private PartitionedHashIndex(List<? extends DataStructureComponent<Identifier, ?, ?>> partitionKeys,
+			List<? extends DataStructureComponent<Identifier, ?, ?>> indexKeys, int count)
+	{
+		this.partitionKeys = partitionKeys.toArray(new DataStructureComponent<?, ?, ?>[partitionKeys.size()]);
+		this.indexKeys = indexKeys.toArray(new DataStructureComponent<?, ?, ?>[indexKeys.size()]);
+		this.partitions = Utils.getStream(count)
+				.mapToObj(p -> new HashMap<List<ScalarValue<?, ?, ?, ?>>, DataPoint>())
+				.collect(toList());
+	}
+
+	/**
+	 * Finds the partition where datapoints matching the given one would be placed.
+	 *
+	 * @param dp a datapoint containing all the partitioning keys
+	 * @return the partition number
+	 */
+	public int partitionOf(DataPoint dp)
+	{
+		int hash = 1;
+		for (DataStructureComponent<?, ?, ?> key: partitionKeys)
+			hash = 31 * hash + dp.get(key).hashCode();
+
+		// spread the bits as HashMap does
+		return Math.floorMod(hash ^ (hash >>> 16), partitions.size());
+	}
+
+	/**
+	 * Retrieves the indexed datapoint whose index keys have the same values as in the given datapoint.
+	 *
+	 * @param dp a datapoint containing all the index keys
+	 * @return the matching datapoint or null if none was found.
+	 */
+	public DataPoint get(DataPoint dp)
+	{
+		return partitions.get(partitionOf(dp)).get(keyOf(dp, indexKeys));
+	}
+
+	/**
+	 * @param partition the partition number
+	 * @return an unmodifiable view of the given partition, mapping the values of the index keys to their datapoint
+	 */
+	public Map<List<ScalarValue<?, ?, ?, ?>>, DataPoint> getPartition(int partition)
+	{
+		return Collections.unmodifiableMap(partitions.get(partition));
+	}
+
+	/**
+	 * @return the number of partitions
+	 */
+	public int getPartitionsCount()
+	{
+		return partitions.size();
+	}
+
+	/**
+	 * @return the number of indexed datapoints
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param dp a datapoint containing all the index keys
+	 * @return the key used by this index for the given datapoint
+	 */
+	public List<ScalarValue<?, ?, ?, ?>> keyOf(DataPoint dp)
+	{
+		return keyOf(dp, indexKeys);
+	}
+
+	private static List<ScalarValue<?, ?, ?, ?>> keyOf(DataPoint dp, DataStructureComponent<?, ?, ?> keys[])
+	{
+		ScalarValue<?, ?, ?, ?> values[] = new ScalarValue<?, ?, ?, ?>[keys.length];
+		for (int i = 0; i < keys.length; i++)
+			values[i] = dp.get(keys[i]);
+		return Arrays.asList(values);
+	}
+}
@@ -23,24 +23,20 @@ import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowDirec
 import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowDirection.PRECEDING;
 import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowRangeType.DATAPOINTS;
 import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowRangeType.RANGE;
-import static java.util.stream.Collectors.toList;
 
 import java.io.Serializable;
 import java.security.InvalidParameterException;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.NavigableSet;
-import java.util.SortedSet;
-import java.util.stream.Stream;
 
+import it.bancaditalia.oss.vtl.exceptions.VTLException;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
 import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
-import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.impl.types.data.TimeValue;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.NumberValue;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
-import it.bancaditalia.oss.vtl.util.Utils;
 
 public class WindowView
 {
@@ -67,9 +63,6 @@ public class WindowView
 
 		public WindowClause(WindowRangeType rangeType, LimitClause preceding, LimitClause following)
 		{
-			if (rangeType == RANGE)
-				throw new UnsupportedOperationException("range sliding windows are not implemented in analytic invocation");
-
 			this.rangeType = rangeType;
 			this.preceding = preceding;
 			this.following = following;
@@ -195,26 +188,117 @@ public class WindowView
 		}
 	}
 	
-	private final Stream<Entry<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, List<DataPoint>>> windows;
+	private final int starts[];
+	private final int ends[];
+
+	/**
+	 * Computes the bounds of the window of each datapoint in a sorted partition.
+	 * 
+	 * In a range window, the bounds are the values of the ordering component shifted by the limit counts:
+	 * numbers are shifted by adding the count, and time values are shifted by the given number of their periods.
+	 * 
+	 * @param ordered the datapoints of the partition, sorted in window order
+	 * @param windowClause the window clause
+	 * @param ordering the components used to sort the partition, each mapped to true if the ordering is ascending.
+	 *        A range window requires exactly one ordering component.
+	 */
+	public WindowView(DataPoint ordered[], WindowClause windowClause, Map<DataStructureComponent<?, ?, ?>, Boolean> ordering)
+	{
+		int size = ordered.length;
+		long from = offset(windowClause.getPreceding());
+		long to = offset(windowClause.getFollowing());
+		
+		starts = new int[size];
+		ends = new int[size];
+		if (windowClause.getRangeType() == RANGE)
+		{
+			if (ordering.size() != 1)
+				throw new VTLException("A range window requires exactly one ordering component, but found " + ordering.keySet());
+			
+			Entry<DataStructureComponent<?, ?, ?>, Boolean> orderBy = ordering.entrySet().iterator().next();
+			computeRanges(ordered, orderBy.getKey(), orderBy.getValue() ? 1 : -1, from, to);
+		}
+		else
+			for (int i = 0; i < size; i++)
+			{
+				starts[i] = (int) Math.max(0, Math.min(size, i + from));
+				ends[i] = (int) Math.max(starts[i], Math.min(size, i + to + 1));
+			}
+	}
+	
+	private void computeRanges(DataPoint ordered[], DataStructureComponent<?, ?, ?> component, int sign, long from, long to)
+	{
+		int size = ordered.length;
+		ScalarValue<?, ?, ?, ?> values[] = new ScalarValue<?, ?, ?, ?>[size];
+		for (int i = 0; i < size; i++)
+			values[i] = ordered[i].get(component);
+		
+		for (int i = 0; i < size; i++)
+			if (i > 0 && values[i].compareTo(values[i - 1]) == 0)
+			{
+				// peers share the same window
+				starts[i] = starts[i - 1];
+				ends[i] = ends[i - 1];
+			}
+			else
+			{
+				// both bounds are non-decreasing, so search only after the previous ones
+				int lastStart = i > 0 ? starts[i - 1] : 0;
+				int lastEnd = i > 0 ? ends[i - 1] : 0;
+				starts[i] = from == -Integer.MAX_VALUE ? 0 : search(values, lastStart, shift(values[i], sign * from), sign, false);
+				ends[i] = to == Integer.MAX_VALUE ? size : Math.max(starts[i], search(values, lastEnd, shift(values[i], sign * to), sign, true));
+			}
+	}
+
+	// finds the first index from which values come after (or at, if not inclusive) the given bound in window order 
+	private static int search(ScalarValue<?, ?, ?, ?> values[], int low, ScalarValue<?, ?, ?, ?> bound, int sign, boolean inclusive)
+	{
+		int high = values.length;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			int c = sign * values[mid].compareTo(bound);
+			if (c < 0 || inclusive && c == 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		
+		return low;
+	}
+	
+	private static long offset(LimitClause limit)
+	{
+		return limit.getDirection() == PRECEDING ? -(long) limit.getCount() : limit.getCount();
+	}
 
-	public WindowView(NavigableSet<DataPoint> ordered, WindowClause windowClause)
+	private static ScalarValue<?, ?, ?, ?> shift(ScalarValue<?, ?, ?, ?> value, long amount)
+	{
+		if (amount == 0)
+			return value;
+		else if (value instanceof IntegerValue)
+			return IntegerValue.of((Long) value.get() + amount);
+		else if (value instanceof NumberValue)
+			return DoubleValue.of(((Number) value.get()).doubleValue() + amount);
+		else if (value instanceof TimeValue)
+			return ((TimeValue<?, ?, ?, ?>) value).increment(amount);
+		else
+			throw new VTLException("A range window requires a number or time ordering component, but found " + value.getDomain());
+	}
+	
+	/**
+	 * @return for each datapoint, the index of the first datapoint in its window; indexes are non-decreasing.
+	 */
+	public int[] getStarts()
 	{
-		int preceding = windowClause.getPreceding().getCount();
-		int following = windowClause.getFollowing().getCount();
-				
-		windows = Utils.getStream(ordered)
-				.map(dp -> {
-					final SortedSet<DataPoint> precedingSet = ordered.headSet(dp);
-					final int skipHeadLength = precedingSet.size() < preceding ? 0 : precedingSet.size() - preceding;
-					return new SimpleEntry<>(dp.getValues(Identifier.class), Stream.concat(
-							precedingSet.stream().skip(skipHeadLength),
-							ordered.tailSet(dp).stream().limit(following + 1)
-						).collect(toList()));
-				});
+		return starts;
 	}
 	
-	public Stream<Entry<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, List<DataPoint>>> getWindows()
+	/**
+	 * @return for each datapoint, the index following the last datapoint in its window; indexes are non-decreasing.
+	 */
+	public int[] getEnds()
 	{
-		return windows;
+		return ends;
 	}
 }
@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.transform.aggregation;
+
+import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.ASC;
+import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.DESC;
+import static it.bancaditalia.oss.vtl.impl.transform.aggregation.OffsetTransformation.OffsetDirection.LAG;
+import static it.bancaditalia.oss.vtl.impl.transform.aggregation.OffsetTransformation.OffsetDirection.LEAD;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE5;
+import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
+import it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderByItem;
+import it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod;
+import it.bancaditalia.oss.vtl.impl.transform.aggregation.OffsetTransformation.OffsetDirection;
+import it.bancaditalia.oss.vtl.impl.transform.testutils.TestUtils;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+public class OffsetTransformationTest
+{
+	public static Stream<Arguments> test()
+	{
+		// SAMPLE5 is 11, null, 13, 14, 15, 16
+		return Stream.of(
+				Arguments.of(LAG, 1, ASC, new Long[] { null, 11L, null, 13L, 14L, 15L }),
+				Arguments.of(LEAD, 2, ASC, new Long[] { 13L, 14L, 15L, 16L, null, null }),
+				Arguments.of(LAG, 2, DESC, new Long[] { 13L, 14L, 15L, 16L, null, null }),
+				Arguments.of(LEAD, 6, ASC, new Long[] { null, null, null, null, null, null })
+			);
+	}
+
+	@ParameterizedTest(name = "{0} {1} {2}")
+	@MethodSource
+	public void test(OffsetDirection direction, long offset, OrderingMethod method, Long expected[])
+	{
+		VarIDOperand operand = new VarIDOperand("operand");
+		Map<String, DataSet> map = new HashMap<>();
+		map.put("operand", SAMPLE5);
+		TransformationScheme session = TestUtils.mockSession(map);
+
+		OffsetTransformation ot = new OffsetTransformation(direction, operand, (IntegerValue<?>) IntegerValue.of(offset), null, 
+				null, singletonList(new OrderByItem("string_1", method)));
+		ot.getMetadata(session);
+		DataSet dataset = (DataSet) ot.eval(session);
+		
+		Map<String, Long> results = new TreeMap<>();
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			stream.forEach(dp -> results.put((String) dp.get(dataset.getComponent("string_1").get()).get(), 
+					(Long) dp.get(dataset.getComponent("integer_1").get()).get()));
+		}
+		
+		assertArrayEquals(expected, results.values().toArray(new Long[0]));
+	}
+}
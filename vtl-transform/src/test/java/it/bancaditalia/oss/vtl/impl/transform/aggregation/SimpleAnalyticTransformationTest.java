@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.transform.aggregation;
+
+import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.ASC;
+import static it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod.DESC;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE5;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE9;
+import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowDirection.FOLLOWING;
+import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowDirection.PRECEDING;
+import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowRangeType.DATAPOINTS;
+import static it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowRangeType.RANGE;
+import static java.util.Collections.singletonList;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AnalyticOperator.AVG;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AnalyticOperator.COUNT;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AnalyticOperator.FIRST_VALUE;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AnalyticOperator.MAX;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AnalyticOperator.SUM;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
+import it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderByItem;
+import it.bancaditalia.oss.vtl.impl.transform.aggregation.AnalyticTransformation.OrderingMethod;
+import it.bancaditalia.oss.vtl.impl.transform.testutils.TestUtils;
+import it.bancaditalia.oss.vtl.impl.transform.util.WindowView.LimitClause;
+import it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowClause;
+import it.bancaditalia.oss.vtl.impl.transform.util.WindowView.WindowDirection;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.operators.AnalyticOperator;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+public class SimpleAnalyticTransformationTest
+{
+	public static Stream<Arguments> test()
+	{
+		// SAMPLE5 is 11, null, 13, 14, 15, 16
+		return Stream.of(
+				Arguments.of(SUM, window(PRECEDING, 2, FOLLOWING, 0), new Number[] { 11.0, 11.0, 24.0, 27.0, 42.0, 45.0 }),
+				Arguments.of(MAX, window(PRECEDING, 1, FOLLOWING, 1), new Number[] { 11L, 13L, 14L, 15L, 16L, 16L }),
+				Arguments.of(AVG, null, new Number[] { 11.0, 11.0, 12.0, 38 / 3.0, 13.25, 13.8 }),
+				Arguments.of(COUNT, window(PRECEDING, 1, FOLLOWING, 3), new Number[] { 4L, 5L, 5L, 4L, 3L, 2L }),
+				Arguments.of(FIRST_VALUE, window(FOLLOWING, 1, FOLLOWING, 2), new Number[] { null, 13L, 14L, 15L, 16L, null })
+			);
+	}
+	
+	public static Stream<Arguments> rangeTest()
+	{
+		// SAMPLE9 is 11, null, 13, 14, 15, 16 on 2020-01-03, 04, 05, 07, 08, 10
+		return Stream.of(
+				Arguments.of(SUM, ASC, range(PRECEDING, 2, FOLLOWING, 0), new Number[] { 11.0, 11.0, 24.0, 27.0, 29.0, 31.0 }),
+				Arguments.of(SUM, DESC, range(PRECEDING, 1, FOLLOWING, 0), new Number[] { 11.0, 13.0, 13.0, 29.0, 15.0, 16.0 }),
+				Arguments.of(COUNT, ASC, range(PRECEDING, 1, FOLLOWING, 1), new Number[] { 2L, 3L, 2L, 2L, 2L, 1L }),
+				Arguments.of(MAX, DESC, range(PRECEDING, Integer.MAX_VALUE, FOLLOWING, 2), new Number[] { 16L, 16L, 16L, 16L, 16L, 16L }),
+				Arguments.of(FIRST_VALUE, ASC, range(FOLLOWING, 1, FOLLOWING, 3), new Number[] { null, 13L, 14L, 15L, 16L, null })
+			);
+	}
+	
+	private static WindowClause range(WindowDirection fromDirection, long from, WindowDirection toDirection, long to)
+	{
+		return new WindowClause(RANGE, new LimitClause(fromDirection, (IntegerValue<?>) IntegerValue.of(from)), 
+				new LimitClause(toDirection, (IntegerValue<?>) IntegerValue.of(to)));
+	}
+
+	private static WindowClause window(WindowDirection fromDirection, long from, WindowDirection toDirection, long to)
+	{
+		return new WindowClause(DATAPOINTS, new LimitClause(fromDirection, (IntegerValue<?>) IntegerValue.of(from)), 
+				new LimitClause(toDirection, (IntegerValue<?>) IntegerValue.of(to)));
+	}
+
+	@ParameterizedTest(name = "{0} {1}")
+	@MethodSource
+	public void test(AnalyticOperator operator, WindowClause window, Number expected[])
+	{
+		VarIDOperand operand = new VarIDOperand("operand");
+		Map<String, DataSet> map = new HashMap<>();
+		map.put("operand", SAMPLE5);
+		TransformationScheme session = TestUtils.mockSession(map);
+
+		SimpleAnalyticTransformation sat = new SimpleAnalyticTransformation(operator, operand, null, null, window);
+		sat.getMetadata(session);
+		DataSet dataset = (DataSet) sat.eval(session);
+		
+		Map<String, Number> results = new HashMap<>();
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			stream.forEach(dp -> results.put((String) dp.getValues(Identifier.class).values().iterator().next().get(), 
+					(Number) dp.getValues(Measure.class).values().iterator().next().get()));
+		}
+		
+		assertEquals(expected.length, results.size(), "Number of datapoints");
+		for (int i = 0; i < expected.length; i++)
+		{
+			Number result = results.get(String.valueOf((char) ('A' + i)));
+			if (expected[i] == null)
+				assertNull(result, "Window " + i);
+			else
+				assertEquals(expected[i].doubleValue(), result.doubleValue(), 0.000001, "Window " + i);
+		}
+	}
+
+	@ParameterizedTest(name = "{0} {1} {2}")
+	@MethodSource
+	public void rangeTest(AnalyticOperator operator, OrderingMethod method, WindowClause window, Number expected[])
+	{
+		VarIDOperand operand = new VarIDOperand("operand");
+		Map<String, DataSet> map = new HashMap<>();
+		map.put("operand", SAMPLE9);
+		TransformationScheme session = TestUtils.mockSession(map);
+
+		SimpleAnalyticTransformation sat = new SimpleAnalyticTransformation(operator, operand, null, 
+				singletonList(new OrderByItem("date_1", method)), window);
+		sat.getMetadata(session);
+		DataSet dataset = (DataSet) sat.eval(session);
+		
+		DataStructureComponent<?, ?, ?> date = dataset.getComponent("date_1").get();
+		DataStructureComponent<?, ?, ?> measure = dataset.getComponent("integer_1").get();
+		Map<ScalarValue<?, ?, ?, ?>, Number> results = new TreeMap<>(ScalarValue::compareTo);
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			stream.forEach(dp -> results.put(dp.get(date), (Number) dp.get(measure).get()));
+		}
+		
+		assertEquals(expected.length, results.size(), "Number of datapoints");
+		int i = 0;
+		for (Number result: results.values())
+		{
+			if (expected[i] == null)
+				assertNull(result, "Window " + i);
+			else
+				assertEquals(expected[i].doubleValue(), result.doubleValue(), 0.000001, "Window " + i);
+			i++;
+		}
+	}
+}
@@ -19,36 +19,57 @@
  */
 package it.bancaditalia.oss.vtl.impl.transform.dataset;
 
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE1;
 import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE11;
 import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE12;
 import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE3;
 import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE4;
+import static it.bancaditalia.oss.vtl.impl.transform.bool.BooleanTransformation.BooleanBiOperator.AND;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static it.bancaditalia.oss.vtl.impl.types.operators.ComparisonOperator.EQ;
+import static java.util.Collections.singletonMap;
 import static java.util.stream.Collectors.toList;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
+import it.bancaditalia.oss.vtl.impl.transform.ConstantOperand;
 import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
+import it.bancaditalia.oss.vtl.impl.transform.bool.BooleanTransformation;
+import it.bancaditalia.oss.vtl.impl.transform.bool.ComparisonTransformation;
 import it.bancaditalia.oss.vtl.impl.transform.scope.ThisScope;
 import it.bancaditalia.oss.vtl.impl.transform.testutils.TestUtils;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
 import it.bancaditalia.oss.vtl.impl.types.domain.EntireStringDomainSubset;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.VTLValueMetadata;
 import it.bancaditalia.oss.vtl.model.domain.StringDomain;
+import it.bancaditalia.oss.vtl.model.transform.SharedTransformation;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
 public class FilterClauseTransformationTest
@@ -105,4 +126,66 @@ public class FilterClauseTransformationTest
 		
 		assertArrayEquals(expectedResult, arrayResult, "Filtered values");
 	}
+
+	@Test
+	public void pushDownTest()
+	{
+		session = TestUtils.mockSession(singletonMap("ds", SAMPLE3));
+		FilterClauseTransformation fct = new FilterClauseTransformation(new BooleanTransformation(AND, 
+				new ComparisonTransformation(EQ, new VarIDOperand("string_1"), new ConstantOperand(StringValue.of("A"))), condition));
+		BracketTransformation bracket = new BracketTransformation(new VarIDOperand("ds"), fct, null);
+		
+		DataSet computedResult = (DataSet) bracket.eval(session);
+		
+		verify(session).resolve(eq("ds"), eq(singletonMap("string_1", StringValue.of("A"))), argThat(components -> components.contains("boolean_1")));
+		assertEquals(1, computedResult.size());
+		assertEquals("A", computedResult.stream().findAny().get().get(SAMPLE3.getComponent("string_1").get()).get(), "Filtered values");
+	}
+
+	@Test
+	public void pushDownSharedTest()
+	{
+		session = TestUtils.mockSession(singletonMap("ds", SAMPLE3));
+		FilterClauseTransformation fct = new FilterClauseTransformation(shared(new BooleanTransformation(AND, 
+				new ComparisonTransformation(EQ, new VarIDOperand("string_1"), new ConstantOperand(StringValue.of("A"))), condition)));
+		BracketTransformation bracket = new BracketTransformation(shared(new VarIDOperand("ds")), fct, null);
+		
+		DataSet computedResult = (DataSet) bracket.eval(session);
+		
+		verify(session).resolve(eq("ds"), eq(singletonMap("string_1", StringValue.of("A"))), argThat(components -> components.contains("boolean_1")));
+		assertEquals(1, computedResult.size());
+		assertEquals("A", computedResult.stream().findAny().get().get(SAMPLE3.getComponent("string_1").get()).get(), "Filtered values");
+	}
+	
+	private static Transformation shared(Transformation expression)
+	{
+		SharedTransformation shared = mock(SharedTransformation.class, delegatesTo(expression));
+		doReturn(expression).when(shared).getExpression();
+		doReturn("$shared").when(shared).getAlias();
+		return shared;
+	}
+
+	@Test
+	public void sharedClauseTest()
+	{
+		Map<String, DataSet> map = new HashMap<>();
+		map.put("ds1", SAMPLE3);
+		map.put("ds2", SAMPLE1);
+		session = TestUtils.mockSession(map);
+		
+		// keep the metadata of each node as the session does
+		Map<Transformation, VTLValueMetadata> table = new IdentityHashMap<>();
+		doAnswer(mock -> table.computeIfAbsent(mock.getArgument(0), node -> mock.<Supplier<VTLValueMetadata>>getArgument(1).get()))
+			.when(session).getMetadata(any(Transformation.class), any());
+		
+		// the same clause applied to datasets with different structures
+		FilterClauseTransformation fct = new FilterClauseTransformation(condition);
+		DataSet first = (DataSet) new BracketTransformation(new VarIDOperand("ds1"), fct, null).eval(session);
+		DataSet second = (DataSet) new BracketTransformation(new VarIDOperand("ds2"), fct, null).eval(session);
+		
+		assertEquals(SAMPLE3.getMetadata(), first.getMetadata());
+		assertEquals(SAMPLE1.getMetadata(), second.getMetadata());
+		assertEquals(3, first.size());
+		assertEquals(3, second.size());
+	}
 }
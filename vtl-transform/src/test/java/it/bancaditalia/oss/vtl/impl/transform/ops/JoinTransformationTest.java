@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.transform.ops;
+
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.VTL_JOIN_INDEX_THRESHOLD;
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.CROSS_JOIN;
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.FULL_JOIN;
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.INNER_JOIN;
+import static it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator.LEFT_JOIN;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE10;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE14;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE16;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE3;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE7;
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE8;
+import static it.bancaditalia.oss.vtl.impl.types.dataset.SpilledPartitions.VTL_SPILL_THRESHOLD;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+import static java.util.stream.Collectors.toSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
+import it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperand;
+import it.bancaditalia.oss.vtl.impl.transform.ops.JoinTransformation.JoinOperator;
+import it.bancaditalia.oss.vtl.impl.transform.testutils.TestUtils;
+import it.bancaditalia.oss.vtl.impl.types.dataset.LightDataSet;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+public class JoinTransformationTest
+{
+	public static Stream<Arguments> test()
+	{
+		return Stream.of(
+				Arguments.of(INNER_JOIN, new DataSet[] { SAMPLE3, SAMPLE10, SAMPLE16 }, 3),
+				Arguments.of(LEFT_JOIN, new DataSet[] { SAMPLE3, SAMPLE10, SAMPLE16 }, 6),
+				Arguments.of(INNER_JOIN, new DataSet[] { SAMPLE7, SAMPLE3 }, 6),
+				Arguments.of(LEFT_JOIN, new DataSet[] { SAMPLE7, SAMPLE16 }, 6),
+				Arguments.of(FULL_JOIN, new DataSet[] { SAMPLE3, SAMPLE10 }, 9),
+				Arguments.of(FULL_JOIN, new DataSet[] { SAMPLE3, SAMPLE10, SAMPLE16 }, 9),
+				Arguments.of(CROSS_JOIN, new DataSet[] { SAMPLE3, renamed(SAMPLE16, "string_1", "key") }, 36)
+			);
+	}
+
+	public static Stream<Arguments> testUsing()
+	{
+		return Stream.of(
+				// case B1
+				Arguments.of(INNER_JOIN, new DataSet[] { SAMPLE7, SAMPLE3 }, "string_1", 6),
+				Arguments.of(INNER_JOIN, new DataSet[] { SAMPLE8, renamed(SAMPLE10, "integer_1", "integer_2") }, "string_1", 0),
+				Arguments.of(LEFT_JOIN, new DataSet[] { SAMPLE8, renamed(SAMPLE10, "integer_1", "integer_2") }, "string_1", 6),
+				// case B2
+				Arguments.of(INNER_JOIN, new DataSet[] { SAMPLE14, renamed(SAMPLE3, "string_1", "string_2") }, "string_2", 3),
+				Arguments.of(LEFT_JOIN, new DataSet[] { SAMPLE14, renamed(SAMPLE3, "string_1", "string_2") }, "string_2", 6)
+			);
+	}
+
+	@AfterEach
+	public void afterEach()
+	{
+		VTL_JOIN_INDEX_THRESHOLD.setValue(null);
+		VTL_SPILL_THRESHOLD.setValue(null);
+	}
+
+	@ParameterizedTest(name = "{0} {1}")
+	@MethodSource
+	public void test(JoinOperator operator, DataSet samples[], int size)
+	{
+		Map<String, DataSet> map = new HashMap<>();
+		List<JoinOperand> operands = new ArrayList<>();
+		for (int i = 0; i < samples.length; i++)
+		{
+			map.put("ds" + i, samples[i]);
+			operands.add(new JoinOperand(new VarIDOperand("ds" + i), "ds" + i));
+		}
+
+		Set<Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> indexed = evalJoin(operator, operands, emptyList(), map);
+		assertEquals(size, indexed.size(), "Number of joined datapoints");
+
+		// force the sort-merge join
+		VTL_JOIN_INDEX_THRESHOLD.setValue("0");
+		Set<Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> merged = evalJoin(operator, operands, emptyList(), map);
+		assertEquals(indexed, merged, "Sort-merge join results");
+
+		// force the partitioned join, spilling all datapoints to disk
+		VTL_SPILL_THRESHOLD.setValue("0");
+		Set<Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> spilled = evalJoin(operator, operands, emptyList(), map);
+		assertEquals(indexed, spilled, "Partitioned join results");
+	}
+
+	@ParameterizedTest(name = "{0} {1} using {2}")
+	@MethodSource
+	public void testUsing(JoinOperator operator, DataSet samples[], String using, int size)
+	{
+		Map<String, DataSet> map = new HashMap<>();
+		List<JoinOperand> operands = new ArrayList<>();
+		for (int i = 0; i < samples.length; i++)
+		{
+			map.put("ds" + i, samples[i]);
+			operands.add(new JoinOperand(new VarIDOperand("ds" + i), "ds" + i));
+		}
+
+		Set<Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> joined = evalJoin(operator, operands, singletonList(using), map);
+		assertEquals(size, joined.size(), "Number of joined datapoints");
+		for (Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> dp: joined)
+			assertEquals(samples[0].getMetadata().size() + samples[1].getMetadata().size() - 1, dp.size(), "Number of joined components");
+	}
+
+	@Test
+	public void cachedMetadataTest()
+	{
+		Map<String, DataSet> map = new HashMap<>();
+		map.put("ds0", SAMPLE7);
+		map.put("ds1", SAMPLE3);
+		List<JoinOperand> operands = new ArrayList<>();
+		operands.add(new JoinOperand(new VarIDOperand("ds0"), "ds0"));
+		operands.add(new JoinOperand(new VarIDOperand("ds1"), "ds1"));
+		TransformationScheme session = TestUtils.mockSession(map);
+		
+		// the metadata is computed by another node and then reused, as when it is cached by the session 
+		DataSetMetadata metadata = new JoinTransformation(INNER_JOIN, operands, singletonList("string_1"), null, null, null, null, null, null).getMetadata(session);
+		doReturn(metadata).when(session).getMetadata(any(Transformation.class), any());
+		
+		DataSet result = new JoinTransformation(INNER_JOIN, operands, singletonList("string_1"), null, null, null, null, null, null).eval(session);
+		assertEquals(6, result.size(), "Number of joined datapoints");
+	}
+
+	private static DataSet renamed(DataSet sample, String oldName, String newName)
+	{
+		DataStructureComponent<?, ?, ?> oldComponent = sample.getComponent(oldName).get();
+		DataStructureComponent<?, ?, ?> newComponent = oldComponent.rename(newName);
+		DataSetMetadata structure = sample.getMetadata().rename(oldComponent, newName);
+		return new LightDataSet(structure, () -> sample.stream().map(dp -> dp.renameComponent(oldComponent, newComponent)));
+	}
+
+	private static Set<Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> evalJoin(JoinOperator operator, List<JoinOperand> operands, List<String> using, Map<String, DataSet> map)
+	{
+		JoinTransformation join = new JoinTransformation(operator, operands, using, null, null, null, null, null, null);
+		try (Stream<DataPoint> stream = ((DataSet) join.eval(TestUtils.mockSession(map))).stream())
+		{
+			return stream.map(HashMap<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>::new)
+				.collect(toSet());
+		}
+	}
+}
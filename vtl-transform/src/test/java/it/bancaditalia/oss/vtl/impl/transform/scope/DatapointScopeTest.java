@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.transform.scope;
+
+import static it.bancaditalia.oss.vtl.impl.transform.testutils.SampleDataSets.SAMPLE1;
+import static it.bancaditalia.oss.vtl.impl.types.operators.ArithmeticOperator.SUM;
+import static it.bancaditalia.oss.vtl.impl.types.operators.ComparisonOperator.GT;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.exceptions.VTLUnboundNameException;
+import it.bancaditalia.oss.vtl.impl.transform.ConstantOperand;
+import it.bancaditalia.oss.vtl.impl.transform.VarIDOperand;
+import it.bancaditalia.oss.vtl.impl.transform.bool.ComparisonTransformation;
+import it.bancaditalia.oss.vtl.impl.transform.bool.NvlTransformation;
+import it.bancaditalia.oss.vtl.impl.transform.number.ArithmeticTransformation;
+import it.bancaditalia.oss.vtl.impl.transform.testutils.TestUtils;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
+
+public class DatapointScopeTest
+{
+	@Test
+	public void testCompiledMatchesEval()
+	{
+		// nvl(integer_1 + number_1, 0.0) > 5.0
+		Transformation expr = new ComparisonTransformation(GT, 
+				new NvlTransformation(new ArithmeticTransformation(SUM, new VarIDOperand("integer_1"), new VarIDOperand("number_1")), new ConstantOperand(DoubleValue.of(0.0))), 
+				new ConstantOperand(DoubleValue.of(5.0)));
+		TransformationScheme parent = TestUtils.mockSession(new HashMap<>());
+		
+		Function<DataPoint, ScalarValue<?, ?, ?, ?>> compiled = new DatapointScope(SAMPLE1.getMetadata(), parent).compile(expr);
+		
+		try (Stream<DataPoint> stream = SAMPLE1.stream())
+		{
+			List<DataPoint> datapoints = stream.collect(Collectors.toList());
+			for (DataPoint dp: datapoints)
+				assertEquals(expr.eval(new DatapointScope(dp, SAMPLE1.getMetadata(), parent)), compiled.apply(dp), dp.toString());
+		}
+	}
+
+	@Test
+	public void testUnboundName()
+	{
+		DatapointScope scope = new DatapointScope(SAMPLE1.getMetadata(), mock(TransformationScheme.class));
+		assertThrows(VTLUnboundNameException.class, () -> scope.compile(new VarIDOperand("missing")));
+	}
+}
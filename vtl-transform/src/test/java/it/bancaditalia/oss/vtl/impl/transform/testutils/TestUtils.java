@@ -19,6 +19,9 @@
  */
 package it.bancaditalia.oss.vtl.impl.transform.testutils;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anySet;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -26,6 +29,7 @@ import static org.mockito.Mockito.when;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Stream;
 
 import it.bancaditalia.oss.vtl.exceptions.VTLUnboundNameException;
@@ -33,6 +37,7 @@ import it.bancaditalia.oss.vtl.impl.types.dataset.AbstractDataSet;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataSet;
 import it.bancaditalia.oss.vtl.model.data.VTLValue;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
 public class TestUtils
@@ -53,6 +58,15 @@ public class TestUtils
 			return Optional.ofNullable(map.get(name)).orElseThrow(() -> new VTLUnboundNameException(name));
 		});
 		
+		// Mock resolve(alias, keyValues, components)
+		when(session.resolve(anyString(), anyMap(), anySet())).thenAnswer(mock -> {
+			String name = mock.getArgument(0);
+			return Optional.ofNullable(map.get(name)).orElseThrow(() -> new VTLUnboundNameException(name));
+		});
+		
+		// Mock getMetadata(node, computer)
+		when(session.getMetadata(any(Transformation.class), any())).thenAnswer(mock -> mock.<Supplier<?>>getArgument(1).get());
+		
 		return session; 
 	}
 
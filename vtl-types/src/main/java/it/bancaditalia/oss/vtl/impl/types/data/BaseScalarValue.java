@@ -83,6 +83,8 @@ public abstract class BaseScalarValue<V extends BaseScalarValue<V, R, S, D>, R e
 	@Override
 	public final boolean equals(Object obj)
 	{
+		if (this == obj)
+			return true;
 		if (obj == null)
 			return false;
 		if (!(obj instanceof BaseScalarValue))
@@ -22,15 +22,19 @@ package it.bancaditalia.oss.vtl.impl.types.dataset;
 import static it.bancaditalia.oss.vtl.util.ConcatSpliterator.concatenating;
 import static it.bancaditalia.oss.vtl.util.Utils.toEntryWithValue;
 import static java.util.Collections.singletonMap;
+import static java.util.function.Function.identity;
 import static java.util.stream.Collector.Characteristics.IDENTITY_FINISH;
 import static java.util.stream.Collectors.groupingByConcurrent;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.mapping;
 import static java.util.stream.Collectors.toConcurrentMap;
+import static java.util.stream.Collectors.toList;
 
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -44,10 +48,12 @@ import java.util.function.BiFunction;
 import java.util.function.BiPredicate;
 import java.util.function.BinaryOperator;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.function.Predicate;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collector;
 import java.util.stream.Collector.Characteristics;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.slf4j.Logger;
@@ -185,6 +191,9 @@ public abstract class AbstractDataSet implements DataSet
 			Collector<DataPoint, A, TT> groupCollector,
 			BiFunction<TT, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, T> finisher)
 	{
+		if (SpilledPartitions.isEnabled())
+			return streamByKeysPartitioned(keys, filter, groupCollector, finisher);
+		
 		// key group holder
 		final Map<A, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>> keyValues = new ConcurrentHashMap<>();
 		
@@ -222,6 +231,58 @@ public abstract class AbstractDataSet implements DataSet
 		}
 	}
 
+	/*
+	 * Groups the datapoints one hash partition at a time. If the partitions had to be spilled to disk, 
+	 * the groups are computed lazily, and only the datapoints of a single partition are kept in memory.
+	 */
+	private <A, T, TT> Stream<T> streamByKeysPartitioned(Set<DataStructureComponent<Identifier, ?, ?>> keys, 
+			Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> filter,
+			Collector<DataPoint, A, TT> groupCollector,
+			BiFunction<TT, Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, T> finisher)
+	{
+		SpilledPartitions partitions = new SpilledPartitions(getMetadata(), new ArrayList<>(keys), SpilledPartitions.defaultPartitions(), SpilledPartitions.getThreshold());
+		try (Stream<DataPoint> stream = stream())
+		{
+			stream.filter(dp -> dp.matches(filter))
+				.forEach(partitions::add);
+		}
+		catch (RuntimeException | Error e)
+		{
+			partitions.close();
+			throw e;
+		}
+		
+		IntFunction<Stream<T>> grouper = p -> {
+			Map<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, A> groups = new HashMap<>();
+			try (Stream<DataPoint> stream = partitions.streamPartition(p))
+			{
+				stream.forEach(dp -> groupCollector.accumulator().accept(groups.computeIfAbsent(dp.getValues(keys, Identifier.class), k -> groupCollector.supplier().get()), dp));
+			}
+			
+			return groups.entrySet().stream()
+				.map(group -> finisher.apply(groupCollector.finisher().apply(group.getValue()), group.getKey()));
+		};
+		
+		if (partitions.isSpilled())
+			return IntStream.range(0, partitions.getPartitionsCount())
+				.mapToObj(grouper)
+				.flatMap(identity())
+				.onClose(partitions::close);
+		else
+			try
+			{
+				List<T> result = Utils.getStream(partitions.getPartitionsCount())
+					.mapToObj(grouper)
+					.flatMap(identity())
+					.collect(toList());
+				return Utils.getStream(result);
+			}
+			finally
+			{
+				partitions.close();
+			}
+	}
+
 	@Override
 	public DataSet filter(Predicate<DataPoint> predicate)
 	{
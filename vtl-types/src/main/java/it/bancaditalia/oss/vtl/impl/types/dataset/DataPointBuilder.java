@@ -19,29 +19,30 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.dataset;
 
-import static it.bancaditalia.oss.vtl.util.Utils.entriesToMap;
-import static it.bancaditalia.oss.vtl.util.Utils.entryByKey;
-import static it.bancaditalia.oss.vtl.util.Utils.keepingValue;
-import static it.bancaditalia.oss.vtl.util.Utils.toMapWithValues;
-import static java.util.Collections.unmodifiableSet;
 import static java.util.Objects.requireNonNull;
 import static java.util.stream.Collector.Characteristics.CONCURRENT;
 import static java.util.stream.Collector.Characteristics.UNORDERED;
 import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toConcurrentMap;
 import static java.util.stream.Collectors.toSet;
 
 import java.io.Serializable;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collector;
 
 import org.slf4j.Logger;
@@ -50,6 +51,7 @@ import org.slf4j.LoggerFactory;
 import it.bancaditalia.oss.vtl.exceptions.VTLException;
 import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder.DataStructureImpl;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
@@ -65,6 +67,7 @@ import it.bancaditalia.oss.vtl.util.Utils;
 public class DataPointBuilder
 {
 	private final static Logger LOGGER = LoggerFactory.getLogger(AbstractDataSet.class);
+	private final static Map<DataSetMetadata, DataStructureImpl> LAYOUTS = new WeakHashMap<>();
 
 	private final ConcurrentHashMap<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> delegate;
 
@@ -150,7 +153,36 @@ public class DataPointBuilder
 		if (built)
 			throw new IllegalStateException("DataPoint already built");
 		built = true;
-		return new DataPointImpl(requireNonNull(lineage), requireNonNull(structure, "DataSet structure is null for " + delegate), delegate);
+		return new DataPointImpl(requireNonNull(lineage), layoutOf(requireNonNull(structure, "DataSet structure is null for " + delegate)), delegate);
+	}
+
+	/**
+	 * Builds a datapoint from an array of values, each one placed at the slot index
+	 * assigned by the structure to its component (see {@link DataSetMetadata#indexOf(DataStructureComponent)}).
+	 * 
+	 * @param lineage The lineage of the datapoint
+	 * @param structure The structure of the datapoint
+	 * @param slots The values of all the components, in slot order
+	 * @return The new datapoint
+	 */
+	public static DataPoint fromSlots(Lineage lineage, DataSetMetadata structure, ScalarValue<?, ?, ?, ?>[] slots)
+	{
+		DataStructureImpl layout = layoutOf(requireNonNull(structure, "DataSet structure is null"));
+		if (slots.length != layout.size())
+			throw new IllegalArgumentException("Expected " + layout.size() + " values for " + layout + " but got " + slots.length);
+		
+		int idCount = layout.getIdentifiersCount();
+		ScalarValue<?, ?, ?, ?>[] ids = Arrays.copyOf(slots, idCount);
+		ScalarValue<?, ?, ?, ?>[] values = Arrays.copyOfRange(slots, idCount, slots.length);
+		
+		for (int i = 0; i < idCount; i++)
+			if (ids[i] == null)
+				throw new VTLMissingComponentsException(layout.getComponentAt(i), layout);
+		for (int i = 0; i < values.length; i++)
+			if (values[i] == null)
+				values[i] = NullValue.instanceFrom(layout.getComponentAt(i + idCount));
+		
+		return new DataPointImpl(requireNonNull(lineage), layout, ids, values);
 	}
 
 	@Override
@@ -159,46 +191,243 @@ public class DataPointBuilder
 		return DataPointBuilder.class.getSimpleName() + delegate.toString();
 	}
 
+	/*
+	 * Other implementations of the metadata are converted to a slot layout only once
+	 */
+	private static DataStructureImpl layoutOf(DataSetMetadata structure)
+	{
+		if (structure instanceof DataStructureImpl)
+			return (DataStructureImpl) structure;
+		
+		synchronized (LAYOUTS)
+		{
+			return LAYOUTS.computeIfAbsent(structure, s -> (DataStructureImpl) new DataStructureBuilder(s).build());
+		}
+	}
+
+	/**
+	 * Resolves once the slot mapping used to rename a component in datapoints of the given structure.
+	 * Datapoints of a different structure are renamed by {@link DataPoint#renameComponent}.
+	 */
+	public static UnaryOperator<DataPoint> renaming(DataSetMetadata structure, DataStructureComponent<?, ?, ?> oldComponent, DataStructureComponent<?, ?, ?> newComponent)
+	{
+		DataStructureImpl layout = layoutOf(structure);
+		checkRenaming(layout, oldComponent, newComponent);
+		Derivation derivation = renamingDerivation(layout, oldComponent, newComponent);
+		return dp -> derivation.appliesTo(dp) ? derivation.apply(dp.getLineage(), (DataPointImpl) dp, null) : dp.renameComponent(oldComponent, newComponent);
+	}
+
+	/**
+	 * Resolves once the slot mapping used to drop the given components from datapoints of the given structure.
+	 * Datapoints of a different structure are handled by {@link DataPoint#dropComponents}.
+	 */
+	public static UnaryOperator<DataPoint> dropping(DataSetMetadata structure, Collection<? extends DataStructureComponent<? extends NonIdentifier, ?, ?>> components)
+	{
+		Derivation derivation = droppingDerivation(layoutOf(structure), components);
+		return dp -> derivation.appliesTo(dp) ? derivation.apply(dp.getLineage(), (DataPointImpl) dp, null) : dp.dropComponents(components);
+	}
+
+	/**
+	 * Resolves once the slot mapping used to keep only the given components in datapoints of the given structure.
+	 * Datapoints of a different structure are handled by {@link DataPoint#keep}.
+	 */
+	public static UnaryOperator<DataPoint> keeping(DataSetMetadata structure, Collection<? extends DataStructureComponent<? extends NonIdentifier, ?, ?>> components)
+	{
+		Derivation derivation = keepingDerivation(layoutOf(structure), components);
+		return dp -> derivation.appliesTo(dp) ? derivation.apply(dp.getLineage(), (DataPointImpl) dp, null) : dp.keep(components);
+	}
+
+	/**
+	 * Resolves once the slot mapping used to combine datapoints of the two given structures.
+	 * Pairs of datapoints of different structures are handled by {@link DataPoint#combine}.
+	 */
+	public static BinaryOperator<DataPoint> combining(Transformation transformation, DataSetMetadata structure, DataSetMetadata otherStructure)
+	{
+		DataStructureImpl layout = layoutOf(structure), otherLayout = layoutOf(otherStructure);
+		Derivation derivation = combiningDerivation(layout, otherLayout);
+		return (dp, other) -> derivation.appliesTo(dp) && other instanceof DataPointImpl && ((DataPointImpl) other).structure == otherLayout
+				? derivation.apply(LineageNode.of(transformation, dp.getLineage(), other.getLineage()), (DataPointImpl) dp, (DataPointImpl) other)
+				: dp.combine(transformation, other);
+	}
+
+	private static void checkRenaming(DataStructureImpl structure, DataStructureComponent<?, ?, ?> oldComponent, DataStructureComponent<?, ?, ?> newComponent)
+	{
+		if (!structure.contains(oldComponent))
+			throw new VTLMissingComponentsException(oldComponent, structure);
+
+		if (newComponent == null)
+			throw new VTLException("rename: new omponent cannot be null");
+	}
+
+	private static Derivation renamingDerivation(DataStructureImpl structure, DataStructureComponent<?, ?, ?> oldComponent, DataStructureComponent<?, ?, ?> newComponent)
+	{
+		return new Derivation(structure, null, layoutOf(new DataStructureBuilder(structure).removeComponent(oldComponent).addComponent(newComponent).build()), oldComponent, newComponent);
+	}
+
+	private static Derivation droppingDerivation(DataStructureImpl structure, Collection<? extends DataStructureComponent<?, ?, ?>> components)
+	{
+		Set<DataStructureComponent<?, ?, ?>> toDrop = new HashSet<>();
+		for (DataStructureComponent<?, ?, ?> component : components)
+			if (!component.is(Identifier.class))
+				toDrop.add(component);
+		
+		return new Derivation(structure, null, layoutOf(new DataStructureBuilder(structure).removeComponents(toDrop).build()), null, null);
+	}
+
+	private static Derivation keepingDerivation(DataStructureImpl structure, Collection<? extends DataStructureComponent<?, ?, ?>> components)
+	{
+		DataStructureBuilder builder = new DataStructureBuilder(structure.getComponents(Identifier.class));
+		for (DataStructureComponent<?, ?, ?> component : components)
+			if (structure.contains(component))
+				builder.addComponent(component);
+			else
+				throw new VTLMissingComponentsException(component, structure);
+		
+		return new Derivation(structure, null, layoutOf(builder.build()), null, null);
+	}
+
+	private static Derivation combiningDerivation(DataStructureImpl structure, DataStructureImpl otherStructure)
+	{
+		Set<String> thisComponentNames = new HashSet<>();
+		for (DataStructureComponent<?, ?, ?> component: structure)
+			thisComponentNames.add(component.getName());
+		DataStructureBuilder builder = new DataStructureBuilder(structure);
+		for (DataStructureComponent<?, ?, ?> component: otherStructure)
+			if (!thisComponentNames.contains(component.getName()))
+				builder.addComponent(component);
+		
+		return new Derivation(structure, otherStructure, layoutOf(builder.build()), null, null);
+	}
+
+	/*
+	 * Sets and lists compare by content, so they can be used directly as lookup keys
+	 */
+	private static Object keyOf(Collection<?> components)
+	{
+		return components instanceof Set || components instanceof List ? components : new HashSet<>(components);
+	}
+
+	/*
+	 * Describes how to fill each slot of a target structure from the slots of one or two source datapoints.
+	 * Non-negative sources refer to slots of the first datapoint, negative ones to slots of the second.
+	 */
+	private static class Derivation
+	{
+		private final DataStructureImpl source;
+		private final DataStructureImpl structure;
+		private final int[] sources;
+		private final boolean sharingIds;
+
+		private Derivation(DataStructureImpl source, DataStructureImpl other, DataStructureImpl target, DataStructureComponent<?, ?, ?> oldComponent, DataStructureComponent<?, ?, ?> newComponent)
+		{
+			this.source = source;
+			this.structure = target;
+			this.sources = new int[target.size()];
+			for (int i = 0; i < sources.length; i++)
+			{
+				DataStructureComponent<?, ?, ?> component = target.getComponentAt(i);
+				int index = source.indexOf(component.equals(newComponent) ? oldComponent : component);
+				sources[i] = index >= 0 || other == null ? index : -other.indexOf(component) - 1;
+			}
+			
+			boolean sameIds = target.getIdentifiersCount() == source.getIdentifiersCount();
+			for (int i = 0; sameIds && i < target.getIdentifiersCount(); i++)
+				sameIds = sources[i] == i;
+			this.sharingIds = sameIds;
+		}
+		
+		private boolean appliesTo(DataPoint dp)
+		{
+			return dp instanceof DataPointImpl && ((DataPointImpl) dp).structure == source;
+		}
+		
+		private DataPoint apply(Lineage lineage, DataPointImpl source, DataPointImpl other)
+		{
+			final int idCount = structure.getIdentifiersCount();
+			final ScalarValue<?, ?, ?, ?>[] ids = sharingIds ? source.ids : new ScalarValue<?, ?, ?, ?>[idCount];
+			final ScalarValue<?, ?, ?, ?>[] values = new ScalarValue<?, ?, ?, ?>[sources.length - idCount];
+			
+			for (int i = sharingIds ? idCount : 0; i < sources.length; i++)
+			{
+				ScalarValue<?, ?, ?, ?> value = sources[i] >= 0 ? source.getAt(sources[i]) : other.getAt(-sources[i] - 1);
+				if (i < idCount)
+					ids[i] = value;
+				else
+					values[i - idCount] = value;
+			}
+			
+			return new DataPointImpl(lineage, structure, ids, values);
+		}
+	}
+
 	private static class DataPointImpl extends AbstractMap<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> implements DataPoint, Serializable
 	{
 		private static final long serialVersionUID = 1L;
 		private static final Logger LOGGER = LoggerFactory.getLogger(DataPointImpl.class);
 
-		private final Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> dpValues;
+		private final DataStructureImpl structure;
+		// identifier slots may be shared between datapoints derived one from another
+		private final ScalarValue<?, ?, ?, ?>[] ids;
+		private final ScalarValue<?, ?, ?, ?>[] values;
 		private final Lineage lineage;
-		private transient Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> ids = null;
+		private transient Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> idValues = null;
+		private transient int hashCode = 0;
 
-		private DataPointImpl(Lineage lineage, DataSetMetadata structure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> values)
+		private DataPointImpl(Lineage lineage, DataStructureImpl structure, Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> values)
 		{
 			this.lineage = lineage;
-			if (!(values instanceof Serializable))
-				throw new IllegalStateException("The values map must be serializable");
+			this.structure = structure;
+			
+			final int idCount = structure.getIdentifiersCount();
+			this.ids = new ScalarValue<?, ?, ?, ?>[idCount];
+			this.values = new ScalarValue<?, ?, ?, ?>[structure.size() - idCount];
 
-			if (values.size() != structure.size())
-			{
-				Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> filledValues = new HashMap<>(values);
-				for (DataStructureComponent<?, ?, ?> component: structure)
-					if (!component.is(Identifier.class) && !values.containsKey(component))
-						filledValues.put(component, NullValue.instanceFrom(component));
-				this.dpValues = filledValues;
-			} else
-				this.dpValues = new HashMap<>(values);
-
-			if (!structure.equals(dpValues.keySet()))
+			for (Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> entry: values.entrySet())
 			{
-				this.dpValues.keySet().stream().filter(c -> !structure.contains(c))
-						.map(c -> new SimpleEntry<>(c, new IllegalStateException("Component " + c + " has a value but is not defined on " + structure)))
-						.peek(e -> LOGGER.error("Component {} has a value but is not defined on {} in datapoint {}", e.getKey(), structure, values,
-								e.getValue()))
-						.map(Map.Entry::getValue).findAny().ifPresent(e -> {
-							throw e;
-						});
-
-				Set<DataStructureComponent<?, ?, ?>> missing = new HashSet<>(structure);
-				missing.removeAll(this.dpValues.keySet());
-				if (missing.size() > 0)
-					throw new VTLMissingComponentsException(missing, this.dpValues);
+				int index = structure.indexOf(entry.getKey());
+				if (index < 0)
+				{
+					IllegalStateException e = new IllegalStateException("Component " + entry.getKey() + " has a value but is not defined on " + structure);
+					LOGGER.error("Component {} has a value but is not defined on {} in datapoint {}", entry.getKey(), structure, values, e);
+					throw e;
+				}
+				else if (index < idCount)
+					this.ids[index] = entry.getValue();
+				else
+					this.values[index - idCount] = entry.getValue();
 			}
+
+			Set<DataStructureComponent<?, ?, ?>> missing = new HashSet<>();
+			for (int i = 0; i < idCount; i++)
+				if (this.ids[i] == null)
+					missing.add(structure.getComponentAt(i));
+			if (missing.size() > 0)
+				throw new VTLMissingComponentsException(missing, values);
+
+			for (int i = 0; i < this.values.length; i++)
+				if (this.values[i] == null)
+					this.values[i] = NullValue.instanceFrom(structure.getComponentAt(i + idCount));
+		}
+
+		private DataPointImpl(Lineage lineage, DataStructureImpl structure, ScalarValue<?, ?, ?, ?>[] ids, ScalarValue<?, ?, ?, ?>[] values)
+		{
+			this.lineage = lineage;
+			this.structure = structure;
+			this.ids = ids;
+			this.values = values;
+		}
+		
+		private ScalarValue<?, ?, ?, ?> getAt(int index)
+		{
+			return index < ids.length ? ids[index] : values[index - ids.length];
+		}
+
+		private static DataPointImpl asImpl(DataPoint dp)
+		{
+			if (dp instanceof DataPointImpl)
+				return (DataPointImpl) dp;
+			else
+				return (DataPointImpl) new DataPointBuilder(dp).build(dp.getLineage(), new DataStructureBuilder(dp.keySet()).build());
 		}
 
 		@Override
@@ -206,111 +435,197 @@ public class DataPointBuilder
 		{
 			if (role == Identifier.class)
 			{
-				if (ids == null)
-					ids = Utils.getStream(dpValues).filter(entryByKey(k -> k.is(role))).map(keepingValue(k -> k.as(Identifier.class))).collect(entriesToMap());
+				if (idValues == null)
+				{
+					Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>> result = new HashMap<>();
+					for (int i = 0; i < ids.length; i++)
+						result.put(structure.getComponentAt(i).as(Identifier.class), ids[i]);
+					idValues = result;
+				}
+				
 				// safe cast, R is Identifier
 				@SuppressWarnings({ "unchecked", "rawtypes" })
-				final Map<DataStructureComponent<R, ?, ?>, ScalarValue<?, ?, ?, ?>> result = (Map) ids;
+				final Map<DataStructureComponent<R, ?, ?>, ScalarValue<?, ?, ?, ?>> result = (Map) idValues;
 				return result;
 			}
 			else
-				return Utils.getStream(dpValues.keySet()).filter(k -> k.is(role)).map(k -> k.as(role)).collect(toMapWithValues(dpValues::get));
+			{
+				Map<DataStructureComponent<R, ?, ?>, ScalarValue<?, ?, ?, ?>> result = new HashMap<>();
+				for (int i = 0; i < size(); i++)
+				{
+					DataStructureComponent<?, ?, ?> component = structure.getComponentAt(i);
+					if (component.is(role))
+						result.put(component.as(role), getAt(i));
+				}
+				return result;
+			}
+		}
+		
+		@Override
+		public <R extends ComponentRole> Map<DataStructureComponent<R, ?, ?>, ScalarValue<?, ?, ?, ?>> getValues(Collection<? extends DataStructureComponent<R, ?, ?>> components, Class<R> role)
+		{
+			Map<DataStructureComponent<R, ?, ?>, ScalarValue<?, ?, ?, ?>> result = new HashMap<>();
+			for (DataStructureComponent<R, ?, ?> component: components)
+			{
+				int index = structure.indexOf(component);
+				if (index >= 0 && component.is(role))
+					result.put(component, getAt(index));
+			}
+			return result;
+		}
+		
+		@Override
+		public Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> getValues(Collection<? extends DataStructureComponent<?, ?, ?>> components)
+		{
+			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> result = new HashMap<>();
+			for (DataStructureComponent<?, ?, ?> component: components)
+			{
+				int index = structure.indexOf(component);
+				if (index >= 0)
+					result.put(component, getAt(index));
+			}
+			return result;
+		}
+		
+		@Override
+		public boolean matches(Map<? extends DataStructureComponent<? extends Identifier, ?, ?>, ? extends ScalarValue<?, ?, ?, ?>> identifierValues)
+		{
+			for (Entry<? extends DataStructureComponent<? extends Identifier, ?, ?>, ? extends ScalarValue<?, ?, ?, ?>> entry: identifierValues.entrySet())
+				if (!get(entry.getKey()).equals(entry.getKey().cast(entry.getValue())))
+					return false;
+			return true;
 		}
 
 		@Override
 		public DataPoint dropComponents(Collection<? extends DataStructureComponent<? extends NonIdentifier, ?, ?>> components)
 		{
-			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> newVals = new HashMap<>(this);
-			for (DataStructureComponent<?, ?, ?> component : components)
-				if (!component.is(Identifier.class))
-					newVals.remove(component);
-
-			return new DataPointImpl(getLineage(), new DataStructureBuilder(newVals.keySet()).build(), newVals);
+			Derivation derivation = structure.derive("drop", keyOf(components), k -> droppingDerivation(structure, components));
+			return derivation.apply(getLineage(), this, null);
 		}
 
 		@Override
 		public DataPoint combine(Transformation transformation, DataPoint other)
 		{
-			Objects.requireNonNull(other);
-
-			Set<String> thisComponentNames = keySet().stream().map(DataStructureComponent::getName).collect(toSet());
-			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> finalMap = other.keySet().stream()
-					.filter(c -> !thisComponentNames.contains(c.getName()))
-					.collect(toConcurrentMap(c -> c, other::get, (a, b) -> null, () -> new ConcurrentHashMap<>(this)));
-			DataSetMetadata newStructure = new DataStructureBuilder(finalMap.keySet()).build();
-
-			return new DataPointImpl(LineageNode.of(transformation, getLineage(), other.getLineage()), newStructure, finalMap);
+			DataPointImpl otherImpl = asImpl(Objects.requireNonNull(other));
+			
+			Derivation derivation = structure.derive("combine", otherImpl.structure, k -> combiningDerivation(structure, otherImpl.structure));
+			return derivation.apply(LineageNode.of(transformation, getLineage(), other.getLineage()), this, otherImpl);
 		}
 
 		@Override
 		public DataPoint keep(Collection<? extends DataStructureComponent<? extends NonIdentifier, ?, ?>> components) throws VTLMissingComponentsException
 		{
-			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> oper = new HashMap<>(getValues(Identifier.class));
-
-			for (DataStructureComponent<?, ?, ?> component : components)
-				if (containsKey(component))
-					oper.put(component, get(component));
-				else
-					throw new VTLMissingComponentsException(component, keySet());
-
-			return new DataPointImpl(getLineage() ,new DataStructureBuilder(oper.keySet()).build(), oper);
+			Derivation derivation = structure.derive("keep", keyOf(components), k -> keepingDerivation(structure, components));
+			return derivation.apply(getLineage(), this, null);
 		}
 
 		@Override
 		public DataPoint renameComponent(DataStructureComponent<?, ?, ?> oldComponent, DataStructureComponent<?, ?, ?> newComponent)
 		{
-			if (!containsKey(oldComponent))
-				throw new VTLMissingComponentsException(oldComponent, keySet());
-
-			if (newComponent == null)
-				throw new VTLException("rename: new omponent cannot be null");
+			checkRenaming(structure, oldComponent, newComponent);
 
-			Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> newValues = new HashMap<>(this);
-			ScalarValue<?, ?, ?, ?> value = newValues.remove(oldComponent);
-			newValues.put(newComponent, value);
-			return new DataPointImpl(getLineage(), new DataStructureBuilder(newValues.keySet()).build(), newValues);
+			// renamings are looked up by old and then by new component, to avoid allocating a key
+			Map<DataStructureComponent<?, ?, ?>, Derivation> renamings = structure.derive("rename", oldComponent, k -> new ConcurrentHashMap<>());
+			Derivation derivation = renamings.computeIfAbsent(newComponent, k -> renamingDerivation(structure, oldComponent, newComponent));
+			return derivation.apply(getLineage(), this, null);
 		}
 
 		@Override
 		public boolean containsKey(Object key)
 		{
-			return dpValues.containsKey(key);
+			return structure.contains(key);
 		}
 
 		@Override
 		public boolean containsValue(Object value)
 		{
-			return dpValues.containsValue(value);
+			for (int i = 0; i < size(); i++)
+				if (getAt(i).equals(value))
+					return true;
+			return false;
 		}
 
 		@Override
 		public Set<Map.Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> entrySet()
 		{
-			return unmodifiableSet(dpValues.entrySet());
+			return new AbstractSet<Map.Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>>() {
+				@Override
+				public Iterator<Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>> iterator()
+				{
+					return new Iterator<Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>>>() {
+						private int index = 0;
+
+						@Override
+						public boolean hasNext()
+						{
+							return index < DataPointImpl.this.size();
+						}
+
+						@Override
+						public Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> next()
+						{
+							if (!hasNext())
+								throw new NoSuchElementException();
+							
+							Entry<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> entry = new SimpleImmutableEntry<>(structure.getComponentAt(index), getAt(index));
+							index++;
+							return entry;
+						}
+					};
+				}
+
+				@Override
+				public int size()
+				{
+					return DataPointImpl.this.size();
+				}
+			};
 		}
 
 		@Override
 		public boolean equals(Object o)
 		{
-			return dpValues.equals(o);
+			if (this == o)
+				return true;
+			
+			if (o instanceof DataPointImpl && structure.equals(((DataPointImpl) o).structure))
+			{
+				DataPointImpl other = (DataPointImpl) o;
+				return Arrays.equals(ids, other.ids) && Arrays.equals(values, other.values);
+			}
+			
+			return super.equals(o);
 		}
 
 		@Override
 		public ScalarValue<?, ?, ?, ?> get(Object key)
 		{
-			return dpValues.get(key);
+			if (!(key instanceof DataStructureComponent))
+				return null;
+			
+			int index = structure.indexOf((DataStructureComponent<?, ?, ?>) key);
+			return index < 0 ? null : getAt(index);
 		}
 
 		@Override
 		public int hashCode()
 		{
-			return dpValues.hashCode();
+			// same as AbstractMap.hashCode() to stay consistent with other map implementations
+			if (hashCode == 0)
+			{
+				int result = 0;
+				for (int i = 0; i < size(); i++)
+					result += structure.getComponentAt(i).hashCode() ^ getAt(i).hashCode();
+				hashCode = result;
+			}
+			
+			return hashCode;
 		}
 
 		@Override
 		public int size()
 		{
-			return dpValues.size();
+			return ids.length + values.length;
 		}
 
 		@Override
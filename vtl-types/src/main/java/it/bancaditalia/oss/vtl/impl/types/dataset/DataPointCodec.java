@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.dataset;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+
+/**
+ * Writes the datapoints of a structure to a temporary file and reads them back.
+ * 
+ * Integer, number, boolean and string values are written in a compact binary form;
+ * any other value, and the lineage of each datapoint, are written as a reference 
+ * to a table of distinct values kept in memory by the codec.
+ * Datapoints must be read back with the same codec that wrote them.
+ */
+class DataPointCodec
+{
+	private static final byte NULL = 0;
+	private static final byte INTEGER = 1;
+	private static final byte NUMBER = 2;
+	private static final byte BOOLEAN = 3;
+	private static final byte STRING = 4;
+	private static final byte OTHER = 5;
+
+	private final DataSetMetadata structure;
+	private final DataStructureComponent<?, ?, ?> slots[];
+	private final List<Lineage> lineages = new ArrayList<>();
+	private final Map<Lineage, Integer> lineageCodes = new IdentityHashMap<>();
+	private final List<ScalarValue<?, ?, ?, ?>> values = new ArrayList<>();
+	private final Map<ScalarValue<?, ?, ?, ?>, Integer> valueCodes = new HashMap<>();
+
+	public DataPointCodec(DataSetMetadata structure)
+	{
+		this.structure = structure;
+		this.slots = new DataStructureComponent<?, ?, ?>[structure.size()];
+		for (DataStructureComponent<?, ?, ?> component: structure)
+			slots[structure.indexOf(component)] = component;
+	}
+
+	public void write(DataOutput output, DataPoint dp) throws IOException
+	{
+		output.writeInt(lineageCodes.computeIfAbsent(dp.getLineage(), lineage -> {
+			lineages.add(lineage);
+			return lineages.size() - 1;
+		}));
+		
+		for (DataStructureComponent<?, ?, ?> component: slots)
+		{
+			ScalarValue<?, ?, ?, ?> value = dp.get(component);
+			if (value instanceof NullValue)
+				output.writeByte(NULL);
+			else if (value instanceof IntegerValue && value.getDomain() == INTEGERDS)
+			{
+				output.writeByte(INTEGER);
+				output.writeLong((Long) value.get());
+			}
+			else if (value instanceof DoubleValue && value.getDomain() == NUMBERDS)
+			{
+				output.writeByte(NUMBER);
+				output.writeDouble((Double) value.get());
+			}
+			else if (value instanceof BooleanValue && value.getDomain() == BOOLEANDS)
+			{
+				output.writeByte(BOOLEAN);
+				output.writeBoolean((Boolean) value.get());
+			}
+			else if (value.getClass() == StringValue.class && value.getDomain() == STRINGDS)
+			{
+				byte bytes[] = ((String) value.get()).getBytes(UTF_8);
+				output.writeByte(STRING);
+				output.writeInt(bytes.length);
+				output.write(bytes);
+			}
+			else
+			{
+				output.writeByte(OTHER);
+				output.writeInt(valueCodes.computeIfAbsent(value, v -> {
+					values.add(v);
+					return values.size() - 1;
+				}));
+			}
+		}
+	}
+
+	public DataPoint read(DataInput input) throws IOException
+	{
+		Lineage lineage = lineages.get(input.readInt());
+		ScalarValue<?, ?, ?, ?> row[] = new ScalarValue<?, ?, ?, ?>[slots.length];
+		for (int i = 0; i < slots.length; i++)
+		{
+			byte tag = input.readByte();
+			switch (tag)
+			{
+				case NULL: row[i] = NullValue.instanceFrom(slots[i]); break;
+				case INTEGER: row[i] = IntegerValue.of(input.readLong()); break;
+				case NUMBER: row[i] = DoubleValue.of(input.readDouble()); break;
+				case BOOLEAN: row[i] = BooleanValue.of(input.readBoolean()); break;
+				case STRING: 
+					byte bytes[] = new byte[input.readInt()];
+					input.readFully(bytes);
+					row[i] = StringValue.of(new String(bytes, UTF_8)); 
+					break;
+				case OTHER: row[i] = values.get(input.readInt()); break;
+				default: throw new IOException("Unknown value tag " + tag);
+			}
+		}
+		
+		return DataPointBuilder.fromSlots(lineage, structure, row);
+	}
+
+	/**
+	 * Forgets the values and lineages written so far.
+	 */
+	public void clear()
+	{
+		lineages.clear();
+		lineageCodes.clear();
+		values.clear();
+		valueCodes.clear();
+	}
+}
@@ -28,9 +28,12 @@ import static java.util.stream.Collectors.toSet;
 
 import java.io.Serializable;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -39,6 +42,7 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
 import java.util.stream.Collector;
 
 import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
@@ -140,17 +144,93 @@ public class DataStructureBuilder
 		return new DataStructureImpl(components);
 	}
 
-	private static class DataStructureImpl extends AbstractSet<DataStructureComponent<?, ?, ?>> implements DataSetMetadata, Serializable
+	static class DataStructureImpl extends AbstractSet<DataStructureComponent<?, ?, ?>> implements DataSetMetadata, Serializable
 	{
 		private static final long serialVersionUID = 1L;
 
 		private final Map<String, DataStructureComponent<?, ?, ?>> components;
+		// Slot layout: identifiers first, then all other components, each group ordered by name
+		private final DataStructureComponent<?, ?, ?>[] slots;
+		private final Map<DataStructureComponent<?, ?, ?>, Integer> indexes;
+		private final int idCount;
+		
+		private transient volatile Map<String, Map<Object, Object>> derivations = null;
+		private transient int hashCode = 0;
 
 		private DataStructureImpl(Set<DataStructureComponent<?, ?, ?>> components)
 		{
 			this.components = Collections.unmodifiableMap(Utils.getStream(components)
 				.map(Utils.toEntry(DataStructureComponent::getName, c -> c))
 				.collect(Utils.entriesToMap(ConcurrentSkipListMap::new)));
+			
+			slots = new DataStructureComponent<?, ?, ?>[this.components.size()];
+			indexes = new HashMap<>();
+			int index = 0;
+			for (DataStructureComponent<?, ?, ?> component: this.components.values())
+				if (component.is(Identifier.class))
+					slots[index++] = component;
+			idCount = index;
+			for (DataStructureComponent<?, ?, ?> component: this.components.values())
+				if (!component.is(Identifier.class))
+					slots[index++] = component;
+			for (int i = 0; i < slots.length; i++)
+				indexes.put(slots[i], i);
+		}
+
+		@Override
+		public int indexOf(DataStructureComponent<?, ?, ?> component)
+		{
+			Integer index = indexes.get(component);
+			return index == null ? -1 : index;
+		}
+
+		DataStructureComponent<?, ?, ?> getComponentAt(int index)
+		{
+			return slots[index];
+		}
+
+		int getIdentifiersCount()
+		{
+			return idCount;
+		}
+
+		/*
+		 * Retrieves a value derived from this structure by the datapoint operations (keep, drop, rename, combine), 
+		 * computing it only the first time it is requested for a given key.
+		 * Lookups do not allocate, so that they can be done for each datapoint; sets and lists used as keys are copied 
+		 * only when a new value is stored.
+		 */
+		@SuppressWarnings("unchecked")
+		<T> T derive(String operation, Object key, Function<Object, ? extends T> derivation)
+		{
+			Map<String, Map<Object, Object>> cache = derivations;
+			if (cache == null)
+				synchronized (this)
+				{
+					if (derivations == null)
+						derivations = new ConcurrentHashMap<>();
+					cache = derivations;
+				}
+
+			Map<Object, Object> values = cache.get(operation);
+			if (values == null)
+			{
+				cache.putIfAbsent(operation, new ConcurrentHashMap<>());
+				values = cache.get(operation);
+			}
+			
+			Object value = values.get(key);
+			if (value == null)
+			{
+				value = derivation.apply(key);
+				Object stored = key instanceof Set ? Collections.unmodifiableSet(new HashSet<>((Set<?>) key)) 
+						: key instanceof List ? Collections.unmodifiableList(new ArrayList<>((List<?>) key)) : key;
+				Object previous = values.putIfAbsent(stored, value);
+				if (previous != null)
+					value = previous;
+			}
+			
+			return (T) value;
 		}
 		
 		@Override
@@ -238,10 +318,13 @@ public class DataStructureBuilder
 		@Override
 		public int hashCode()
 		{
+			if (hashCode != 0)
+				return hashCode;
+			
 			final int prime = 31;
 			int result = super.hashCode();
 			result = prime * result + ((components == null) ? 0 : components.hashCode());
-			return result;
+			return hashCode = result;
 		}
 
 		@Override
@@ -270,6 +353,12 @@ public class DataStructureBuilder
 			return components.containsKey(getNormalizedAlias(alias));
 		}
 
+		@Override
+		public boolean contains(Object o)
+		{
+			return indexes.containsKey(o);
+		}
+
 		@Override
 		public Iterator<DataStructureComponent<?, ?, ?>> iterator()
 		{
@@ -0,0 +1,342 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.dataset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+
+/**
+ * Hash-partitions the datapoints of a dataset on the values of some of its components, 
+ * keeping them in memory until their total number exceeds a threshold, and then moving 
+ * all of them to a temporary file for each partition.
+ * 
+ * Datapoints are written in the compact binary form of {@link DataPointCodec}, 
+ * with a table of distinct values kept in memory for each partition.
+ * 
+ * Partitions are meant to be read back one at a time, so that only the datapoints 
+ * of a single partition need to be in memory at any moment.
+ */
+public class SpilledPartitions implements AutoCloseable
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(SpilledPartitions.class);
+
+	public static final VTLProperty VTL_SPILL_THRESHOLD = 
+			new VTLPropertyImpl("vtl.spill.threshold", "Maximum number of datapoints grouped or indexed in memory before spilling them to disk (empty to never spill)", "10000000", false, false);
+	public static final VTLProperty VTL_SPILL_DIRECTORY = 
+			new VTLPropertyImpl("vtl.spill.directory", "Directory where datapoints spilled to disk are written", System.getProperty("java.io.tmpdir"), false, false, System.getProperty("java.io.tmpdir"));
+
+	private static final int DEFAULT_PARTITIONS = 64;
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(SpilledPartitions.class, VTL_SPILL_THRESHOLD, VTL_SPILL_DIRECTORY);
+	}
+
+	private final DataSetMetadata structure;
+	private final DataStructureComponent<?, ?, ?> partitionKeys[];
+	private final Partition partitions[];
+	private final long threshold;
+	private final AtomicLong size = new AtomicLong();
+	private final AtomicBoolean spilled = new AtomicBoolean(false);
+
+	/**
+	 * @return The configured maximum number of datapoints kept in memory, or {@link Long#MAX_VALUE} if spilling is disabled.
+	 */
+	public static long getThreshold()
+	{
+		String value = VTL_SPILL_THRESHOLD.getValue();
+		return value == null || value.trim().isEmpty() ? Long.MAX_VALUE : Long.parseLong(value.trim());
+	}
+
+	/**
+	 * @return true if a spill threshold has been configured
+	 */
+	public static boolean isEnabled()
+	{
+		return getThreshold() < Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return A default number of partitions to use when spilling is enabled.
+	 */
+	public static int defaultPartitions()
+	{
+		return DEFAULT_PARTITIONS;
+	}
+
+	/**
+	 * Partitions all the datapoints of a dataset, spilling them if the configured threshold is exceeded.
+	 * 
+	 * @param dataset The dataset to partition
+	 * @param partitionKeys The components used to select the partition of each datapoint
+	 * @param count The number of partitions
+	 * @return The partitioned datapoints
+	 */
+	public static SpilledPartitions of(DataSet dataset, List<? extends DataStructureComponent<?, ?, ?>> partitionKeys, int count)
+	{
+		SpilledPartitions partitions = new SpilledPartitions(dataset.getMetadata(), partitionKeys, count, getThreshold());
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			stream.forEach(partitions::add);
+		}
+		catch (RuntimeException | Error e)
+		{
+			partitions.close();
+			throw e;
+		}
+		
+		return partitions;
+	}
+
+	/**
+	 * Creates an empty set of partitions.
+	 * 
+	 * @param structure The structure of all the datapoints that will be added
+	 * @param partitionKeys The components used to select the partition of each datapoint
+	 * @param count The number of partitions
+	 * @param threshold The maximum number of datapoints kept in memory
+	 */
+	public SpilledPartitions(DataSetMetadata structure, List<? extends DataStructureComponent<?, ?, ?>> partitionKeys, int count, long threshold)
+	{
+		this.structure = structure;
+		this.threshold = threshold;
+		this.partitionKeys = partitionKeys.toArray(new DataStructureComponent<?, ?, ?>[partitionKeys.size()]);
+		this.partitions = new Partition[count];
+		for (int i = 0; i < count; i++)
+			partitions[i] = new Partition();
+	}
+
+	/**
+	 * Adds a datapoint to its partition. Can be called concurrently.
+	 * 
+	 * @param dp The datapoint
+	 */
+	public void add(DataPoint dp)
+	{
+		if (size.incrementAndGet() > threshold && spilled.compareAndSet(false, true))
+		{
+			LOGGER.info("More than {} datapoints in memory, spilling {} partitions to {}", threshold, partitions.length, VTL_SPILL_DIRECTORY.getValue());
+			for (Partition partition: partitions)
+				partition.spill();
+		}
+		
+		partitions[partitionOf(dp)].add(dp, spilled.get());
+	}
+
+	/**
+	 * Finds the partition where datapoints matching the given one would be placed.
+	 *
+	 * @param dp a datapoint containing all the partitioning keys
+	 * @return the partition number
+	 */
+	public int partitionOf(DataPoint dp)
+	{
+		int hash = 1;
+		for (DataStructureComponent<?, ?, ?> key: partitionKeys)
+			hash = 31 * hash + dp.get(key).hashCode();
+
+		// spread the bits as HashMap does
+		return Math.floorMod(hash ^ (hash >>> 16), partitions.length);
+	}
+
+	/**
+	 * @return true if the datapoints were moved to disk
+	 */
+	public boolean isSpilled()
+	{
+		return spilled.get();
+	}
+
+	/**
+	 * @return the number of partitions
+	 */
+	public int getPartitionsCount()
+	{
+		return partitions.length;
+	}
+
+	/**
+	 * @return the number of datapoints added
+	 */
+	public long size()
+	{
+		return size.get();
+	}
+
+	/**
+	 * Reads back all the datapoints of a partition, releasing its resources.
+	 * Each partition can be streamed only once.
+	 * 
+	 * @param partition The partition number
+	 * @return The datapoints of the partition
+	 */
+	public Stream<DataPoint> streamPartition(int partition)
+	{
+		return partitions[partition].drain().stream();
+	}
+
+	/**
+	 * Deletes all the temporary files still present.
+	 */
+	@Override
+	public void close()
+	{
+		for (Partition partition: partitions)
+			partition.release();
+	}
+
+	private class Partition
+	{
+		private List<DataPoint> buffer = new ArrayList<>();
+		private final DataPointCodec codec = new DataPointCodec(structure);
+		private Path file = null;
+		private DataOutputStream output = null;
+		private long written = 0;
+
+		public synchronized void add(DataPoint dp, boolean spill)
+		{
+			if (spill)
+			{
+				spill();
+				write(dp);
+			}
+			else
+				buffer.add(dp);
+		}
+		
+		public synchronized void spill()
+		{
+			try
+			{
+				if (output == null)
+				{
+					file = Files.createTempFile(Paths.get(VTL_SPILL_DIRECTORY.getValue()), "vtl-spill-", ".bin");
+					output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+				}
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+
+			for (DataPoint dp: buffer)
+				write(dp);
+			buffer = new ArrayList<>();
+		}
+
+		public synchronized List<DataPoint> drain()
+		{
+			List<DataPoint> result = buffer;
+			buffer = new ArrayList<>();
+			if (output != null)
+				try
+				{
+					output.close();
+					output = null;
+					try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+					{
+						result = new ArrayList<>(result);
+						for (long i = 0; i < written; i++)
+							result.add(read(input));
+					}
+				}
+				catch (IOException e)
+				{
+					throw new UncheckedIOException(e);
+				}
+				finally
+				{
+					release();
+				}
+			
+			return result;
+		}
+
+		public synchronized void release()
+		{
+			try
+			{
+				if (output != null)
+					output.close();
+				if (file != null)
+					Files.deleteIfExists(file);
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Could not delete spill file " + file, e);
+			}
+			finally
+			{
+				output = null;
+				file = null;
+				written = 0;
+				codec.clear();
+			}
+		}
+
+		private void write(DataPoint dp)
+		{
+			try
+			{
+				codec.write(output, dp);
+				written++;
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private DataPoint read(DataInputStream input) throws IOException
+		{
+			try
+			{
+				return codec.read(input);
+			}
+			catch (IOException e)
+			{
+				throw new IOException("Corrupted spill file " + file, e);
+			}
+		}
+	}
+}
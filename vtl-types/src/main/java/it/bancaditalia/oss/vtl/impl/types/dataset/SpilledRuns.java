@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.dataset;
+
+import static it.bancaditalia.oss.vtl.impl.types.dataset.SpilledPartitions.VTL_SPILL_DIRECTORY;
+import static java.util.Spliterator.NONNULL;
+import static java.util.Spliterator.ORDERED;
+import static java.util.Spliterators.spliteratorUnknownSize;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+
+/**
+ * Sorts the datapoints of a dataset keeping at most a given number of them in memory.
+ * 
+ * Each time the threshold is reached, the datapoints in memory are sorted and written to a 
+ * temporary file as a sorted run, in the binary form of {@link DataPointCodec}. 
+ * The runs are then merged while streaming the sorted datapoints, reading one datapoint 
+ * at a time from each run, so that memory use is bounded by the threshold and by the number of runs.
+ */
+public class SpilledRuns implements AutoCloseable
+{
+	private final static Logger LOGGER = LoggerFactory.getLogger(SpilledRuns.class);
+
+	private final Comparator<? super DataPoint> comparator;
+	private final DataPointCodec codec;
+	private final long threshold;
+	private final List<Path> runs = new ArrayList<>();
+	private final List<Long> sizes = new ArrayList<>();
+	private final List<DataInputStream> inputs = new ArrayList<>();
+	private List<DataPoint> buffer = new ArrayList<>();
+
+	/**
+	 * Sorts all the datapoints of a dataset, spilling sorted runs to disk if the threshold is exceeded.
+	 * The returned stream must be closed to delete the temporary files.
+	 * 
+	 * @param dataset The dataset to sort
+	 * @param comparator The order of the datapoints
+	 * @param threshold The maximum number of datapoints kept in memory
+	 * @return The sorted datapoints
+	 */
+	public static Stream<DataPoint> sort(DataSet dataset, Comparator<? super DataPoint> comparator, long threshold)
+	{
+		SpilledRuns runs = new SpilledRuns(dataset.getMetadata(), comparator, threshold);
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			stream.forEach(runs::add);
+			return runs.merge().onClose(runs::close);
+		}
+		catch (RuntimeException | Error e)
+		{
+			runs.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates an empty sort.
+	 * 
+	 * @param structure The structure of all the datapoints that will be added
+	 * @param comparator The order of the datapoints
+	 * @param threshold The maximum number of datapoints kept in memory
+	 */
+	public SpilledRuns(DataSetMetadata structure, Comparator<? super DataPoint> comparator, long threshold)
+	{
+		this.comparator = comparator;
+		this.codec = new DataPointCodec(structure);
+		this.threshold = Math.max(threshold, 1);
+	}
+
+	/**
+	 * Adds a datapoint to the sort. Can be called concurrently.
+	 * 
+	 * @param dp The datapoint
+	 */
+	public synchronized void add(DataPoint dp)
+	{
+		buffer.add(dp);
+		if (buffer.size() >= threshold)
+			spill();
+	}
+
+	/**
+	 * @return true if some datapoints were moved to disk
+	 */
+	public synchronized boolean isSpilled()
+	{
+		return !runs.isEmpty();
+	}
+
+	/**
+	 * Streams all the datapoints added so far in sorted order. Can be called only once, after all datapoints were added.
+	 * 
+	 * @return The sorted datapoints
+	 */
+	public synchronized Stream<DataPoint> merge()
+	{
+		if (runs.isEmpty())
+		{
+			List<DataPoint> sorted = buffer;
+			buffer = new ArrayList<>();
+			sorted.sort(comparator);
+			return sorted.stream();
+		}
+		
+		if (!buffer.isEmpty())
+			spill();
+		
+		LOGGER.debug("Merging {} sorted runs", runs.size());
+		PriorityQueue<Cursor> heads = new PriorityQueue<>(runs.size(), (c1, c2) -> comparator.compare(c1.head, c2.head));
+		try
+		{
+			for (int i = 0; i < runs.size(); i++)
+			{
+				DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(runs.get(i)), 1 << 16));
+				inputs.add(input);
+				Cursor cursor = new Cursor(input, sizes.get(i));
+				if (cursor.advance())
+					heads.add(cursor);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+
+		Iterator<DataPoint> merged = new Iterator<DataPoint>() {
+			@Override
+			public boolean hasNext()
+			{
+				return !heads.isEmpty();
+			}
+
+			@Override
+			public DataPoint next()
+			{
+				Cursor cursor = heads.poll();
+				if (cursor == null)
+					throw new NoSuchElementException();
+				
+				DataPoint result = cursor.head;
+				if (cursor.advance())
+					heads.add(cursor);
+				return result;
+			}
+		};
+		
+		return StreamSupport.stream(spliteratorUnknownSize(merged, ORDERED | NONNULL), false);
+	}
+
+	/**
+	 * Deletes all the temporary files still present.
+	 */
+	@Override
+	public synchronized void close()
+	{
+		for (DataInputStream input: inputs)
+			try
+			{
+				input.close();
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Could not close sorted run", e);
+			}
+		inputs.clear();
+		
+		for (Path run: runs)
+			try
+			{
+				Files.deleteIfExists(run);
+			}
+			catch (IOException e)
+			{
+				LOGGER.warn("Could not delete sorted run " + run, e);
+			}
+		runs.clear();
+		sizes.clear();
+		buffer = new ArrayList<>();
+		codec.clear();
+	}
+
+	private void spill()
+	{
+		if (runs.isEmpty())
+			LOGGER.info("More than {} datapoints to sort, spilling sorted runs to {}", threshold, VTL_SPILL_DIRECTORY.getValue());
+		
+		buffer.sort(comparator);
+		try
+		{
+			Path run = Files.createTempFile(Paths.get(VTL_SPILL_DIRECTORY.getValue()), "vtl-sort-", ".bin");
+			runs.add(run);
+			try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16)))
+			{
+				for (DataPoint dp: buffer)
+					codec.write(output, dp);
+			}
+			sizes.add((long) buffer.size());
+		}
+		catch (IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		
+		buffer = new ArrayList<>();
+	}
+
+	/*
+	 * The next datapoint to be merged from a sorted run
+	 */
+	private class Cursor
+	{
+		private final DataInputStream input;
+		private long remaining;
+		private DataPoint head;
+		
+		public Cursor(DataInputStream input, long size)
+		{
+			this.input = input;
+			this.remaining = size;
+		}
+		
+		public boolean advance()
+		{
+			if (remaining-- <= 0)
+				return false;
+			
+			try
+			{
+				head = codec.read(input);
+				return true;
+			}
+			catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.lineage;
+
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+
+/**
+ * Interns lineage instances, so that there is only one instance for each key as long as it is referenced.
+ * 
+ * @param <K> The type of the keys
+ * @param <L> The type of the interned lineages
+ */
+class LineageCache<K, L extends Lineage>
+{
+	private final Map<K, SoftReference<L>> cache = new ConcurrentHashMap<>();
+
+	public L intern(K key, Function<? super K, ? extends L> factory)
+	{
+		SoftReference<L> reference = cache.get(key);
+		L instance = reference != null ? reference.get() : null;
+		if (instance != null)
+			return instance;
+		
+		// Atomically replace the reference if it was cleared, so that there are never two live instances for the same key
+		@SuppressWarnings("unchecked")
+		L result[] = (L[]) new Lineage[1];
+		cache.compute(key, (k, ref) -> {
+			result[0] = ref != null ? ref.get() : null;
+			if (result[0] != null)
+				return ref;
+			
+			result[0] = factory.apply(k);
+			return new SoftReference<>(result[0]);
+		});
+		
+		return result[0];
+	}
+}
@@ -19,41 +19,36 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.lineage;
 
+import static it.bancaditalia.oss.vtl.impl.types.lineage.LineageMode.OFF;
 import static java.util.stream.Collectors.toList;
 
-import java.lang.ref.SoftReference;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
 public class LineageCall extends LineageImpl implements LineageSet
 {
-	private final static Map<List<Lineage>, SoftReference<LineageCall>> CACHE = new ConcurrentHashMap<>();
+	private final static LineageCache<List<Lineage>, LineageCall> CACHE = new LineageCache<>();
 	private final List<Lineage> sources;
 
-	public static LineageCall of(Lineage... sources)
+	public static Lineage of(Lineage... sources)
 	{
 		return of(Arrays.asList(sources));
 	}
 
-	public static LineageCall of(List<Lineage> sources)
+	public static Lineage of(List<Lineage> sources)
 	{
+		if (LineageMode.current() == OFF)
+			return LineageNone.INSTANCE;
+		
 		sources.forEach(e -> {
 			if (e instanceof LineageSet)
 				throw new NullPointerException();
 		});
 		
-		LineageCall instance = CACHE.computeIfAbsent(sources, s -> new SoftReference<>(new LineageCall(s))).get();
-		if (instance == null)
-		{
-			instance = new LineageCall(sources);
-			CACHE.put(sources, new SoftReference<>(instance));
-		}
-		return instance;
+		return CACHE.intern(sources, LineageCall::new);
 	}
 
 	private LineageCall(List<Lineage> sources)
@@ -62,7 +57,7 @@ public class LineageCall extends LineageImpl implements LineageSet
 	}
 
 	@Override
-	public LineageCall resolveExternal(TransformationScheme scheme)
+	public Lineage resolveExternal(TransformationScheme scheme)
 	{
 		return LineageCall.of(sources.stream().map(l -> l.resolveExternal(scheme)).collect(toList()));
 	}
@@ -72,35 +67,6 @@ public class LineageCall extends LineageImpl implements LineageSet
 		return sources;
 	}
 
-	@Override
-	public int hashCode()
-	{
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((sources == null) ? 0 : sources.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj)
-	{
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		LineageCall other = (LineageCall) obj;
-		if (sources == null)
-		{
-			if (other.sources != null)
-				return false;
-		}
-		else if (!sources.equals(other.sources))
-			return false;
-		return true;
-	}
-
 	public long size()
 	{
 		return sources.size();
@@ -19,46 +19,45 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.lineage;
 
-import java.lang.ref.SoftReference;
+import static it.bancaditalia.oss.vtl.impl.types.lineage.LineageMode.DATASET;
+import static it.bancaditalia.oss.vtl.impl.types.lineage.LineageMode.OFF;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
 
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
 public class LineageGroup extends LineageImpl implements LineageSet
 {
-	private final static Map<Map<Lineage, Long>, SoftReference<LineageGroup>> CACHE = new ConcurrentHashMap<>();
+	private final static LineageCache<Map<Lineage, Long>, LineageGroup> CACHE = new LineageCache<>();
 	private final Map<Lineage, Long> sources;
 
-//	public static LineageGroup of(Lineage... sources)
-//	{
-//		Map<Lineage, Long> sourcesMap = Arrays.stream(sources).collect(toMapWithValues(k -> 1L));
-//		return of(sourcesMap);
-//	}
-//
-//	public static LineageGroup of(Collection<Lineage> sources)
-//	{
-//		Map<Lineage, Long> sourcesMap = sources.stream().collect(toMapWithValues(k -> 1L));
-//		return of(sourcesMap);
-//	}
-//
-	public static LineageGroup of(Map<Lineage, Long> sources)
+	/**
+	 * When lineage is tracked at {@link LineageMode#DATASET dataset} level, the counts of the datapoints are discarded, 
+	 * so that all the groups aggregating datapoints from the same sources share the same lineage.
+	 */
+	public static Lineage of(Map<Lineage, Long> sources)
 	{
+		LineageMode mode = LineageMode.current();
+		if (mode == OFF)
+			return LineageNone.INSTANCE;
+		
 		sources.keySet().forEach(e -> {
 			if (e instanceof LineageGroup)
 				throw new NullPointerException();
 		});
 		
-		LineageGroup instance = CACHE.computeIfAbsent(sources, s -> new SoftReference<>(new LineageGroup(s))).get();
-		if (instance == null)
+		if (mode == DATASET)
 		{
-			instance = new LineageGroup(sources);
-			CACHE.put(sources, new SoftReference<>(instance));
+			Map<Lineage, Long> distinct = new HashMap<>();
+			for (Lineage source: sources.keySet())
+				distinct.put(source, 1L);
+			return CACHE.intern(distinct, LineageGroup::new);
 		}
-		return instance;
+		
+		return CACHE.intern(sources, LineageGroup::new);
 	}
 
 	private LineageGroup(Map<Lineage, Long> sources)
@@ -67,11 +66,11 @@ public class LineageGroup extends LineageImpl implements LineageSet
 	}
 
 	@Override
-	public LineageGroup resolveExternal(TransformationScheme scheme)
+	public Lineage resolveExternal(TransformationScheme scheme)
 	{
 		Map<Lineage, Long> resolvedSources = new HashMap<>((getSources().size()));
 		for (Entry<Lineage, Long> source : getSources().entrySet())
-			resolvedSources.put(source.getKey().resolveExternal(scheme), source.getValue());
+			resolvedSources.merge(source.getKey().resolveExternal(scheme), source.getValue(), Long::sum);
 
 		return LineageGroup.of(resolvedSources);
 	}
@@ -81,35 +80,6 @@ public class LineageGroup extends LineageImpl implements LineageSet
 		return sources;
 	}
 
-	@Override
-	public int hashCode()
-	{
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((sources == null) ? 0 : sources.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj)
-	{
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		LineageGroup other = (LineageGroup) obj;
-		if (sources == null)
-		{
-			if (other.sources != null)
-				return false;
-		}
-		else if (!sources.equals(other.sources))
-			return false;
-		return true;
-	}
-
 	public long size()
 	{
 		return sources.values().parallelStream().mapToLong(Long::longValue).sum();
@@ -19,27 +19,56 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.lineage;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import it.bancaditalia.oss.vtl.model.data.Lineage;
 
+/**
+ * Base class for interned lineages. Each instance is identified by a compact integer id,
+ * that is used for hashing and comparing instances without walking the lineage graph.
+ */
 public abstract class LineageImpl implements Lineage
 {
+	private final static Logger LOGGER = LoggerFactory.getLogger(LineageImpl.class);
+	private final static AtomicInteger IDS = new AtomicInteger();
+	
+	private final int id = IDS.incrementAndGet();
 	private final Exception exception;
 
 	public LineageImpl()
 	{
-		try
-		{
-			throw new NullPointerException();
-		}
-		catch (NullPointerException e)
-		{
-			e.getStackTrace();
-			this.exception = e;
-		}
+		// the creation point is only recorded when tracing, since filling the stack trace is expensive
+		this.exception = LOGGER.isTraceEnabled() ? new NullPointerException() : null;
 	}
 
+	/**
+	 * @return The place where this lineage was created, if lineage creation is being traced, or null.
+	 */
 	public Exception getException()
 	{
 		return exception;
 	}
+	
+	/**
+	 * @return The id of this lineage.
+	 */
+	public int getId()
+	{
+		return id;
+	}
+	
+	@Override
+	public final int hashCode()
+	{
+		return id;
+	}
+	
+	@Override
+	public final boolean equals(Object obj)
+	{
+		return this == obj;
+	}
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.lineage;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.Map.Entry;
+
+import it.bancaditalia.oss.vtl.config.ConfigurationManagerFactory;
+import it.bancaditalia.oss.vtl.config.VTLProperty;
+import it.bancaditalia.oss.vtl.impl.types.config.VTLPropertyImpl;
+
+/**
+ * The level of detail of the lineage tracked for computed datapoints.
+ */
+public enum LineageMode
+{
+	/**
+	 * Computed datapoints have no lineage. 
+	 */
+	OFF, 
+	
+	/**
+	 * All the datapoints computed from the same datasets share the same lineage, 
+	 * without counting how many datapoints were aggregated together.
+	 */
+	DATASET, 
+	
+	/**
+	 * Each datapoint has its own lineage, that also counts how many datapoints were aggregated together.
+	 */
+	ROW;
+
+	public static final VTLProperty VTL_LINEAGE_MODE = 
+			new VTLPropertyImpl("vtl.lineage.mode", "Lineage tracked for computed datapoints (off, dataset or row)", "row", false, false, "row");
+
+	static
+	{
+		ConfigurationManagerFactory.registerSupportedProperties(LineageMode.class, VTL_LINEAGE_MODE);
+	}
+	
+	private static volatile Entry<String, LineageMode> last = new SimpleEntry<>("row", ROW);
+	
+	/**
+	 * @return The lineage mode currently configured.
+	 */
+	public static LineageMode current()
+	{
+		String value = VTL_LINEAGE_MODE.getValue();
+		Entry<String, LineageMode> current = last;
+		if (!current.getKey().equals(value))
+			try
+			{
+				last = current = new SimpleEntry<>(value, valueOf(value.trim().toUpperCase()));
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new IllegalArgumentException("Invalid value for " + VTL_LINEAGE_MODE.getName() + ": " + value, e);
+			}
+		
+		return current.getValue();
+	}
+}
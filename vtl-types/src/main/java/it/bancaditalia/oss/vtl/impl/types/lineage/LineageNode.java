@@ -19,12 +19,9 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.lineage;
 
-import java.lang.ref.SoftReference;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.Map;
-import java.util.Map.Entry;
+import static it.bancaditalia.oss.vtl.impl.types.lineage.LineageMode.OFF;
+
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,39 +32,60 @@ import it.bancaditalia.oss.vtl.model.transform.TransformationScheme;
 
 public class LineageNode extends LineageImpl
 {
-	private final static Map<Entry<Transformation, LineageSet>, SoftReference<LineageNode>> CACHE = new ConcurrentHashMap<>();
+	private final static LineageCache<Key, LineageNode> CACHE = new LineageCache<>();
 	private final static Logger LOGGER = LoggerFactory.getLogger(LineageNode.class);
 
 	private final Transformation transformation;
 	private final LineageSet sources;
 
-	public static LineageNode of(Transformation transformation, Lineage... sources)
+	/*
+	 * Sources are interned, and each transformation instance produces its own lineages, 
+	 * so that a key can be hashed without walking the transformation and lineage graphs.
+	 */
+	private static class Key
+	{
+		private final Transformation transformation;
+		private final LineageSet sources;
+
+		public Key(Transformation transformation, LineageSet sources)
+		{
+			this.transformation = transformation;
+			this.sources = sources;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return 31 * System.identityHashCode(transformation) + sources.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			return obj instanceof Key && ((Key) obj).transformation == transformation && ((Key) obj).sources == sources;
+		}
+	}
+	
+	public static Lineage of(Transformation transformation, Lineage... sources)
 	{
-		if (sources.length == 1 && sources[0] instanceof LineageCall)
-			return of(transformation, (LineageCall) sources[0]);
-		else if (sources.length == 1 && sources[0] instanceof LineageGroup)
-			return of(transformation, (LineageGroup) sources[0]);
-		else
-			return of(transformation, LineageCall.of(sources));
+		if (LineageMode.current() == OFF)
+			return LineageNone.INSTANCE;
+		else if (sources.length == 1 && sources[0] instanceof LineageSet)
+			return of(transformation, (LineageSet) sources[0]);
+		
+		Lineage call = LineageCall.of(sources);
+		return call instanceof LineageSet ? of(transformation, (LineageSet) call) : call;
 	}
 	
-	public static LineageNode of(Transformation transformation, LineageSet sources)
+	public static Lineage of(Transformation transformation, LineageSet sources)
 	{
-		Entry<Transformation, LineageSet> entry = new SimpleEntry<>(transformation, sources);
-		LineageNode instance = CACHE.computeIfAbsent(entry, e -> {
+		if (LineageMode.current() == OFF)
+			return LineageNone.INSTANCE;
+		
+		return CACHE.intern(new Key(transformation, sources), key -> {
 			LOGGER.trace("Creating lineage for {} with {}...", transformation, sources);
-			final SoftReference<LineageNode> lineage = new SoftReference<>(new LineageNode(transformation, sources));
-			LOGGER.trace("Lineage created for {}.", transformation);
-			return lineage;
-		}).get();
-
-		// Small chance that the reference if gced while being resolved
-		if (instance == null)
-		{
-			instance = new LineageNode(transformation, sources);
-			CACHE.put(entry, new SoftReference<>(instance));
-		}
-		return instance;
+			return new LineageNode(transformation, sources);
+		});
 	}
 
 	private LineageNode(Transformation transformation, LineageSet sources)
@@ -96,41 +114,6 @@ public class LineageNode extends LineageImpl
 		return LineageNode.of(transformation, sources.resolveExternal(scheme));
 	}
 
-	@Override
-	public int hashCode()
-	{
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((sources == null) ? 0 : sources.hashCode());
-		result = prime * result + ((transformation == null) ? 0 : transformation.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj)
-	{
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		LineageNode other = (LineageNode) obj;
-		if (sources == null)
-		{
-			if (other.sources != null)
-				return false;
-		} else if (!sources.equals(other.sources))
-			return false;
-		if (transformation == null)
-		{
-			if (other.transformation != null)
-				return false;
-		} else if (!transformation.equals(other.transformation))
-			return false;
-		return true;
-	}
-
 	public Transformation getTransformation()
 	{
 		return transformation;
@@ -0,0 +1,527 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.operators;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
+
+import java.util.Arrays;
+
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+
+/**
+ * Mutable state of an aggregation over a group of values, shared by {@link AggregateOperator} and {@link AnalyticOperator}.
+ * Invertible accumulators also allow to remove values, so that they can be used on sliding windows.
+ * 
+ * Numeric accumulators read the primitive value of each scalar and keep their state in primitive fields,
+ * without boxing intermediate results. Null values are skipped, but they still count when deciding if all the
+ * aggregated values were integers.
+ */
+abstract class Accumulator
+{
+	private boolean integer = true;
+
+	/**
+	 * Adds a value to this accumulator.
+	 * 
+	 * @param value the value, may be a {@link NullValue} 
+	 */
+	public void accept(ScalarValue<?, ?, ?, ?> value)
+	{
+		if (integer && value != null && !INTEGERDS.isAssignableFrom(value.getDomain()))
+			integer = false;
+		
+		if (!(value instanceof NullValue))
+			acceptValue(value);
+	}
+
+	/**
+	 * Removes from this accumulator a value that was previously added to it.
+	 * 
+	 * @param value the value, may be a {@link NullValue}
+	 * @throws UnsupportedOperationException if this accumulator is not {@link #isInvertible() invertible}
+	 */
+	public void remove(ScalarValue<?, ?, ?, ?> value)
+	{
+		if (!(value instanceof NullValue))
+			removeValue(value);
+	}
+
+	/**
+	 * @return true if values can be {@link #remove(ScalarValue) removed} from this accumulator.
+	 */
+	public boolean isInvertible()
+	{
+		return false;
+	}
+
+	/**
+	 * Merges the state of another accumulator of the same kind into this one.
+	 * 
+	 * @param other the other accumulator, built from values following the ones of this accumulator.
+	 * @return this accumulator
+	 */
+	public Accumulator merge(Accumulator other)
+	{
+		integer &= other.integer;
+		mergeWith(other);
+		return this;
+	}
+
+	/**
+	 * Computes the result of the aggregation.
+	 * 
+	 * @param preserveInteger if true and all the aggregated values were integers, the result is converted to an integer. 
+	 * @return the aggregated value
+	 */
+	public ScalarValue<?, ?, ?, ?> result(boolean preserveInteger)
+	{
+		boolean toInteger = preserveInteger && integer;
+		ScalarValue<?, ?, ?, ?> result = finish(toInteger);
+		return toInteger && result instanceof DoubleValue ? IntegerValue.of(((DoubleValue<?>) result).get().longValue()) : result;
+	}
+
+	protected abstract void acceptValue(ScalarValue<?, ?, ?, ?> value);
+
+	protected abstract void mergeWith(Accumulator other);
+
+	protected void removeValue(ScalarValue<?, ?, ?, ?> value)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	protected abstract ScalarValue<?, ?, ?, ?> finish(boolean integer);
+
+	private static double doubleOf(ScalarValue<?, ?, ?, ?> value)
+	{
+		return ((Number) value.get()).doubleValue();
+	}
+
+	static class Count extends Accumulator
+	{
+		private long count = 0;
+
+		@Override
+		protected void acceptValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			count++;
+		}
+
+		@Override
+		protected void removeValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			count--;
+		}
+
+		@Override
+		public boolean isInvertible()
+		{
+			return true;
+		}
+
+		@Override
+		protected void mergeWith(Accumulator other)
+		{
+			count += ((Count) other).count;
+		}
+
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			return IntegerValue.of(count);
+		}
+	}
+
+	/**
+	 * Kahan-compensated sum; integer values are also summed exactly as longs until an overflow occurs.
+	 */
+	static class Sum extends Accumulator
+	{
+		protected long count = 0;
+		protected long longSum = 0;
+		protected boolean exact = true;
+		private double sum = 0;
+		private double compensation = 0;
+		private double simpleSum = 0;
+
+		@Override
+		protected void acceptValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			Object number = value.get();
+			count++;
+			if (number instanceof Long)
+			{
+				long l = (Long) number;
+				add(l);
+				if (exact)
+					try
+					{
+						longSum = Math.addExact(longSum, l);
+					}
+					catch (ArithmeticException e)
+					{
+						exact = false;
+					}
+			}
+			else
+			{
+				exact = false;
+				add(((Number) number).doubleValue());
+			}
+		}
+
+		@Override
+		protected void removeValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			Object number = value.get();
+			count--;
+			add(-((Number) number).doubleValue());
+			if (exact && number instanceof Long)
+				try
+				{
+					longSum = Math.subtractExact(longSum, (Long) number);
+				}
+				catch (ArithmeticException e)
+				{
+					exact = false;
+				}
+		}
+
+		@Override
+		public boolean isInvertible()
+		{
+			return true;
+		}
+
+		private void add(double value)
+		{
+			simpleSum += value;
+			double y = value - compensation;
+			double t = sum + y;
+			compensation = (t - sum) - y;
+			sum = t;
+		}
+
+		protected double getSum()
+		{
+			double result = sum - compensation;
+			// infinite values of opposite sign in the compensation make it NaN  
+			return Double.isNaN(result) && Double.isInfinite(simpleSum) ? simpleSum : result;
+		}
+
+		@Override
+		protected void mergeWith(Accumulator other)
+		{
+			Sum o = (Sum) other;
+			double simple = simpleSum + o.simpleSum;
+			count += o.count;
+			add(o.sum);
+			add(-o.compensation);
+			simpleSum = simple;
+			if (exact && o.exact)
+				try
+				{
+					longSum = Math.addExact(longSum, o.longSum);
+				}
+				catch (ArithmeticException e)
+				{
+					exact = false;
+				}
+			else
+				exact = false;
+		}
+
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			return integer && exact ? IntegerValue.of(longSum) : DoubleValue.of(getSum());
+		}
+	}
+
+	static class Average extends Sum
+	{
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			if (count == 0)
+				return DoubleValue.of(0.0);
+			
+			return DoubleValue.of(exact ? (double) longSum / count : getSum() / count);
+		}
+	}
+
+	/**
+	 * Welford's online algorithm, see https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
+	 */
+	static class Variance extends Accumulator
+	{
+		private final boolean sample;
+		private final boolean stddev;
+		private double count = 0;
+		private double mean = 0;
+		private double m2 = 0;
+
+		public Variance(boolean sample, boolean stddev)
+		{
+			this.sample = sample;
+			this.stddev = stddev;
+		}
+
+		@Override
+		protected void acceptValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			double d = doubleOf(value);
+			count++;
+			double delta = d - mean;
+			mean += delta / count;
+			m2 += delta * (d - mean);
+		}
+
+		@Override
+		protected void removeValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			double d = doubleOf(value);
+			if (--count == 0)
+			{
+				mean = 0;
+				m2 = 0;
+				return;
+			}
+
+			double oldMean = mean;
+			mean -= (d - mean) / count;
+			m2 -= (d - oldMean) * (d - mean);
+		}
+
+		@Override
+		public boolean isInvertible()
+		{
+			return true;
+		}
+
+		@Override
+		protected void mergeWith(Accumulator other)
+		{
+			Variance o = (Variance) other;
+			if (o.count == 0)
+				return;
+			
+			double delta = o.mean - mean;
+			double total = count + o.count;
+			m2 += o.m2 + delta * delta * count * o.count / total;
+			mean += delta * o.count / total;
+			count = total;
+		}
+
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			double variance = m2 / (sample ? count - 1 : count);
+			return DoubleValue.of(stddev ? Math.sqrt(variance) : variance);
+		}
+	}
+
+	/**
+	 * Collects the values in a primitive array and finds the median with quickselect.
+	 * NaN values are counted apart and ordered after all the other values. 
+	 */
+	static class Median extends Accumulator
+	{
+		private double values[] = new double[16];
+		private int size = 0;
+		private int nans = 0;
+
+		@Override
+		protected void acceptValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			add(doubleOf(value));
+		}
+
+		private void add(double d)
+		{
+			if (Double.isNaN(d))
+				nans++;
+			else
+			{
+				if (size == values.length)
+					values = Arrays.copyOf(values, size * 2);
+				values[size++] = d;
+			}
+		}
+
+		@Override
+		protected void mergeWith(Accumulator other)
+		{
+			Median o = (Median) other;
+			if (size + o.size > values.length)
+				values = Arrays.copyOf(values, Math.max(size + o.size, values.length * 2));
+			System.arraycopy(o.values, 0, values, size, o.size);
+			size += o.size;
+			nans += o.nans;
+		}
+
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			int total = size + nans;
+			if (total == 0)
+				return NullValue.instance(NUMBERDS);
+
+			int k = total / 2;
+			double median = k < size ? select(values, size, k) : Double.NaN;
+			if (total % 2 != 0 && k + 1 < total)
+				median = (median + (k + 1 < size ? min(values, k + 1, size) : Double.NaN)) / 2;
+			
+			return DoubleValue.of(median);
+		}
+
+		private static double min(double a[], int from, int to)
+		{
+			double min = a[from];
+			for (int i = from + 1; i < to; i++)
+				if (a[i] < min)
+					min = a[i];
+			return min;
+		}
+
+		// Hoare's selection, leaves all the elements after position k greater than or equal to a[k]
+		private static double select(double a[], int n, int k)
+		{
+			int lo = 0, hi = n - 1;
+			while (lo < hi)
+			{
+				int mid = (lo + hi) >>> 1;
+				if (a[mid] < a[lo])
+					swap(a, lo, mid);
+				if (a[hi] < a[lo])
+					swap(a, lo, hi);
+				if (a[hi] < a[mid])
+					swap(a, mid, hi);
+				
+				double pivot = a[mid];
+				int i = lo, j = hi;
+				while (i <= j)
+				{
+					while (a[i] < pivot)
+						i++;
+					while (a[j] > pivot)
+						j--;
+					if (i <= j)
+						swap(a, i++, j--);
+				}
+				
+				if (k <= j)
+					hi = j;
+				else if (k >= i)
+					lo = i;
+				else
+					break;
+			}
+			
+			return a[k];
+		}
+
+		private static void swap(double a[], int i, int j)
+		{
+			double t = a[i];
+			a[i] = a[j];
+			a[j] = t;
+		}
+	}
+
+	/**
+	 * Keeps the minimum or the maximum value seen, comparing values with their natural order.
+	 */
+	static class Extreme extends Accumulator
+	{
+		private final int sign;
+		private final ScalarValue<?, ?, ?, ?> empty;
+		private ScalarValue<?, ?, ?, ?> value = null;
+
+		public Extreme(boolean max, ScalarValue<?, ?, ?, ?> empty)
+		{
+			this.sign = max ? 1 : -1;
+			this.empty = empty;
+		}
+
+		@Override
+		protected void acceptValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			if (this.value == null || sign * value.compareTo(this.value) > 0)
+				this.value = value;
+		}
+
+		@Override
+		protected void mergeWith(Accumulator other)
+		{
+			ScalarValue<?, ?, ?, ?> o = ((Extreme) other).value;
+			if (o != null)
+				acceptValue(o);
+		}
+
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			return value != null ? value : empty;
+		}
+	}
+
+	/**
+	 * Keeps the first or the last value seen, including null values.
+	 */
+	static class Position extends Accumulator
+	{
+		private final boolean last;
+		private ScalarValue<?, ?, ?, ?> value = null;
+
+		public Position(boolean last)
+		{
+			this.last = last;
+		}
+
+		@Override
+		public void accept(ScalarValue<?, ?, ?, ?> value)
+		{
+			acceptValue(value);
+		}
+
+		@Override
+		protected void acceptValue(ScalarValue<?, ?, ?, ?> value)
+		{
+			if (this.value == null || last && value != null)
+				this.value = value;
+		}
+
+		@Override
+		protected void mergeWith(Accumulator other)
+		{
+			acceptValue(((Position) other).value);
+		}
+
+		@Override
+		protected ScalarValue<?, ?, ?, ?> finish(boolean integer)
+		{
+			return value != null ? value : NullValue.instance(NUMBERDS);
+		}
+	}
+}
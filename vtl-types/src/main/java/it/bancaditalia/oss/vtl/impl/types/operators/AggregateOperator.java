@@ -19,133 +19,104 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.operators;
 
-import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NULLDS;
-import static it.bancaditalia.oss.vtl.util.Utils.filtering;
-import static it.bancaditalia.oss.vtl.util.Utils.peeking;
 import static java.util.stream.Collector.Characteristics.UNORDERED;
-import static java.util.stream.Collectors.averagingDouble;
-import static java.util.stream.Collectors.collectingAndThen;
-import static java.util.stream.Collectors.counting;
-import static java.util.stream.Collectors.mapping;
-import static java.util.stream.Collectors.maxBy;
-import static java.util.stream.Collectors.minBy;
-import static java.util.stream.Collectors.summingDouble;
-import static java.util.stream.Collectors.toList;
 
 import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
-import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
-import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
 import it.bancaditalia.oss.vtl.impl.types.lineage.LineageGroup;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageMode;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Average;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Count;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Extreme;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Median;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Sum;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Variance;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
 import it.bancaditalia.oss.vtl.model.data.Lineage;
-import it.bancaditalia.oss.vtl.model.data.NumberValue;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
 
 public enum AggregateOperator  
 {
-	COUNT("count", (dp, m) -> null, collectingAndThen(counting(), IntegerValue::of)),
-	SUM("sum", collectingAndThen(summingDouble(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue()), DoubleValue::of)), 
-	AVG("avg", collectingAndThen(averagingDouble(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue()), DoubleValue::of)),
-	MEDIAN("median", collectingAndThen(mapping(NumberValue.class::cast, mapping(NumberValue::get, mapping(Number.class::cast, mapping(Number::doubleValue, 
-			toList())))), l -> {
-				List<Double> c = new ArrayList<>(l);
-				Collections.sort(c);
-				int s = c.size();
-				return DoubleValue.of(s % 2 == 0 ? c.get(s / 2) : (c.get(s /2) + c.get(s / 2 + 1)) / 2);
-			})),
-	MIN("min", collectingAndThen(minBy(ScalarValue::compareTo), opt -> opt.orElse(NullValue.instance(NULLDS)))),
-	MAX("max", collectingAndThen(maxBy(ScalarValue::compareTo), opt -> opt.orElse(NullValue.instance(NULLDS)))),
-	// See https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-	VAR_POP("stddev_pop", collectingAndThen(mapping(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue(), Collector.of( 
-	        () -> new double[3],
-	        (acu, d) -> {
-	            acu[0]++;
-	            double delta = d - acu[1];
-	            acu[1] += delta / acu[0];
-	            acu[2] += delta * (d - acu[1]);
-	        },
-	        (acuA, acuB) -> { 
-	            double delta = acuB[1] - acuA[1];
-	            double count = acuA[0] + acuB[0];
-	            acuA[2] = acuA[2] + acuB[2] + delta * delta * acuA[0] * acuB[0] / count; // M2
-	            acuA[1] += delta * acuB[0] / count; 
-	            acuA[0] = count;
-	            return acuA;
-	        },
-	        acu -> acu[2] / acu[0], UNORDERED)), DoubleValue::of)),
-	// See https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-	VAR_SAMP("stddev_samp", collectingAndThen(Collectors.mapping(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue(), Collector.of( 
-	        () -> new double[3],
-	        (acu, d) -> {
-	            acu[0]++;
-	            double delta = d - acu[1];
-	            acu[1] += delta / acu[0];
-	            acu[2] += delta * (d - acu[1]);
-	        },
-	        (acuA, acuB) -> { 
-	            double delta = acuB[1] - acuA[1];
-	            double count = acuA[0] + acuB[0];
-	            acuA[2] = acuA[2] + acuB[2] + delta * delta * acuA[0] * acuB[0] / count; // M2
-	            acuA[1] += delta * acuB[0] / count; 
-	            acuA[0] = count;
-	            return acuA;
-	        },
-	        acu -> acu[2] / (acu[0] + 1.0), UNORDERED)), DoubleValue::of)),
-	STDDEV_POP("stddev.pop", collectingAndThen(VAR_POP.getReducer(), dv -> DoubleValue.of(Math.sqrt((Double) dv.get())))),
-	STDDEV_SAMP("stddev.var", collectingAndThen(VAR_SAMP.getReducer(), dv -> DoubleValue.of(Math.sqrt((Double) dv.get()))));
+	COUNT("count", (dp, m) -> null, Count::new),
+	SUM("sum", Sum::new), 
+	AVG("avg", Average::new),
+	MEDIAN("median", Median::new),
+	MIN("min", () -> new Extreme(false, NullValue.instance(NULLDS))),
+	MAX("max", () -> new Extreme(true, NullValue.instance(NULLDS))),
+	VAR_POP("stddev_pop", () -> new Variance(false, false)),
+	VAR_SAMP("stddev_samp", () -> new Variance(true, false)),
+	STDDEV_POP("stddev.pop", () -> new Variance(false, true)),
+	STDDEV_SAMP("stddev.var", () -> new Variance(true, true));
 
-	private final Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> reducer;
+	// Accumulates a group of datapoints, keeping track of their lineage
+	private static class GroupAccumulator
+	{
+		private final Accumulator accumulator;
+		private final Map<Lineage, Long> lineage = new HashMap<>();
+		private final boolean tracked = LineageMode.current() != LineageMode.OFF;
+
+		public GroupAccumulator(Accumulator accumulator)
+		{
+			this.accumulator = accumulator;
+		}
+		
+		public void accept(DataPoint dp, ScalarValue<?, ?, ?, ?> value)
+		{
+			if (tracked)
+				lineage.merge(dp.getLineage(), 1L, Long::sum);
+			accumulator.accept(value);
+		}
+		
+		public GroupAccumulator merge(GroupAccumulator other)
+		{
+			accumulator.merge(other.accumulator);
+			other.lineage.forEach((k, v) -> lineage.merge(k, v, Long::sum));
+			return this;
+		}
+		
+		public Entry<Lineage, ScalarValue<?, ?, ?, ?>> finish()
+		{
+			return new SimpleEntry<>(LineageGroup.of(lineage), accumulator.result(true));
+		}
+	}
+	
+	private final Supplier<Accumulator> accumulator;
 	private final BiFunction<? super DataPoint, ? super DataStructureComponent<? extends Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> extractor;
 	private final String name;
 
-	private AggregateOperator(String name, Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> reducer)
+	private AggregateOperator(String name, Supplier<Accumulator> accumulator)
 	{
-		this(name, (dp, c) -> dp.get(c), reducer);
+		this(name, (dp, c) -> dp.get(c), accumulator);
 	}
 
 	private AggregateOperator(String name,
 			BiFunction<? super DataPoint, ? super DataStructureComponent<? extends Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> extractor,
-			Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> reducer)
+			Supplier<Accumulator> accumulator)
 	{
 		this.name = name;
 		this.extractor = extractor;
-		this.reducer = reducer;
+		this.accumulator = accumulator;
 	}
 
 	public Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> getReducer()
 	{
-		return reducer;
+		return Collector.of(accumulator, Accumulator::accept, Accumulator::merge, acc -> acc.result(false), UNORDERED);
 	}
 	
 	public Collector<DataPoint, ?, Entry<Lineage, ScalarValue<?, ?, ?, ?>>> getReducer(DataStructureComponent<? extends Measure, ?, ?> measure)
 	{
-		AtomicBoolean isInteger = new AtomicBoolean(true);
-		Map<Lineage, Long> lineage = new ConcurrentHashMap<>();
-		return collectingAndThen(
-			collectingAndThen(
-				peeking(dp -> lineage.merge(dp.getLineage(), 1L, Long::sum), 
-					mapping(dp -> extractor.apply(dp, measure),
-						peeking(extracted -> {
-								if (extracted != null && !INTEGERDS.isAssignableFrom(extracted.getDomain()))
-									isInteger.set(false);
-							}, filtering(v -> !(v instanceof NullValue), reducer)))), 
-				v -> v instanceof DoubleValue && isInteger.get() ? IntegerValue.of(((DoubleValue<?>) v).get().longValue()): v),
-			value -> new SimpleEntry<>(LineageGroup.of(lineage), value));
+		return Collector.of(() -> new GroupAccumulator(accumulator.get()), (acc, dp) -> acc.accept(dp, extractor.apply(dp, measure)), 
+				GroupAccumulator::merge, GroupAccumulator::finish, UNORDERED);
 	}
 	
 	@Override
@@ -19,166 +19,145 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.operators;
 
-import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.NUMBERDS;
 import static java.lang.Double.NaN;
-import static java.util.stream.Collector.Characteristics.UNORDERED;
-import static java.util.stream.Collectors.averagingDouble;
-import static java.util.stream.Collectors.collectingAndThen;
-import static java.util.stream.Collectors.counting;
-import static java.util.stream.Collectors.mapping;
-import static java.util.stream.Collectors.maxBy;
-import static java.util.stream.Collectors.minBy;
-import static java.util.stream.Collectors.summingDouble;
-import static java.util.stream.Collectors.toList;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
-import java.util.function.BinaryOperator;
-import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collector;
-import java.util.stream.Collectors;
 
 import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
-import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
 import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Average;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Count;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Extreme;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Median;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Position;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Sum;
+import it.bancaditalia.oss.vtl.impl.types.operators.Accumulator.Variance;
 import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
 import it.bancaditalia.oss.vtl.model.data.DataPoint;
 import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
-import it.bancaditalia.oss.vtl.model.data.NumberValue;
 import it.bancaditalia.oss.vtl.model.data.ScalarValue;
-import it.bancaditalia.oss.vtl.util.Utils;
 
 public enum AnalyticOperator  
 {
-	COUNT("count", (dp, m) -> null, collectingAndThen(counting(), IntegerValue::of)),
-	SUM("sum", collectingAndThen(summingDouble(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue()), DoubleValue::of)), 
-	AVG("avg", collectingAndThen(averagingDouble(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue()), DoubleValue::of)),
-	MEDIAN("median", collectingAndThen(mapping(NumberValue.class::cast, mapping(NumberValue::get, mapping(Number.class::cast, mapping(Number::doubleValue, 
-			toList())))), l -> {
-				List<Double> c = new ArrayList<>(l);
-				Collections.sort(c);
-				int s = c.size();
-				return DoubleValue.of(s % 2 == 0 ? c.get(s / 2) : (c.get(s /2) + c.get(s / 2 + 1)) / 2);
-			})),
-	MIN("min", collectingAndThen(minBy(ScalarValue::compareTo), v -> v.orElse(DoubleValue.of(NaN)))),
-	MAX("max", collectingAndThen(maxBy(ScalarValue::compareTo), v -> v.orElse(DoubleValue.of(NaN)))),
-	// See https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-	VAR_POP("var_pop", collectingAndThen(Collectors.mapping(v -> ((NumberValue<?, ?, ?, ?>)v).get().doubleValue(), Collector.of(
-	        () -> new double[3],
-	        (acu, d) -> {
-	            acu[0]++;
-	            double delta = d - acu[1];
-	            acu[1] += delta / acu[0];
-	            acu[2] += delta * (d - acu[1]);
-	        },
-	        (acuA, acuB) -> { 
-	            double delta = acuB[1] - acuA[1];
-	            double count = acuA[0] + acuB[0];
-	            acuA[2] = acuA[2] + acuB[2] + delta * delta * acuA[0] * acuB[0] / count; // M2
-	            acuA[1] += delta * acuB[0] / count; 
-	            acuA[0] = count;
-	            return acuA;
-	        },
-	        acu -> acu[2] / acu[0], UNORDERED)), DoubleValue::of)),
-	// See https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance
-	VAR_SAMP("var_samp", collectingAndThen(mapping(v -> ((NumberValue<?, ?, ?, ?>) v).get().doubleValue(), Collector.of( 
-	        () -> new double[3],
-	        (acu, d) -> {
-	            acu[0]++;
-	            double delta = d - acu[1];
-	            acu[1] += delta / acu[0];
-	            acu[2] += delta * (d - acu[1]);
-	        },
-	        (acuA, acuB) -> { 
-	            double delta = acuB[1] - acuA[1];
-	            double count = acuA[0] + acuB[0];
-	            acuA[2] = acuA[2] + acuB[2] + delta * delta * acuA[0] * acuB[0] / count; // M2
-	            acuA[1] += delta * acuB[0] / count; 
-	            acuA[0] = count;
-	            return acuA;
-	        },
-	        acu -> acu[2] / (acu[0] + 1.0), UNORDERED)), DoubleValue::of)),
-	STDDEV_POP("stddev_pop", collectingAndThen(VAR_POP.getReducer(), dv -> DoubleValue.of(Math.sqrt((Double) dv.get())))),
-	STDDEV_SAMP("stddev_var", collectingAndThen(VAR_SAMP.getReducer(), dv -> DoubleValue.of(Math.sqrt((Double) dv.get())))),
-	FIRST_VALUE("first_value", new PositionCollector(Utils::coalesce, (a, b) -> a)),
-	LAST_VALUE("last_value", new PositionCollector(Utils::coalesceSwapped, (a, b) -> b));
+	COUNT("count", (dp, m) -> null, Count::new),
+	SUM("sum", Sum::new), 
+	AVG("avg", Average::new),
+	MEDIAN("median", Median::new),
+	MIN("min", () -> new Extreme(false, DoubleValue.of(NaN))),
+	MAX("max", () -> new Extreme(true, DoubleValue.of(NaN))),
+	VAR_POP("var_pop", () -> new Variance(false, false)),
+	VAR_SAMP("var_samp", () -> new Variance(true, false)),
+	STDDEV_POP("stddev_pop", () -> new Variance(false, true)),
+	STDDEV_SAMP("stddev_var", () -> new Variance(true, true)),
+	FIRST_VALUE("first_value", () -> new Position(false)),
+	LAST_VALUE("last_value", () -> new Position(true));
 	/* TODO: LAG, LEAD, RANK */
 	
-	private static class PositionCollector implements Collector<ScalarValue<?, ?, ?, ?>, AtomicReference<ScalarValue<?, ?, ?, ?>>, ScalarValue<?, ?, ?, ?>>
-	{
-		private final BinaryOperator<ScalarValue<?, ?, ?, ?>> valueCombiner;
-
-		public PositionCollector(BinaryOperator<ScalarValue<?, ?, ?, ?>> valueCombiner, BinaryOperator<AtomicReference<ScalarValue<?, ?, ?, ?>>> combinerFunction)
-		{
-			this.valueCombiner = valueCombiner;
-		}
-		
-		@Override
-		public Supplier<AtomicReference<ScalarValue<?, ?, ?, ?>>> supplier()
-		{
-			return AtomicReference::new;
-		}
-
-		@Override
-		public BiConsumer<AtomicReference<ScalarValue<?, ?, ?, ?>>, ScalarValue<?, ?, ?, ?>> accumulator()
-		{
-			return (acc, value) -> acc.accumulateAndGet(value,(a, b) -> valueCombiner.apply(a, b));
-		}
-
-		@Override
-		public BinaryOperator<AtomicReference<ScalarValue<?, ?, ?, ?>>> combiner()
-		{
-			return (left, right) -> {
-				left.accumulateAndGet(right.get(), (a, b) -> a);
-				return left;
-			};
-		}
-
-		@Override
-		public Function<AtomicReference<ScalarValue<?, ?, ?, ?>>, ScalarValue<?, ?, ?, ?>> finisher()
-		{
-			return acc -> acc.get() != null ? acc.get() : NullValue.instance(NUMBERDS);
-		}
-
-		@Override
-		public Set<Characteristics> characteristics()
-		{
-			return Collections.emptySet();
-		}
-	}
-
-	private final Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> reducer;
+	private final Supplier<Accumulator> accumulator;
 	private final BiFunction<? super DataPoint, ? super DataStructureComponent<? extends Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> extractor;
 	private final String name;
 
-	private AnalyticOperator(String name, Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> reducer)
+	private AnalyticOperator(String name, Supplier<Accumulator> accumulator)
 	{
-		this(name, DataPoint::get, reducer);
+		this(name, DataPoint::get, accumulator);
 	}
 
 	private AnalyticOperator(String name,
 			BiFunction<? super DataPoint, ? super DataStructureComponent<? extends Measure, ?, ?>, ScalarValue<?, ?, ?, ?>> extractor,
-			Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> reducer)
+			Supplier<Accumulator> accumulator)
 	{
 		this.name = name;
 		this.extractor = extractor;
-		this.reducer = reducer;
+		this.accumulator = accumulator;
 	}
 
 	public Collector<ScalarValue<?, ?, ?, ?>, ?, ScalarValue<?, ?, ?, ?>> getReducer()
 	{
-		return reducer;
+		return Collector.of(accumulator, Accumulator::accept, Accumulator::merge, acc -> acc.result(false));
 	}
 	
 	public Collector<DataPoint, ?, ScalarValue<?, ?, ?, ?>> getReducer(DataStructureComponent<? extends Measure, ?, ?> measure)
 	{
-		return Collectors.mapping(dp -> extractor.apply(dp, measure), reducer);
+		return Collector.of(accumulator, (acc, dp) -> acc.accept(extractor.apply(dp, measure)), Accumulator::merge, acc -> acc.result(false));
+	}
+	
+	/**
+	 * Applies this operator to each window of an ordered sequence of values.
+	 * 
+	 * Window {@code i} contains the values with index from {@code start[i]}, inclusive, to {@code end[i]}, exclusive; 
+	 * both bounds must be non-decreasing as {@code i} increases. Invertible aggregations are updated 
+	 * incrementally as the window slides, min and max are maintained with a monotonic deque, 
+	 * and all other aggregations are recomputed for each window.
+	 * 
+	 * @param values the values in window order
+	 * @param start the first index of each window
+	 * @param end the index following the last one of each window
+	 * @return the result of the aggregation for each window
+	 */
+	public ScalarValue<?, ?, ?, ?>[] applyToWindows(ScalarValue<?, ?, ?, ?> values[], int start[], int end[])
+	{
+		ScalarValue<?, ?, ?, ?> results[] = new ScalarValue<?, ?, ?, ?>[start.length];
+		
+		switch (this)
+		{
+			case FIRST_VALUE: case LAST_VALUE:
+				for (int i = 0; i < results.length; i++)
+					results[i] = start[i] >= end[i] ? accumulator.get().result(false) : values[this == FIRST_VALUE ? start[i] : end[i] - 1];
+				break;
+			case MIN: case MAX:
+				slideExtreme(values, start, end, results);
+				break;
+			default:
+				Accumulator acc = accumulator.get();
+				if (acc.isInvertible())
+				{
+					int lo = 0, hi = 0;
+					for (int i = 0; i < results.length; i++)
+					{
+						for (; lo < start[i]; lo++)
+							if (lo < hi)
+								acc.remove(values[lo]);
+						for (; hi < end[i]; hi++)
+							if (hi >= lo)
+								acc.accept(values[hi]);
+						results[i] = acc.result(false);
+					}
+				}
+				else
+					for (int i = 0; i < results.length; i++)
+					{
+						acc = accumulator.get();
+						for (int j = start[i]; j < end[i]; j++)
+							acc.accept(values[j]);
+						results[i] = acc.result(false);
+					}
+		}
+		
+		return results;
+	}
+	
+	// indexes of the non-null values in the window that may become the extreme as the window slides
+	private void slideExtreme(ScalarValue<?, ?, ?, ?> values[], int start[], int end[], ScalarValue<?, ?, ?, ?> results[])
+	{
+		int sign = this == MAX ? 1 : -1;
+		int deque[] = new int[values.length];
+		int head = 0, tail = 0, hi = 0;
+		for (int i = 0; i < results.length; i++)
+		{
+			for (; hi < end[i]; hi++)
+				if (hi >= start[i] && !(values[hi] instanceof NullValue))
+				{
+					while (tail > head && sign * values[deque[tail - 1]].compareTo(values[hi]) < 0)
+						tail--;
+					deque[tail++] = hi;
+				}
+			while (tail > head && deque[head] < start[i])
+				head++;
+			
+			results[i] = tail > head ? values[deque[head]] : accumulator.get().result(false);
+		}
 	}
 	
 	@Override
@@ -19,11 +19,14 @@
  */
 package it.bancaditalia.oss.vtl.impl.types.dataset;
 
+import static it.bancaditalia.oss.vtl.impl.types.dataset.SpilledPartitions.VTL_SPILL_THRESHOLD;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
 import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
 import static it.bancaditalia.oss.vtl.util.Utils.keepingKey;
 import static it.bancaditalia.oss.vtl.util.Utils.setOf;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -42,6 +45,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.function.BiPredicate;
 import java.util.stream.Stream;
 
@@ -150,6 +154,29 @@ public class AbstractDataSetTest
 		assertEquals(new HashSet<>(Arrays.asList(DATAPOINTS)), result.stream().collect(toSet()));
 	}
 
+	@Test
+	void testStreamByKeysSpilled()
+	{
+		Set<Entry<Map<DataStructureComponent<Identifier, ?, ?>, ScalarValue<?, ?, ?, ?>>, Set<DataPoint>>> inMemory, spilled, partial;
+		Set<DataStructureComponent<Identifier, ?, ?>> keys = singleton(STR_ID);
+		try
+		{
+			inMemory = INSTANCE.streamByKeys(keys, emptyMap(), toSet(), (group, key) -> new SimpleEntry<>(key, group)).collect(toSet());
+			VTL_SPILL_THRESHOLD.setValue("0");
+			spilled = INSTANCE.streamByKeys(keys, emptyMap(), toSet(), (group, key) -> new SimpleEntry<>(key, group)).collect(toSet());
+			VTL_SPILL_THRESHOLD.setValue("2");
+			partial = INSTANCE.streamByKeys(keys, emptyMap(), toSet(), (group, key) -> new SimpleEntry<>(key, group)).collect(toSet());
+		}
+		finally
+		{
+			VTL_SPILL_THRESHOLD.setValue(null);
+		}
+		
+		assertEquals(3, inMemory.size(), "Number of groups");
+		assertEquals(inMemory, spilled, "Groups spilled to disk");
+		assertEquals(inMemory, partial, "Groups partially spilled to disk");
+	}
+
 	@Test
 	void testFilter()
 	{
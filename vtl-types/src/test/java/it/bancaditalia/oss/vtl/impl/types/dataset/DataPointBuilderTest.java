@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.dataset;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.BOOLEANDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.exceptions.VTLMissingComponentsException;
+import it.bancaditalia.oss.vtl.impl.types.data.BooleanValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireBooleanDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireIntegerDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireStringDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.domain.BooleanDomain;
+import it.bancaditalia.oss.vtl.model.domain.IntegerDomain;
+import it.bancaditalia.oss.vtl.model.domain.StringDomain;
+import it.bancaditalia.oss.vtl.model.transform.Transformation;
+
+public class DataPointBuilderTest
+{
+	private static final DataStructureComponent<Identifier, EntireStringDomainSubset, StringDomain> STR_ID = new DataStructureComponentImpl<>("str_id", Identifier.class, STRINGDS);
+	private static final DataStructureComponent<Identifier, EntireIntegerDomainSubset, IntegerDomain> INT_ID = new DataStructureComponentImpl<>("int_id", Identifier.class, INTEGERDS);
+	private static final DataStructureComponent<Measure, EntireIntegerDomainSubset, IntegerDomain> INT_ME = new DataStructureComponentImpl<>("int_me", Measure.class, INTEGERDS);
+	private static final DataStructureComponent<Measure, EntireBooleanDomainSubset, BooleanDomain> BOL_ME = new DataStructureComponentImpl<>("bol_me", Measure.class, BOOLEANDS);
+	private static final DataSetMetadata STRUCTURE = new DataStructureBuilder(STR_ID, INT_ID, INT_ME, BOL_ME).build();
+
+	private static DataPoint DATAPOINT; 
+	private static Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> VALUES = new HashMap<>(); 
+
+	@BeforeAll
+	public static void beforeAll()
+	{
+		VALUES.put(STR_ID, StringValue.of("A"));
+		VALUES.put(INT_ID, IntegerValue.of(1L));
+		VALUES.put(INT_ME, IntegerValue.of(5L));
+		VALUES.put(BOL_ME, BooleanValue.of(true));
+		DATAPOINT = new DataPointBuilder(VALUES).build(mock(LineageNode.class), STRUCTURE);
+	}
+
+	@Test
+	void testSlots()
+	{
+		assertTrue(STRUCTURE.indexOf(INT_ID) < 2, "Identifiers must be assigned the first slots");
+		assertTrue(STRUCTURE.indexOf(STR_ID) < 2, "Identifiers must be assigned the first slots");
+		assertTrue(STRUCTURE.indexOf(INT_ME) >= 2, "Measures must be assigned the last slots");
+		assertEquals(-1, STRUCTURE.indexOf(INT_ME.rename("other")));
+	}
+
+	@Test
+	void testMapContract()
+	{
+		assertEquals(VALUES, DATAPOINT);
+		assertEquals(DATAPOINT, VALUES);
+		assertEquals(VALUES.hashCode(), DATAPOINT.hashCode());
+		assertEquals(VALUES.get(INT_ME), DATAPOINT.get(INT_ME));
+		assertEquals(2, DATAPOINT.getValues(Identifier.class).size());
+	}
+
+	@Test
+	void testFillsNullsAndChecksIdentifiers()
+	{
+		DataPoint partial = new DataPointBuilder().add(STR_ID, StringValue.of("A")).add(INT_ID, IntegerValue.of(1L)).build(mock(LineageNode.class), STRUCTURE);
+		assertEquals(NullValue.instanceFrom(INT_ME), partial.get(INT_ME));
+		assertThrows(VTLMissingComponentsException.class, () -> new DataPointBuilder().add(STR_ID, StringValue.of("A")).build(mock(LineageNode.class), STRUCTURE));
+	}
+
+	@Test
+	void testDerivedDataPoints()
+	{
+		Map<DataStructureComponent<?, ?, ?>, ScalarValue<?, ?, ?, ?>> expected = new HashMap<>(VALUES);
+		expected.remove(BOL_ME);
+		assertEquals(expected, DATAPOINT.dropComponents(singleton(BOL_ME)));
+		assertEquals(expected, DATAPOINT.keep(singleton(INT_ME)));
+		
+		DataStructureComponent<Measure, EntireIntegerDomainSubset, IntegerDomain> renamed = INT_ME.rename("renamed");
+		expected.put(renamed, expected.remove(INT_ME));
+		expected.put(BOL_ME, VALUES.get(BOL_ME));
+		assertEquals(expected, DATAPOINT.renameComponent(INT_ME, renamed));
+
+		DataPoint other = new DataPointBuilder(DATAPOINT.getValues(Identifier.class))
+				.add(INT_ME, IntegerValue.of(7L))
+				.add(renamed, IntegerValue.of(8L))
+				.build(mock(LineageNode.class), new DataStructureBuilder(STR_ID, INT_ID, INT_ME, renamed).build());
+		expected.put(INT_ME, VALUES.get(INT_ME));
+		expected.put(renamed, IntegerValue.of(8L));
+		assertEquals(expected, DATAPOINT.combine(mock(Transformation.class), other));
+	}
+
+	@Test
+	void testResolvedDerivations()
+	{
+		DataStructureComponent<Measure, EntireIntegerDomainSubset, IntegerDomain> renamed = INT_ME.rename("renamed");
+		UnaryOperator<DataPoint> renaming = DataPointBuilder.renaming(STRUCTURE, INT_ME, renamed);
+		assertEquals(DATAPOINT.renameComponent(INT_ME, renamed), renaming.apply(DATAPOINT));
+		assertEquals(DATAPOINT.dropComponents(singleton(BOL_ME)), DataPointBuilder.dropping(STRUCTURE, asList(BOL_ME)).apply(DATAPOINT));
+		assertEquals(DATAPOINT.keep(singleton(INT_ME)), DataPointBuilder.keeping(STRUCTURE, asList(INT_ME)).apply(DATAPOINT));
+		assertThrows(VTLMissingComponentsException.class, () -> DataPointBuilder.keeping(STRUCTURE, singleton(renamed)));
+
+		// datapoints of other structures fall back to the datapoint operations
+		DataPoint other = DataPointBuilder.dropping(STRUCTURE, singleton(BOL_ME)).apply(DATAPOINT);
+		assertEquals(other.renameComponent(INT_ME, renamed), renaming.apply(other));
+		
+		Transformation transformation = mock(Transformation.class);
+		BinaryOperator<DataPoint> combining = DataPointBuilder.combining(transformation, STRUCTURE, new DataStructureBuilder(STRUCTURE).removeComponent(INT_ME).addComponent(renamed).build());
+		assertEquals(DATAPOINT.combine(transformation, renaming.apply(DATAPOINT)), combining.apply(DATAPOINT, renaming.apply(DATAPOINT)));
+		assertEquals(other.combine(transformation, DATAPOINT), combining.apply(other, DATAPOINT));
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.dataset;
+
+import static it.bancaditalia.oss.vtl.impl.types.dataset.SpilledPartitions.VTL_SPILL_DIRECTORY;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.STRINGDS;
+import static java.util.Collections.shuffle;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.Mockito.mock;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.StringValue;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireIntegerDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireStringDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageNode;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Identifier;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataPoint;
+import it.bancaditalia.oss.vtl.model.data.DataSet;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.domain.IntegerDomain;
+import it.bancaditalia.oss.vtl.model.domain.StringDomain;
+
+public class SpilledRunsTest
+{
+	private static final DataStructureComponent<Identifier, EntireIntegerDomainSubset, IntegerDomain> INT_ID = new DataStructureComponentImpl<>("int_id", Identifier.class, INTEGERDS);
+	private static final DataStructureComponent<Measure, EntireStringDomainSubset, StringDomain> STR_ME = new DataStructureComponentImpl<>("str_me", Measure.class, STRINGDS);
+	private static final DataSetMetadata STRUCTURE = new DataStructureBuilder(INT_ID, STR_ME).build();
+	private static final Comparator<DataPoint> BY_ID = comparing(dp -> (Long) dp.get(INT_ID).get());
+
+	@TempDir
+	public Path spillDirectory;
+	
+	@AfterEach
+	public void afterEach()
+	{
+		VTL_SPILL_DIRECTORY.setValue(null);
+	}
+
+	@Test
+	void testSortsInMemory() throws IOException
+	{
+		VTL_SPILL_DIRECTORY.setValue(spillDirectory.toString());
+		DataSet dataset = sample(100);
+		
+		try (Stream<DataPoint> sorted = SpilledRuns.sort(dataset, BY_ID, 1000))
+		{
+			assertEquals(expected(dataset), sorted.collect(toList()));
+			assertFalse(Files.list(spillDirectory).findAny().isPresent(), "No runs spilled");
+		}
+	}
+
+	@Test
+	void testMergesSpilledRuns() throws IOException
+	{
+		VTL_SPILL_DIRECTORY.setValue(spillDirectory.toString());
+		DataSet dataset = sample(100);
+		
+		try (Stream<DataPoint> sorted = SpilledRuns.sort(dataset, BY_ID, 7))
+		{
+			assertEquals(15, Files.list(spillDirectory).count(), "Number of sorted runs");
+			assertEquals(expected(dataset), sorted.collect(toList()));
+		}
+		assertFalse(Files.list(spillDirectory).findAny().isPresent(), "Runs deleted on close");
+	}
+
+	private static List<DataPoint> expected(DataSet dataset)
+	{
+		try (Stream<DataPoint> stream = dataset.stream())
+		{
+			return stream.sorted(BY_ID).collect(toList());
+		}
+	}
+
+	private static DataSet sample(int size)
+	{
+		List<Long> ids = new ArrayList<>();
+		for (long i = 0; i < size; i++)
+			ids.add(i);
+		shuffle(ids, new Random(1));
+		
+		List<DataPoint> datapoints = new ArrayList<>();
+		LineageNode lineage = mock(LineageNode.class);
+		for (Long id: ids)
+			datapoints.add(new DataPointBuilder()
+					.add(INT_ID, IntegerValue.of(id))
+					.add(STR_ME, StringValue.of("value " + id))
+					.build(lineage, STRUCTURE));
+		
+		return new LightDataSet(STRUCTURE, datapoints::stream);
+	}
+}
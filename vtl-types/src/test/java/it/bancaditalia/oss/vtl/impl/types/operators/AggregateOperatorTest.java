@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2020 Banca D'Italia
+ *
+ * Licensed under the EUPL, Version 1.2 (the "License");
+ * You may not use this work except in compliance with the
+ * License.
+ * You may obtain a copy of the License at:
+ *
+ * https://joinup.ec.europa.eu/sites/default/files/custom-page/attachment/2020-03/EUPL-1.2%20EN.txt
+ *
+ * Unless required by applicable law or agreed to in
+ * writing, software distributed under the License is
+ * distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied.
+ *
+ * See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package it.bancaditalia.oss.vtl.impl.types.operators;
+
+import static it.bancaditalia.oss.vtl.impl.types.domain.Domains.INTEGERDS;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AggregateOperator.AVG;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AggregateOperator.MEDIAN;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AggregateOperator.STDDEV_SAMP;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AggregateOperator.SUM;
+import static it.bancaditalia.oss.vtl.impl.types.operators.AggregateOperator.VAR_POP;
+import static java.util.Collections.singletonMap;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import it.bancaditalia.oss.vtl.impl.types.data.DoubleValue;
+import it.bancaditalia.oss.vtl.impl.types.data.IntegerValue;
+import it.bancaditalia.oss.vtl.impl.types.data.NullValue;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataPointBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureBuilder;
+import it.bancaditalia.oss.vtl.impl.types.dataset.DataStructureComponentImpl;
+import it.bancaditalia.oss.vtl.impl.types.domain.EntireIntegerDomainSubset;
+import it.bancaditalia.oss.vtl.impl.types.lineage.LineageGroup;
+import it.bancaditalia.oss.vtl.model.data.ComponentRole.Measure;
+import it.bancaditalia.oss.vtl.model.data.DataSetMetadata;
+import it.bancaditalia.oss.vtl.model.data.DataStructureComponent;
+import it.bancaditalia.oss.vtl.model.data.Lineage;
+import it.bancaditalia.oss.vtl.model.data.ScalarValue;
+import it.bancaditalia.oss.vtl.model.domain.IntegerDomain;
+
+public class AggregateOperatorTest
+{
+	private static final DataStructureComponent<Measure, EntireIntegerDomainSubset, IntegerDomain> INT_ME = new DataStructureComponentImpl<>("int_me", Measure.class, INTEGERDS);
+	private static final int SIZE = 100_001;
+	private static final double VALUES[] = new Random(42).doubles(SIZE, -1e6, 1e6).toArray();
+
+	private static ScalarValue<?, ?, ?, ?> reduce(AggregateOperator operator, Stream<ScalarValue<?, ?, ?, ?>> values)
+	{
+		return values.collect(operator.getReducer());
+	}
+
+	private static Stream<ScalarValue<?, ?, ?, ?>> doubles()
+	{
+		return Arrays.stream(VALUES).parallel().mapToObj(DoubleValue::of);
+	}
+
+	@Test
+	public void sumIsCompensated()
+	{
+		// 1.0 followed by many values too small to change it when summed naively
+		Stream<ScalarValue<?, ?, ?, ?>> values = Stream.concat(Stream.of(DoubleValue.of(1.0)), 
+				IntStream.range(0, 10_000).mapToObj(i -> DoubleValue.of(1e-16)));
+		assertEquals(1.0 + 1e-12, (Double) reduce(SUM, values).get(), 1e-15);
+	}
+
+	@Test
+	public void integerSumIsExact()
+	{
+		DataSetMetadata structure = new DataStructureBuilder(INT_ME).build();
+		Lineage lineage = mock(Lineage.class);
+		Entry<Lineage, ScalarValue<?, ?, ?, ?>> result = Stream.<ScalarValue<?, ?, ?, ?>>of(IntegerValue.of(Long.MAX_VALUE - 10), IntegerValue.of(3L), 
+					NullValue.instance(INTEGERDS), IntegerValue.of(20L - Long.MAX_VALUE))
+				.map(v -> new DataPointBuilder().add(INT_ME, v).build(lineage, structure))
+				.collect(SUM.getReducer(INT_ME));
+		
+		assertEquals(IntegerValue.of(13L), result.getValue());
+		assertEquals(LineageGroup.of(singletonMap(lineage, 4L)), result.getKey());
+	}
+
+	@Test
+	public void parallelMoments()
+	{
+		double sum = 0;
+		for (double d: VALUES)
+			sum += d;
+		double mean = sum / SIZE;
+		double m2 = 0;
+		for (double d: VALUES)
+			m2 += (d - mean) * (d - mean);
+
+		assertEquals(mean, (Double) reduce(AVG, doubles()).get(), 1e-6);
+		assertEquals(m2 / SIZE, (Double) reduce(VAR_POP, doubles()).get(), 1e-3);
+		assertEquals(Math.sqrt(m2 / (SIZE - 1)), (Double) reduce(STDDEV_SAMP, doubles()).get(), 1e-6);
+	}
+
+	@Test
+	public void parallelMedian()
+	{
+		double sorted[] = VALUES.clone();
+		Arrays.sort(sorted);
+		int k = SIZE / 2;
+		double expected = (sorted[k] + sorted[k + 1]) / 2;
+		
+		assertEquals(expected, (Double) reduce(MEDIAN, doubles()).get());
+		assertTrue(reduce(MEDIAN, Stream.empty()) instanceof NullValue, "Median of no values is null");
+	}
+}